@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.common;
+
+/**
+ * Typed key of a shared attribute of a {@link net.librec.recommender.RecommenderContext}.
+ * <p>
+ * Attributes hold large in-memory data shared between the recommenders and the evaluators, such as
+ * one value per user, which would otherwise be formatted into and parsed from strings of the
+ * {@link net.librec.conf.Configuration}. Keys are compared by identity, so each key is declared once
+ * as a constant next to the code reading it.
+ *
+ * @param <T> type of the value of the attribute
+ */
+public final class ContextKey<T> {
+
+    /**
+     * name of the attribute, for messages only
+     */
+    private final String name;
+
+    /**
+     * type of the value of the attribute
+     */
+    private final Class<T> type;
+
+    /**
+     * Create a key of an attribute.
+     *
+     * @param name name of the attribute
+     * @param type type of the value of the attribute
+     */
+    public ContextKey(String name, Class<T> type) {
+        this.name = name;
+        this.type = type;
+    }
+
+    /**
+     * @return name of the attribute
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return type of the value of the attribute
+     */
+    public Class<T> getType() {
+        return type;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
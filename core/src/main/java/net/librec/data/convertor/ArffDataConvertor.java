@@ -22,13 +22,13 @@ import net.librec.data.model.ArffAttribute;
 import net.librec.data.model.ArffInstance;
 import net.librec.math.structure.DenseVector;
 import net.librec.math.structure.SparseMatrix;
+import net.librec.math.structure.SparseMatrixBuilder;
 import net.librec.math.structure.SparseTensor;
 
 import java.io.*;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
 /**
@@ -320,9 +320,6 @@ public class ArffDataConvertor extends AbstractDataConvertor {
      * and {@link #oneHotRatingVector}
      */
     public void oneHotEncoding() {
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-        Multimap<Integer, Integer> colMap = HashMultimap.create();
-
         int numRows = instances.size();
         int numCols = 0;
         int numAttrs = attributes.size();
@@ -340,6 +337,7 @@ public class ArffDataConvertor extends AbstractDataConvertor {
         }
 
         // build one-hot encoding matrix
+        SparseMatrixBuilder builder = new SparseMatrixBuilder(numRows, numCols);
         for (int row = 0; row < numRows; row++) {
             ArffInstance instance = instances.get(row);
             int colPrefix = 0;
@@ -360,33 +358,26 @@ public class ArffDataConvertor extends AbstractDataConvertor {
                     case "REAL":
                     case "INTEGER":
                         col = colPrefix;
-                        dataTable.put(row, col, (double) val);
-                        colMap.put(col, row);
+                        builder.add(row, col, (double) val);
                         colPrefix += 1;
                         break;
                     case "STRING":
                         col = colPrefix + columnIds.get(i).get(val);
-                        dataTable.put(row, col, 1d);
-                        colMap.put(col, row);
+                        builder.add(row, col, 1d);
                         colPrefix += columnIds.get(i).size();
                         break;
                     case "NOMINAL":
                         for (String v : (ArrayList<String>) val) {
                             col = colPrefix + columnIds.get(i).get(v);
-                            colMap.put(col, row);
-                            dataTable.put(row, col, 1d);
+                            builder.add(row, col, 1d);
                         }
                         colPrefix += columnIds.get(i).size();
                         break;
                 }
             }
         }
-        oneHotFeatureMatrix = new SparseMatrix(numRows, numCols, dataTable, colMap);
+        oneHotFeatureMatrix = builder.build();
         oneHotRatingVector = new DenseVector(ratings);
-
-        // release memory
-        dataTable = null;
-        colMap = null;
     }
 
     /**
@@ -399,20 +390,10 @@ public class ArffDataConvertor extends AbstractDataConvertor {
         int numRows = instances.size();
         int numAttrs = attributes.size();
 
-        List<Double> ratings = new ArrayList<Double>();
+        double[] ratings = new double[numRows];
 
         // n-dimensional keys
-        List<Integer>[] nDKeys = (List<Integer>[]) new List<?>[numAttrs];
-
-        for (int d = 0; d < numAttrs; d++) {
-            nDKeys[d] = new ArrayList<Integer>();
-        }
-
-        // each set stores a series of values of an attribute
-        ArrayList<HashSet<Integer>> setOfAttrs = new ArrayList<HashSet<Integer>>();
-        for (int i = 0; i < numAttrs - 1; i++) {
-            setOfAttrs.add(new HashSet<Integer>());
-        }
+        int[][] nDKeys = new int[numAttrs][numRows];
 
         featuresInnerMapping = new ArrayList<>();
         for (int i = 0; i < numAttrs - 1; i++) {
@@ -429,42 +410,38 @@ public class ArffDataConvertor extends AbstractDataConvertor {
                     String strUserId = String.valueOf((int) userId);
                     int userInnerId = featuresInnerMapping.get(i).containsKey(strUserId) ? featuresInnerMapping.get(i).get(strUserId) : featuresInnerMapping.get(i).size();
                     featuresInnerMapping.get(i).put(strUserId, userInnerId);
-                    nDKeys[i].add(userInnerId);
-                    setOfAttrs.get(i).add(userInnerId);
+                    nDKeys[i][row] = userInnerId;
                 } else if (i == itemCol) {
                     double itemId = (double) instance.getValueByIndex(itemCol);
                     String strItemId = String.valueOf((int) itemId);
                     int itemInnerId = featuresInnerMapping.get(i).containsKey(strItemId) ? featuresInnerMapping.get(i).get(strItemId) : featuresInnerMapping.get(i).size();
                     featuresInnerMapping.get(i).put(strItemId, itemInnerId);
-                    nDKeys[i].add(itemInnerId);
-                    setOfAttrs.get(i).add(itemInnerId);
+                    nDKeys[i][row] = itemInnerId;
                 } else if (i == ratingCol) {
                     double rating = (double) instance.getValueByIndex(ratingCol);
-                    ratings.add(rating);
+                    ratings[row] = rating;
                 } else {
                     String attrType = attrTypes.get(i);
                     if (attrType.equals("STRING")) {
                         String strAttr = (String) instance.getValueByIndex(i);
                         int featureInnerId = featuresInnerMapping.get(i).containsKey(strAttr) ? featuresInnerMapping.get(i).get(strAttr) : featuresInnerMapping.get(i).size();
                         featuresInnerMapping.get(i).put(strAttr, featureInnerId);
-                        nDKeys[i].add(featureInnerId);
-                        setOfAttrs.get(i).add(featureInnerId);
+                        nDKeys[i][row] = featureInnerId;
                     } else {
                         double val = (double) instance.getValueByIndex(i);
                         String strFeatureId = String.valueOf((int) val);
                         int featureInnerId = featuresInnerMapping.get(i).containsKey(strFeatureId) ? featuresInnerMapping.get(i).get(strFeatureId) : featuresInnerMapping.get(i).size();
                         featuresInnerMapping.get(i).put(strFeatureId, featureInnerId);
-                        nDKeys[i].add(featureInnerId);
-                        setOfAttrs.get(i).add(featureInnerId);
+                        nDKeys[i][row] = featureInnerId;
                     }
                 }
             }
         }
 
-        // set dimension of tensor
+        // set dimension of tensor, i.e. the number of distinct values of each attribute
         int[] dims = new int[numAttrs - 1];
         for (int i = 0; i < numAttrs - 1; i++) {
-            dims[i] = setOfAttrs.get(i).size();
+            dims[i] = featuresInnerMapping.get(i).size();
         }
 
         return new SparseTensor(dims, nDKeys, ratings);
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.data.convertor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A hash map from the raw bytes of an id to its inner id, looked up in place in
+ * a byte buffer so that no String is created for an id which is already known.
+ * The keys are copied into a single growable byte pool.
+ */
+class RawIdDictionary {
+
+    /**
+     * bytes of all keys, the key of entry e being [keyStarts[e], keyStarts[e + 1])
+     */
+    private byte[] keyPool;
+    private int[] keyStarts;
+
+    /**
+     * inner id of each entry
+     */
+    private int[] ids;
+
+    /**
+     * open addressing hash table of entry + 1, 0 if empty
+     */
+    private int[] slots;
+
+    /**
+     * the number of entries
+     */
+    private int size;
+
+    /**
+     * Create an empty dictionary.
+     */
+    RawIdDictionary() {
+        keyPool = new byte[1024];
+        keyStarts = new int[65];
+        ids = new int[64];
+        slots = new int[128];
+    }
+
+    /**
+     * @param buffer buffer holding the key
+     * @param from   start of the key in the buffer, inclusive
+     * @param to     end of the key in the buffer, exclusive
+     * @return inner id of the key, or -1 if the key is unknown
+     */
+    int get(ByteBuffer buffer, int from, int to) {
+        int mask = slots.length - 1;
+        for (int slot = hash(buffer, from, to) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int entry = slots[slot] - 1;
+            if (equals(entry, buffer, from, to)) {
+                return ids[entry];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Add an unknown key.
+     *
+     * @param buffer buffer holding the key
+     * @param from   start of the key in the buffer, inclusive
+     * @param to     end of the key in the buffer, exclusive
+     * @param id     inner id of the key
+     */
+    void put(ByteBuffer buffer, int from, int to, int id) {
+        int length = to - from;
+        int start = keyStarts[size];
+        if (start + length > keyPool.length) {
+            keyPool = Arrays.copyOf(keyPool, Math.max(keyPool.length * 2, start + length));
+        }
+        for (int i = 0; i < length; i++) {
+            keyPool[start + i] = buffer.get(from + i);
+        }
+        add(hash(buffer, from, to), start + length, id);
+    }
+
+    /**
+     * Add an unknown key.
+     *
+     * @param key bytes of the key
+     * @param id  inner id of the key
+     */
+    void put(byte[] key, int id) {
+        put(ByteBuffer.wrap(key), 0, key.length, id);
+    }
+
+    /**
+     * @return the number of keys
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return a buffer over the bytes of all keys, valid until the next key is added
+     */
+    ByteBuffer keys() {
+        return ByteBuffer.wrap(keyPool);
+    }
+
+    /**
+     * @param entry the entry, numbered from 0 in order of adding
+     * @return start of the key of the entry in {@link #keys()}, inclusive
+     */
+    int keyStart(int entry) {
+        return keyStarts[entry];
+    }
+
+    /**
+     * @param entry the entry, numbered from 0 in order of adding
+     * @return end of the key of the entry in {@link #keys()}, exclusive
+     */
+    int keyEnd(int entry) {
+        return keyStarts[entry + 1];
+    }
+
+    private void add(int hash, int end, int id) {
+        if (size + 1 == ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+            keyStarts = Arrays.copyOf(keyStarts, ids.length + 1);
+        }
+        ids[size] = id;
+        keyStarts[size + 1] = end;
+        insert(size, hash);
+        size++;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+    }
+
+    private void insert(int entry, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = entry + 1;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        ByteBuffer pool = ByteBuffer.wrap(keyPool);
+        for (int entry = 0; entry < size; entry++) {
+            insert(entry, hash(pool, keyStarts[entry], keyStarts[entry + 1]));
+        }
+    }
+
+    private boolean equals(int entry, ByteBuffer buffer, int from, int to) {
+        int start = keyStarts[entry];
+        if (keyStarts[entry + 1] - start != to - from) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (keyPool[start++] != buffer.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(ByteBuffer buffer, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -17,27 +17,43 @@
  */
 package net.librec.data.convertor;
 
-import com.google.common.collect.*;
-import net.librec.math.structure.SparseMatrix;
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import net.librec.math.structure.SparseMatrixBuilder;
 import net.librec.util.StringUtil;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
  * A <tt>TextDataConvertor</tt> is a class to convert a data file from CSV
  * format to a target format.
+ * <p>
+ * The data files are split into {@link TextFileChunk}s, which are memory-mapped
+ * and tokenized in place: ids are looked up by their bytes in a dictionary local
+ * to the chunk, numbers are parsed without creating Strings, and the (row,
+ * column, rate, timestamp) entries are appended to primitive arrays. With
+ * several threads the chunks, i.e. the files and the ranges of large files, are
+ * parsed concurrently. The local dictionaries are then merged in order of the
+ * chunks, so the inner ids are those of reading the files one line after
+ * another whatever the scheduling of the threads, and the entries are appended
+ * to {@link SparseMatrixBuilder}s, which build the rating matrix once.
  *
  * @author WangYuFeng and liuxz
  */
@@ -46,8 +62,18 @@ public class TextDataConvertor extends AbstractDataConvertor {
     /** Log */
     private static final Log LOG = LogFactory.getLog(TextDataConvertor.class);
 
-    /** The size of the buffer */
-    private static final int BSIZE = 1024 * 1024;
+    /** The size of a chunk of a data file parsed by one thread */
+    private static final int CHUNK_SIZE = 16 * 1024 * 1024;
+
+    /** The initial capacity of the entry arrays of a chunk */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The number of used columns of a line */
+    private static final int MAX_TOKENS = 4;
+
+    /** Powers of ten which are exactly represented as doubles */
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
 
     /** The default format of input data file */
     private static final String DATA_COLUMN_DEFAULT_FORMAT = "UIR";
@@ -66,19 +92,28 @@ public class TextDataConvertor extends AbstractDataConvertor {
     /** user/item {raw id, inner id} map */
     private BiMap<String, Integer> userIds, itemIds;
 
+    /** the charset of the raw ids */
+    private final Charset charset = Charset.defaultCharset();
+
+    /** whether the lines have rating and time columns */
+    private boolean hasRate, hasTime;
+
+    /** the number of threads parsing the chunks of the data files */
+    private int numThreads = 1;
+
     /**
      * time unit may depend on data sets, e.g. in MovieLens, it is unix seconds
      */
     private TimeUnit timeUnit = TimeUnit.SECONDS;
 
     /** already loaded files/total files in dataDirectory */
-    private float loadFilePathRate;
+    private volatile float loadFilePathRate;
 
     /** loaded data size /total data size in one data file */
-    private float loadDataFileRate;
+    private volatile float loadDataFileRate;
 
     /** loaded data size /total data size in all data file */
-    private float loadAllFileRate;
+    private volatile float loadAllFileRate;
 
     /**
      * Initializes a newly created {@code TextDataConvertor} object with the
@@ -152,8 +187,8 @@ public class TextDataConvertor extends AbstractDataConvertor {
     }
 
     /**
-     * Read data from the data file. Note that we didn't take care of the
-     * duplicated lines.
+     * Read data from the data file. Duplicated lines of a (user, item) pair are
+     * kept once, with the values of the last line.
      *
      * @param dataColumnFormat
      *            the format of input data file
@@ -167,14 +202,8 @@ public class TextDataConvertor extends AbstractDataConvertor {
      * @throws IOException
      *            if the <code>inputDataPath</code> is not valid.
      */
-    private void readData(String dataColumnFormat, String inputDataPath, double binThold) throws IOException {
+    private void readData(String dataColumnFormat, String inputDataPath, final double binThold) throws IOException {
         LOG.info(String.format("Dataset: %s", StringUtil.last(inputDataPath, 38)));
-        // Table {row-id, col-id, rate}
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-        // Table {row-id, col-id, timestamp}
-        Table<Integer, Integer, Long> timeTable = null;
-        // Map {col-id, multiple row-id}: used to fast build a rating matrix
-        Multimap<Integer, Integer> colMap = HashMultimap.create();
         // BiMap {raw id, inner id} userIds, itemIds
         if (this.userIds == null){
         	this.userIds = HashBiMap.create();
@@ -182,6 +211,16 @@ public class TextDataConvertor extends AbstractDataConvertor {
         if (this.itemIds == null){
         	this.itemIds = HashBiMap.create();	
         }
+        // {raw id bytes, inner id} maps, to look up the ids of the chunks
+        RawIdDictionary userDictionary = createDictionary(userIds);
+        RawIdDictionary itemDictionary = createDictionary(itemIds);
+        hasRate = dataColumnFormat.equals("UIR") || dataColumnFormat.equals("UIRT");
+        hasTime = StringUtils.equals(dataColumnFormat, "UIRT");
+        // builders of the rating and time matrices, keeping the last entry of a (row, column) pair
+        SparseMatrixBuilder rateBuilder = new SparseMatrixBuilder();
+        SparseMatrixBuilder timeBuilder = hasTime ? new SparseMatrixBuilder() : null;
+        boolean hasTimestamp = false;
+
         final List<File> files = new ArrayList<File>();
         final ArrayList<Long> fileSizeList = new ArrayList<Long>();
         SimpleFileVisitor<Path> finder = new SimpleFileVisitor<Path>() {
@@ -199,86 +238,355 @@ public class TextDataConvertor extends AbstractDataConvertor {
             allFileSize = allFileSize + everyFileSize.longValue();
         }
         LOG.info("All dataset files size " + Long.toString(allFileSize));
+        List<TextFileChunk> chunks = TextFileChunk.split(files, CHUNK_SIZE);
         int readingFileCount = 0;
         long loadAllFileByte = 0;
-        // loop every dataFile collecting from walkFileTree
-        for (File dataFile : files) {
-            LOG.info("Now loading dataset file " + dataFile.toString().substring(dataFile.toString().lastIndexOf(File.separator) + 1, dataFile.toString().lastIndexOf(".")));
-            readingFileCount += 1;
-            loadFilePathRate = readingFileCount / (float) files.size();
-            long readingOneFileByte = 0;
-            FileInputStream fis = new FileInputStream(dataFile);
-            FileChannel fileRead = fis.getChannel();
-            ByteBuffer buffer = ByteBuffer.allocate(BSIZE);
-            int len;
-            String bufferLine = new String();
-            byte[] bytes = new byte[BSIZE];
-            while ((len = fileRead.read(buffer)) != -1) {
-                readingOneFileByte += len;
-                loadDataFileRate = readingOneFileByte / (float) fileRead.size();
-                loadAllFileByte += len;
-                loadAllFileRate = loadAllFileByte / (float) allFileSize;
-                buffer.flip();
-                buffer.get(bytes, 0, len);
-                bufferLine = bufferLine.concat(new String(bytes, 0, len));
-                bufferLine = bufferLine.replaceAll("\r", "\n");
-                String[] bufferData = bufferLine.split("(\n)+");
-                boolean isComplete = bufferLine.endsWith("\n");
-                int loopLength = isComplete ? bufferData.length : bufferData.length - 1;
-                for (int i = 0; i < loopLength; i++) {
-                    String line = new String(bufferData[i]);
-                    String[] data = line.trim().split("[ \t,]+");
-                    String user = data[0];
-                    String item = data[1];
-                    Double rate = ((dataColumnFormat.equals("UIR") || dataColumnFormat.equals("UIRT")) && data.length >= 3) ? Double.valueOf(data[2]) : 1.0;
-
-                    // binarize the rating for item recommendation task
-                    if (binThold >= 0) {
-                        rate = rate > binThold ? 1.0 : 0.0;
+        long readingOneFileByte = 0;
+
+        // parse the chunks on the pool, or one after another on this thread
+        ForkJoinPool pool = numThreads > 1 && chunks.size() > 1 ? new ForkJoinPool(numThreads) : null;
+        try {
+            List<Future<ChunkParser>> parsers = new ArrayList<>();
+            if (pool != null) {
+                for (final TextFileChunk chunk : chunks) {
+                    parsers.add(pool.submit(new Callable<ChunkParser>() {
+                        @Override
+                        public ChunkParser call() throws IOException {
+                            return parse(chunk, binThold);
+                        }
+                    }));
+                }
+            }
+            // merge the chunks in order of the files and of the ranges
+            for (int c = 0; c < chunks.size(); c++) {
+                TextFileChunk chunk = chunks.get(c);
+                if (chunk.isFirst()) {
+                    File dataFile = chunk.getFile();
+                    LOG.info("Now loading dataset file " + dataFile.toString().substring(dataFile.toString().lastIndexOf(File.separator) + 1, dataFile.toString().lastIndexOf(".")));
+                    readingFileCount += 1;
+                    loadFilePathRate = readingFileCount / (float) files.size();
+                    readingOneFileByte = 0;
+                }
+                ChunkParser parser = pool != null ? get(parsers.set(c, null)) : parse(chunk, binThold);
+                int[] userInnerIds = merge(parser.userDictionary, userDictionary, userIds);
+                int[] itemInnerIds = merge(parser.itemDictionary, itemDictionary, itemIds);
+                for (int i = 0; i < parser.numEntries; i++) {
+                    int row = userInnerIds[parser.rows[i]];
+                    int col = itemInnerIds[parser.cols[i]];
+                    rateBuilder.add(row, col, parser.rates[i]);
+                    if (timeBuilder != null) {
+                        timeBuilder.add(row, col, parser.times[i]);
                     }
+                }
+                hasTimestamp |= parser.hasTimestamp;
 
-                    // inner id starting from 0
-                    int row = userIds.containsKey(user) ? userIds.get(user) : userIds.size();
-                    userIds.put(user, row);
+                readingOneFileByte += chunk.length();
+                loadDataFileRate = readingOneFileByte / (float) chunk.getFileSize();
+                loadAllFileByte += chunk.length();
+                loadAllFileRate = loadAllFileByte / (float) allFileSize;
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+        // build rating matrix
+        preferenceMatrix = rateBuilder.setDimension(numUsers(), numItems()).build(numThreads);
+        if (hasTimestamp) {
+            datetimeMatrix = timeBuilder.setDimension(numUsers(), numItems()).build(numThreads);
+        }
+    }
 
-                    int col = itemIds.containsKey(item) ? itemIds.get(item) : itemIds.size();
-                    itemIds.put(item, col);
+    /**
+     * Create the byte-level dictionary of the existing ids.
+     *
+     * @param ids {raw id, inner id} map
+     * @return a dictionary holding the ids
+     */
+    private RawIdDictionary createDictionary(BiMap<String, Integer> ids) {
+        RawIdDictionary dictionary = new RawIdDictionary();
+        for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+            dictionary.put(entry.getKey().getBytes(charset), entry.getValue());
+        }
+        return dictionary;
+    }
 
-                    dataTable.put(row, col, rate);
-                    colMap.put(col, row);
-                    // record rating's issuing time
-                    if (StringUtils.equals(dataColumnFormat, "UIRT") && data.length >= 4) {
-                        if (timeTable == null) {
-                            timeTable = HashBasedTable.create();
-                        }
-                        // convert to million-seconds
-                        long mms = 0L;
-                        try {
-                            mms = Long.parseLong(data[3]); // cannot format
-                            // 9.7323480e+008
-                        } catch (NumberFormatException e) {
-                            mms = (long) Double.parseDouble(data[3]);
-                        }
-                        long timestamp = timeUnit.toMillis(mms);
-                        timeTable.put(row, col, timestamp);
-                    }
+    /**
+     * Parse the lines of a chunk of a data file.
+     *
+     * @param chunk    chunk of a data file
+     * @param binThold the threshold to binarize a rating
+     * @return the parser holding the entries of the chunk
+     * @throws IOException if the chunk cannot be read or a line is not valid
+     */
+    private ChunkParser parse(TextFileChunk chunk, double binThold) throws IOException {
+        ChunkParser parser = new ChunkParser(binThold);
+        chunk.parse(parser);
+        return parser;
+    }
+
+    /**
+     * Wait for a chunk parsed on the pool.
+     *
+     * @param future the parsing of a chunk
+     * @return the parser holding the entries of the chunk
+     * @throws IOException if the chunk cannot be read or a line is not valid
+     */
+    private ChunkParser get(Future<ChunkParser> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Merge the ids of a chunk into the ids of the data files, adding the unknown
+     * ones in order of their first line in the chunk.
+     *
+     * @param local      {raw id bytes, local id} map of the chunk
+     * @param dictionary {raw id bytes, inner id} map of the data files
+     * @param ids        {raw id, inner id} map of the data files
+     * @return inner id of each local id
+     */
+    private int[] merge(RawIdDictionary local, RawIdDictionary dictionary, BiMap<String, Integer> ids) {
+        int[] innerIds = new int[local.size()];
+        ByteBuffer keys = local.keys();
+        for (int localId = 0; localId < innerIds.length; localId++) {
+            int from = local.keyStart(localId), to = local.keyEnd(localId);
+            int id = dictionary.get(keys, from, to);
+            if (id < 0) {
+                // inner id starting from 0
+                id = ids.size();
+                ids.put(decode(keys, from, to), id);
+                dictionary.put(keys, from, to, id);
+            }
+            innerIds[localId] = id;
+        }
+        return innerIds;
+    }
+
+    /**
+     * Parser of the lines of a chunk, holding their entries with local ids
+     * numbered in order of their first line in the chunk.
+     */
+    private class ChunkParser implements TextFileChunk.LineHandler {
+
+        /** the threshold to binarize a rating */
+        private final double binThold;
+
+        /** user/item {raw id bytes, local id} map */
+        private final RawIdDictionary userDictionary = new RawIdDictionary(), itemDictionary = new RawIdDictionary();
+
+        /** local row, local column, rate and timestamp of the entries, in file order */
+        private int[] rows = new int[INITIAL_CAPACITY], cols = new int[INITIAL_CAPACITY];
+        private double[] rates = new double[INITIAL_CAPACITY];
+        private long[] times = hasTime ? new long[INITIAL_CAPACITY] : null;
+
+        /** the number of entries */
+        private int numEntries;
+
+        /** whether any timestamp is parsed */
+        private boolean hasTimestamp;
+
+        /** start and end of the tokens of the current line */
+        private final int[] tokenStarts = new int[MAX_TOKENS], tokenEnds = new int[MAX_TOKENS];
+
+        ChunkParser(double binThold) {
+            this.binThold = binThold;
+        }
+
+        /**
+         * Parse a line of user, item, rate and timestamp columns separated by spaces,
+         * tabs or commas, and append its entry.
+         *
+         * @param buffer mapped chunk
+         * @param from   start of the line, inclusive
+         * @param to     end of the line, exclusive
+         * @throws IOException if the line is not valid
+         */
+        @Override
+        public void handle(ByteBuffer buffer, int from, int to) throws IOException {
+            int numTokens = 0;
+            int i = from;
+            while (numTokens < MAX_TOKENS) {
+                while (i < to && isSeparator(buffer.get(i))) {
+                    i++;
+                }
+                if (i == to) {
+                    break;
+                }
+                tokenStarts[numTokens] = i;
+                while (i < to && !isSeparator(buffer.get(i))) {
+                    i++;
                 }
-                if (!isComplete) {
-                    bufferLine = bufferData[bufferData.length - 1];
+                tokenEnds[numTokens++] = i;
+            }
+            if (numTokens == 0) {
+                return;
+            }
+            if (numTokens < 2) {
+                throw new IOException("Invalid data line: " + decode(buffer, from, to));
+            }
+
+            int row = localId(userDictionary, buffer, tokenStarts[0], tokenEnds[0]);
+            int col = localId(itemDictionary, buffer, tokenStarts[1], tokenEnds[1]);
+            double rate = hasRate && numTokens >= 3 ? parseDouble(buffer, tokenStarts[2], tokenEnds[2]) : 1.0;
+
+            // binarize the rating for item recommendation task
+            if (binThold >= 0) {
+                rate = rate > binThold ? 1.0 : 0.0;
+            }
+
+            if (numEntries == rows.length) {
+                int capacity = rows.length + (rows.length >> 1);
+                rows = Arrays.copyOf(rows, capacity);
+                cols = Arrays.copyOf(cols, capacity);
+                rates = Arrays.copyOf(rates, capacity);
+                if (times != null) {
+                    times = Arrays.copyOf(times, capacity);
                 }
-                buffer.clear();
             }
-            fileRead.close();
-            fis.close();
+            rows[numEntries] = row;
+            cols[numEntries] = col;
+            rates[numEntries] = rate;
+            // record rating's issuing time
+            if (hasTime && numTokens >= 4) {
+                // convert to million-seconds
+                long mms = parseLong(buffer, tokenStarts[3], tokenEnds[3]);
+                times[numEntries] = timeUnit.toMillis(mms);
+                hasTimestamp = true;
+            }
+            numEntries++;
+        }
+
+        /**
+         * Return the local id of a raw id, adding it if unknown.
+         *
+         * @param dictionary {raw id bytes, local id} map
+         * @param buffer     mapped chunk
+         * @param from       start of the raw id, inclusive
+         * @param to         end of the raw id, exclusive
+         * @return local id
+         */
+        private int localId(RawIdDictionary dictionary, ByteBuffer buffer, int from, int to) {
+            int id = dictionary.get(buffer, from, to);
+            if (id < 0) {
+                id = dictionary.size();
+                dictionary.put(buffer, from, to, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Parse a decimal number in place. Numbers with at most 15 significant digits
+     * and 22 fraction digits are computed exactly as {@link Double#parseDouble(String)}
+     * by one division; other forms fall back to it.
+     *
+     * @param buffer mapped window
+     * @param from   start of the number, inclusive
+     * @param to     end of the number, exclusive
+     * @return the parsed number
+     */
+    private double parseDouble(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        boolean negative = buffer.get(i) == '-';
+        if (negative || buffer.get(i) == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int numDigits = 0, scale = 0;
+        boolean hasDigit = false, hasPoint = false;
+        for (; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                hasDigit = true;
+                if (hasPoint) {
+                    scale++;
+                }
+                if (mantissa == 0 && b == '0') {
+                    continue;
+                }
+                if (++numDigits > 15) {
+                    return Double.parseDouble(decode(buffer, from, to));
+                }
+                mantissa = mantissa * 10 + (b - '0');
+            } else if (b == '.' && !hasPoint) {
+                hasPoint = true;
+            } else {
+                return Double.parseDouble(decode(buffer, from, to));
+            }
+        }
+        if (!hasDigit || scale >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(decode(buffer, from, to));
+        }
+        double value = mantissa / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse an integer in place, falling back to parsing a decimal number such as
+     * 9.7323480e+008 and truncating it.
+     *
+     * @param buffer mapped window
+     * @param from   start of the number, inclusive
+     * @param to     end of the number, exclusive
+     * @return the parsed number
+     */
+    private long parseLong(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        boolean negative = buffer.get(i) == '-';
+        if (negative || buffer.get(i) == '+') {
+            i++;
+        }
+        long value = 0;
+        boolean isValid = i < to && to - i <= 18;
+        for (; isValid && i < to; i++) {
+            byte b = buffer.get(i);
+            isValid = b >= '0' && b <= '9';
+            value = value * 10 + (b - '0');
+        }
+        if (isValid) {
+            return negative ? -value : value;
+        }
+        String data = decode(buffer, from, to);
+        try {
+            return Long.parseLong(data);
+        } catch (NumberFormatException e) {
+            return (long) Double.parseDouble(data);
         }
-        int numRows = numUsers(), numCols = numItems();
-        // build rating matrix
-        preferenceMatrix = new SparseMatrix(numRows, numCols, dataTable, colMap);
-        if (timeTable != null)
-            datetimeMatrix = new SparseMatrix(numRows, numCols, timeTable, colMap);
-        // release memory of data table
-        dataTable = null;
-        timeTable = null;
+    }
+
+    /**
+     * @param buffer mapped window
+     * @param from   start of the bytes, inclusive
+     * @param to     end of the bytes, exclusive
+     * @return the bytes decoded as a String
+     */
+    private String decode(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(from + i);
+        }
+        return new String(bytes, charset);
+    }
+
+    /**
+     * @param b a byte of a line
+     * @return whether the byte separates two columns; other control characters are trimmed as well
+     */
+    private static boolean isSeparator(byte b) {
+        return b == ',' || (b >= 0 && b <= ' ');
     }
 
     /**
@@ -385,4 +693,13 @@ public class TextDataConvertor extends AbstractDataConvertor {
         this.timeUnit = timeUnit;
     }
 
+    /**
+     * Set the number of threads parsing the data files, one by default.
+     *
+     * @param numThreads  the number of threads, all available processors if not positive
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+    }
+
 }
@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.data.convertor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A byte range of a text data file whose lines can be parsed independently of
+ * the other ranges, so that the files and the ranges of a large file can be
+ * parsed concurrently.
+ * <p>
+ * A chunk holds the lines which start within its range; the line crossing its
+ * end is parsed by this chunk and skipped by the next one. Lines are ended by
+ * '\n' or '\r', empty lines are skipped and, as in the sequential readers, a
+ * last line without line ending is not parsed.
+ */
+public class TextFileChunk {
+
+    /**
+     * Handler of the lines of a chunk.
+     */
+    public interface LineHandler {
+        /**
+         * Handle a line, which is not empty.
+         *
+         * @param buffer mapped bytes of the chunk
+         * @param from   start of the line, inclusive
+         * @param to     end of the line, exclusive
+         * @throws IOException if the line is not valid
+         */
+        void handle(ByteBuffer buffer, int from, int to) throws IOException;
+    }
+
+    /**
+     * the longest supported line, which may cross the end of a chunk
+     */
+    private static final int MAX_LINE_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * the data file
+     */
+    private final File file;
+
+    /**
+     * the range of the starts of the lines, and the size of the file
+     */
+    private final long start, end, fileSize;
+
+    private TextFileChunk(File file, long start, long end, long fileSize) {
+        this.file = file;
+        this.start = start;
+        this.end = end;
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * Split the files into chunks, in order of the files and of the ranges.
+     *
+     * @param files     data files
+     * @param chunkSize the number of bytes of a chunk, except the last one of each file
+     * @return chunks of the files
+     */
+    public static List<TextFileChunk> split(List<File> files, long chunkSize) {
+        List<TextFileChunk> chunks = new ArrayList<>();
+        for (File file : files) {
+            long fileSize = file.length();
+            for (long start = 0; start < fileSize; start += chunkSize) {
+                chunks.add(new TextFileChunk(file, start, Math.min(fileSize, start + chunkSize), fileSize));
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * @return the data file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return whether the chunk starts its file
+     */
+    public boolean isFirst() {
+        return start == 0;
+    }
+
+    /**
+     * @return whether the chunk ends its file
+     */
+    public boolean isLast() {
+        return end == fileSize;
+    }
+
+    /**
+     * @return the number of bytes of the range of the chunk
+     */
+    public long length() {
+        return end - start;
+    }
+
+    /**
+     * @return the size of the file
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Parse the lines of the chunk.
+     *
+     * @param handler handler of the lines
+     * @throws IOException if the file cannot be read or a line is not valid
+     */
+    public void parse(LineHandler handler) throws IOException {
+        // map one byte before the chunk, to find whether a line starts at its start
+        long from = start == 0 ? 0 : start - 1;
+        long to = Math.min(fileSize, end + MAX_LINE_LENGTH);
+        try (FileInputStream fis = new FileInputStream(file); FileChannel channel = fis.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+            int length = (int) (to - from);
+            int limit = (int) (end - from);
+            int lineStart = 0;
+            if (start > 0) {
+                // skip the line started in the previous chunk
+                while (lineStart < length && !isLineEnd(buffer.get(lineStart))) {
+                    lineStart++;
+                }
+                lineStart++;
+            }
+            for (int i = lineStart; lineStart < limit; i++) {
+                if (i == length) {
+                    if (to == fileSize) {
+                        // a last line without line ending is not parsed
+                        return;
+                    }
+                    throw new IOException("A line of " + file + " is longer than " + MAX_LINE_LENGTH + " bytes");
+                }
+                if (isLineEnd(buffer.get(i))) {
+                    if (i > lineStart) {
+                        handler.handle(buffer, lineStart, i);
+                    }
+                    lineStart = i + 1;
+                }
+            }
+        }
+    }
+
+    private static boolean isLineEnd(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    @Override
+    public String toString() {
+        return file + "[" + start + ", " + end + ")";
+    }
+}
@@ -21,18 +21,22 @@ import com.google.common.collect.*;
 import net.librec.conf.Configuration;
 import net.librec.conf.Configured;
 import net.librec.data.DataFeature;
+import net.librec.data.convertor.TextFileChunk;
 import net.librec.math.structure.SparseMatrix;
+import net.librec.math.structure.SparseMatrixBuilder;
 import org.apache.commons.lang.StringUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * A <tt>SocialDataFeature</tt> is a class to process and store social feature
@@ -42,8 +46,8 @@ import java.util.List;
  */
 public class SocialDataFeature extends Configured implements DataFeature {
 
-    /** The size of the buffer */
-    private static final int BSIZE = 1024 * 1024;
+    /** The size of a chunk of a data file parsed by one thread */
+    private static final int CHUNK_SIZE = 16 * 1024 * 1024;
 
     /** a {@code SparseMatrix} object build by the social data */
     private SparseMatrix userSocialMatrix;
@@ -88,18 +92,18 @@ public class SocialDataFeature extends Configured implements DataFeature {
     }
 
     /**
-     * Read data from the data file. Note that we didn't take care of the
-     * duplicated lines.
+     * Read data from the data files, whose chunks are parsed by the threads of
+     * {@code data.convert.read.threads}. Duplicated lines of a (user, user) pair
+     * are kept once, with the rate of the last line.
      *
      * @param inputDataPath
      *            the path of the data file
      * @throws IOException if I/O error occurs during reading
      */
     private void readData(String inputDataPath) throws IOException {
-        // Table {row-id, col-id, rate}
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-        // Map {col-id, multiple row-id}: used to fast build a rating matrix
-        Multimap<Integer, Integer> colMap = HashMultimap.create();
+        // (row-id, col-id, rate) entries, of which the last one of a pair is kept
+        int numRows = userIds.size(), numCols = userIds.size();
+        SparseMatrixBuilder builder = new SparseMatrixBuilder(numRows, numCols);
         // BiMap {raw id, inner id} userIds, itemIds
         final List<File> files = new ArrayList<File>();
         final ArrayList<Long> fileSizeList = new ArrayList<Long>();
@@ -116,47 +120,74 @@ public class SocialDataFeature extends Configured implements DataFeature {
         for (Long everyFileSize : fileSizeList) {
             allFileSize = allFileSize + everyFileSize.longValue();
         }
-        // loop every dataFile collecting from walkFileTree
-        for (File dataFile : files) {
-            FileInputStream fis = new FileInputStream(dataFile);
-            FileChannel fileRead = fis.getChannel();
-            ByteBuffer buffer = ByteBuffer.allocate(BSIZE);
-            int len;
-            String bufferLine = new String();
-            byte[] bytes = new byte[BSIZE];
-            while ((len = fileRead.read(buffer)) != -1) {
-                buffer.flip();
-                buffer.get(bytes, 0, len);
-                bufferLine = bufferLine.concat(new String(bytes, 0, len)).replaceAll("\r", "\n");
-                String[] bufferData = bufferLine.split("(\n)+");
-                boolean isComplete = bufferLine.endsWith("\n");
-                int loopLength = isComplete ? bufferData.length : bufferData.length - 1;
-                for (int i = 0; i < loopLength; i++) {
-                    String line = new String(bufferData[i]);
-                    String[] data = line.trim().split("[ \t,]+");
-                    String userA = data[0];
-                    String userB = data[1];
-                    Double rate = (data.length >= 3) ? Double.valueOf(data[2]) : 1.0;
-                    if (userIds.containsKey(userA) && userIds.containsKey(userB)) {
-                        int row = userIds.get(userA);
-                        int col = userIds.get(userB);
-                        dataTable.put(row, col, rate);
-                        colMap.put(col, row);
-                    }
+        // the entries of each chunk are appended by its own appender, in order of the chunks
+        List<ChunkTask> tasks = new ArrayList<>();
+        for (TextFileChunk chunk : TextFileChunk.split(files, CHUNK_SIZE)) {
+            tasks.add(new ChunkTask(chunk, builder.newAppender()));
+        }
+        int numThreads = conf.getInt("data.convert.read.threads", 1);
+        numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+        if (numThreads == 1 || tasks.size() <= 1) {
+            for (ChunkTask task : tasks) {
+                task.call();
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(numThreads);
+            try {
+                for (Future<Void> future : pool.invokeAll(tasks)) {
+                    future.get();
                 }
-                if (!isComplete) {
-                    bufferLine = bufferData[bufferData.length - 1];
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
                 }
-                buffer.clear();
+                throw new IOException(e.getCause());
+            } finally {
+                pool.shutdown();
             }
-            fileRead.close();
-            fis.close();
         }
-        int numRows = userIds.size(), numCols = userIds.size();
         // build rating matrix
-        userSocialMatrix = new SparseMatrix(numRows, numCols, dataTable, colMap);
-        // release memory of data table
-        dataTable = null;
+        userSocialMatrix = builder.build(numThreads);
+    }
+
+    /**
+     * Task parsing the lines of a chunk of a data file.
+     */
+    private class ChunkTask implements Callable<Void>, TextFileChunk.LineHandler {
+        private final TextFileChunk chunk;
+        private final SparseMatrixBuilder.Appender appender;
+
+        ChunkTask(TextFileChunk chunk, SparseMatrixBuilder.Appender appender) {
+            this.chunk = chunk;
+            this.appender = appender;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            chunk.parse(this);
+            return null;
+        }
+
+        @Override
+        public void handle(ByteBuffer buffer, int from, int to) {
+            byte[] bytes = new byte[to - from];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(from + i);
+            }
+            String line = new String(bytes);
+            String[] data = line.trim().split("[ \t,]+");
+            String userA = data[0];
+            String userB = data[1];
+            Double rate = (data.length >= 3) ? Double.valueOf(data[2]) : 1.0;
+            if (userIds.containsKey(userA) && userIds.containsKey(userB)) {
+                int row = userIds.get(userA);
+                int col = userIds.get(userB);
+                appender.add(row, col, rate);
+            }
+        }
     }
 
     /**
@@ -25,14 +25,12 @@ import net.librec.data.DataModel;
 import net.librec.data.DataSplitter;
 import net.librec.data.convertor.ArffDataConvertor;
 import net.librec.math.structure.DataSet;
-import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.math.structure.SparseTensor;
 import net.librec.util.DriverClassUtil;
 import net.librec.util.ReflectionUtil;
 
 import java.io.IOException;
-import java.util.List;
 
 /**
  * A <tt>ArffDataModel</tt> represents a data access class
@@ -96,29 +94,40 @@ public class ArffDataModel extends AbstractDataModel implements DataModel {
             SparseTensor totalTensor = dataConvertor.getSparseTensor();
             // SparseMatrix trainMatrix = dataSplitter.getTrainData();
             SparseMatrix testMatrix = dataSplitter.getTestData();
-            // construct train/test tensor from test sparse matrix
-            SparseTensor trainTensor = totalTensor.clone();
-            int[] dimensions = trainTensor.dimensions();
-            SparseTensor testTensor = new SparseTensor(dimensions);
-            testTensor.setUserDimension(trainTensor.getUserDimension());
-            testTensor.setItemDimension(trainTensor.getItemDimension());
-
-            for (MatrixEntry me : testMatrix) {
-                int u = me.row();
-                int i = me.column();
-
-                List<Integer> indices = totalTensor.getIndices(u, i);
+            // construct train/test tensor from test sparse matrix: an entry is tested if its (user, item) pair is
+            int userDimension = totalTensor.getUserDimension(), itemDimension = totalTensor.getItemDimension();
+            int numDimensions = totalTensor.numDimensions(), size = totalTensor.size(), testSize = 0;
+            boolean[] isTest = new boolean[size];
+            for (int index = 0; index < size; index++) {
+                isTest[index] = testMatrix.contains(totalTensor.key(userDimension, index),
+                        totalTensor.key(itemDimension, index));
+                if (isTest[index]) {
+                    testSize++;
+                }
+            }
 
-                for (int index : indices) {
-                    int[] keys = totalTensor.keys(index);
-                    try {
-                        testTensor.set(totalTensor.value(index), keys);
-                        trainTensor.remove(keys);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
+            int[][] trainKeys = new int[numDimensions][size - testSize], testKeys = new int[numDimensions][testSize];
+            double[] trainValues = new double[size - testSize], testValues = new double[testSize];
+            for (int index = 0, trainIndex = 0, testIndex = 0; index < size; index++) {
+                int[][] keys = isTest[index] ? testKeys : trainKeys;
+                int target = isTest[index] ? testIndex++ : trainIndex++;
+                for (int d = 0; d < numDimensions; d++) {
+                    keys[d][target] = totalTensor.key(d, index);
+                }
+                if (isTest[index]) {
+                    testValues[target] = totalTensor.value(index);
+                } else {
+                    trainValues[target] = totalTensor.value(index);
                 }
             }
+
+            int[] dimensions = totalTensor.dimensions();
+            SparseTensor trainTensor = new SparseTensor(dimensions, trainKeys, trainValues);
+            SparseTensor testTensor = new SparseTensor(dimensions, testKeys, testValues);
+            trainTensor.setUserDimension(userDimension);
+            trainTensor.setItemDimension(itemDimension);
+            testTensor.setUserDimension(userDimension);
+            testTensor.setItemDimension(itemDimension);
             trainDataSet = trainTensor;
             testDataSet = testTensor;
         }
@@ -63,7 +63,10 @@ public class TextDataModel extends AbstractDataModel implements DataModel {
     public void buildConvert() throws LibrecException {
         String inputDataPath = conf.get(Configured.CONF_DFS_DATA_DIR) + "/" + conf.get(Configured.CONF_DATA_INPUT_PATH);
         String dataColumnFormat = conf.get(Configured.CONF_DATA_COLUMN_FORMAT, "UIR");
-        dataConvertor = new TextDataConvertor(dataColumnFormat, inputDataPath, conf.getDouble("data.convert.binarize.threshold", -1.0));
+        TextDataConvertor textDataConvertor = new TextDataConvertor(dataColumnFormat, inputDataPath,
+                conf.getDouble("data.convert.binarize.threshold", -1.0));
+        textDataConvertor.setNumThreads(conf.getInt("data.convert.read.threads", 1));
+        dataConvertor = textDataConvertor;
         try {
             dataConvertor.processData();
         } catch (IOException e) {
@@ -121,8 +121,9 @@ public class GivenNDataSplitter extends AbstractDataSplitter {
             trainMatrix = new SparseMatrix(preferenceMatrix);
             testMatrix = new SparseMatrix(preferenceMatrix);
 
+            SparseMatrix.RowView items = new SparseMatrix.RowView();
             for (int u = 0, um = preferenceMatrix.numRows(); u < um; u++) {
-                List<Integer> items = preferenceMatrix.getColumns(u);
+                preferenceMatrix.rowView(u, items);
                 int numRated = items.size();
 
                 if (numRated > numGiven) {
@@ -130,15 +131,17 @@ public class GivenNDataSplitter extends AbstractDataSplitter {
 
                     for (int i = 0, j = 0; j < numRated; j++) {
                         if (i < givenIndex.length && givenIndex[i] == j) {
-                            testMatrix.set(u, items.get(j), 0.0);
+                            testMatrix.set(u, items.indexAt(j), 0.0);
                             i++;
                         } else {
-                            trainMatrix.set(u, items.get(j), 0.0);
+                            trainMatrix.set(u, items.indexAt(j), 0.0);
                         }
                     }
                 } else {
-                    for (int j : items)
+                    for (int position = 0; position < items.size(); position++) {
+                        int j = items.indexAt(position);
                         testMatrix.set(u, j, 0.0);
+                    }
                 }
             }
             SparseMatrix.reshape(trainMatrix);
@@ -159,11 +162,14 @@ public class GivenNDataSplitter extends AbstractDataSplitter {
             trainMatrix = new SparseMatrix(preferenceMatrix);
             testMatrix = new SparseMatrix(preferenceMatrix);
 
+            SparseMatrix.RowView items = new SparseMatrix.RowView();
             for (int u = 0, um = preferenceMatrix.numRows(); u < um; u++) {
-                List<Integer> items = preferenceMatrix.getColumns(u);
+                preferenceMatrix.rowView(u, items);
                 List<RatingContext> rcs = new ArrayList<>(Lists.initSize(items.size()));
-                for (int j : items)
+                for (int position = 0; position < items.size(); position++) {
+                    int j = items.indexAt(position);
                     rcs.add(new RatingContext(u, j, (long) datetimeMatrix.get(u, j)));
+                }
                 Collections.sort(rcs);
 
                 for (int i = 0; i < rcs.size(); i++) {
@@ -195,23 +201,26 @@ public class GivenNDataSplitter extends AbstractDataSplitter {
             trainMatrix = new SparseMatrix(preferenceMatrix);
             testMatrix = new SparseMatrix(preferenceMatrix);
 
+            SparseMatrix.ColumnView users = new SparseMatrix.ColumnView();
             for (int j = 0, jm = preferenceMatrix.numColumns(); j < jm; j++) {
-                List<Integer> users = preferenceMatrix.getRows(j);
+                preferenceMatrix.columnView(j, users);
                 int numRated = users.size();
                 if (numRated > numGiven) {
 
                     int[] givenIndex = Randoms.nextIntArray(numGiven, numRated);
                     for (int i = 0, k = 0; k < numRated; k++) {
                         if (i < givenIndex.length && givenIndex[i] == k) {
-                            testMatrix.set(users.get(k), j, 0.0);
+                            testMatrix.set(users.indexAt(k), j, 0.0);
                             i++;
                         } else {
-                            trainMatrix.set(users.get(k), j, 0.0);
+                            trainMatrix.set(users.indexAt(k), j, 0.0);
                         }
                     }
                 } else {
-                    for (int u : users)
+                    for (int position = 0; position < users.size(); position++) {
+                        int u = users.indexAt(position);
                         testMatrix.set(u, j, 0.0);
+                    }
                 }
             }
             SparseMatrix.reshape(trainMatrix);
@@ -231,12 +240,15 @@ public class GivenNDataSplitter extends AbstractDataSplitter {
             trainMatrix = new SparseMatrix(preferenceMatrix);
             testMatrix = new SparseMatrix(preferenceMatrix);
 
+            SparseMatrix.ColumnView users = new SparseMatrix.ColumnView();
             for (int j = 0, jm = preferenceMatrix.numRows(); j < jm; j++) {
-                List<Integer> users = preferenceMatrix.getRows(j);
+                preferenceMatrix.columnView(j, users);
                 List<RatingContext> rcs = new ArrayList<>(Lists.initSize(users.size()));
 
-                for (int u : users)
+                for (int position = 0; position < users.size(); position++) {
+                    int u = users.indexAt(position);
                     rcs.add(new RatingContext(u, j, (long) datetimeMatrix.get(u, j)));
+                }
 
                 Collections.sort(rcs);
                 for (int i = 0; i < rcs.size(); i++) {
@@ -23,8 +23,6 @@ import net.librec.conf.Configured;
 import net.librec.data.DataConvertor;
 import net.librec.data.convertor.TextDataConvertor;
 import net.librec.math.structure.SparseMatrix;
-import net.librec.math.structure.SparseVector;
-import net.librec.math.structure.VectorEntry;
 
 import java.io.IOException;
 
@@ -72,11 +70,13 @@ public class GivenTestSetDataSplitter extends AbstractDataSplitter {
 		String dataFormat = conf.get("data.model.format");
 		switch (dataFormat.toLowerCase()) {
 			case "text":
-				testConvertor= new TextDataConvertor(conf.get(Configured.CONF_DATA_COLUMN_FORMAT, "UIR"),
+				TextDataConvertor textConvertor = new TextDataConvertor(conf.get(Configured.CONF_DATA_COLUMN_FORMAT, "UIR"),
 						conf.get(Configured.CONF_DFS_DATA_DIR) + "/" + conf.get("data.testset.path"),
 						conf.getDouble("data.convert.binarize.threshold", -1.0),
 						((TextDataConvertor)dataConvertor).getUserIds(),
 						((TextDataConvertor)dataConvertor).getItemIds());
+				textConvertor.setNumThreads(conf.getInt("data.convert.read.threads", 1));
+				testConvertor = textConvertor;
 				break;
 //			case "arff":
 //				testConvertor = new ArffDataConvertor(
@@ -88,13 +88,15 @@ public class GivenTestSetDataSplitter extends AbstractDataSplitter {
 		} catch (IOException e) {
 			throw new LibrecException(e);
 		}
+        SparseMatrix.RowView uv = new SparseMatrix.RowView();
         for (int u = 0, um = preferenceMatrix.numRows(); u < um; u++) {
-            SparseVector uv = preferenceMatrix.row(u);
-            for (VectorEntry j : uv) {
-                if (testConvertor.getPreferenceMatrix().get(u, j.index()) == 0 ) {
-                    testMatrix.set(u, j.index(), 0.0);
+            preferenceMatrix.rowView(u, uv);
+            for (int position = 0; position < uv.size(); position++) {
+                int j = uv.indexAt(position);
+                if (testConvertor.getPreferenceMatrix().get(u, j) == 0 ) {
+                    testMatrix.set(u, j, 0.0);
                 } else {
-                    trainMatrix.set(u, j.index(), 0.0);
+                    trainMatrix.set(u, j, 0.0);
                 }
             }
         }
@@ -22,7 +22,6 @@ import net.librec.conf.Configuration;
 import net.librec.data.DataConvertor;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.SparseMatrix;
-import net.librec.math.structure.SparseVector;
 import net.librec.util.Lists;
 
 import java.util.*;
@@ -79,9 +78,11 @@ public class KCVDataSplitter extends AbstractDataSplitter {
             trainMatrix = new SparseMatrix(preferenceMatrix);
             testMatrix = new SparseMatrix(preferenceMatrix);
 
+            SparseMatrix.RowView items = new SparseMatrix.RowView();
             for (int u = 0, um = preferenceMatrix.numRows(); u < um; u++) {
-                SparseVector items = preferenceMatrix.row(u);
-                for (int j : items.getIndex()) {
+                preferenceMatrix.rowView(u, items);
+                for (int position = 0; position < items.size(); position++) {
+                    int j = items.indexAt(position);
                     if (assignMatrix.get(u, j) == k)
                         trainMatrix.set(u, j, 0.0);
                     else
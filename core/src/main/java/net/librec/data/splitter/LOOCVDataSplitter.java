@@ -17,15 +17,12 @@
  */
 package net.librec.data.splitter;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.data.DataConvertor;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.SparseMatrix;
+import net.librec.math.structure.SparseMatrixBuilder;
 import net.librec.util.RatingContext;
 
 import java.util.ArrayList;
@@ -120,24 +117,23 @@ public class LOOCVDataSplitter extends AbstractDataSplitter {
      */
     public void getLOOByUser() {
         trainMatrix = new SparseMatrix(preferenceMatrix);
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-        Multimap<Integer, Integer> colMap = HashMultimap.create();
+        SparseMatrixBuilder builder = new SparseMatrixBuilder(preferenceMatrix.numRows(), preferenceMatrix.numColumns());
 
+        SparseMatrix.RowView items = new SparseMatrix.RowView();
         for (int u = 0, um = preferenceMatrix.numRows(); u < um; u++) {
-            List<Integer> items = preferenceMatrix.getColumns(u);
+            preferenceMatrix.rowView(u, items);
 
             int randId = (int) (items.size() * Randoms.uniform());
-            int i = items.get(randId);
+            int i = items.indexAt(randId);
             this.preferenceMatrix = dataConvertor.getPreferenceMatrix();
 
             trainMatrix.set(u, i, 0);
 
-            dataTable.put(u, i, preferenceMatrix.get(u, i));
-            colMap.put(i, u);
+            builder.add(u, i, preferenceMatrix.get(u, i));
         }
 
         SparseMatrix.reshape(trainMatrix);
-        testMatrix = new SparseMatrix(preferenceMatrix.numRows(), preferenceMatrix.numColumns(), dataTable, colMap);
+        testMatrix = builder.build();
     }
 
     /**
@@ -146,25 +142,25 @@ public class LOOCVDataSplitter extends AbstractDataSplitter {
      */
     public void getLOOByUserDate() {
         trainMatrix = new SparseMatrix(preferenceMatrix);
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-        Multimap<Integer, Integer> colMap = HashMultimap.create();
+        SparseMatrixBuilder builder = new SparseMatrixBuilder(preferenceMatrix.numRows(), preferenceMatrix.numColumns());
 
+        SparseMatrix.RowView items = new SparseMatrix.RowView();
         for (int u = 0, um = preferenceMatrix.numRows(); u < um; u++) {
-            List<Integer> items = preferenceMatrix.getColumns(u);
+            preferenceMatrix.rowView(u, items);
             int i = -1;
 
             List<RatingContext> rcs = new ArrayList<>();
-            for (int j : items) {
+            for (int position = 0; position < items.size(); position++) {
+                int j = items.indexAt(position);
                 rcs.add(new RatingContext(u, j, (long) datetimeMatrix.get(u, j)));
             }
             Collections.sort(rcs);
             i = rcs.get(rcs.size() - 1).getItem();
             trainMatrix.set(u, i, 0);
-            dataTable.put(u, i, preferenceMatrix.get(u, i));
-            colMap.put(i, u);
+            builder.add(u, i, preferenceMatrix.get(u, i));
         }
         SparseMatrix.reshape(trainMatrix);
-        testMatrix = new SparseMatrix(preferenceMatrix.numRows(), preferenceMatrix.numColumns(), dataTable, colMap);
+        testMatrix = builder.build();
     }
 
     /**
@@ -174,22 +170,21 @@ public class LOOCVDataSplitter extends AbstractDataSplitter {
     public void getLOOByItems() {
         trainMatrix = new SparseMatrix(preferenceMatrix);
 
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-        Multimap<Integer, Integer> colMap = HashMultimap.create();
+        SparseMatrixBuilder builder = new SparseMatrixBuilder(preferenceMatrix.numRows(), preferenceMatrix.numColumns());
 
+        SparseMatrix.ColumnView users = new SparseMatrix.ColumnView();
         for (int i = 0, im = preferenceMatrix.numColumns(); i < im; i++) {
-            List<Integer> users = preferenceMatrix.getRows(i);
+            preferenceMatrix.columnView(i, users);
 
             int randId = (int) (users.size() * Randoms.uniform());
-            int u = users.get(randId);
+            int u = users.indexAt(randId);
 
             trainMatrix.set(u, i, 0);
-            dataTable.put(u, i, preferenceMatrix.get(u, i));
-            colMap.put(i, u);
+            builder.add(u, i, preferenceMatrix.get(u, i));
         }
 
         SparseMatrix.reshape(trainMatrix);
-        testMatrix = new SparseMatrix(preferenceMatrix.numRows(), preferenceMatrix.numColumns(), dataTable, colMap);
+        testMatrix = builder.build();
     }
 
     /**
@@ -199,27 +194,27 @@ public class LOOCVDataSplitter extends AbstractDataSplitter {
     public void getLooByItemsDate() {
         trainMatrix = new SparseMatrix(preferenceMatrix);
 
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-        Multimap<Integer, Integer> colMap = HashMultimap.create();
+        SparseMatrixBuilder builder = new SparseMatrixBuilder(preferenceMatrix.numRows(), preferenceMatrix.numColumns());
 
+        SparseMatrix.ColumnView users = new SparseMatrix.ColumnView();
         for (int i = 0, im = preferenceMatrix.numColumns(); i < im; i++) {
-            List<Integer> users = preferenceMatrix.getRows(i);
+            preferenceMatrix.columnView(i, users);
             int u = -1;
 
             List<RatingContext> rcs = new ArrayList<>();
-            for (int v : users) {
+            for (int position = 0; position < users.size(); position++) {
+                int v = users.indexAt(position);
                 rcs.add(new RatingContext(v, i, (long) datetimeMatrix.get(v, i)));
             }
             Collections.sort(rcs);
             u = rcs.get(rcs.size() - 1).getUser();
 
             trainMatrix.set(u, i, 0);
-            dataTable.put(u, i, preferenceMatrix.get(u, i));
-            colMap.put(i, u);
+            builder.add(u, i, preferenceMatrix.get(u, i));
         }
 
         SparseMatrix.reshape(trainMatrix);
-        testMatrix = new SparseMatrix(preferenceMatrix.numRows(), preferenceMatrix.numColumns(), dataTable, colMap);
+        testMatrix = builder.build();
     }
 
 }
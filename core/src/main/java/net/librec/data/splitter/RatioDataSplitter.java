@@ -23,8 +23,6 @@ import net.librec.data.DataConvertor;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SparseMatrix;
-import net.librec.math.structure.SparseVector;
-import net.librec.math.structure.VectorEntry;
 import net.librec.util.RatingContext;
 
 import java.util.ArrayList;
@@ -131,14 +129,16 @@ public class RatioDataSplitter extends AbstractDataSplitter {
             testMatrix = new SparseMatrix(preferenceMatrix);
             trainMatrix = new SparseMatrix(preferenceMatrix);
 
+            SparseMatrix.RowView uv = new SparseMatrix.RowView();
             for (int u = 0, um = preferenceMatrix.numRows(); u < um; u++) {
-                SparseVector uv = preferenceMatrix.row(u);
-                for (VectorEntry j : uv) {
+                preferenceMatrix.rowView(u, uv);
+                for (int position = 0; position < uv.size(); position++) {
+                    int j = uv.indexAt(position);
                     double rdm = Randoms.uniform();
                     if (rdm < ratio) {
-                        testMatrix.set(u, j.index(), 0.0);
+                        testMatrix.set(u, j, 0.0);
                     } else {
-                        trainMatrix.set(u, j.index(), 0.0);
+                        trainMatrix.set(u, j, 0.0);
                     }
                 }
             }
@@ -196,11 +196,13 @@ public class RatioDataSplitter extends AbstractDataSplitter {
             trainMatrix = new SparseMatrix(preferenceMatrix);
             testMatrix = new SparseMatrix(preferenceMatrix);
 
+            SparseMatrix.RowView items = new SparseMatrix.RowView();
             for (int u = 0, um = preferenceMatrix.numRows(); u < um; u++) {
 
-                List<Integer> items = preferenceMatrix.getColumns(u);
+                preferenceMatrix.rowView(u, items);
 
-                for (int j : items) {
+                for (int position = 0; position < items.size(); position++) {
+                    int j = items.indexAt(position);
                     if (Randoms.uniform() < ratio) {
                         testMatrix.set(u, j, 0.0);
                     } else {
@@ -230,15 +232,17 @@ public class RatioDataSplitter extends AbstractDataSplitter {
             trainMatrix = new SparseMatrix(preferenceMatrix);
             testMatrix = new SparseMatrix(preferenceMatrix);
 
+            SparseMatrix.RowView items = new SparseMatrix.RowView();
             for (int u = 0, um = preferenceMatrix.numRows(); u < um; u++) {
 
-                List<Integer> items = preferenceMatrix.getColumns(u);
+                preferenceMatrix.rowView(u, items);
                 // k is the test set, this will be smaller, so we want these indices in the list
                 int k = (int) Math.floor(items.size() * (1 - ratio));
                 try {
                     List<Integer> testIndexes = Randoms.randInts(k, 0, items.size());
 
-                    for (int j : items) {
+                    for (int position = 0; position < items.size(); position++) {
+                        int j = items.indexAt(position);
                         if (testIndexes.contains(j)) {
                             trainMatrix.set(u, j, 0.0);
                         } else {
@@ -268,13 +272,15 @@ public class RatioDataSplitter extends AbstractDataSplitter {
             trainMatrix = new SparseMatrix(preferenceMatrix);
             testMatrix = new SparseMatrix(preferenceMatrix);
 
+            SparseMatrix.RowView unsortedItems = new SparseMatrix.RowView();
             for (int user = 0, um = preferenceMatrix.numRows(); user < um; user++) {
-                List<Integer> unsortedItems = preferenceMatrix.getColumns(user);
+                preferenceMatrix.rowView(user, unsortedItems);
 
                 int size = unsortedItems.size();
 
                 List<RatingContext> rcs = new ArrayList<>(size);
-                for (int item : unsortedItems) {
+                for (int position = 0; position < unsortedItems.size(); position++) {
+                    int item = unsortedItems.indexAt(position);
                     rcs.add(new RatingContext(user, item, (long) datetimeMatrix.get(user, item)));
                 }
                 Collections.sort(rcs);
@@ -310,11 +316,13 @@ public class RatioDataSplitter extends AbstractDataSplitter {
             trainMatrix = new SparseMatrix(preferenceMatrix);
             testMatrix = new SparseMatrix(preferenceMatrix);
 
+            SparseMatrix.ColumnView users = new SparseMatrix.ColumnView();
             for (int i = 0, im = preferenceMatrix.numColumns(); i < im; i++) {
 
-                List<Integer> users = preferenceMatrix.getRows(i);
+                preferenceMatrix.columnView(i, users);
 
-                for (int u : users) {
+                for (int position = 0; position < users.size(); position++) {
+                    int u = users.indexAt(position);
                     if (Randoms.uniform() < ratio) {
                         testMatrix.set(u, i, 0.0);
                     } else {
@@ -340,12 +348,14 @@ public class RatioDataSplitter extends AbstractDataSplitter {
             trainMatrix = new SparseMatrix(preferenceMatrix);
             testMatrix = new SparseMatrix(preferenceMatrix);
 
+            SparseMatrix.ColumnView unsortedUsers = new SparseMatrix.ColumnView();
             for (int item = 0, im = preferenceMatrix.numColumns(); item < im; item++) {
-                List<Integer> unsortedUsers = preferenceMatrix.getRows(item);
+                preferenceMatrix.columnView(item, unsortedUsers);
 
                 int size = unsortedUsers.size();
                 List<RatingContext> rcs = new ArrayList<>(size);
-                for (int user : unsortedUsers) {
+                for (int position = 0; position < unsortedUsers.size(); position++) {
+                    int user = unsortedUsers.indexAt(position);
                     rcs.add(new RatingContext(user, item, (long) datetimeMatrix.get(user, item)));
                 }
                 Collections.sort(rcs);
@@ -381,23 +391,25 @@ public class RatioDataSplitter extends AbstractDataSplitter {
             validationMatrix = new SparseMatrix(preferenceMatrix);
             testMatrix = new SparseMatrix(preferenceMatrix);
 
+            SparseMatrix.RowView uv = new SparseMatrix.RowView();
             for (int u = 0, um = preferenceMatrix.numRows(); u < um; u++) {
 
-                SparseVector uv = preferenceMatrix.row(u);
-                for (VectorEntry j : uv) {
+                preferenceMatrix.rowView(u, uv);
+                for (int position = 0; position < uv.size(); position++) {
+                    int j = uv.indexAt(position);
                     double rdm = Randoms.uniform();
                     if (rdm < trainRatio) {
                         // training
-                        validationMatrix.set(u, j.index(), 0.0);
-                        testMatrix.set(u, j.index(), 0.0);
+                        validationMatrix.set(u, j, 0.0);
+                        testMatrix.set(u, j, 0.0);
                     } else if (rdm < trainRatio + validationRatio) {
                         // validation
-                        trainMatrix.set(u, j.index(), 0.0);
-                        testMatrix.set(u, j.index(), 0.0);
+                        trainMatrix.set(u, j, 0.0);
+                        testMatrix.set(u, j, 0.0);
                     } else {
                         // test
-                        trainMatrix.set(u, j.index(), 0.0);
-                        validationMatrix.set(u, j.index(), 0.0);
+                        trainMatrix.set(u, j, 0.0);
+                        validationMatrix.set(u, j, 0.0);
                     }
                 }
             }
@@ -17,6 +17,7 @@
  */
 package net.librec.eval;
 
+import net.librec.common.ContextKey;
 import net.librec.conf.Configuration;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.math.structure.SymmMatrix;
@@ -33,6 +34,16 @@ import java.util.Map;
  */
 public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluator {
 
+    /**
+     * context attribute: the number of items of each user which are not rated in the training set
+     */
+    public static final ContextKey<int[]> NUM_DROPPED_ITEMS = new ContextKey<>("rec.eval.auc.dropped.num", int[].class);
+
+    /**
+     * context attribute: the largest number of test items of a user
+     */
+    public static final ContextKey<Integer> MAX_NUM_TEST_ITEMS = new ContextKey<>("test.user.items.num.max", Integer.class);
+
     /**
      * the number of  recommended items
      */
@@ -41,6 +52,10 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
      * configuration of the evaluator
      */
     protected Configuration conf;
+    /**
+     * context of the evaluated recommender, holding the shared attributes
+     */
+    protected RecommenderContext context;
     /**
      * default similarityMatrix
      */
@@ -60,6 +75,7 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
     public double evaluate(RecommenderContext context, RecommendedList recommendedList) {
         SparseMatrix testMatrix = context.getDataModel().getDataSplitter().getTestData();
         conf = context.getConf();
+        this.context = context;
         String[] similarityKeys = conf.getStrings("rec.recommender.similarities");
         if (similarityKeys != null && similarityKeys.length > 0) {
             similarityMatrix = context.getSimilarity().getSimilarityMatrix();
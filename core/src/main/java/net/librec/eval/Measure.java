@@ -101,6 +101,21 @@ public enum Measure {
         return ratingEnumList;
     }
 
+    /**
+     * Return the measure of an evaluator class.
+     *
+     * @param evaluatorClass the class of an evaluator
+     * @return the measure whose evaluator is exactly of this class, or null if none
+     */
+    public static Measure getMeasure(Class<?> evaluatorClass) {
+        for (Measure measure : values()) {
+            if (measure.evaluatorClass == evaluatorClass) {
+                return measure;
+            }
+        }
+        return null;
+    }
+
     /**
      * Return the Class object of the evaluator.
      *
@@ -0,0 +1,402 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.eval;
+
+import net.librec.common.LibrecException;
+import net.librec.eval.Measure.MeasureValue;
+import net.librec.math.algorithm.Maths;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.recommender.item.CompactRecommendedItemList;
+import net.librec.recommender.item.ItemEntry;
+import net.librec.recommender.item.RecommendedList;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluation engine computing all ranking measures at all cutoffs in one pass over the users.
+ * <p>
+ * The evaluators of {@link net.librec.eval.ranking} each walk all users and build a set of the
+ * test items per user. This engine walks the users once, on a fork-join pool by blocks of users,
+ * marks the test items of a user in a per-thread flag array, flags the hits of the recommended
+ * list once up to the largest cutoff, and feeds every measure from these hits.
+ * <p>
+ * The value of every measure for every user is kept and the values are summed in the order of
+ * the users at the end, so the results do not depend on the number of threads and equal those
+ * of the single evaluators.
+ */
+public class RankingEvaluationEngine {
+
+    /**
+     * the number of users of a block is at most numUsers / (numThreads * BLOCKS_PER_THREAD)
+     */
+    private static final int BLOCKS_PER_THREAD = 16;
+
+    /**
+     * test matrix
+     */
+    private final SparseMatrix testMatrix;
+
+    /**
+     * the number of items of each user which are not rated in the training set, used by AUC
+     */
+    private final int[] numDroppedItems;
+
+    /**
+     * the number of users and items
+     */
+    private final int numUsers, numItems;
+
+    /**
+     * the number of worker threads
+     */
+    private final int numThreads;
+
+    /**
+     * test item flags of each worker thread
+     */
+    private final ThreadLocal<boolean[]> testItemFlags;
+
+    /**
+     * Create an evaluation engine over all the users of the test matrix.
+     *
+     * @param testMatrix      test matrix
+     * @param numDroppedItems the number of items of each user which are not rated in the training set,
+     *                        only needed by {@link Measure#AUC}
+     * @param numThreads      the number of worker threads, a value &lt;= 0 uses all available processors
+     */
+    public RankingEvaluationEngine(SparseMatrix testMatrix, int[] numDroppedItems, int numThreads) {
+        this.testMatrix = testMatrix;
+        this.numDroppedItems = numDroppedItems;
+        this.numUsers = testMatrix.numRows();
+        this.numItems = testMatrix.numColumns();
+        this.numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+        this.testItemFlags = new ThreadLocal<boolean[]>() {
+            @Override
+            protected boolean[] initialValue() {
+                return new boolean[numItems];
+            }
+        };
+    }
+
+    /**
+     * Return whether a measure value is computed by this engine.
+     *
+     * @param measureValue a measure with its cutoff
+     * @return true for the ranking measures with a positive cutoff
+     */
+    public static boolean isSupported(MeasureValue measureValue) {
+        if (measureValue.getTopN() == null || measureValue.getTopN() <= 0) {
+            return false;
+        }
+        switch (measureValue.getMeasure()) {
+            case AUC:
+            case AP:
+            case IDCG:
+            case NDCG:
+            case PRECISION:
+            case RECALL:
+            case RR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Evaluate the recommended list with the given measures.
+     *
+     * @param recommendedList the list of recommended items
+     * @param measureValues   the measures with their cutoffs, all supported by this engine
+     * @return the value of each measure
+     * @throws LibrecException if a measure is not supported
+     */
+    public Map<MeasureValue, Double> evaluate(RecommendedList recommendedList, List<MeasureValue> measureValues) throws LibrecException {
+        int maxTopN = 0;
+        for (MeasureValue measureValue : measureValues) {
+            if (!isSupported(measureValue)) {
+                throw new LibrecException("measure " + measureValue.getMeasure() + " is not a ranking measure with a cutoff");
+            }
+            if (measureValue.getMeasure() == Measure.AUC && numDroppedItems == null) {
+                throw new LibrecException("AUC needs the number of dropped items of each user");
+            }
+            maxTopN = Math.max(maxTopN, measureValue.getTopN());
+        }
+
+        int maxNumTestItems = 0;
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            maxNumTestItems = Math.max(maxNumTestItems, testMatrix.rowPtr[userIdx + 1] - testMatrix.rowPtr[userIdx]);
+        }
+        double[] idcgs = new double[maxNumTestItems + 1];
+        for (int index = 0; index < maxNumTestItems; index++) {
+            idcgs[index + 1] = 1.0d / Maths.log(index + 2, 2) + idcgs[index];
+        }
+
+        // the lazy structures of the list are built before the concurrent reads
+        recommendedList.size();
+
+        UserEvaluator evaluator = new UserEvaluator(recommendedList, measureValues, maxTopN, idcgs);
+        if (numThreads == 1 || numUsers <= 1) {
+            evaluator.evaluate(0, numUsers);
+        } else {
+            int blockSize = Math.max(1, numUsers / (numThreads * BLOCKS_PER_THREAD));
+            ForkJoinPool pool = new ForkJoinPool(numThreads);
+            try {
+                pool.invoke(new EvaluateTask(evaluator, 0, numUsers, blockSize));
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        Map<MeasureValue, Double> evaluatedMap = new HashMap<>();
+        for (int measureIdx = 0; measureIdx < measureValues.size(); measureIdx++) {
+            double sum = 0.0d;
+            int nonZeroNumUsers = 0;
+            for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+                if (evaluator.evaluated[userIdx]) {
+                    sum += evaluator.values[measureIdx][userIdx];
+                    nonZeroNumUsers++;
+                }
+            }
+            evaluatedMap.put(measureValues.get(measureIdx), nonZeroNumUsers > 0 ? sum / nonZeroNumUsers : 0.0d);
+        }
+        return evaluatedMap;
+    }
+
+    /**
+     * Evaluate the measures of each user with at least one test item.
+     */
+    private class UserEvaluator {
+        private final RecommendedList recommendedList;
+        private final CompactRecommendedItemList compactList;
+        private final Measure[] measures;
+        private final int[] cutoffs;
+        private final int maxTopN;
+        private final double[] idcgs;
+
+        /**
+         * whether each user is evaluated, i.e. has at least one test item
+         */
+        final boolean[] evaluated;
+
+        /**
+         * value of each measure for each user
+         */
+        final double[][] values;
+
+        UserEvaluator(RecommendedList recommendedList, List<MeasureValue> measureValues, int maxTopN, double[] idcgs) {
+            this.recommendedList = recommendedList;
+            this.compactList = recommendedList instanceof CompactRecommendedItemList
+                    ? (CompactRecommendedItemList) recommendedList : null;
+            this.measures = new Measure[measureValues.size()];
+            this.cutoffs = new int[measureValues.size()];
+            for (int measureIdx = 0; measureIdx < measures.length; measureIdx++) {
+                measures[measureIdx] = measureValues.get(measureIdx).getMeasure();
+                cutoffs[measureIdx] = measureValues.get(measureIdx).getTopN();
+            }
+            this.maxTopN = maxTopN;
+            this.idcgs = idcgs;
+            this.evaluated = new boolean[numUsers];
+            this.values = new double[measures.length][numUsers];
+        }
+
+        /**
+         * Evaluate the users in [fromUser, toUser).
+         *
+         * @param fromUser the first user, inclusive
+         * @param toUser   the last user, exclusive
+         */
+        void evaluate(int fromUser, int toUser) {
+            boolean[] isTestItem = testItemFlags.get();
+            int[] recommendedItems = new int[maxTopN];
+            boolean[] isHit = new boolean[maxTopN];
+
+            for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+                int numTestItems = 0;
+                for (int entry = testMatrix.rowPtr[userIdx]; entry < testMatrix.rowPtr[userIdx + 1]; entry++) {
+                    if (testMatrix.rowData[entry] != 0.0) {
+                        isTestItem[testMatrix.colInd[entry]] = true;
+                        numTestItems++;
+                    }
+                }
+                if (numTestItems == 0) {
+                    continue;
+                }
+                evaluated[userIdx] = true;
+
+                // the hits of the recommended list up to the largest cutoff
+                int numRecommended = recommendedSize(userIdx);
+                int numRanked = Math.min(maxTopN, numRecommended);
+                for (int rank = 0; rank < numRanked; rank++) {
+                    recommendedItems[rank] = recommendedItem(userIdx, rank);
+                    isHit[rank] = isTestItem[recommendedItems[rank]];
+                }
+
+                for (int measureIdx = 0; measureIdx < measures.length; measureIdx++) {
+                    int topK = Math.min(cutoffs[measureIdx], numRecommended);
+                    values[measureIdx][userIdx] = evaluate(measures[measureIdx], userIdx, cutoffs[measureIdx],
+                            topK, numRecommended, numTestItems, isHit);
+                }
+
+                for (int entry = testMatrix.rowPtr[userIdx]; entry < testMatrix.rowPtr[userIdx + 1]; entry++) {
+                    isTestItem[testMatrix.colInd[entry]] = false;
+                }
+            }
+        }
+
+        /**
+         * Evaluate a measure for a user.
+         *
+         * @param measure        the measure
+         * @param userIdx        user index
+         * @param topN           the cutoff of the measure
+         * @param topK           the number of recommended items within the cutoff
+         * @param numRecommended the number of recommended items of the user
+         * @param numTestItems   the number of test items of the user
+         * @param isHit          whether each recommended item is a test item
+         * @return the value of the measure for the user
+         */
+        private double evaluate(Measure measure, int userIdx, int topN, int topK, int numRecommended,
+                                int numTestItems, boolean[] isHit) {
+            int numHits = 0;
+            double value = 0.0d;
+            switch (measure) {
+                case PRECISION:
+                case RECALL:
+                    for (int rank = 0; rank < topK; rank++) {
+                        if (isHit[rank]) {
+                            numHits++;
+                        }
+                    }
+                    return measure == Measure.PRECISION ? numHits / (topN + 0.0) : numHits / (numTestItems + 0.0);
+                case AP:
+                    for (int rank = 0; rank < topK; rank++) {
+                        if (isHit[rank]) {
+                            numHits++;
+                            value += 1.0 * numHits / (rank + 1);
+                        }
+                    }
+                    return value / numTestItems;
+                case NDCG:
+                    for (int rank = 0; rank < topK; rank++) {
+                        if (isHit[rank]) {
+                            value += 1 / Maths.log(rank + 2, 2);
+                        }
+                    }
+                    return value / idcgs[numTestItems];
+                case IDCG:
+                    for (int index = 0; index < numTestItems; index++) {
+                        value += 1 / Maths.log(index + 2.0, 2);
+                    }
+                    return value;
+                case RR:
+                    for (int rank = 0; rank < topK; rank++) {
+                        if (isHit[rank]) {
+                            return 1.0d / (rank + 1.0d);
+                        }
+                    }
+                    return 0.0d;
+                case AUC:
+                    return auc(userIdx, topK, numRecommended, numTestItems, isHit);
+                default:
+                    throw new IllegalStateException("measure " + measure + " is not supported");
+            }
+        }
+
+        /**
+         * AUC of a user, where the items neither recommended nor rated in the training set are ranked
+         * below the recommended items.
+         */
+        private double auc(int userIdx, int topK, int numRecommended, int numTestItems, boolean[] isHit) {
+            int numDropped = numDroppedItems[userIdx] - numRecommended;
+            int numRelevantItems = 0;
+            for (int rank = 0; rank < topK; rank++) {
+                if (isHit[rank]) {
+                    numRelevantItems++;
+                }
+            }
+            int numMissItems = numTestItems - numRelevantItems;
+
+            int numEvaluatingItems = topK + numDropped;
+            int numEvaluatingPairs = (numEvaluatingItems - numRelevantItems) * numRelevantItems;
+            if (numEvaluatingPairs < 0) {
+                throw new IndexOutOfBoundsException("numEvaluatingPairs cannot be less than 0.");
+            }
+            if (numEvaluatingPairs == 0) {
+                return 0.5;
+            }
+
+            int numCorrectPairs = 0;
+            int hits = 0;
+            for (int rank = 0; rank < topK; rank++) {
+                if (!isHit[rank]) {
+                    numCorrectPairs += hits;
+                } else {
+                    hits++;
+                }
+            }
+            numCorrectPairs += hits * (numDropped - numMissItems);
+
+            return (numCorrectPairs + 0.0) / numEvaluatingPairs;
+        }
+
+        private int recommendedSize(int userIdx) {
+            return compactList != null ? compactList.getItemSizeByUserIdx(userIdx)
+                    : recommendedList.getItemIdxListByUserIdx(userIdx).size();
+        }
+
+        private int recommendedItem(int userIdx, int rank) {
+            if (compactList != null) {
+                return compactList.getItemIdx(userIdx, rank);
+            }
+            List<ItemEntry<Integer, Double>> items = recommendedList.getItemIdxListByUserIdx(userIdx);
+            return items.get(rank).getKey();
+        }
+    }
+
+    /**
+     * Recursively split a range of users into blocks.
+     */
+    private static class EvaluateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final UserEvaluator evaluator;
+        private final int fromUser, toUser, blockSize;
+
+        EvaluateTask(UserEvaluator evaluator, int fromUser, int toUser, int blockSize) {
+            this.evaluator = evaluator;
+            this.fromUser = fromUser;
+            this.toUser = toUser;
+            this.blockSize = blockSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (toUser - fromUser <= blockSize) {
+                evaluator.evaluate(fromUser, toUser);
+            } else {
+                int middle = (fromUser + toUser) >>> 1;
+                invokeAll(new EvaluateTask(evaluator, fromUser, middle, blockSize),
+                        new EvaluateTask(evaluator, middle, toUser, blockSize));
+            }
+        }
+    }
+}
@@ -18,13 +18,12 @@
 package net.librec.eval.ranking;
 
 import net.librec.eval.AbstractRecommenderEvaluator;
+import net.librec.math.structure.IntSet;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.recommender.item.ItemEntry;
 import net.librec.recommender.item.RecommendedList;
 
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 /**
  * AUCEvaluator
@@ -47,23 +46,25 @@ public class AUCEvaluator extends AbstractRecommenderEvaluator {
 
         int numUsers = testMatrix.numRows();
         int nonZeroNumUsers = 0;
-        int[] numDroppedItemsArray = getConf().getInts("rec.eval.auc.dropped.num");
+        int[] numDroppedItemsArray = context.getAttribute(NUM_DROPPED_ITEMS);
 
+        SparseMatrix.RowView testSetByUser = new SparseMatrix.RowView();
+        IntSet recommendSetByUser = new IntSet(testMatrix.numColumns());
         for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-            Set<Integer> testSetByUser = testMatrix.getColumnsSet(userIdx);
+            testMatrix.rowView(userIdx, testSetByUser);
             if (testSetByUser.size() > 0) {
                 nonZeroNumUsers++;
                 List<ItemEntry<Integer, Double>> recommendListByUser = recommendedList.getItemIdxListByUserIdx(userIdx);
                 int numDroppedItems = numDroppedItemsArray[userIdx] - recommendListByUser.size();
-                Set<Integer> recommendSetByUser = new HashSet<>();
+                recommendSetByUser.clear();
                 int topK = this.topN <= recommendListByUser.size() ? this.topN : recommendListByUser.size();
                 for (int indexOfItem = 0; indexOfItem < topK; ++indexOfItem) {
                     recommendSetByUser.add(recommendListByUser.get(indexOfItem).getKey());
                 }
 
                 int numRelevantItems = 0, numMissItems = 0;
-                for (Integer testItemIdx : testSetByUser) {
-                    if (recommendSetByUser.contains(testItemIdx)) {
+                for (int i = 0; i < testSetByUser.size(); i++) {
+                    if (recommendSetByUser.contains(testSetByUser.indexAt(i))) {
                         numRelevantItems++;
                     } else {
                         numMissItems++;
@@ -82,10 +83,11 @@ public class AUCEvaluator extends AbstractRecommenderEvaluator {
                     continue;
                 }
 
+                // count the pairs in the order of the ranking
                 int numCorrectPairs = 0;
                 int hits = 0;
-                for (Integer itemIdx : recommendSetByUser) {
-                    if (!testSetByUser.contains(itemIdx)) {
+                for (int indexOfItem = 0; indexOfItem < topK; ++indexOfItem) {
+                    if (!testSetByUser.contains(recommendListByUser.get(indexOfItem).getKey())) {
                         numCorrectPairs += hits;
                     } else {
                         hits ++;
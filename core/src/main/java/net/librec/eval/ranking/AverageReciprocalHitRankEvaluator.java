@@ -34,12 +34,13 @@ public class AverageReciprocalHitRankEvaluator extends AbstractRecommenderEvalua
         double reciprocalRank = 0.0;
         int numUsers = testMatrix.numRows();
         int nonZeroNumUsers = 0;
+        SparseMatrix.RowView testListByUser = new SparseMatrix.RowView();
         for (int userID = 0; userID < numUsers; userID++) {
-            List<Integer> testListByUser = testMatrix.getColumns(userID);
+            testMatrix.rowView(userID, testListByUser);
             if (testListByUser.size() > 0) {
 
                 List<ItemEntry<Integer, Double>> recommendListByUser = recommendedList.getItemIdxListByUserIdx(userID);
-                int trueItemIdx = testListByUser.get(0);
+                int trueItemIdx = testListByUser.indexAt(0);
                 int topK = this.topN <= recommendListByUser.size() ? this.topN : recommendListByUser.size();
                 for (int indexOfItem = 0; indexOfItem < topK; indexOfItem++) {
                     if (recommendListByUser.get(indexOfItem).getKey() == trueItemIdx) {
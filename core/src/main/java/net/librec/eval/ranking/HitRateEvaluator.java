@@ -39,10 +39,11 @@ public class HitRateEvaluator extends AbstractRecommenderEvaluator {
         int totalHits = 0;
         int numUsers = testMatrix.numRows();
         int nonZeroNumUsers = 0;
+        SparseMatrix.RowView testListByUser = new SparseMatrix.RowView();
         for (int userID = 0; userID < numUsers; userID++) {
-            List<Integer> testListByUser = testMatrix.getColumns(userID);
+            testMatrix.rowView(userID, testListByUser);
             if (testListByUser.size() == 1) {
-                int itemIdx = testListByUser.get(0);
+                int itemIdx = testListByUser.indexAt(0);
                 List<ItemEntry<Integer, Double>> recommendListByUser = recommendedList.getItemIdxListByUserIdx(userID);
                 int topK = this.topN <= recommendListByUser.size() ? this.topN : recommendListByUser.size();
                 for (int indexOfItem = 0; indexOfItem < topK; indexOfItem++) {
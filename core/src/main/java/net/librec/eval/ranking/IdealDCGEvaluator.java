@@ -22,7 +22,6 @@ import net.librec.math.algorithm.Maths;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.recommender.item.RecommendedList;
 
-import java.util.List;
 
 /**
  * IdealDCGEvaluator
@@ -46,10 +45,11 @@ public class IdealDCGEvaluator extends AbstractRecommenderEvaluator {
 
         int numUsers = testMatrix.numRows();
         int nonZeroNumUsers = 0;
+        SparseMatrix.RowView testListByUser = new SparseMatrix.RowView();
         for (int userID = 0; userID < numUsers; userID++) {
             double idcg = 0.0;
 
-            List<Integer> testListByUser = testMatrix.getColumns(userID);
+            testMatrix.rowView(userID, testListByUser);
             if (testListByUser.size() > 0) {
                 // calculate the IDCG
                 int numItemsInTestList = testListByUser.size();
@@ -25,7 +25,6 @@ import net.librec.recommender.item.RecommendedList;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 /**
  * NormalizedDCGEvaluator
@@ -46,7 +45,8 @@ public class NormalizedDCGEvaluator extends AbstractRecommenderEvaluator {
     public double evaluate(SparseMatrix testMatrix, RecommendedList recommendedList) {
 
         double nDCG = 0.0;
-        int maxNumTestItemsByUser = conf.getInt("test.user.items.num.max", testMatrix.numColumns());
+        Integer maxNumTestItems = context != null ? context.getAttribute(MAX_NUM_TEST_ITEMS) : null;
+        int maxNumTestItemsByUser = maxNumTestItems != null ? maxNumTestItems : testMatrix.numColumns();
         List<Double> idcgs = new ArrayList<>(maxNumTestItemsByUser + 1);
         idcgs.add(0.0d);
         for (int index = 0; index < maxNumTestItemsByUser; index++) {
@@ -54,8 +54,9 @@ public class NormalizedDCGEvaluator extends AbstractRecommenderEvaluator {
         }
         int numUsers = testMatrix.numRows();
         int nonZeroNumUsers = 0;
+        SparseMatrix.RowView testSetByUser = new SparseMatrix.RowView();
         for (int userID = 0; userID < numUsers; userID++) {
-            Set<Integer> testSetByUser = testMatrix.getColumnsSet(userID);
+            testMatrix.rowView(userID, testSetByUser);
             if (testSetByUser.size() > 0) {
 
                 double dcg = 0.0;
@@ -23,7 +23,6 @@ import net.librec.recommender.item.ItemEntry;
 import net.librec.recommender.item.RecommendedList;
 
 import java.util.List;
-import java.util.Set;
 
 /**
  * RecallEvaluator, calculate recall@n
@@ -45,8 +44,9 @@ public class RecallEvaluator extends AbstractRecommenderEvaluator {
         double totalRecall = 0.0;
         int numUsers = testMatrix.numRows();
         int nonZeroNumUsers = 0;
+        SparseMatrix.RowView testSetByUser = new SparseMatrix.RowView();
         for (int userID = 0; userID < numUsers; userID++) {
-            Set<Integer> testSetByUser = testMatrix.getColumnsSet(userID);
+            testMatrix.rowView(userID, testSetByUser);
             if (testSetByUser.size() > 0) {
                 List<ItemEntry<Integer, Double>> recommendListByUser = recommendedList.getItemIdxListByUserIdx(userID);
 
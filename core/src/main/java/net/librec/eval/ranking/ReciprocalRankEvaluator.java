@@ -23,7 +23,6 @@ import net.librec.recommender.item.ItemEntry;
 import net.librec.recommender.item.RecommendedList;
 
 import java.util.List;
-import java.util.Set;
 
 /**
  * ReciprocalRankEvaluator
@@ -46,8 +45,9 @@ public class ReciprocalRankEvaluator extends AbstractRecommenderEvaluator {
 
         int numUsers = testMatrix.numRows();
         int nonZeroNumUsers = 0;
+        SparseMatrix.RowView testListByUser = new SparseMatrix.RowView();
         for (int userID = 0; userID < numUsers; userID++) {
-            Set<Integer> testListByUser = testMatrix.getColumnsSet(userID);
+            testMatrix.rowView(userID, testListByUser);
             if (testListByUser.size() > 0) {
                 List<ItemEntry<Integer, Double>> recommendListByUser = recommendedList.getItemIdxListByUserIdx(userID);
 
@@ -41,14 +41,14 @@ public class DenseMatrixWritable implements Writable {
 
     @Override
     public void write(DataOutput out) throws IOException {
-        if (value != null && value.data.length > 0) {
+        if (value != null && value.numRows > 0) {
             out.writeInt(value.numRows);
             out.writeInt(value.numColumns);
-            for (int i = 0; i < value.data.length; i++) {
-                for (int j = 0; j < value.data[i].length; j++) {
+            for (int i = 0; i < value.numRows; i++) {
+                for (int j = 0; j < value.numColumns; j++) {
                     out.writeInt(i);
                     out.writeInt(j);
-                    out.writeDouble(value.data[i][j]);
+                    out.writeDouble(value.get(i, j));
                 }
             }
         }
@@ -65,7 +65,7 @@ public class DenseMatrixWritable implements Writable {
                     for (int j = 0; j < numColumns; j++) {
                         int rowIdx = in.readInt();
                         int columnIdx = in.readInt();
-                        value.data[rowIdx][columnIdx] = in.readDouble();
+                        value.set(rowIdx, columnIdx, in.readDouble());
                     }
                 }
             }
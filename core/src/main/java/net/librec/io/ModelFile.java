@@ -20,14 +20,45 @@ package net.librec.io;
 import net.librec.conf.Configuration;
 import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.DenseVector;
+import net.librec.math.structure.SparseMatrix;
 import net.librec.util.ReflectionUtil;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Recommender Model File
+ * <p>
+ * A model file of {@link #VERSION} is a stream of {@link Writable}s written
+ * element by element by {@link Writer} and read back by {@link Reader}.
+ * <p>
+ * A model file of {@link #MAPPED_VERSION} is a sequence of named sections
+ * written by {@link MappedWriter} and memory-mapped by {@link MappedReader}. All
+ * numbers are little-endian and every section starts at a multiple of 8 bytes:
+ * <pre>
+ * header   magic (10 bytes), 6 zero bytes, index offset (long), 8 zero bytes
+ * sections dense matrix:  numRows, numColumns (ints), numRows * numColumns doubles in row-major order
+ *          dense vector:  size, 0 (ints), size doubles
+ *          sparse matrix: numRows, numColumns, nnz, 0 (ints), rowPtr, colInd (ints), rowData (doubles),
+ *                         colPtr, rowInd (ints), colData (doubles), each int array padded to 8 bytes
+ *          other values:  the bytes written by their {@link Writable}
+ * index    the number of sections (int), then for each section its name length (short),
+ *          name (UTF-8), type ({@link WritableEnum} value), offset and length (longs)
+ * </pre>
+ * The primitive arrays are written and read by bulk puts and gets of direct and
+ * mapped buffers, and may be accessed in place through {@link MappedReader#map(Section)}.
  *
  * @author WangYuFeng
  */
@@ -37,6 +68,41 @@ public class ModelFile {
 
     public static final byte[] VERSION = new byte[]{'L', 'I', 'B', 'R', 'E', 'C', '_', '2', '0', '0'};
 
+    /**
+     * the version of the memory-mapped model file
+     */
+    public static final byte[] MAPPED_VERSION = new byte[]{'L', 'I', 'B', 'R', 'E', 'C', '_', 'M', 'F', '2'};
+
+    /**
+     * the size of the header of a memory-mapped model file
+     */
+    public static final int MAPPED_HEADER_SIZE = 32;
+
+    /**
+     * the size of a write buffer, and of a mapped window of a reader
+     */
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Whether a file is a memory-mapped model file of {@link #MAPPED_VERSION}.
+     *
+     * @param file a model file
+     * @return true if the file starts with {@link #MAPPED_VERSION}
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isMapped(File file) throws IOException {
+        byte[] versionBlock = new byte[MAPPED_VERSION.length];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(versionBlock);
+        } catch (EOFException e) {
+            return false;
+        }
+        return Arrays.equals(versionBlock, MAPPED_VERSION);
+    }
+
     /**
      * Write model to a model-format file.
      */
@@ -296,4 +362,503 @@ public class ModelFile {
 
     }
 
+    /**
+     * A named section of a memory-mapped model file.
+     */
+    public static class Section {
+        private final String name;
+        private final WritableEnum type;
+        private final long offset, length;
+
+        Section(String name, WritableEnum type, long offset, long length) {
+            this.name = name;
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * @return the name of the section
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the type of the value of the section
+         */
+        public WritableEnum getType() {
+            return type;
+        }
+
+        /**
+         * @return the offset of the section in the file
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return the number of bytes of the section
+         */
+        public long getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * Write named values to a memory-mapped model file.
+     */
+    public static class MappedWriter implements Closeable {
+        private final FileOutputStream fos;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final List<Section> sections = new ArrayList<>();
+
+        /**
+         * the offset in the file of the start of the buffer
+         */
+        private long bufferOffset;
+
+        /**
+         * Create a model file, overwriting the existing one.
+         *
+         * @param file the model file
+         * @throws IOException if the file cannot be written
+         */
+        public MappedWriter(File file) throws IOException {
+            fos = new FileOutputStream(file);
+            channel = fos.getChannel();
+            buffer.put(MAPPED_VERSION);
+            buffer.put(new byte[MAPPED_HEADER_SIZE - MAPPED_VERSION.length]);
+        }
+
+        /**
+         * Write a value as a new section.
+         *
+         * @param name  the name of the section
+         * @param value the value, which is not null
+         * @throws IOException if the value cannot be written
+         */
+        public void write(String name, Object value) throws IOException {
+            if (value instanceof DenseMatrixWritable || value instanceof DenseVectorWritable
+                    || value instanceof SparseMatrixWritable) {
+                value = ((Writable) value).getValue();
+            }
+            WritableEnum type = WritableEnum.getWritableEnum(value);
+            if (type == WritableEnum.NULL || (type == WritableEnum.UNKNOWN && !(value instanceof Writable))) {
+                throw new IOException("Unexpected data type " + type + " of section " + name);
+            }
+            writeSection(name, type, value);
+        }
+
+        private void writeSection(String name, WritableEnum type, Object value) throws IOException {
+            long offset = position();
+            switch (type) {
+                case DENSEMATRIX:
+                    DenseMatrix matrix = (DenseMatrix) value;
+                    putInt(matrix.numRows);
+                    putInt(matrix.numColumns);
+                    double[] rowValues = new double[matrix.numColumns];
+                    for (int row = 0; row < matrix.numRows; row++) {
+                        matrix.copyRow(row, rowValues, 0);
+                        putDoubles(rowValues, 0, matrix.numColumns);
+                    }
+                    break;
+
+                case DENSEVECTOR:
+                    double[] data = ((DenseVector) value).getData();
+                    putInt(data.length);
+                    putInt(0);
+                    putDoubles(data, 0, data.length);
+                    break;
+
+                case SPARSEMATRIX:
+                    SparseMatrix sparseMatrix = (SparseMatrix) value;
+                    int nnz = sparseMatrix.rowPtr[sparseMatrix.numRows];
+                    putInt(sparseMatrix.numRows);
+                    putInt(sparseMatrix.numColumns);
+                    putInt(nnz);
+                    putInt(0);
+                    putInts(sparseMatrix.rowPtr, sparseMatrix.numRows + 1);
+                    putInts(sparseMatrix.colInd, nnz);
+                    putDoubles(sparseMatrix.rowData, 0, nnz);
+                    putInts(sparseMatrix.colPtr, sparseMatrix.numColumns + 1);
+                    putInts(sparseMatrix.rowInd, nnz);
+                    putDoubles(sparseMatrix.colData, 0, nnz);
+                    break;
+
+                default:
+                    // the value is kept in the format of its writable
+                    Writable writable;
+                    if (value instanceof Writable) {
+                        writable = (Writable) value;
+                    } else {
+                        writable = (Writable) ReflectionUtil.newInstance(type.getClazz());
+                        writable.setValue(value);
+                    }
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream out = new DataOutputStream(bytes);
+                    if (type == WritableEnum.UNKNOWN) {
+                        out.writeUTF(value.getClass().getName());
+                    }
+                    writable.write(out);
+                    out.flush();
+                    putBytes(bytes.toByteArray());
+                    break;
+            }
+            sections.add(new Section(name, type, offset, position() - offset));
+            align();
+        }
+
+        /**
+         * Write the index and the header, and close the file.
+         *
+         * @throws IOException if the file cannot be written
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                long indexOffset = position();
+                putInt(sections.size());
+                for (Section section : sections) {
+                    byte[] name = section.getName().getBytes(UTF_8);
+                    ensure(2 + name.length + 1 + 16);
+                    buffer.putShort((short) name.length);
+                    buffer.put(name);
+                    buffer.put(section.getType().getValue());
+                    buffer.putLong(section.getOffset());
+                    buffer.putLong(section.getLength());
+                }
+                flush();
+                ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                header.putLong(indexOffset);
+                header.flip();
+                channel.write(header, 16);
+            } finally {
+                channel.close();
+                fos.close();
+            }
+        }
+
+        private long position() {
+            return bufferOffset + buffer.position();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                bufferOffset += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int numBytes) throws IOException {
+            if (buffer.remaining() < numBytes) {
+                flush();
+            }
+        }
+
+        private void align() throws IOException {
+            ensure(8);
+            while (position() % 8 != 0) {
+                buffer.put((byte) 0);
+            }
+        }
+
+        private void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        private void putInts(int[] src, int length) throws IOException {
+            for (int off = 0; off < length; ) {
+                ensure(4);
+                int n = Math.min(length - off, buffer.remaining() / 4);
+                buffer.asIntBuffer().put(src, off, n);
+                buffer.position(buffer.position() + n * 4);
+                off += n;
+            }
+            align();
+        }
+
+        private void putDoubles(double[] src, int off, int length) throws IOException {
+            for (int end = off + length; off < end; ) {
+                ensure(8);
+                int n = Math.min(end - off, buffer.remaining() / 8);
+                buffer.asDoubleBuffer().put(src, off, n);
+                buffer.position(buffer.position() + n * 8);
+                off += n;
+            }
+        }
+
+        private void putBytes(byte[] src) throws IOException {
+            for (int off = 0; off < src.length; ) {
+                ensure(1);
+                int n = Math.min(src.length - off, buffer.remaining());
+                buffer.put(src, off, n);
+                off += n;
+            }
+        }
+    }
+
+    /**
+     * Read named values from a memory-mapped model file.
+     */
+    public static class MappedReader implements Closeable {
+        private final FileInputStream fis;
+        private final FileChannel channel;
+        private final long fileSize;
+        private final Map<String, Section> sections = new LinkedHashMap<>();
+
+        /**
+         * the mapped window and its offset in the file
+         */
+        private MappedByteBuffer window;
+        private long windowOffset;
+
+        /**
+         * the offset in the file of the next byte to read
+         */
+        private long position;
+
+        /**
+         * Open a model file and read its index.
+         *
+         * @param file the model file
+         * @throws IOException if the file is not a memory-mapped model file
+         */
+        public MappedReader(File file) throws IOException {
+            fis = new FileInputStream(file);
+            channel = fis.getChannel();
+            fileSize = channel.size();
+            try {
+                byte[] versionBlock = new byte[MAPPED_VERSION.length];
+                if (fileSize < MAPPED_HEADER_SIZE) {
+                    throw new IOException(file + " not a memory-mapped ModelFile");
+                }
+                seek(0);
+                ensure(MAPPED_HEADER_SIZE);
+                window.get(versionBlock);
+                if (!Arrays.equals(versionBlock, MAPPED_VERSION)) {
+                    throw new IOException(file + " not a memory-mapped ModelFile");
+                }
+                seek(16);
+                long indexOffset = getLong();
+                seek(indexOffset);
+                int numSections = getInt();
+                for (int i = 0; i < numSections; i++) {
+                    ensure(2);
+                    byte[] name = new byte[window.getShort() & 0xFFFF];
+                    position += 2;
+                    ensure(name.length + 1 + 16);
+                    window.get(name);
+                    WritableEnum type = WritableEnum.getWritableEnum(window.get());
+                    position += name.length + 1;
+                    long offset = getLong();
+                    long length = getLong();
+                    String sectionName = new String(name, UTF_8);
+                    sections.put(sectionName, new Section(sectionName, type, offset, length));
+                }
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return the names of the sections, in order of writing
+         */
+        public List<String> getNames() {
+            return Collections.unmodifiableList(new ArrayList<>(sections.keySet()));
+        }
+
+        /**
+         * @param name the name of a section
+         * @return the section, or null if the file has no such section
+         */
+        public Section getSection(String name) {
+            return sections.get(name);
+        }
+
+        /**
+         * @return the channel of the file
+         */
+        public FileChannel getChannel() {
+            return channel;
+        }
+
+        /**
+         * Map a section read-only, in little-endian order.
+         *
+         * @param section a section of the file, of less than 2GB
+         * @return a buffer over the bytes of the section
+         * @throws IOException if the section cannot be mapped
+         */
+        public ByteBuffer map(Section section) throws IOException {
+            if (section.getLength() > Integer.MAX_VALUE) {
+                throw new IOException("Section " + section.getName() + " is larger than 2GB");
+            }
+            return map(section.getOffset(), section.getLength());
+        }
+
+        /**
+         * Map a region of the file read-only, in little-endian order. The mapping
+         * is shared with every other process mapping the same file.
+         *
+         * @param offset the offset of the region in the file
+         * @param length the number of bytes of the region, at most 2GB
+         * @return a buffer over the bytes of the region
+         * @throws IOException if the region cannot be mapped
+         */
+        public ByteBuffer map(long offset, long length) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Read the value of a section, bulk-copying the primitive arrays from
+         * the mapped file.
+         *
+         * @param name the name of a section
+         * @return the value, or null if the file has no such section
+         * @throws IOException if the value cannot be read
+         */
+        public Object read(String name) throws IOException {
+            Section section = sections.get(name);
+            if (section == null) {
+                return null;
+            }
+            seek(section.getOffset());
+            switch (section.getType()) {
+                case DENSEMATRIX:
+                    int numRows = getInt();
+                    int numColumns = getInt();
+                    DenseMatrix matrix = new DenseMatrix(numRows, numColumns);
+                    double[] rowValues = new double[numColumns];
+                    for (int row = 0; row < numRows; row++) {
+                        getDoubles(rowValues, numColumns);
+                        matrix.setRow(row, new DenseVector(rowValues, false));
+                    }
+                    return matrix;
+
+                case DENSEVECTOR:
+                    double[] data = new double[getInt()];
+                    getInt();
+                    getDoubles(data, data.length);
+                    return new DenseVector(data, false);
+
+                case SPARSEMATRIX:
+                    int rows = getInt();
+                    int columns = getInt();
+                    int nnz = getInt();
+                    getInt();
+                    int[] rowPtr = getInts(rows + 1);
+                    int[] colInd = getInts(nnz);
+                    double[] rowData = new double[nnz];
+                    getDoubles(rowData, nnz);
+                    int[] colPtr = getInts(columns + 1);
+                    int[] rowInd = getInts(nnz);
+                    double[] colData = new double[nnz];
+                    getDoubles(colData, nnz);
+                    return new SparseMatrix(rows, columns, rowPtr, colInd, rowData, colPtr, rowInd, colData);
+
+                default:
+                    if (section.getLength() > Integer.MAX_VALUE) {
+                        throw new IOException("Section " + name + " is larger than 2GB");
+                    }
+                    byte[] bytes = new byte[(int) section.getLength()];
+                    getBytes(bytes);
+                    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+                    Writable writable;
+                    if (section.getType() == WritableEnum.NULLWRITABLE) {
+                        writable = NullWritable.get();
+                    } else if (section.getType() == WritableEnum.UNKNOWN) {
+                        try {
+                            Class<?> cls = Class.forName(in.readUTF());
+                            writable = (Writable) ReflectionUtil.newInstance(cls, null);
+                        } catch (ClassNotFoundException e) {
+                            throw new IOException(e);
+                        }
+                    } else {
+                        writable = (Writable) ReflectionUtil.newInstance(section.getType().getClazz());
+                    }
+                    writable.readFields(in);
+                    return writable.getValue();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            channel.close();
+            fis.close();
+        }
+
+        private void seek(long offset) {
+            position = offset;
+        }
+
+        /**
+         * Make the next bytes readable from the window at the current position.
+         */
+        private void ensure(int numBytes) throws IOException {
+            if (window == null || position < windowOffset || position + numBytes > windowOffset + window.limit()) {
+                if (position + numBytes > fileSize) {
+                    throw new EOFException("Unexpected end of model file at " + position);
+                }
+                windowOffset = position;
+                long size = Math.min(fileSize - position, Math.max(WINDOW_SIZE, numBytes));
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowOffset, size);
+                window.order(ByteOrder.LITTLE_ENDIAN);
+            }
+            window.position((int) (position - windowOffset));
+        }
+
+        private int getInt() throws IOException {
+            ensure(4);
+            position += 4;
+            return window.getInt();
+        }
+
+        private long getLong() throws IOException {
+            ensure(8);
+            position += 8;
+            return window.getLong();
+        }
+
+        private int[] getInts(int length) throws IOException {
+            int[] dst = new int[length];
+            for (int off = 0; off < length; ) {
+                ensure(4);
+                int n = Math.min(length - off, window.remaining() / 4);
+                window.asIntBuffer().get(dst, off, n);
+                position += n * 4L;
+                off += n;
+            }
+            // int arrays are padded to 8 bytes
+            position += (8 - position % 8) % 8;
+            return dst;
+        }
+
+        private void getDoubles(double[] dst, int length) throws IOException {
+            for (int off = 0; off < length; ) {
+                ensure(8);
+                int n = Math.min(length - off, window.remaining() / 8);
+                window.asDoubleBuffer().get(dst, off, n);
+                position += n * 8L;
+                off += n;
+            }
+        }
+
+        private void getBytes(byte[] dst) throws IOException {
+            for (int off = 0; off < dst.length; ) {
+                ensure(1);
+                int n = Math.min(dst.length - off, window.remaining());
+                window.get(dst, off, n);
+                position += n;
+                off += n;
+            }
+        }
+    }
+
 }
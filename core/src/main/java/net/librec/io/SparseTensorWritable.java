@@ -22,8 +22,6 @@ import net.librec.math.structure.SparseTensor;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Sparse Tensor Writable
@@ -62,21 +60,18 @@ public class SparseTensorWritable implements Writable {
                 }
             }
             // output value.ndKeys
-            out.writeInt(value.ndKeys.length);
-            if (value.ndKeys != null && value.ndKeys.length > 0) {
-                for (List<Integer> ndKeyList : value.ndKeys) {
-                    out.writeInt(ndKeyList.size());
-                    for (Integer ndKey : ndKeyList) {
-                        out.writeInt(ndKey);
-                    }
+            int size = value.size();
+            out.writeInt(value.numDimensions);
+            for (int d = 0; d < value.numDimensions; d++) {
+                out.writeInt(size);
+                for (int index = 0; index < size; index++) {
+                    out.writeInt(value.key(d, index));
                 }
             }
             // output value.values
-            out.writeInt(value.values.size());
-            if (value.values != null && value.values.size() > 0) {
-                for (Double val : value.values) {
-                    out.writeDouble(val);
-                }
+            out.writeInt(size);
+            for (int index = 0; index < size; index++) {
+                out.writeDouble(value.value(index));
             }
         }
     }
@@ -91,35 +86,30 @@ public class SparseTensorWritable implements Writable {
         int numDimensions = in.readInt();
         if (numDimensions > 0) {
             // read value.dimensions
-            int dimensionsLength = in.readInt();
-            if (dimensionsLength > 0) {
-                value.dimensions = new int[dimensionsLength];
-                for (int i = 0; i < dimensionsLength; i++) {
-                    value.dimensions[i] = in.readInt();
-                }
+            int[] dimensions = new int[in.readInt()];
+            for (int i = 0; i < dimensions.length; i++) {
+                dimensions[i] = in.readInt();
             }
             // read value.ndKeys
-            int ndKeysLength = in.readInt();
-            if (ndKeysLength > 0) {
-                value.ndKeys = (List<Integer>[]) new ArrayList<?>[ndKeysLength];
-                for (int i = 0; i < ndKeysLength; i++) {
-                    value.ndKeys[i] = new ArrayList<Integer>();
-                    int ndKeysSize = in.readInt();
-                    if (ndKeysSize > 0) {
-                        for (int j = 0; j < ndKeysSize; j++) {
-                            value.ndKeys[i].add(in.readInt());
-                        }
-                    }
+            int[][] ndKeys = new int[in.readInt()][];
+            for (int i = 0; i < ndKeys.length; i++) {
+                ndKeys[i] = new int[in.readInt()];
+                for (int j = 0; j < ndKeys[i].length; j++) {
+                    ndKeys[i][j] = in.readInt();
                 }
             }
             // read value.values
-            int valuesLength = in.readInt();
-            if (valuesLength > 0) {
-                value.values = new ArrayList<Double>();
-                for (int i = 0; i < valuesLength; i++) {
-                    value.values.add(in.readDouble());
-                }
+            double[] values = new double[in.readInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readDouble();
+            }
+
+            SparseTensor sparseTensor = new SparseTensor(dimensions, ndKeys, values);
+            if (value != null) {
+                sparseTensor.setUserDimension(value.getUserDimension());
+                sparseTensor.setItemDimension(value.getItemDimension());
             }
+            value = sparseTensor;
         }
     }
 
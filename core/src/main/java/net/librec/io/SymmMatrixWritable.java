@@ -17,13 +17,12 @@
  */
 package net.librec.io;
 
+import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SymmMatrix;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * SymmMatrix Writable
@@ -57,17 +56,13 @@ public class SymmMatrixWritable implements Writable {
      */
     @Override
     public void write(DataOutput out) throws IOException {
-        if (value != null && value.getData() != null && value.getData().size() > 0 && value.getDim() > 0) {
+        if (value != null && value.size() > 0 && value.getDim() > 0) {
             out.writeInt(value.getDim());
-            out.writeInt(value.getData().size());
-            Set<Integer> rowKeySet = value.getData().rowKeySet();
-            for (Integer row : rowKeySet) {
-                Map<Integer, Double> colMap = value.getData().row(row);
-                for (Map.Entry<Integer, Double> entry : colMap.entrySet()) {
-                    out.writeInt(row);
-                    out.writeInt(entry.getKey());
-                    out.writeDouble(entry.getValue());
-                }
+            out.writeInt(value.size());
+            for (MatrixEntry entry : value) {
+                out.writeInt(entry.row());
+                out.writeInt(entry.column());
+                out.writeDouble(entry.get());
             }
         }
     }
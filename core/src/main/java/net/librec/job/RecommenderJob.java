@@ -23,10 +23,12 @@ import net.librec.data.DataModel;
 import net.librec.data.DataSplitter;
 import net.librec.data.splitter.KCVDataSplitter;
 import net.librec.data.splitter.LOOCVDataSplitter;
+import net.librec.eval.Measure;
 import net.librec.eval.Measure.MeasureValue;
 import net.librec.eval.RecommenderEvaluator;
 import net.librec.filter.RecommendedFilter;
 import net.librec.math.algorithm.Randoms;
+import net.librec.recommender.AbstractRecommender;
 import net.librec.recommender.Recommender;
 import net.librec.recommender.RecommenderContext;
 import net.librec.recommender.item.RecommendedItem;
@@ -211,10 +213,26 @@ public class RecommenderJob {
             String[] evalClassKeys = conf.getStrings("rec.eval.classes");
             if (evalClassKeys!= null && evalClassKeys.length > 0) {// Run the evaluator which is
                 // designated.
+                int topN = conf.getInt("rec.recommender.ranking.topn", 10);
+                RecommenderEvaluator[] evaluators = new RecommenderEvaluator[evalClassKeys.length];
+                MeasureValue[] measureValues = new MeasureValue[evalClassKeys.length];
+                List<MeasureValue> measureValueList = new ArrayList<>();
                 for(int classIdx = 0; classIdx < evalClassKeys.length; ++classIdx) {
-                    RecommenderEvaluator evaluator = (RecommenderEvaluator) ReflectionUtil.newInstance(getEvaluatorClass(evalClassKeys[classIdx]), null);
-                    evaluator.setTopN(conf.getInt("rec.recommender.ranking.topn", 10));
-                    double evalValue = recommender.evaluate(evaluator);
+                    evaluators[classIdx] = (RecommenderEvaluator) ReflectionUtil.newInstance(getEvaluatorClass(evalClassKeys[classIdx]), null);
+                    evaluators[classIdx].setTopN(topN);
+                    Measure measure = Measure.getMeasure(evaluators[classIdx].getClass());
+                    if (measure != null && recommender instanceof AbstractRecommender) {
+                        measureValues[classIdx] = new MeasureValue(measure, topN);
+                        measureValueList.add(measureValues[classIdx]);
+                    }
+                }
+                // the evaluators of the measures are run together, the ranking ones in one pass over the users
+                Map<MeasureValue, Double> evalValueMap = measureValueList.isEmpty() ? null
+                        : ((AbstractRecommender) recommender).evaluateMap(measureValueList);
+                for(int classIdx = 0; classIdx < evalClassKeys.length; ++classIdx) {
+                    RecommenderEvaluator evaluator = evaluators[classIdx];
+                    double evalValue = measureValues[classIdx] != null ? evalValueMap.get(measureValues[classIdx])
+                            : recommender.evaluate(evaluator);
                     LOG.info("Evaluator info:" + evaluator.getClass().getSimpleName() + " is " + evalValue);
                     collectCVResults(evaluator.getClass().getSimpleName(), evalValue);
                 }
@@ -0,0 +1,646 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.algorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Source of random numbers, with the primitive distributions of the models
+ * and streams split from it for other components or threads.
+ * <p>
+ * A source created by {@link #RandomSource(long)} draws the same sequence as
+ * {@link java.util.Random} with the same seed, which keeps the results of the
+ * existing models. A source created by {@link #splittable(long)} draws from a
+ * SplitMix64 generator, which is faster, has no synchronization, and splits
+ * into statistically independent streams.
+ * <p>
+ * A source is not meant to be shared between threads: a parallel task draws
+ * from its own stream, created by {@link #split()} or {@link #split(int)} on
+ * the calling thread, so that the results only depend on the seed and not on
+ * the scheduling of the threads.
+ */
+public class RandomSource extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * the number of rows of a matrix filled from one stream by {@link #fillGaussian(double[][], double, double, int)}
+     * and its variants on the entries stored row by row in one array
+     */
+    private static final int FILL_BLOCK_ROWS = 64;
+
+    /**
+     * Create a source which draws the same sequence as {@link java.util.Random}.
+     *
+     * @param seed the initial seed
+     */
+    public RandomSource(long seed) {
+        super(seed);
+    }
+
+    /**
+     * Create a splittable source.
+     *
+     * @param seed the initial seed
+     * @return a SplitMix64 source
+     */
+    public static RandomSource splittable(long seed) {
+        return new SplitMixSource(seed, SplitMixSource.GOLDEN_GAMMA);
+    }
+
+    /**
+     * Split a new stream from this source, drawn by this source.
+     *
+     * @return a new source
+     */
+    public RandomSource split() {
+        return new RandomSource(nextLong());
+    }
+
+    /**
+     * Split a number of new streams from this source, e.g. one per thread or per block of work.
+     *
+     * @param numStreams the number of streams
+     * @return the new sources, in the order they were split
+     */
+    public RandomSource[] split(int numStreams) {
+        RandomSource[] streams = new RandomSource[numStreams];
+        for (int stream = 0; stream < numStreams; stream++) {
+            streams[stream] = split();
+        }
+        return streams;
+    }
+
+    /**
+     * Random generate an integer in [0, range)
+     *
+     * @param range range of the interval
+     * @return an integer random generated in [0, range)
+     */
+    public int uniform(int range) {
+        return nextInt(range);
+    }
+
+    /**
+     * Random (uniformly distributed) double in [0, 1)
+     *
+     * @return Random (uniformly distributed) double in [0, 1)
+     */
+    public double uniform() {
+        return nextDouble();
+    }
+
+    /**
+     * Random (uniformly distributed) double in [min, max)
+     *
+     * @param min min of the range
+     * @param max max of the range
+     * @return Random (uniformly distributed) double in [min, max)
+     */
+    public double uniform(double min, double max) {
+        return min + (max - min) * nextDouble();
+    }
+
+    /**
+     * Return a real number from a Gaussian distribution with given mean and stddev.
+     *
+     * @param mu    mean
+     * @param sigma stddev
+     * @return a real number from a Gaussian distribution with given mean and stddev
+     */
+    public double gaussian(double mu, double sigma) {
+        return mu + sigma * nextGaussian();
+    }
+
+    /**
+     * Randomly sample 1 point from Gamma Distribution with the given parameters. The code is from Mahout
+     * (http://mahout.apache.org/), available under Apache 2 license.
+     *
+     * @param alpha alpha parameter for Gamma Distribution.
+     * @param scale scale parameter for Gamma Distribution.
+     * @return a sample point randomly drawn from the given distribution.
+     */
+    public double gamma(double alpha, double scale) {
+        double rate = 1 / scale;
+
+        if (alpha <= 0.0 || rate <= 0.0) {
+            throw new IllegalArgumentException();
+        }
+
+        double gds;
+        double b = 0.0;
+
+        // CASE A: Acceptance rejection algorithm gs
+        if (alpha < 1.0) {
+            b = 1.0 + 0.36788794412 * alpha; // Step 1
+            while (true) {
+                double p = b * nextDouble();
+                // Step 2. Case gds <= 1
+                if (p <= 1.0) {
+                    gds = Math.exp(Math.log(p) / alpha);
+                    if (Math.log(nextDouble()) <= -gds) {
+                        return gds / rate;
+                    }
+                }
+                // Step 3. Case gds > 1
+                else {
+                    gds = -Math.log((b - p) / alpha);
+                    if (Math.log(nextDouble()) <= ((alpha - 1.0) * Math.log(gds))) {
+                        return gds / rate;
+                    }
+                }
+            }
+        }
+        // CASE B: Acceptance complement algorithm gd (gaussian distribution,
+        // box muller transformation)
+        else {
+            double ss = 0.0;
+            double s = 0.0;
+            double d = 0.0;
+
+            // Step 1. Preparations
+            if (alpha != -1.0) {
+                ss = alpha - 0.5;
+                s = Math.sqrt(ss);
+                d = 5.656854249 - 12.0 * s;
+            }
+
+            // Step 2. Normal deviate
+            double v12;
+            double v1;
+
+            do {
+                v1 = 2.0 * nextDouble() - 1.0;
+                double v2 = 2.0 * nextDouble() - 1.0;
+                v12 = v1 * v1 + v2 * v2;
+            } while (v12 > 1.0);
+
+            double t = v1 * Math.sqrt(-2.0 * Math.log(v12) / v12);
+            double x = s + 0.5 * t;
+            gds = x * x;
+
+            if (t >= 0.0) { // Immediate acceptance
+                return gds / rate;
+            }
+
+            double u = nextDouble();
+            if (d * u <= t * t * t) { // Squeeze acceptance
+                return gds / rate;
+            }
+
+            double q0 = 0.0;
+            double si = 0.0;
+            double c = 0.0;
+
+            // Step 4. Set-up for hat case
+            if (alpha != -1.0) {
+                double rr = 1.0 / alpha;
+                double q9 = 0.0001710320;
+                double q8 = -0.0004701849;
+                double q7 = 0.0006053049;
+                double q6 = 0.0003340332;
+                double q5 = -0.0003349403;
+                double q4 = 0.0015746717;
+                double q3 = 0.0079849875;
+                double q2 = 0.0208333723;
+                double q1 = 0.0416666664;
+
+                q0 = ((((((((q9 * rr + q8) * rr + q7) * rr + q6) * rr + q5) * rr + q4) * rr + q3) * rr + q2) * rr + q1)
+                        * rr;
+
+                if (alpha > 3.686) {
+                    if (alpha > 13.022) {
+                        b = 1.77;
+                        si = 0.75;
+                        c = 0.1515 / s;
+                    } else {
+                        b = 1.654 + 0.0076 * ss;
+                        si = 1.68 / s + 0.275;
+                        c = 0.062 / s + 0.024;
+                    }
+                } else {
+                    b = 0.463 + s - 0.178 * ss;
+                    si = 1.235;
+                    c = 0.195 / s - 0.079 + 0.016 * s;
+                }
+            }
+
+            double v, q;
+            double a9 = 0.104089866;
+            double a8 = -0.112750886;
+            double a7 = 0.110368310;
+            double a6 = -0.124385581;
+            double a5 = 0.142873973;
+            double a4 = -0.166677482;
+            double a3 = 0.199999867;
+            double a2 = -0.249999949;
+            double a1 = 0.333333333;
+
+            // Step 5. Calculation of q
+            if (x > 0.0) {
+                // Step 6.
+                v = t / (s + s);
+                if (Math.abs(v) > 0.25) {
+                    q = q0 - s * t + 0.25 * t * t + (ss + ss) * Math.log(1.0 + v);
+                }
+                // Step 7. Quotient acceptance
+                else {
+                    q = q0
+                            + 0.5
+                            * t
+                            * t
+                            * ((((((((a9 * v + a8) * v + a7) * v + a6) * v + a5) * v + a4) * v + a3) * v + a2) * v + a1)
+                            * v;
+                }
+                if (Math.log(1.0 - u) <= q) {
+                    return gds / rate;
+                }
+            }
+
+            double e7 = 0.000247453;
+            double e6 = 0.001353826;
+            double e5 = 0.008345522;
+            double e4 = 0.041664508;
+            double e3 = 0.166666848;
+            double e2 = 0.499999994;
+            double e1 = 1.000000000;
+
+            // Step 8. Double exponential deviate t
+            while (true) {
+                double sign_u;
+                double e;
+                do { // Step 9. Rejection of t
+                    e = -Math.log(nextDouble());
+                    u = nextDouble();
+                    u = u + u - 1.0;
+                    sign_u = (u > 0) ? 1.0 : -1.0;
+                    t = b + (e * si) * sign_u;
+                } while (t <= -0.71874483771719);
+
+                // Step 10. New q(t)
+                v = t / (s + s);
+
+                if (Math.abs(v) > 0.25) {
+                    q = q0 - s * t + 0.25 * t * t + (ss + ss) * Math.log(1.0 + v);
+                } else {
+                    q = q0
+                            + 0.5
+                            * t
+                            * t
+                            * ((((((((a9 * v + a8) * v + a7) * v + a6) * v + a5) * v + a4) * v + a3) * v + a2) * v + a1)
+                            * v;
+                }
+
+                // Step 11.
+                if (q <= 0.0) {
+                    continue;
+                }
+
+                // Step 12. Hat acceptance
+                double w;
+                if (q > 0.5) {
+                    w = Math.exp(q) - 1.0;
+                } else {
+                    w = ((((((e7 * q + e6) * q + e5) * q + e4) * q + e3) * q + e2) * q + e1) * q;
+                }
+
+                if (c * u * sign_u <= w * Math.exp(e - 0.5 * t * t)) {
+                    x = s + 0.5 * t;
+                    return x * x / rate;
+                }
+            }
+        }
+    }
+
+    /**
+     * Randomly sample a probability vector from a Dirichlet distribution.
+     *
+     * @param alpha the concentration parameters, all positive
+     * @return a probability vector of the same length
+     */
+    public double[] dirichlet(double[] alpha) {
+        return dirichlet(alpha, new double[alpha.length]);
+    }
+
+    /**
+     * Randomly sample a probability vector from a Dirichlet distribution into a given array.
+     *
+     * @param alpha  the concentration parameters, all positive
+     * @param sample the array of the sample, of the same length
+     * @return the array of the sample
+     */
+    public double[] dirichlet(double[] alpha, double[] sample) {
+        double sum = 0.0;
+        for (int i = 0; i < alpha.length; i++) {
+            sample[i] = gamma(alpha[i], 1.0);
+            sum += sample[i];
+        }
+        for (int i = 0; i < alpha.length; i++) {
+            sample[i] /= sum;
+        }
+        return sample;
+    }
+
+    /**
+     * Return the number of successes of n independent trials with probability p.
+     * <p>
+     * Large numbers of trials are halved by the beta-distributed order statistic of
+     * the uniform trials (Knuth, TAOCP vol. 2, 3.4.1), so the cost is logarithmic in n.
+     *
+     * @param n the number of trials
+     * @param p the probability of success of each trial
+     * @return an integer with a binomial distribution of parameters n and p
+     */
+    public int binomial(int n, double p) {
+        if (n < 0 || !(p >= 0.0 && p <= 1.0)) {
+            throw new IllegalArgumentException("invalid binomial parameters: n = " + n + ", p = " + p);
+        }
+        int successes = 0;
+        while (n > 64) {
+            int a = 1 + n / 2;
+            int b = n + 1 - a;
+            double ga = gamma(a, 1.0);
+            double x = ga / (ga + gamma(b, 1.0));
+            if (x >= p) {
+                n = a - 1;
+                p = p / x;
+            } else {
+                successes += a;
+                n = b - 1;
+                p = (p - x) / (1.0 - x);
+            }
+        }
+        for (int trial = 0; trial < n; trial++) {
+            if (nextDouble() < p) {
+                successes++;
+            }
+        }
+        return successes;
+    }
+
+    /**
+     * Fill the rows of a matrix with Gaussian values in parallel.
+     * <p>
+     * Each block of rows is filled from its own stream, split from this source in
+     * the order of the blocks, so the values do not depend on the number of threads.
+     *
+     * @param data       the rows of the matrix
+     * @param mean       mean of the gaussian function
+     * @param sigma      sigma of the gaussian function
+     * @param numThreads the number of threads, a value &lt;= 0 uses all available processors
+     */
+    public void fillGaussian(final double[][] data, final double mean, final double sigma, int numThreads) {
+        fillBlocks(data.length, numThreads, new BlockFiller() {
+            @Override
+            public void fill(int block, RandomSource stream) {
+                for (int row = block * FILL_BLOCK_ROWS, end = Math.min(row + FILL_BLOCK_ROWS, data.length); row < end; row++) {
+                    double[] values = data[row];
+                    for (int column = 0; column < values.length; column++) {
+                        values[column] = stream.gaussian(mean, sigma);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Fill the entries of a matrix stored row by row in one array with Gaussian values in parallel,
+     * the same values as {@link #fillGaussian(double[][], double, double, int)} gives to its rows.
+     *
+     * @param values     the entries of the matrix
+     * @param numColumns the number of columns of the matrix
+     * @param mean       mean of the gaussian function
+     * @param sigma      sigma of the gaussian function
+     * @param numThreads the number of threads, a value &lt;= 0 uses all available processors
+     */
+    public void fillGaussian(final double[] values, final int numColumns, final double mean, final double sigma, int numThreads) {
+        fillBlocks(numColumns == 0 ? 0 : values.length / numColumns, numThreads, new BlockFiller() {
+            @Override
+            public void fill(int block, RandomSource stream) {
+                int from = block * FILL_BLOCK_ROWS * numColumns;
+                for (int index = from, end = Math.min(from + FILL_BLOCK_ROWS * numColumns, values.length); index < end; index++) {
+                    values[index] = stream.gaussian(mean, sigma);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fill the entries of a matrix of single precision stored row by row in one array with Gaussian
+     * values in parallel, the values of {@link #fillGaussian(double[][], double, double, int)} rounded.
+     *
+     * @param values     the entries of the matrix
+     * @param numColumns the number of columns of the matrix
+     * @param mean       mean of the gaussian function
+     * @param sigma      sigma of the gaussian function
+     * @param numThreads the number of threads, a value &lt;= 0 uses all available processors
+     */
+    public void fillGaussian(final float[] values, final int numColumns, final double mean, final double sigma, int numThreads) {
+        fillBlocks(numColumns == 0 ? 0 : values.length / numColumns, numThreads, new BlockFiller() {
+            @Override
+            public void fill(int block, RandomSource stream) {
+                int from = block * FILL_BLOCK_ROWS * numColumns;
+                for (int index = from, end = Math.min(from + FILL_BLOCK_ROWS * numColumns, values.length); index < end; index++) {
+                    values[index] = (float) stream.gaussian(mean, sigma);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fill the blocks of {@link #FILL_BLOCK_ROWS} rows of a matrix in parallel, each from its own
+     * stream split from this source in the order of the blocks.
+     *
+     * @param numRows    the number of rows of the matrix
+     * @param numThreads the number of threads, a value &lt;= 0 uses all available processors
+     * @param filler     the filler of a block
+     */
+    private void fillBlocks(int numRows, int numThreads, final BlockFiller filler) {
+        int numBlocks = (numRows + FILL_BLOCK_ROWS - 1) / FILL_BLOCK_ROWS;
+        RandomSource[] streams = split(numBlocks);
+        numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+        if (numThreads == 1 || numBlocks <= 1) {
+            for (int block = 0; block < numBlocks; block++) {
+                filler.fill(block, streams[block]);
+            }
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            List<Future<?>> blocks = new ArrayList<>(numBlocks);
+            for (int block = 0; block < numBlocks; block++) {
+                final int blockIdx = block;
+                final RandomSource stream = streams[block];
+                blocks.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        filler.fill(blockIdx, stream);
+                    }
+                }));
+            }
+            for (Future<?> block : blocks) {
+                block.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * A filler of a block of rows of a matrix.
+     */
+    private interface BlockFiller {
+        /**
+         * Fill a block of rows.
+         *
+         * @param block  the index of the block of rows
+         * @param stream the stream of the block
+         */
+        void fill(int block, RandomSource stream);
+    }
+
+    /**
+     * SplitMix64 generator of Steele, Lea and Flood, <strong>Fast splittable pseudorandom number
+     * generators</strong>, OOPSLA 2014, as in java.util.SplittableRandom of Java 8.
+     */
+    private static final class SplitMixSource extends RandomSource {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+        private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+        private long seed;
+
+        private final long gamma;
+
+        private double nextNextGaussian;
+
+        private boolean haveNextNextGaussian;
+
+        private SplitMixSource(long seed, long gamma) {
+            super(0L);
+            this.seed = seed;
+            this.gamma = gamma;
+        }
+
+        private static long mix64(long z) {
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+
+        private static int mix32(long z) {
+            z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+            return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+        }
+
+        private static long mixGamma(long z) {
+            z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+            z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+            z = (z ^ (z >>> 33)) | 1L;
+            int n = Long.bitCount(z ^ (z >>> 1));
+            return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+        }
+
+        private long nextSeed() {
+            return seed += gamma;
+        }
+
+        @Override
+        public void setSeed(long seed) {
+            // the state is set by the constructor, java.util.Random calls this method before
+            this.seed = mix64(seed);
+            haveNextNextGaussian = false;
+        }
+
+        @Override
+        protected int next(int bits) {
+            return mix32(nextSeed()) >>> (32 - bits);
+        }
+
+        @Override
+        public int nextInt() {
+            return mix32(nextSeed());
+        }
+
+        @Override
+        public int nextInt(int bound) {
+            if (bound <= 0) {
+                throw new IllegalArgumentException("bound must be positive");
+            }
+            int r = mix32(nextSeed());
+            int m = bound - 1;
+            if ((bound & m) == 0) {
+                return r & m;
+            }
+            for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = mix32(nextSeed()) >>> 1) {
+                // reject the values of the incomplete last interval
+            }
+            return r;
+        }
+
+        @Override
+        public long nextLong() {
+            return mix64(nextSeed());
+        }
+
+        @Override
+        public double nextDouble() {
+            return (mix64(nextSeed()) >>> 11) * DOUBLE_UNIT;
+        }
+
+        @Override
+        public double nextGaussian() {
+            if (haveNextNextGaussian) {
+                haveNextNextGaussian = false;
+                return nextNextGaussian;
+            }
+            double v1, v2, s;
+            do {
+                v1 = 2 * nextDouble() - 1;
+                v2 = 2 * nextDouble() - 1;
+                s = v1 * v1 + v2 * v2;
+            } while (s >= 1 || s == 0);
+            double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+            nextNextGaussian = v2 * multiplier;
+            haveNextNextGaussian = true;
+            return v1 * multiplier;
+        }
+
+        @Override
+        public RandomSource split() {
+            return new SplitMixSource(nextLong(), mixGamma(nextSeed()));
+        }
+    }
+}
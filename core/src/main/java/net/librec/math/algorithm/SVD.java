@@ -57,7 +57,7 @@ public class SVD {
 
         // Initialize.
         DenseMatrix matClone = mat.clone();
-        double[][] A = matClone.data;
+        double[][] A = matClone.getData();
         m = matClone.numRows;
         n = matClone.numColumns;
 
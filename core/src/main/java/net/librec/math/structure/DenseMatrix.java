@@ -19,19 +19,35 @@
 package net.librec.math.structure;
 
 import net.librec.common.LibrecException;
+import net.librec.math.algorithm.RandomSource;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.algorithm.SVD;
 import net.librec.util.StringUtil;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Data Structure: dense matrix <br>
  * <p>
- * A big reason that we do not adopt original DenseMatrix from M4J libraray is because the latter using one-dimensional
- * array to store data, which will often cause OutOfMemory exception due to the limit of maximum length of a
- * one-dimensional Java array.
+ * The entries are stored row by row in one array when they fit in it. A larger matrix is stored as an array of rows
+ * instead, as is the array wrapped by {@link #DenseMatrix(double[][], int, int)}: a big reason that we do not adopt
+ * original DenseMatrix from M4J libraray is because the latter only using one-dimensional array to store data, which
+ * will often cause OutOfMemory exception due to the limit of maximum length of a one-dimensional Java array.
+ * <p>
+ * A matrix of single precision, see {@link #singlePrecision(int, int)}, stores its entries as floats to halve
+ * their memory and bandwidth. Its entries are read as doubles and rounded when written, and its products,
+ * inverses and decompositions are computed and returned in double precision.
+ * <p>
+ * Each row is contiguous in both layouts, so the products ({@link #mult(DenseMatrix)}, {@link #transMult()},
+ * {@link #mult(DenseVector)} and the sparse ones) stream whole rows in blocks that stay in cache, and large
+ * products are computed by blocks of rows in parallel. Every entry of a product is summed in the same order
+ * as by the plain triple loop, so the results do not depend on the blocking or the number of threads.
  *
  * @author guoguibing
  */
@@ -41,8 +57,43 @@ public class DenseMatrix implements DataMatrix, Serializable {
 
     /** dimension */
     public int numRows, numColumns, topN;
-    /** read data */
-    public double[][] data;
+
+    /**
+     * entries of double precision row by row, entry [row, column] at {@code row * numColumns + column},
+     * or null if the matrix is not stored in one array of doubles
+     */
+    private double[] values;
+
+    /**
+     * entries of single precision row by row, or null if the matrix is not of single precision
+     */
+    private float[] floatValues;
+
+    /**
+     * rows of a matrix too large for one array, or of a wrapped array, or null if the matrix is stored in one array
+     */
+    private double[][] data;
+
+    /**
+     * the maximum number of entries of a matrix stored in one array, as some virtual machines
+     * reserve a few header words in an array
+     */
+    private static final int MAX_ARRAY_ENTRIES = Integer.MAX_VALUE - 8;
+
+    /**
+     * the number of rows of a block of the products, which is also the unit of the parallel work
+     */
+    private static final int BLOCK_ROWS = 64;
+
+    /**
+     * the number of inner indices and of columns of a block of the products
+     */
+    private static final int BLOCK_INNER = 256, BLOCK_COLUMNS = 1024;
+
+    /**
+     * the number of multiply-adds from which a product is computed in parallel
+     */
+    private static final long PARALLEL_WORK = 1L << 22;
 
 
     /**
@@ -52,10 +103,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
      * @param numColumns number of columns
      */
     public DenseMatrix(int numRows, int numColumns) {
-        this.numRows = numRows;
-        this.numColumns = numColumns;
-
-        data = new double[numRows][numColumns];
+        this(numRows, numColumns, false);
     }
 
     /**
@@ -69,7 +117,20 @@ public class DenseMatrix implements DataMatrix, Serializable {
         this.numRows = numRows;
         this.numColumns = numColumns;
         this.topN = topN;
-        data = new double[numRows][numColumns];
+        allocate(false);
+    }
+
+    /**
+     * Construct a dense matrix with specified dimensions and precision
+     *
+     * @param numRows         number of rows
+     * @param numColumns      number of columns
+     * @param singlePrecision whether the entries are stored as floats
+     */
+    private DenseMatrix(int numRows, int numColumns, boolean singlePrecision) {
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        allocate(singlePrecision);
     }
 
     /**
@@ -81,8 +142,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
         this(array.length, array[0].length);
 
         for (int i = 0; i < numRows; i++)
-            for (int j = 0; j < numColumns; j++)
-                data[i][j] = array[i][j];
+            putRow(i, array[i]);
     }
 
     /**
@@ -105,7 +165,83 @@ public class DenseMatrix implements DataMatrix, Serializable {
      * @param mat input matrix
      */
     public DenseMatrix(DenseMatrix mat) {
-        this(mat.data);
+        this.numRows = mat.numRows;
+        this.numColumns = mat.numColumns;
+
+        if (mat.values != null) {
+            values = mat.values.clone();
+        } else if (mat.floatValues != null) {
+            floatValues = mat.floatValues.clone();
+        } else {
+            allocate(false);
+            for (int i = 0; i < numRows; i++)
+                putRow(i, mat.data[i]);
+        }
+    }
+
+    /**
+     * Construct a dense matrix of single precision, whose entries are stored as floats. A matrix
+     * too large for one array is stored as an array of rows of double precision.
+     *
+     * @param numRows    number of rows
+     * @param numColumns number of columns
+     * @return a dense matrix of single precision
+     */
+    public static DenseMatrix singlePrecision(int numRows, int numColumns) {
+        return new DenseMatrix(numRows, numColumns, true);
+    }
+
+    /**
+     * Allocate the entries, in one array if they fit in it and otherwise row by row.
+     *
+     * @param singlePrecision whether the entries are stored as floats
+     */
+    private void allocate(boolean singlePrecision) {
+        long numEntries = (long) numRows * numColumns;
+        if (numEntries > MAX_ARRAY_ENTRIES) {
+            data = new double[numRows][numColumns];
+        } else if (singlePrecision) {
+            floatValues = new float[(int) numEntries];
+        } else {
+            values = new double[(int) numEntries];
+        }
+    }
+
+    /**
+     * @return true if the entries are stored as floats
+     */
+    public boolean isSinglePrecision() {
+        return floatValues != null;
+    }
+
+    /**
+     * @param numRows    number of rows
+     * @param numColumns number of columns
+     * @return a new matrix of the precision of this matrix
+     */
+    private DenseMatrix like(int numRows, int numColumns) {
+        return new DenseMatrix(numRows, numColumns, floatValues != null);
+    }
+
+    /**
+     * @return this matrix if it is of double precision, otherwise a copy of it in double precision
+     */
+    private DenseMatrix doublePrecision() {
+        if (floatValues == null)
+            return this;
+
+        DenseMatrix mat = new DenseMatrix(numRows, numColumns);
+        for (int i = 0; i < floatValues.length; i++)
+            mat.values[i] = floatValues[i];
+
+        return mat;
+    }
+
+    /**
+     * @return a copy of this matrix in double precision
+     */
+    private DenseMatrix doubleCopy() {
+        return floatValues == null ? new DenseMatrix(this) : doublePrecision();
     }
 
     /**
@@ -143,7 +279,26 @@ public class DenseMatrix implements DataMatrix, Serializable {
     public void init(double mean, double sigma) {
         for (int i = 0; i < numRows; i++)
             for (int j = 0; j < numColumns; j++)
-                data[i][j] = Randoms.gaussian(mean, sigma);
+                put(i, j, Randoms.gaussian(mean, sigma));
+    }
+
+    /**
+     * Initialize a dense matrix with small Guassian values in parallel, each block of rows
+     * from its own stream split from the given source.
+     *
+     * @param mean       mean of the gaussian function
+     * @param sigma      sigma of the gaussian function
+     * @param random     the source of the streams
+     * @param numThreads the number of threads, a value &lt;= 0 uses all available processors
+     */
+    public void init(double mean, double sigma, RandomSource random, int numThreads) {
+        if (values != null) {
+            random.fillGaussian(values, numColumns, mean, sigma, numThreads);
+        } else if (floatValues != null) {
+            random.fillGaussian(floatValues, numColumns, mean, sigma, numThreads);
+        } else {
+            random.fillGaussian(data, mean, sigma, numThreads);
+        }
     }
 
     /**
@@ -155,7 +310,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
 
         for (int i = 0; i < numRows; i++)
             for (int j = 0; j < numColumns; j++)
-                data[i][j] = Randoms.uniform(0, range);
+                put(i, j, Randoms.uniform(0, range));
     }
 
     /**
@@ -193,11 +348,68 @@ public class DenseMatrix implements DataMatrix, Serializable {
      * Return a vector of a specific row.
      *
      * @param rowId row id
-     * @param deep  whether to copy data or only shallow copy for executing speedup purpose
+     * @param deep  whether to copy data or only shallow copy for executing speedup purpose, which is only
+     *              possible for a matrix stored as an array of rows
      * @return a vector of a specific row
      */
     public DenseVector row(int rowId, boolean deep) {
-        return new DenseVector(data[rowId], deep);
+        if (data != null)
+            return new DenseVector(data[rowId], deep);
+
+        double[] row = new double[numColumns];
+        copyRow(rowId, row, 0);
+        return new DenseVector(row, false);
+    }
+
+    /**
+     * Copy a row into an array.
+     *
+     * @param row     row index
+     * @param dest    the destination array
+     * @param destPos the position of the first column in the destination array
+     */
+    public void copyRow(int row, double[] dest, int destPos) {
+        if (values != null) {
+            System.arraycopy(values, row * numColumns, dest, destPos, numColumns);
+        } else if (floatValues != null) {
+            for (int j = 0, offset = row * numColumns; j < numColumns; j++)
+                dest[destPos + j] = floatValues[offset + j];
+        } else {
+            System.arraycopy(data[row], 0, dest, destPos, numColumns);
+        }
+    }
+
+    /**
+     * Copy the first numColumns values of an array into a row.
+     *
+     * @param row row index
+     * @param src the source array
+     */
+    private void putRow(int row, double[] src) {
+        if (values != null) {
+            System.arraycopy(src, 0, values, row * numColumns, numColumns);
+        } else if (floatValues != null) {
+            for (int j = 0, offset = row * numColumns; j < numColumns; j++)
+                floatValues[offset + j] = (float) src[j];
+        } else {
+            System.arraycopy(src, 0, data[row], 0, numColumns);
+        }
+    }
+
+    /**
+     * @param row row index
+     * @return the array holding a row of a matrix of double precision
+     */
+    private double[] rowArray(int row) {
+        return values != null ? values : data[row];
+    }
+
+    /**
+     * @param row row index
+     * @return the position of the first column of a row in {@link #rowArray(int)}
+     */
+    private int rowOffset(int row) {
+        return values != null ? row * numColumns : 0;
     }
 
     /**
@@ -218,7 +430,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
             double[][] d = new double[r][c];
             for (int i = rowStart; i <= rowEnd; i++) {
                 for (int j = colStart; j <= colEnd; j++) {
-                    double a = data[i][j];
+                    double a = get(i, j);
                     d[i - rowStart][j - colStart] = a;
                 }
             }
@@ -237,7 +449,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
         DenseVector vec = new DenseVector(numRows);
 
         for (int i = 0; i < numRows; i++)
-            vec.set(i, data[i][column]);
+            vec.set(i, get(i, column));
 
         return vec;
     }
@@ -252,7 +464,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
         double sum = 0.0;
 
         for (int i = 0; i < numRows; i++)
-            sum += data[i][column];
+            sum += get(i, column);
 
         return sum / numRows;
     }
@@ -264,8 +476,10 @@ public class DenseMatrix implements DataMatrix, Serializable {
         double res = 0;
 
         for (int i = 0; i < numRows; i++)
-            for (int j = 0; j < numColumns; j++)
-                res += data[i][j] * data[i][j];
+            for (int j = 0; j < numColumns; j++) {
+                double value = get(i, j);
+                res += value * value;
+            }
 
         return Math.sqrt(res);
     }
@@ -412,18 +626,31 @@ public class DenseMatrix implements DataMatrix, Serializable {
      * @return the result of {@code A^T A}
      */
     public DenseMatrix transMult() {
-        DenseMatrix res = new DenseMatrix(numColumns, numColumns);
-
-        for (int i = 0; i < numColumns; i++) {
-            // inner product of row i and row k
-            for (int k = 0; k < numColumns; k++) {
-
-                double val = 0;
-                for (int j = 0; j < numRows; j++) {
-                    val += get(j, i) * get(j, k);
+        final DenseMatrix mat = doublePrecision();
+        final DenseMatrix res = new DenseMatrix(numColumns, numColumns);
+
+        // the upper triangle only, row by row of this matrix
+        forEachRowBlock(numColumns, (long) numRows * numColumns * numColumns / 2, new RowBlockKernel() {
+            @Override
+            public void compute(int fromRow, int toRow) {
+                for (int rowIdx = 0; rowIdx < numRows; rowIdx++) {
+                    double[] row = mat.rowArray(rowIdx);
+                    int offset = mat.rowOffset(rowIdx);
+                    for (int i = fromRow; i < toRow; i++) {
+                        double value = row[offset + i];
+                        double[] resRow = res.rowArray(i);
+                        int resOffset = res.rowOffset(i);
+                        for (int k = i; k < numColumns; k++) {
+                            resRow[resOffset + k] += value * row[offset + k];
+                        }
+                    }
                 }
+            }
+        });
 
-                res.set(i, k, val);
+        for (int i = 0; i < numColumns; i++) {
+            for (int k = 0; k < i; k++) {
+                res.put(i, k, res.get(k, i));
             }
         }
 
@@ -437,25 +664,52 @@ public class DenseMatrix implements DataMatrix, Serializable {
      * @return a dense matrix with results of matrix multiplication
      * @throws LibrecException if {@code this.numColumns != mat.numRows}
      */
-    public DenseMatrix mult(DenseMatrix mat) throws LibrecException {
+    public DenseMatrix mult(final DenseMatrix mat) throws LibrecException {
         // assert this.numColumns == mat.numRows;
         if (this.numColumns != mat.numRows) {
             throw new LibrecException("this.numColumns should equal to mat.numRows");
         }
 
-        DenseMatrix res = new DenseMatrix(this.numRows, mat.numColumns);
-        for (int i = 0; i < res.numRows; i++) {
-            for (int j = 0; j < res.numColumns; j++) {
+        final DenseMatrix left = doublePrecision(), right = mat.doublePrecision();
+        final DenseMatrix res = new DenseMatrix(this.numRows, mat.numColumns);
+        forEachRowBlock(numRows, (long) numRows * numColumns * mat.numColumns, new RowBlockKernel() {
+            @Override
+            public void compute(int fromRow, int toRow) {
+                left.multBlock(right, res, fromRow, toRow);
+            }
+        });
 
-                double product = 0;
-                for (int k = 0; k < this.numColumns; k++)
-                    product += data[i][k] * mat.data[k][j];
+        return res;
+    }
 
-                res.set(i, j, product);
+    /**
+     * Compute the rows in [fromRow, toRow) of {@code this * mat}, by panels of the rows of {@code mat}
+     * which are reused for all the rows of the block. Both matrices are of double precision.
+     *
+     * @param mat     a dense matrix
+     * @param res     the result matrix
+     * @param fromRow the first row, inclusive
+     * @param toRow   the last row, exclusive
+     */
+    private void multBlock(DenseMatrix mat, DenseMatrix res, int fromRow, int toRow) {
+        for (int kk = 0; kk < numColumns; kk += BLOCK_INNER) {
+            int kEnd = Math.min(kk + BLOCK_INNER, numColumns);
+            for (int jj = 0; jj < res.numColumns; jj += BLOCK_COLUMNS) {
+                int jEnd = Math.min(jj + BLOCK_COLUMNS, res.numColumns);
+                for (int i = fromRow; i < toRow; i++) {
+                    double[] row = rowArray(i), resRow = res.rowArray(i);
+                    int offset = rowOffset(i), resOffset = res.rowOffset(i);
+                    for (int k = kk; k < kEnd; k++) {
+                        double value = row[offset + k];
+                        double[] matRow = mat.rowArray(k);
+                        int matOffset = mat.rowOffset(k);
+                        for (int j = jj; j < jEnd; j++) {
+                            resRow[resOffset + j] += value * matRow[matOffset + j];
+                        }
+                    }
+                }
             }
         }
-
-        return res;
     }
 
     /**
@@ -465,25 +719,32 @@ public class DenseMatrix implements DataMatrix, Serializable {
      * @return a dense matrix with results of matrix multiplication
      * @throws LibrecException if {@code this.numColumns != mat.numRows}
      */
-    public DenseMatrix mult(SparseMatrix mat) throws LibrecException {
+    public DenseMatrix mult(final SparseMatrix mat) throws LibrecException {
         if(this.numColumns != mat.numRows){
             throw new LibrecException("numColumns should equal to numRows");
         }
 
-        DenseMatrix res = new DenseMatrix(this.numRows, mat.numColumns);
-
-        for (int j = 0; j < res.numColumns; j++) {
-            SparseVector col = mat.column(j); // only one-time computation
-
-            for (int i = 0; i < res.numRows; i++) {
-
-                double product = 0;
-                for (VectorEntry ve : col)
-                    product += data[i][ve.index()] * ve.get();
-
-                res.set(i, j, product);
+        final DenseMatrix left = doublePrecision();
+        final DenseMatrix res = new DenseMatrix(this.numRows, mat.numColumns);
+        forEachRowBlock(numRows, (long) numRows * (mat.numRows + mat.rowPtr[mat.numRows]), new RowBlockKernel() {
+            @Override
+            public void compute(int fromRow, int toRow) {
+                // row i of the result is the sum of the rows of mat weighted by row i of this matrix
+                for (int i = fromRow; i < toRow; i++) {
+                    double[] row = left.rowArray(i), resRow = res.rowArray(i);
+                    int offset = left.rowOffset(i), resOffset = res.rowOffset(i);
+                    for (int k = 0; k < mat.numRows; k++) {
+                        double value = row[offset + k];
+                        for (int entry = mat.rowPtr[k]; entry < mat.rowPtr[k + 1]; entry++) {
+                            double matValue = mat.rowData[entry];
+                            if (matValue != 0.0) {
+                                resRow[resOffset + mat.colInd[entry]] += value * matValue;
+                            }
+                        }
+                    }
+                }
             }
-        }
+        });
 
         return res;
     }
@@ -500,11 +761,24 @@ public class DenseMatrix implements DataMatrix, Serializable {
         if (this.numColumns != vec.size) {
             throw new LibrecException("this.numColumns should equal to vec.size");
         }
-        DenseVector res = new DenseVector(this.numRows);
-        for (int i = 0; i < this.numRows; i++)
-            res.set(i, row(i, false).inner(vec));
+        final DenseMatrix mat = doublePrecision();
+        final double[] vecData = vec.getData();
+        final double[] resData = new double[this.numRows];
+        forEachRowBlock(numRows, (long) numRows * numColumns, new RowBlockKernel() {
+            @Override
+            public void compute(int fromRow, int toRow) {
+                for (int i = fromRow; i < toRow; i++) {
+                    double[] row = mat.rowArray(i);
+                    int offset = mat.rowOffset(i);
+                    double product = 0;
+                    for (int j = 0; j < numColumns; j++)
+                        product += row[offset + j] * vecData[j];
+                    resData[i] = product;
+                }
+            }
+        });
 
-        return res;
+        return new DenseVector(resData, false);
     }
 
     public DenseVector mult(SparseVector vec) {
@@ -513,7 +787,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
 
             double product = 0;
             for (VectorEntry ve : vec)
-                product += data[i][ve.index()] * ve.get();
+                product += get(i, ve.index()) * ve.get();
 
             res.set(i, product);
         }
@@ -535,19 +809,27 @@ public class DenseMatrix implements DataMatrix, Serializable {
             throw new LibrecException("sm.numColumns should equal to dm.numRows");
         }
 
-        DenseMatrix res = new DenseMatrix(sm.numRows, dm.numColumns);
-
-        for (int i = 0; i < res.numRows; i++) {
-            SparseVector row = sm.row(i);
-            for (int j = 0; j < res.numColumns; j++) {
-
-                double product = 0;
-                for (int k : row.getIndex())
-                    product += row.get(k) * dm.data[k][j];
-
-                res.set(i, j, product);
+        final DenseMatrix res = new DenseMatrix(sm.numRows, dm.numColumns);
+        final SparseMatrix left = sm;
+        final DenseMatrix right = dm.doublePrecision();
+        forEachRowBlock(sm.numRows, (long) sm.rowPtr[sm.numRows] * dm.numColumns, new RowBlockKernel() {
+            @Override
+            public void compute(int fromRow, int toRow) {
+                // row i of the result is the sum of the rows of dm weighted by row i of sm
+                for (int i = fromRow; i < toRow; i++) {
+                    double[] resRow = res.rowArray(i);
+                    int resOffset = res.rowOffset(i);
+                    for (int entry = left.rowPtr[i]; entry < left.rowPtr[i + 1]; entry++) {
+                        double value = left.rowData[entry];
+                        double[] rightRow = right.rowArray(left.colInd[entry]);
+                        int rightOffset = right.rowOffset(left.colInd[entry]);
+                        for (int j = 0; j < res.numColumns; j++) {
+                            resRow[resOffset + j] += value * rightRow[rightOffset + j];
+                        }
+                    }
+                }
             }
-        }
+        });
 
         return res;
 
@@ -560,6 +842,10 @@ public class DenseMatrix implements DataMatrix, Serializable {
      * @return value at entry [row, column]
      */
     public double get(int row, int column) {
+        if (values != null)
+            return values[row * numColumns + column];
+        if (floatValues != null)
+            return floatValues[row * numColumns + column];
         return data[row][column];
     }
 
@@ -574,10 +860,26 @@ public class DenseMatrix implements DataMatrix, Serializable {
         if (topN < 0) {
 
         } else {
-            data[row][column] = val;
+            put(row, column, val);
         }
     }
 
+    /**
+     * Set a value to entry [row, column], regardless of topN
+     *
+     * @param row    row index
+     * @param column column index
+     * @param val    the value to be set
+     */
+    private void put(int row, int column, double val) {
+        if (values != null)
+            values[row * numColumns + column] = val;
+        else if (floatValues != null)
+            floatValues[row * numColumns + column] = (float) val;
+        else
+            data[row][column] = val;
+    }
+
     /**
      * Set a value to all entries
      *
@@ -585,9 +887,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
      */
     public void setAll(double val) {
         for (int row = 0; row < numRows; row++) {
-            for (int col = 0; col < numColumns; col++) {
-                data[row][col] = val;
-            }
+            setRow(row, val);
         }
     }
 
@@ -600,7 +900,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
     public double sumOfRow(int row) {
         double res = 0;
         for (int col = 0; col < numColumns; col++)
-            res += data[row][col];
+            res += get(row, col);
 
         return res;
     }
@@ -614,7 +914,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
     public double sumOfColumn(int col) {
         double res = 0;
         for (int row = 0; row < numRows; row++)
-            res += data[row][col];
+            res += get(row, col);
 
         return res;
     }
@@ -626,7 +926,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
         double res = 0;
         for (int row = 0; row < numRows; row++) {
             for (int col = 0; col < numColumns; col++) {
-                res += data[row][col];
+                res += get(row, col);
             }
         }
 
@@ -640,10 +940,10 @@ public class DenseMatrix implements DataMatrix, Serializable {
      * @return a new matrix by scaling the current matrix
      */
     public DenseMatrix scale(double val) {
-        DenseMatrix mat = new DenseMatrix(numRows, numColumns);
+        DenseMatrix mat = like(numRows, numColumns);
         for (int i = 0; i < numRows; i++)
             for (int j = 0; j < numColumns; j++)
-                mat.data[i][j] = this.data[i][j] * val;
+                mat.put(i, j, this.get(i, j) * val);
 
         return mat;
     }
@@ -657,7 +957,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
     public DenseMatrix scaleEqual(double val) {
         for (int i = 0; i < numRows; i++)
             for (int j = 0; j < numColumns; j++)
-                data[i][j] *= val;
+                put(i, j, get(i, j) * val);
 
         return this;
     }
@@ -670,7 +970,12 @@ public class DenseMatrix implements DataMatrix, Serializable {
      * @param column column index
      */
     public void add(int row, int column, double val) {
-        data[row][column] += val;
+        if (values != null)
+            values[row * numColumns + column] += val;
+        else if (floatValues != null)
+            floatValues[row * numColumns + column] += val;
+        else
+            data[row][column] += val;
     }
 
 
@@ -691,11 +996,11 @@ public class DenseMatrix implements DataMatrix, Serializable {
         if (numColumns != mat.numColumns) {
             throw new LibrecException("numColumns should be equal");
         }
-        DenseMatrix res = new DenseMatrix(numRows, numColumns);
+        DenseMatrix res = like(numRows, numColumns);
 
         for (int i = 0; i < numRows; i++)
             for (int j = 0; j < numColumns; j++)
-                res.data[i][j] = data[i][j] + mat.data[i][j];
+                res.put(i, j, get(i, j) + mat.get(i, j));
 
         return res;
     }
@@ -721,7 +1026,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
 
         for (int i = 0; i < numRows; i++)
             for (int j = 0; j < numColumns; j++)
-                data[i][j] += mat.data[i][j];
+                add(i, j, mat.get(i, j));
 
         return this;
     }
@@ -771,7 +1076,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
         }
 
         for (MatrixEntry me : mat)
-            data[me.row()][me.column()] += me.get();
+            add(me.row(), me.column(), me.get());
 
         return this;
     }
@@ -784,11 +1089,11 @@ public class DenseMatrix implements DataMatrix, Serializable {
      */
     public DenseMatrix add(double val) {
 
-        DenseMatrix res = new DenseMatrix(numRows, numColumns);
+        DenseMatrix res = like(numRows, numColumns);
 
         for (int i = 0; i < numRows; i++)
             for (int j = 0; j < numColumns; j++)
-                res.data[i][j] = data[i][j] + val;
+                res.put(i, j, get(i, j) + val);
 
         return res;
     }
@@ -802,7 +1107,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
     public DenseMatrix addEqual(double val) {
         for (int i = 0; i < numRows; i++)
             for (int j = 0; j < numColumns; j++)
-                data[i][j] += val;
+                add(i, j, val);
 
         return this;
     }
@@ -825,11 +1130,11 @@ public class DenseMatrix implements DataMatrix, Serializable {
             throw new LibrecException("numColumns should be equal");
         }
 
-        DenseMatrix res = new DenseMatrix(numRows, numColumns);
+        DenseMatrix res = like(numRows, numColumns);
 
         for (int i = 0; i < numRows; i++)
             for (int j = 0; j < numColumns; j++)
-                res.data[i][j] = data[i][j] - mat.data[i][j];
+                res.put(i, j, get(i, j) - mat.get(i, j));
 
         return res;
     }
@@ -854,7 +1159,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
 
         for (int i = 0; i < numRows; i++)
             for (int j = 0; j < numColumns; j++)
-                data[i][j] -= mat.data[i][j];
+                put(i, j, get(i, j) - mat.get(i, j));
 
         return this;
     }
@@ -904,7 +1209,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
         }
 
         for (MatrixEntry me : mat)
-            data[me.row()][me.column()] -= me.get();
+            add(me.row(), me.column(), -me.get());
 
         return this;
     }
@@ -917,11 +1222,11 @@ public class DenseMatrix implements DataMatrix, Serializable {
      */
     public DenseMatrix minus(double val) {
 
-        DenseMatrix res = new DenseMatrix(numRows, numColumns);
+        DenseMatrix res = like(numRows, numColumns);
 
         for (int i = 0; i < numRows; i++)
             for (int j = 0; j < numColumns; j++)
-                res.data[i][j] = data[i][j] - val;
+                res.put(i, j, get(i, j) - val);
 
         return res;
     }
@@ -935,7 +1240,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
     public DenseMatrix minusEqual(double val) {
         for (int i = 0; i < numRows; i++)
             for (int j = 0; j < numColumns; j++)
-                data[i][j] -= val;
+                put(i, j, get(i, j) - val);
 
         return this;
     }
@@ -951,30 +1256,109 @@ public class DenseMatrix implements DataMatrix, Serializable {
         DenseMatrix L = new DenseMatrix(n, n);
 
         for (int i = 0; i < n; i++) {
+            double[] rowI = L.rowArray(i);
+            int offsetI = L.rowOffset(i);
             for (int j = 0; j <= i; j++) {
+                double[] rowJ = L.rowArray(j);
+                int offsetJ = L.rowOffset(j);
                 double sum = 0.0;
                 for (int k = 0; k < j; k++)
-                    sum += L.get(i, k) * L.get(j, k);
+                    sum += rowI[offsetI + k] * rowJ[offsetJ + k];
 
-                double val = i == j ? Math.sqrt(data[i][i] - sum) : (data[i][j] - sum) / L.get(j, j);
-                L.set(i, j, val);
+                rowI[offsetI + j] = i == j ? Math.sqrt(get(i, i) - sum) : (get(i, j) - sum) / rowJ[offsetJ + j];
             }
-            if (Double.isNaN(L.get(i, i)))
+            if (Double.isNaN(rowI[offsetI + i]))
                 return null;
         }
 
         return L.transpose();
     }
 
+    /**
+     * Solve {@code this * x = b} for a symmetric positive definite matrix by a Cholesky decomposition
+     * {@code this = L * L^T}, done in place: only the upper triangle of this matrix is read, and it is
+     * overwritten by {@code L^T}. The lower triangle is left as it is. A matrix of single precision is
+     * decomposed in double precision, and then overwritten.
+     *
+     * @param b the right hand side, which is overwritten by the solution
+     * @return the solution {@code x}, i.e. {@code b}
+     * @throws LibrecException if the matrix is not square or not positive definite
+     */
+    public DenseVector choleskySolve(DenseVector b) throws LibrecException {
+        if (numRows != numColumns || numRows != b.size)
+            throw new LibrecException("Matrix is not square or does not match the size of the vector");
+
+        int n = numRows;
+        if (floatValues != null) {
+            DenseMatrix mat = doublePrecision();
+            mat.choleskySolve(b);
+            for (int i = 0; i < n; i++)
+                for (int j = i; j < n; j++)
+                    put(i, j, mat.get(i, j));
+            return b;
+        }
+
+        for (int j = 0; j < n; j++) {
+            double[] rowJ = rowArray(j);
+            int offsetJ = rowOffset(j);
+            double diagonal = rowJ[offsetJ + j];
+            for (int k = 0; k < j; k++) {
+                double value = get(k, j);
+                diagonal -= value * value;
+            }
+            if (!(diagonal > 0.0))
+                throw new LibrecException("Matrix is not positive definite");
+            diagonal = Math.sqrt(diagonal);
+            rowJ[offsetJ + j] = diagonal;
+            for (int k = 0; k < j; k++) {
+                double[] rowK = rowArray(k);
+                int offsetK = rowOffset(k);
+                double value = rowK[offsetK + j];
+                for (int i = j + 1; i < n; i++)
+                    rowJ[offsetJ + i] -= value * rowK[offsetK + i];
+            }
+            for (int i = j + 1; i < n; i++)
+                rowJ[offsetJ + i] /= diagonal;
+        }
+
+        double[] x = b.getData();
+        // L * y = b
+        for (int i = 0; i < n; i++) {
+            double value = x[i];
+            for (int k = 0; k < i; k++)
+                value -= get(k, i) * x[k];
+            x[i] = value / get(i, i);
+        }
+        // L^T * x = y
+        for (int i = n - 1; i >= 0; i--) {
+            double[] rowI = rowArray(i);
+            int offsetI = rowOffset(i);
+            double value = x[i];
+            for (int k = i + 1; k < n; k++)
+                value -= rowI[offsetI + k] * x[k];
+            x[i] = value / rowI[offsetI + i];
+        }
+
+        return b;
+    }
+
     /**
      * @return a transposed matrix of current matrix
      */
     public DenseMatrix transpose() {
-        DenseMatrix mat = new DenseMatrix(numColumns, numRows);
-
-        for (int i = 0; i < mat.numRows; i++)
-            for (int j = 0; j < mat.numColumns; j++)
-                mat.set(i, j, this.data[j][i]);
+        DenseMatrix mat = like(numColumns, numRows);
+
+        // by square tiles, so that both the rows read and the rows written stay in cache
+        for (int ii = 0; ii < numRows; ii += BLOCK_ROWS) {
+            int iEnd = Math.min(ii + BLOCK_ROWS, numRows);
+            for (int jj = 0; jj < numColumns; jj += BLOCK_ROWS) {
+                int jEnd = Math.min(jj + BLOCK_ROWS, numColumns);
+                for (int i = ii; i < iEnd; i++) {
+                    for (int j = jj; j < jEnd; j++)
+                        mat.put(j, i, get(i, j));
+                }
+            }
+        }
 
         return mat;
     }
@@ -1014,7 +1398,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
             throw new RuntimeException("Only square matrix can do inversion");
 
         int n = numRows;
-        DenseMatrix mat = new DenseMatrix(this);
+        DenseMatrix mat = doubleCopy();
 
         if (n == 1) {
             mat.set(0, 0, 1.0 / mat.get(0, 0));
@@ -1121,7 +1505,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
             return mat;
         }
 
-        DenseMatrix b = new DenseMatrix(this);
+        DenseMatrix b = doubleCopy();
         for (int i = 0; i < n; i++) {
             // find pivot:
             double mag = 0;
@@ -1220,7 +1604,12 @@ public class DenseMatrix implements DataMatrix, Serializable {
      * @param val value to be set
      */
     public void setRow(int row, double val) {
-        Arrays.fill(data[row], val);
+        if (values != null)
+            Arrays.fill(values, row * numColumns, (row + 1) * numColumns, val);
+        else if (floatValues != null)
+            Arrays.fill(floatValues, row * numColumns, (row + 1) * numColumns, (float) val);
+        else
+            Arrays.fill(data[row], val);
     }
 
     /**
@@ -1230,8 +1619,7 @@ public class DenseMatrix implements DataMatrix, Serializable {
      * @param vals values of a dense vector
      */
     public void setRow(int row, DenseVector vals) {
-        for (int j = 0; j < numColumns; j++)
-            data[row][j] = vals.data[j];
+        putRow(row, vals.data);
     }
 
     /**
@@ -1244,14 +1632,22 @@ public class DenseMatrix implements DataMatrix, Serializable {
 
     @Override
     public String toString() {
-        return StringUtil.toString(data);
+        return StringUtil.toString(getData());
     }
 
     /**
-     * @return the data
+     * @return the rows of the matrix, which are shared with a matrix stored as an array of rows and
+     * otherwise copied
      */
     public double[][] getData() {
-        return data;
+        if (data != null)
+            return data;
+
+        double[][] rows = new double[numRows][numColumns];
+        for (int i = 0; i < numRows; i++)
+            copyRow(i, rows[i], 0);
+
+        return rows;
     }
 
     @Override
@@ -1259,4 +1655,61 @@ public class DenseMatrix implements DataMatrix, Serializable {
         return numRows * numColumns;
     }
 
+
+    /**
+     * A kernel computing a block of rows of a product.
+     */
+    private interface RowBlockKernel {
+        /**
+         * Compute the rows in [fromRow, toRow).
+         *
+         * @param fromRow the first row, inclusive
+         * @param toRow   the last row, exclusive
+         */
+        void compute(int fromRow, int toRow);
+    }
+
+    /**
+     * Run a kernel over all rows, by blocks of {@link #BLOCK_ROWS} rows in parallel if the work is large
+     * enough to pay for the threads. The blocks write disjoint rows, so no synchronization is needed.
+     *
+     * @param numRows the number of rows
+     * @param work    the number of multiply-adds of the kernel
+     * @param kernel  the kernel
+     */
+    private static void forEachRowBlock(int numRows, long work, final RowBlockKernel kernel) {
+        int numBlocks = (numRows + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        int numThreads = Math.min(numBlocks, Runtime.getRuntime().availableProcessors());
+        if (numThreads <= 1 || work < PARALLEL_WORK) {
+            kernel.compute(0, numRows);
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            List<Future<?>> blocks = new ArrayList<>(numBlocks);
+            for (int fromRow = 0; fromRow < numRows; fromRow += BLOCK_ROWS) {
+                final int blockFrom = fromRow, blockTo = Math.min(fromRow + BLOCK_ROWS, numRows);
+                blocks.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        kernel.compute(blockFrom, blockTo);
+                    }
+                }));
+            }
+            for (Future<?> block : blocks) {
+                block.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 }
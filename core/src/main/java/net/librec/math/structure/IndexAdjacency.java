@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compressed adjacency of the non-zero entries of a sparse matrix, e.g. the items rated by each user or the trustees
+ * of each user.
+ * <p>
+ * The indices adjacent to a key are kept in ascending order in the slice {@code [start(key), end(key))} of one
+ * {@code int[]}, so they are iterated without boxing or allocation:
+ * <pre>
+ * for (int position = adjacency.start(userIdx); position &lt; adjacency.end(userIdx); position++) {
+ *     int itemIdx = adjacency.get(position);
+ * }
+ * </pre>
+ * Unlike the CRS arrays of {@link SparseMatrix}, explicit zeros are left out. Keys beyond the matrix have no
+ * adjacent indices. A {@link SparseTensor} lists the entries of each key of a dimension the same way, and the
+ * negative samplers of the BPR family test the positive items of each user against it.
+ */
+public final class IndexAdjacency {
+
+    /**
+     * indices adjacent to key k are indices[pointers[k], pointers[k + 1])
+     */
+    private final int[] pointers, indices;
+
+    /**
+     * Compress the non-zero entries of the given compressed storage.
+     *
+     * @param numKeys  the number of rows (or columns)
+     * @param pointers row (or column) pointers
+     * @param indices  column (or row) indices
+     * @param data     values of the entries
+     */
+    IndexAdjacency(int numKeys, int[] pointers, int[] indices, double[] data) {
+        this.pointers = new int[numKeys + 1];
+        int size = 0;
+        for (int key = 0; key < numKeys; key++) {
+            for (int entry = pointers[key]; entry < pointers[key + 1]; entry++) {
+                if (data[entry] != 0.0) {
+                    size++;
+                }
+            }
+            this.pointers[key + 1] = size;
+        }
+
+        this.indices = new int[size];
+        for (int key = 0, position = 0; key < numKeys; key++) {
+            for (int entry = pointers[key]; entry < pointers[key + 1]; entry++) {
+                if (data[entry] != 0.0) {
+                    this.indices[position++] = indices[entry];
+                }
+            }
+        }
+    }
+
+    /**
+     * Wrap compressed arrays, which are not copied.
+     *
+     * @param pointers the indices adjacent to key k are indices[pointers[k], pointers[k + 1])
+     * @param indices  the adjacent indices, ascending for each key
+     */
+    IndexAdjacency(int[] pointers, int[] indices) {
+        this.pointers = pointers;
+        this.indices = indices;
+    }
+
+    /**
+     * Create an adjacency from the indices adjacent to each key, in any order.
+     *
+     * @param keyIndices the indices adjacent to each key
+     * @return the adjacency
+     */
+    public static IndexAdjacency of(int[][] keyIndices) {
+        int[] pointers = new int[keyIndices.length + 1];
+        for (int key = 0; key < keyIndices.length; key++) {
+            pointers[key + 1] = pointers[key] + keyIndices[key].length;
+        }
+        int[] indices = new int[pointers[keyIndices.length]];
+        for (int key = 0; key < keyIndices.length; key++) {
+            System.arraycopy(keyIndices[key], 0, indices, pointers[key], keyIndices[key].length);
+            Arrays.sort(indices, pointers[key], pointers[key + 1]);
+        }
+        return new IndexAdjacency(pointers, indices);
+    }
+
+    /**
+     * @return the number of keys
+     */
+    public int numKeys() {
+        return pointers.length - 1;
+    }
+
+    /**
+     * @param key row (or column) id
+     * @return the first position of the indices adjacent to the key
+     */
+    public int start(int key) {
+        return key < pointers.length - 1 ? pointers[key] : 0;
+    }
+
+    /**
+     * @param key row (or column) id
+     * @return the position after the last index adjacent to the key
+     */
+    public int end(int key) {
+        return key < pointers.length - 1 ? pointers[key + 1] : 0;
+    }
+
+    /**
+     * @param key row (or column) id
+     * @return the number of indices adjacent to the key
+     */
+    public int size(int key) {
+        return end(key) - start(key);
+    }
+
+    /**
+     * @param position position in [start(key), end(key))
+     * @return the index at the position
+     */
+    public int get(int position) {
+        return indices[position];
+    }
+
+    /**
+     * @param key   row (or column) id
+     * @param index column (or row) id
+     * @return true if the index is adjacent to the key
+     */
+    public boolean contains(int key, int index) {
+        return Arrays.binarySearch(indices, start(key), end(key), index) >= 0;
+    }
+
+    /**
+     * Draw an index adjacent to a key uniformly.
+     *
+     * @param key    row (or column) id with at least one adjacent index
+     * @param random random generator of the current thread
+     * @return an index adjacent to the key
+     */
+    public int random(int key, Random random) {
+        return indices[pointers[key] + random.nextInt(pointers[key + 1] - pointers[key])];
+    }
+}
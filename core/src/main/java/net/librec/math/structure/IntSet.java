@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import java.util.Arrays;
+
+/**
+ * Set of integers in [0, capacity), e.g. of item indices, which unlike {@code Set<Integer>} tests and adds its members
+ * without boxing or hashing.
+ * <p>
+ * The members are kept in a bit set, for the membership tests, and in the order of their insertion, so that they are
+ * iterated and cleared in time proportional to their number. A set is thus built once and cleared for each user:
+ * <pre>
+ * IntSet recommendedItems = new IntSet(numItems);
+ * for (int userIdx = 0; userIdx &lt; numUsers; userIdx++) {
+ *     recommendedItems.clear();
+ *     ...
+ * }
+ * </pre>
+ */
+public final class IntSet {
+
+    /**
+     * bit v of the bit set is set if v is a member
+     */
+    private final long[] bits;
+
+    /**
+     * the members in the order of their insertion, of which the first size are used
+     */
+    private int[] members;
+
+    /**
+     * the number of members
+     */
+    private int size;
+
+    /**
+     * the upper bound of the members, exclusive
+     */
+    private final int capacity;
+
+    /**
+     * Create an empty set of integers in [0, capacity).
+     *
+     * @param capacity the upper bound of the members, exclusive
+     */
+    public IntSet(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Illegal capacity " + capacity);
+        }
+        this.capacity = capacity;
+        this.bits = new long[(capacity + 63) >>> 6];
+        this.members = new int[Math.min(capacity, 16)];
+    }
+
+    /**
+     * @return the upper bound of the members, exclusive
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of members
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the set has no members
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param value an integer
+     * @return true if the integer is a member
+     */
+    public boolean contains(int value) {
+        return value >= 0 && value < capacity && (bits[value >>> 6] & (1L << value)) != 0;
+    }
+
+    /**
+     * Add an integer to the set.
+     *
+     * @param value an integer in [0, capacity)
+     * @return true if the integer was not a member
+     */
+    public boolean add(int value) {
+        if (value < 0 || value >= capacity) {
+            throw new IndexOutOfBoundsException("Value " + value + " is out of [0, " + capacity + ")");
+        }
+        long mask = 1L << value;
+        if ((bits[value >>> 6] & mask) != 0) {
+            return false;
+        }
+        bits[value >>> 6] |= mask;
+        if (size == members.length) {
+            members = Arrays.copyOf(members, Math.min(capacity, Math.max(16, size + (size >> 1))));
+        }
+        members[size++] = value;
+        return true;
+    }
+
+    /**
+     * Add the indices of the non-zero entries of a row (or column) of a sparse matrix.
+     *
+     * @param view a view of a row (or column)
+     */
+    public void addAll(SparseMatrix.EntryView view) {
+        for (int i = 0; i < view.size(); i++) {
+            add(view.indexAt(i));
+        }
+    }
+
+    /**
+     * @param position position in [0, size())
+     * @return the member at the position, in the order of insertion
+     */
+    public int get(int position) {
+        return members[position];
+    }
+
+    /**
+     * Remove all the members.
+     */
+    public void clear() {
+        if (size > bits.length) {
+            Arrays.fill(bits, 0L);
+        } else {
+            for (int position = 0; position < size; position++) {
+                bits[members[position] >>> 6] = 0L;
+            }
+        }
+        size = 0;
+    }
+}
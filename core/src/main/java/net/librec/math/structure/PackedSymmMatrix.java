@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Dense symmetric matrix storing the upper triangle, diagonal included, row by row
+ * in one {@code float} array of {@code dim * (dim + 1) / 2} entries.
+ * <p>
+ * All entries take memory, so it suits small dimensions where most pairs are set.
+ * {@link #get(int, int)} and {@link #set(int, int, double)} are constant time and
+ * zero values are taken as absent.
+ */
+public class PackedSymmMatrix extends SymmMatrix {
+
+    /**
+     * packed upper triangle
+     */
+    private final float[] values;
+
+    /**
+     * Construct a packed symmetric matrix of zeros
+     *
+     * @param dim matrix dimension
+     */
+    public PackedSymmMatrix(int dim) {
+        super(dim, null);
+        long length = (long) dim * (dim + 1) / 2;
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Dimension " + dim + " is too large for a packed symmetric matrix");
+        }
+        values = new float[(int) length];
+    }
+
+    /**
+     * Construct a packed symmetric matrix by deeply copying data from a given matrix
+     *
+     * @param mat a given matrix
+     */
+    public PackedSymmMatrix(PackedSymmMatrix mat) {
+        super(mat.dim, null);
+        values = mat.values.clone();
+    }
+
+    /**
+     * @param row row index
+     * @param col column index
+     * @return position of entry (row, col) in the packed upper triangle
+     */
+    private int offset(int row, int col) {
+        if (row > col) {
+            int tmp = row;
+            row = col;
+            col = tmp;
+        }
+        if (row < 0 || col >= dim) {
+            throw new IndexOutOfBoundsException("Entry (" + row + ", " + col + ") out of dimension " + dim);
+        }
+        return (int) ((long) row * (2L * dim - row + 1) / 2) + col - row;
+    }
+
+    @Override
+    public PackedSymmMatrix clone() {
+        return new PackedSymmMatrix(this);
+    }
+
+    @Override
+    public double get(int row, int col) {
+        return values[offset(row, col)];
+    }
+
+    @Override
+    public void set(int row, int col, double val) {
+        values[offset(row, col)] = (float) val;
+    }
+
+    @Override
+    public void add(int row, int col, double val) {
+        values[offset(row, col)] += val;
+    }
+
+    @Override
+    public SparseVector row(int row) {
+        int[] index = new int[dim];
+        double[] data = new double[dim];
+        int count = 0;
+        // column row of the upper triangle, then row row of it
+        for (int col = 0, offset = row; col < row; offset += dim - col - 1, col++) {
+            if (values[offset] != 0) {
+                index[count] = col;
+                data[count++] = values[offset];
+            }
+        }
+        for (int col = row, offset = offset(row, row); col < dim; col++, offset++) {
+            if (values[offset] != 0) {
+                index[count] = col;
+                data[count++] = values[offset];
+            }
+        }
+
+        return new SparseVector(dim, index, data, 0, count - 1);
+    }
+
+    /**
+     * @return the number of nonzero entries, each pair (row, col) counted once
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (float value : values) {
+            if (value != 0) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Iterate over the nonzero entries, each pair (row, col) once with {@code row >= col}.
+     *
+     * @return an iterator over the nonzero entries
+     */
+    @Override
+    public Iterator<MatrixEntry> iterator() {
+        return new PackedIterator();
+    }
+
+    /**
+     * @return a table copy of the nonzero entries, keyed with {@code row >= col}
+     */
+    @Override
+    public Table<Integer, Integer, Double> getData() {
+        Table<Integer, Integer, Double> table = HashBasedTable.create();
+        for (MatrixEntry entry : this) {
+            table.put(entry.row(), entry.column(), entry.get());
+        }
+        return table;
+    }
+
+    /**
+     * Iterator over the nonzero entries of the packed upper triangle, where the
+     * entry (col, row) of the upper triangle is reported as (row, col).
+     */
+    private class PackedIterator implements Iterator<MatrixEntry>, MatrixEntry {
+        private int upperRow, upperCol, offset = -1;
+        private int nextRow, nextCol, nextOffset = -1;
+
+        PackedIterator() {
+            advance(0, -1, -1);
+        }
+
+        private void advance(int row, int col, int position) {
+            for (position++, col++; position < values.length; position++, col++) {
+                if (col == dim) {
+                    row++;
+                    col = row;
+                }
+                if (values[position] != 0) {
+                    nextRow = row;
+                    nextCol = col;
+                    nextOffset = position;
+                    return;
+                }
+            }
+            nextOffset = values.length;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextOffset < values.length;
+        }
+
+        @Override
+        public MatrixEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            upperRow = nextRow;
+            upperCol = nextCol;
+            offset = nextOffset;
+            advance(upperRow, upperCol, offset);
+            return this;
+        }
+
+        @Override
+        public void remove() {
+            values[offset] = 0;
+        }
+
+        @Override
+        public int row() {
+            return upperCol;
+        }
+
+        @Override
+        public int column() {
+            return upperRow;
+        }
+
+        @Override
+        public double get() {
+            return values[offset];
+        }
+
+        @Override
+        public void set(double value) {
+            values[offset] = (float) value;
+        }
+    }
+}
@@ -22,7 +22,6 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Table;
 import com.google.common.collect.Table.Cell;
@@ -100,6 +99,93 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
         construct(dataTable, colMap);
     }
 
+    /**
+     * Construct a sparse matrix with both CRS and CCS structures from the CRS arrays,
+     * which are taken over without copying. The CCS structures are built by a counting
+     * sort over the columns.
+     *
+     * @param rows    number of rows
+     * @param cols    number of columns
+     * @param rowPtr  row pointers, of length rows + 1
+     * @param colInd  column indices, sorted within each row
+     * @param rowData values of each entry
+     */
+    public SparseMatrix(int rows, int cols, int[] rowPtr, int[] colInd, double[] rowData) {
+        numRows = rows;
+        numColumns = cols;
+        valueSet = new TreeSet<>();
+        this.rowPtr = rowPtr;
+        this.colInd = colInd;
+        this.rowData = rowData;
+
+        int nnz = rowPtr[rows];
+        colPtr = new int[cols + 1];
+        rowInd = new int[nnz];
+        colData = new double[nnz];
+        for (int i = 0; i < nnz; i++) {
+            int col = colInd[i];
+            if (col < 0 || col >= numColumns)
+                throw new IllegalArgumentException("colInd[" + i + "]=" + col + ", which is not a valid column index");
+            colPtr[col + 1]++;
+        }
+        for (int col = 0; col < cols; col++) {
+            colPtr[col + 1] += colPtr[col];
+        }
+        // rows are visited in order, so the row indices of each column are sorted
+        int[] cursors = Arrays.copyOf(colPtr, cols);
+        for (int row = 0; row < rows; row++) {
+            for (int i = rowPtr[row]; i < rowPtr[row + 1]; i++) {
+                int position = cursors[colInd[i]]++;
+                rowInd[position] = row;
+                colData[position] = rowData[i];
+            }
+        }
+
+        addValues(rowData);
+    }
+
+    /**
+     * Construct a sparse matrix from both CRS and CCS arrays, which are taken over
+     * without copying. Used by {@link SparseMatrixBuilder} and model files.
+     *
+     * @param rows    number of rows
+     * @param cols    number of columns
+     * @param rowPtr  row pointers, of length rows + 1
+     * @param colInd  column indices, sorted within each row
+     * @param rowData values of each entry in CRS order
+     * @param colPtr  column pointers, of length cols + 1
+     * @param rowInd  row indices, sorted within each column
+     * @param colData values of each entry in CCS order
+     */
+    public SparseMatrix(int rows, int cols, int[] rowPtr, int[] colInd, double[] rowData,
+                        int[] colPtr, int[] rowInd, double[] colData) {
+        numRows = rows;
+        numColumns = cols;
+        valueSet = new TreeSet<>();
+        this.rowPtr = rowPtr;
+        this.colInd = colInd;
+        this.rowData = rowData;
+        this.colPtr = colPtr;
+        this.rowInd = rowInd;
+        this.colData = colData;
+        addValues(rowData);
+    }
+
+    /**
+     * Add the distinct values of the given data to the value set in ascending order.
+     *
+     * @param data values of the entries
+     */
+    private void addValues(double[] data) {
+        double[] values = Arrays.copyOf(data, data.length);
+        Arrays.sort(values);
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || Double.compare(values[i], values[i - 1]) != 0) {
+                valueSet.add(values[i]);
+            }
+        }
+    }
+
     /**
      * Construct a sparse matrix from another sparse matrix
      *
@@ -235,57 +321,19 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
      */
     private void construct(Table<Integer, Integer, ? extends Number> dataTable,
                            Multimap<Integer, Integer> columnStructure) {
-        int nnz = dataTable.size();
-
-        // CRS
-        rowPtr = new int[numRows + 1];
-        colInd = new int[nnz];
-        rowData = new double[nnz];
-
-        int j = 0;
-        for (int i = 1; i <= numRows; ++i) {
-            Set<Integer> cols = dataTable.row(i - 1).keySet();
-            rowPtr[i] = rowPtr[i - 1] + cols.size();
-
-            for (int col : cols) {
-                colInd[j++] = col;
-                if (col < 0 || col >= numColumns)
-                    throw new IllegalArgumentException("colInd[" + j + "]=" + col
-                            + ", which is not a valid column index");
-            }
-
-            Arrays.sort(colInd, rowPtr[i - 1], rowPtr[i]);
-        }
-
-        // CCS
-        colPtr = new int[numColumns + 1];
-        rowInd = new int[nnz];
-        colData = new double[nnz];
-
-        j = 0;
-        for (int i = 1; i <= numColumns; ++i) {
-            // dataTable.col(i-1) is more time-consuming than columnStructure.get(i-1)
-            Collection<Integer> rows = columnStructure != null ? columnStructure.get(i - 1) : dataTable.column(i - 1)
-                    .keySet();
-            colPtr[i] = colPtr[i - 1] + rows.size();
-
-            for (int row : rows) {
-                rowInd[j++] = row;
-                if (row < 0 || row >= numRows)
-                    throw new IllegalArgumentException("rowInd[" + j + "]=" + row + ", which is not a valid row index");
-            }
-
-            Arrays.sort(rowInd, colPtr[i - 1], colPtr[i]);
-        }
-
-        // set data
+        SparseMatrixBuilder builder = new SparseMatrixBuilder(numRows, numColumns, dataTable.size());
         for (Cell<Integer, Integer, ? extends Number> en : dataTable.cellSet()) {
-            int row = en.getRowKey();
-            int col = en.getColumnKey();
-            double val = en.getValue().doubleValue();
-
-            set(row, col, val);
+            builder.add(en.getRowKey(), en.getColumnKey(), en.getValue().doubleValue());
         }
+        SparseMatrix mat = builder.build();
+
+        rowPtr = mat.rowPtr;
+        colInd = mat.colInd;
+        rowData = mat.rowData;
+        colPtr = mat.colPtr;
+        rowInd = mat.rowInd;
+        colData = mat.colData;
+        valueSet = mat.valueSet;
     }
 
     /**
@@ -459,6 +507,77 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
         return res;
     }
 
+    /**
+     * build the adjacency of the non-zero columns of each row, which unlike {@link #rowColumnsCache(String)} is
+     * iterated without boxing or allocation
+     *
+     * @return the row adjacency {row, columns}
+     */
+    public IndexAdjacency rowAdjacency() {
+        return new IndexAdjacency(numRows, rowPtr, colInd, rowData);
+    }
+
+    /**
+     * build the adjacency of the non-zero rows of each column
+     *
+     * @return the column adjacency {column, rows}
+     */
+    public IndexAdjacency columnAdjacency() {
+        return new IndexAdjacency(numColumns, colPtr, rowInd, colData);
+    }
+
+    /**
+     * get a view of the non-zero entries of a row, which unlike {@link #row(int)} does not copy them
+     *
+     * @param row row id
+     * @return a view of the row, empty if the row does not exist in the matrix
+     */
+    public RowView rowView(int row) {
+        return rowView(row, new RowView());
+    }
+
+    /**
+     * move a view to the non-zero entries of a row, so that the view is reused across the rows of a loop
+     *
+     * @param row  row id
+     * @param view the view to move
+     * @return the given view
+     */
+    public RowView rowView(int row, RowView view) {
+        if (row < numRows) {
+            view.bind(colInd, rowData, rowPtr[row], rowPtr[row + 1]);
+        } else {
+            view.clear();
+        }
+        return view;
+    }
+
+    /**
+     * get a view of the non-zero entries of a column, which unlike {@link #column(int)} does not copy them
+     *
+     * @param col column id
+     * @return a view of the column, empty if the column does not exist in the matrix
+     */
+    public ColumnView columnView(int col) {
+        return columnView(col, new ColumnView());
+    }
+
+    /**
+     * move a view to the non-zero entries of a column, so that the view is reused across the columns of a loop
+     *
+     * @param col  column id
+     * @param view the view to move
+     * @return the given view
+     */
+    public ColumnView columnView(int col, ColumnView view) {
+        if (col < numColumns) {
+            view.bind(rowInd, colData, colPtr[col], colPtr[col + 1]);
+        } else {
+            view.clear();
+        }
+        return view;
+    }
+
     /**
      * create a row cache of a matrix in {row, row-specific vector}
      *
@@ -835,9 +954,7 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
      * @return a new matrix with shape (rows, cols) with data from the current matrix
      */
     public SparseMatrix reshape(int rows, int cols) {
-
-        Table<Integer, Integer, Double> data = HashBasedTable.create();
-        Multimap<Integer, Integer> colMap = HashMultimap.create();
+        SparseMatrixBuilder builder = new SparseMatrixBuilder(rows, cols, rowPtr[numRows]);
 
         int rowIndex, colIndex;
         for (int i = 1; i < rowPtr.length; i++) {
@@ -847,18 +964,17 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
                 double val = rowData[j]; // (row, col, val)
 
                 if (val != 0) {
-                    int oldIndex = row * numColumns + col;
+                    long oldIndex = (long) row * numColumns + col;
 
-                    rowIndex = oldIndex / cols;
-                    colIndex = oldIndex % cols;
+                    rowIndex = (int) (oldIndex / cols);
+                    colIndex = (int) (oldIndex % cols);
 
-                    data.put(rowIndex, colIndex, val);
-                    colMap.put(colIndex, rowIndex);
+                    builder.add(rowIndex, colIndex, val);
                 }
             }
         }
 
-        return new SparseMatrix(rows, cols, data, colMap);
+        return builder.build();
     }
 
     @Override
@@ -1126,6 +1242,191 @@ public class SparseMatrix implements Iterable<MatrixEntry>, DataMatrix, Serializ
         }
     }
 
+    /**
+     * Read-only view of the non-zero entries of a row (or column) of a sparse matrix, in ascending order of their
+     * column (or row) indices. The view reads the compressed arrays of the matrix in place, without boxing or
+     * allocation, and only copies the entries of a row (or column) which stores explicit zeros, into buffers of its
+     * own. A view is moved from row to row by {@link #rowView(int, RowView)}, e.g.
+     * <pre>
+     * SparseMatrix.RowView itemRatings = new SparseMatrix.RowView();
+     * for (int userIdx = 0; userIdx &lt; numUsers; userIdx++) {
+     *     trainMatrix.rowView(userIdx, itemRatings);
+     *     for (int i = 0; i &lt; itemRatings.size(); i++) {
+     *         int itemIdx = itemRatings.indexAt(i);
+     *         double rating = itemRatings.valueAt(i);
+     *     }
+     * }
+     * </pre>
+     * A view is valid until the matrix is changed, and is not thread-safe: each thread moves its own view. Code which
+     * only needs the indices of the rows, e.g. to test the positive items of users while sampling, builds the
+     * {@link IndexAdjacency} of the matrix once instead.
+     */
+    public abstract static class EntryView {
+
+        private static final int[] NO_INDICES = new int[0];
+        private static final double[] NO_DATA = new double[0];
+
+        /**
+         * the entries are indices[offset, offset + size) and data[offset, offset + size)
+         */
+        private int[] indices = NO_INDICES;
+        private double[] data = NO_DATA;
+        private int offset, size;
+
+        /**
+         * buffers of the entries of a row (or column) with explicit zeros
+         */
+        private int[] indexBuffer = NO_INDICES;
+        private double[] dataBuffer = NO_DATA;
+
+        EntryView() {
+        }
+
+        /**
+         * Point the view to the non-zero entries of the compressed storage in [from, to).
+         *
+         * @param indices column (or row) indices
+         * @param data    values of the entries
+         * @param from    the first entry, inclusive
+         * @param to      the last entry, exclusive
+         */
+        void bind(int[] indices, double[] data, int from, int to) {
+            int position = from;
+            while (position < to && data[position] != 0.0) {
+                position++;
+            }
+            if (position == to) {
+                this.indices = indices;
+                this.data = data;
+                this.offset = from;
+                this.size = to - from;
+                return;
+            }
+
+            if (indexBuffer.length < to - from) {
+                indexBuffer = new int[to - from];
+                dataBuffer = new double[to - from];
+            }
+            int length = 0;
+            for (position = from; position < to; position++) {
+                if (data[position] != 0.0) {
+                    indexBuffer[length] = indices[position];
+                    dataBuffer[length++] = data[position];
+                }
+            }
+            this.indices = indexBuffer;
+            this.data = dataBuffer;
+            this.offset = 0;
+            this.size = length;
+        }
+
+        /**
+         * Point the view to no entries.
+         */
+        void clear() {
+            offset = 0;
+            size = 0;
+        }
+
+        /**
+         * @return the number of non-zero entries
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return true if there are no non-zero entries
+         */
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * @param i the i-th entry, in [0, size())
+         * @return the column (or row) index of the i-th entry
+         */
+        public int indexAt(int i) {
+            checkPosition(i);
+            return indices[offset + i];
+        }
+
+        /**
+         * @param i the i-th entry, in [0, size())
+         * @return the value of the i-th entry
+         */
+        public double valueAt(int i) {
+            checkPosition(i);
+            return data[offset + i];
+        }
+
+        /**
+         * @param i the i-th entry
+         * @throws IndexOutOfBoundsException if i is not in [0, size())
+         */
+        private void checkPosition(int i) {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException("Position " + i + " is out of [0, " + size + ")");
+            }
+        }
+
+        /**
+         * @param index column (or row) id
+         * @return the position of the entry of the index in [0, size()), or -1 if the entry is zero
+         */
+        public int positionOf(int index) {
+            int position = Arrays.binarySearch(indices, offset, offset + size, index);
+            return position >= 0 ? position - offset : -1;
+        }
+
+        /**
+         * @param index column (or row) id
+         * @return true if the entry of the index is non-zero
+         */
+        public boolean contains(int index) {
+            return positionOf(index) >= 0;
+        }
+
+        /**
+         * @param index column (or row) id
+         * @return the value of the entry of the index
+         */
+        public double get(int index) {
+            int position = positionOf(index);
+            return position >= 0 ? data[offset + position] : 0.0;
+        }
+
+        /**
+         * @return sum of the values
+         */
+        public double sum() {
+            double sum = 0.0;
+            for (int position = offset; position < offset + size; position++) {
+                sum += data[position];
+            }
+            return sum;
+        }
+
+        /**
+         * @return mean of the values
+         */
+        public double mean() {
+            return sum() / size;
+        }
+    }
+
+    /**
+     * View of the non-zero entries of a row, whose indices are columns.
+     */
+    public static final class RowView extends EntryView {
+    }
+
+    /**
+     * View of the non-zero entries of a column, whose indices are rows.
+     */
+    public static final class ColumnView extends EntryView {
+    }
+
     /**
      * Entry of a sparse vector
      */
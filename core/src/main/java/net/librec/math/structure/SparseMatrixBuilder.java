@@ -0,0 +1,552 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Builder of {@link SparseMatrix} from (row, column, value) coordinate entries.
+ * <p>
+ * The entries are appended to primitive arrays, either of the builder itself or of
+ * {@link Appender}s created for other threads, which may append concurrently. The
+ * entries are ordered by appender, in order of creation with the builder first, and
+ * then in order of appending. The entries of a (row, column) pair are merged by the
+ * {@link DuplicatePolicy} of the builder: the last entry in this order is kept by
+ * default.
+ * <p>
+ * {@link #build()} sorts the entries by column and then by row with two stable
+ * counting sorts, merges the duplicated entries, which are then adjacent, into the
+ * CRS arrays, and derives the CCS arrays with another counting sort, so no table or
+ * boxed entry is created. {@link #build(int)} runs the same passes on several
+ * threads, for matrices of hundreds of millions of entries.
+ * <p>
+ * A builder created without dimensions grows them to fit the added entries.
+ * <pre>
+ * SparseMatrixBuilder builder = new SparseMatrixBuilder(numUsers, numItems);
+ * builder.add(userIdx, itemIdx, rating);
+ * SparseMatrix ratingMatrix = builder.build();
+ * </pre>
+ */
+public class SparseMatrixBuilder {
+
+    /**
+     * The policy to merge the values of the entries of a (row, column) pair.
+     */
+    public enum DuplicatePolicy {
+        /**
+         * keep the value of the last entry
+         */
+        LAST,
+        /**
+         * sum up the values of the entries
+         */
+        SUM,
+        /**
+         * keep the maximum value of the entries
+         */
+        MAX
+    }
+
+    /**
+     * the initial capacity of an appender
+     */
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * matrix dimension, -1 if grown to fit the entries
+     */
+    private int numRows, numColumns;
+
+    /**
+     * the policy to merge duplicated entries
+     */
+    private DuplicatePolicy duplicatePolicy = DuplicatePolicy.LAST;
+
+    /**
+     * entries of the builder itself
+     */
+    private final Appender appender;
+
+    /**
+     * all the appenders, in order of creation
+     */
+    private final List<Appender> appenders = new ArrayList<>();
+
+    /**
+     * Create a builder of a matrix whose dimension is grown to fit the added entries.
+     */
+    public SparseMatrixBuilder() {
+        this(-1, -1, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a builder of a matrix of the given dimension.
+     *
+     * @param numRows    number of rows
+     * @param numColumns number of columns
+     */
+    public SparseMatrixBuilder(int numRows, int numColumns) {
+        this(numRows, numColumns, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a builder of a matrix of the given dimension.
+     *
+     * @param numRows    number of rows
+     * @param numColumns number of columns
+     * @param capacity   the expected number of entries added to the builder itself
+     */
+    public SparseMatrixBuilder(int numRows, int numColumns, int capacity) {
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        this.appender = new Appender(capacity);
+        appenders.add(appender);
+    }
+
+    /**
+     * Set the policy to merge the values of the entries of a (row, column) pair.
+     *
+     * @param duplicatePolicy the policy to merge duplicated entries
+     * @return this builder
+     */
+    public SparseMatrixBuilder setDuplicatePolicy(DuplicatePolicy duplicatePolicy) {
+        this.duplicatePolicy = duplicatePolicy;
+        return this;
+    }
+
+    /**
+     * Set the dimension of the matrix, which must fit all the added entries.
+     *
+     * @param numRows    number of rows
+     * @param numColumns number of columns
+     * @return this builder
+     */
+    public SparseMatrixBuilder setDimension(int numRows, int numColumns) {
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        return this;
+    }
+
+    /**
+     * Add an entry.
+     *
+     * @param row    row id
+     * @param column column id
+     * @param val    value of the entry
+     * @return this builder
+     */
+    public SparseMatrixBuilder add(int row, int column, double val) {
+        appender.add(row, column, val);
+        return this;
+    }
+
+    /**
+     * Create an appender to add entries from another thread. Its entries follow
+     * those of the builder and of the appenders created before it.
+     *
+     * @return a new appender
+     */
+    public synchronized Appender newAppender() {
+        Appender newAppender = new Appender(DEFAULT_CAPACITY);
+        appenders.add(newAppender);
+        return newAppender;
+    }
+
+    /**
+     * @return the number of added entries, duplicated entries included
+     */
+    public synchronized int size() {
+        long size = 0;
+        for (Appender each : appenders) {
+            size += each.size;
+        }
+        return (int) size;
+    }
+
+    /**
+     * Build the matrix on the calling thread.
+     *
+     * @return a sparse matrix with both CRS and CCS structures
+     */
+    public SparseMatrix build() {
+        return build(1);
+    }
+
+    /**
+     * Build the matrix. The appenders must not be used concurrently with building.
+     *
+     * @param numThreads the number of threads, all available processors if not positive
+     * @return a sparse matrix with both CRS and CCS structures
+     */
+    public synchronized SparseMatrix build(int numThreads) {
+        numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+        int rows = numRows, columns = numColumns;
+        for (Appender each : appenders) {
+            rows = Math.max(rows, each.maxRow + 1);
+            columns = Math.max(columns, each.maxColumn + 1);
+        }
+        if (rows > numRows && numRows >= 0 || columns > numColumns && numColumns >= 0) {
+            throw new IllegalArgumentException("Matrix dimension " + numRows + " x " + numColumns
+                    + " does not fit the entries of dimension " + rows + " x " + columns);
+        }
+
+        // concatenate the entries of all appenders
+        int size = size();
+        Appender entries = appender;
+        if (appenders.size() > 1) {
+            entries = new Appender(size);
+            for (Appender each : appenders) {
+                System.arraycopy(each.rows, 0, entries.rows, entries.size, each.size);
+                System.arraycopy(each.columns, 0, entries.columns, entries.size, each.size);
+                System.arraycopy(each.values, 0, entries.values, entries.size, each.size);
+                entries.size += each.size;
+            }
+        }
+
+        ForkJoinPool pool = numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+        try {
+            return new Build(entries, rows, columns, pool, numThreads).run();
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Appender of entries, which may be used by a thread other than those of the
+     * builder and of the other appenders.
+     */
+    public class Appender {
+        private int[] rows, columns;
+        private double[] values;
+        private int size;
+        private int maxRow = -1, maxColumn = -1;
+
+        private Appender(int capacity) {
+            capacity = Math.max(1, capacity);
+            rows = new int[capacity];
+            columns = new int[capacity];
+            values = new double[capacity];
+        }
+
+        /**
+         * Add an entry.
+         *
+         * @param row    row id
+         * @param column column id
+         * @param val    value of the entry
+         * @return this appender
+         */
+        public Appender add(int row, int column, double val) {
+            if (row < 0 || numRows >= 0 && row >= numRows)
+                throw new IllegalArgumentException("row=" + row + ", which is not a valid row index");
+            if (column < 0 || numColumns >= 0 && column >= numColumns)
+                throw new IllegalArgumentException("column=" + column + ", which is not a valid column index");
+
+            if (size == rows.length) {
+                int capacity = Math.max(size + 1, size + (size >> 1));
+                rows = Arrays.copyOf(rows, capacity);
+                columns = Arrays.copyOf(columns, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            rows[size] = row;
+            columns[size] = column;
+            values[size] = val;
+            size++;
+            maxRow = Math.max(maxRow, row);
+            maxColumn = Math.max(maxColumn, column);
+            return this;
+        }
+    }
+
+    /**
+     * A task run on a range of chunks.
+     */
+    private interface ChunkTask {
+        void run(int chunk);
+    }
+
+    /**
+     * The passes of building a matrix.
+     */
+    private class Build {
+        private final int[] rows, columns;
+        private final double[] values;
+        private final int size, numRows, numColumns;
+        private final ForkJoinPool pool;
+        private final int numThreads;
+
+        Build(Appender entries, int numRows, int numColumns, ForkJoinPool pool, int numThreads) {
+            this.rows = entries.rows;
+            this.columns = entries.columns;
+            this.values = entries.values;
+            this.size = entries.size;
+            this.numRows = numRows;
+            this.numColumns = numColumns;
+            this.pool = pool;
+            this.numThreads = numThreads;
+        }
+
+        SparseMatrix run() {
+            // entries sorted by row and column, in order of appending within a (row, column) pair
+            int[] rowStarts = new int[numRows + 1];
+            int[] order = countingSort(rows, numRows, countingSort(columns, numColumns, null, null), rowStarts);
+
+            // CRS: merge the adjacent duplicated entries
+            final int[] rowPtr = new int[numRows + 1];
+            final int[] rowChunks = chunks(rowStarts, numRows);
+            countUnique(order, rowStarts, rowPtr, rowChunks);
+            for (int row = 0; row < numRows; row++) {
+                rowPtr[row + 1] += rowPtr[row];
+            }
+            int nnz = rowPtr[numRows];
+            int[] colInd = new int[nnz];
+            double[] rowData = new double[nnz];
+            merge(order, rowStarts, rowPtr, colInd, rowData, rowChunks);
+
+            // CCS: rows are visited in order, so the row indices of each column are sorted
+            int[] colPtr = new int[numColumns + 1];
+            int[] rowInd = new int[nnz];
+            double[] colData = new double[nnz];
+            transpose(rowPtr, colInd, rowData, colPtr, rowInd, colData, chunks(rowPtr, numRows));
+
+            return new SparseMatrix(numRows, numColumns, rowPtr, colInd, rowData, colPtr, rowInd, colData);
+        }
+
+        /**
+         * Stable counting sort of the entries by a key, each thread sorting a chunk
+         * of the input into its own slots of every key.
+         *
+         * @param keys      key of each entry
+         * @param numKeys   the number of distinct keys
+         * @param input     entries in input order, or null for the order of appending
+         * @param keyStarts if not null, filled with the start of each key in the output
+         * @return entries sorted by key
+         */
+        private int[] countingSort(final int[] keys, int numKeys, final int[] input, int[] keyStarts) {
+            // a thread keeps the counts of all keys, so its chunk should be larger than that
+            final int numChunks = (int) Math.max(1, Math.min(numThreads, size / (numKeys + 1L)));
+            final int[][] positions = new int[numChunks][numKeys];
+            parallel(numChunks, new ChunkTask() {
+                @Override
+                public void run(int chunk) {
+                    int[] counts = positions[chunk];
+                    for (int i = chunkStart(chunk, numChunks), end = chunkStart(chunk + 1, numChunks); i < end; i++) {
+                        counts[keys[input != null ? input[i] : i]]++;
+                    }
+                }
+            });
+            int position = 0;
+            for (int key = 0; key < numKeys; key++) {
+                if (keyStarts != null) {
+                    keyStarts[key] = position;
+                }
+                for (int chunk = 0; chunk < numChunks; chunk++) {
+                    int count = positions[chunk][key];
+                    positions[chunk][key] = position;
+                    position += count;
+                }
+            }
+            if (keyStarts != null) {
+                keyStarts[numKeys] = position;
+            }
+            final int[] output = new int[size];
+            parallel(numChunks, new ChunkTask() {
+                @Override
+                public void run(int chunk) {
+                    int[] cursors = positions[chunk];
+                    for (int i = chunkStart(chunk, numChunks), end = chunkStart(chunk + 1, numChunks); i < end; i++) {
+                        int entry = input != null ? input[i] : i;
+                        output[cursors[keys[entry]]++] = entry;
+                    }
+                }
+            });
+            return output;
+        }
+
+        /**
+         * Count the distinct columns of each row into rowPtr[row + 1].
+         */
+        private void countUnique(final int[] order, final int[] rowStarts, final int[] rowPtr, final int[] rowChunks) {
+            parallel(rowChunks.length - 1, new ChunkTask() {
+                @Override
+                public void run(int chunk) {
+                    for (int row = rowChunks[chunk]; row < rowChunks[chunk + 1]; row++) {
+                        int count = 0;
+                        for (int i = rowStarts[row]; i < rowStarts[row + 1]; i++) {
+                            if (i + 1 == rowStarts[row + 1] || columns[order[i + 1]] != columns[order[i]]) {
+                                count++;
+                            }
+                        }
+                        rowPtr[row + 1] = count;
+                    }
+                }
+            });
+        }
+
+        /**
+         * Merge the duplicated entries of each row into the CRS arrays.
+         */
+        private void merge(final int[] order, final int[] rowStarts, final int[] rowPtr, final int[] colInd,
+                           final double[] rowData, final int[] rowChunks) {
+            final DuplicatePolicy policy = duplicatePolicy;
+            parallel(rowChunks.length - 1, new ChunkTask() {
+                @Override
+                public void run(int chunk) {
+                    for (int row = rowChunks[chunk]; row < rowChunks[chunk + 1]; row++) {
+                        int position = rowPtr[row];
+                        for (int i = rowStarts[row]; i < rowStarts[row + 1]; i++) {
+                            int column = columns[order[i]];
+                            double val = values[order[i]];
+                            if (position > rowPtr[row] && colInd[position - 1] == column) {
+                                switch (policy) {
+                                    case SUM:
+                                        val += rowData[position - 1];
+                                        break;
+                                    case MAX:
+                                        val = Math.max(val, rowData[position - 1]);
+                                        break;
+                                    default:
+                                        break;
+                                }
+                                rowData[position - 1] = val;
+                            } else {
+                                colInd[position] = column;
+                                rowData[position++] = val;
+                            }
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Counting sort of the CRS entries by column into the CCS arrays, each thread
+         * sorting a chunk of rows into its own slots of every column.
+         */
+        private void transpose(final int[] rowPtr, final int[] colInd, final double[] rowData, final int[] colPtr,
+                               final int[] rowInd, final double[] colData, final int[] rowChunks) {
+            final int numChunks = (int) Math.max(1, Math.min(rowChunks.length - 1, rowPtr[numRows] / (numColumns + 1L)));
+            final int[] chunks = numChunks == rowChunks.length - 1 ? rowChunks : new int[]{0, numRows};
+            final int[][] positions = new int[chunks.length - 1][numColumns];
+            parallel(chunks.length - 1, new ChunkTask() {
+                @Override
+                public void run(int chunk) {
+                    int[] counts = positions[chunk];
+                    for (int i = rowPtr[chunks[chunk]], end = rowPtr[chunks[chunk + 1]]; i < end; i++) {
+                        counts[colInd[i]]++;
+                    }
+                }
+            });
+            int position = 0;
+            for (int column = 0; column < numColumns; column++) {
+                colPtr[column] = position;
+                for (int chunk = 0; chunk < positions.length; chunk++) {
+                    int count = positions[chunk][column];
+                    positions[chunk][column] = position;
+                    position += count;
+                }
+            }
+            colPtr[numColumns] = position;
+            parallel(chunks.length - 1, new ChunkTask() {
+                @Override
+                public void run(int chunk) {
+                    int[] cursors = positions[chunk];
+                    for (int row = chunks[chunk]; row < chunks[chunk + 1]; row++) {
+                        for (int i = rowPtr[row]; i < rowPtr[row + 1]; i++) {
+                            int target = cursors[colInd[i]]++;
+                            rowInd[target] = row;
+                            colData[target] = rowData[i];
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Split the rows into chunks of about the same number of entries.
+         *
+         * @param ptr     row pointers
+         * @param numRows the number of rows
+         * @return boundaries of the chunks of rows
+         */
+        private int[] chunks(int[] ptr, int numRows) {
+            int numChunks = Math.max(1, Math.min(numThreads, numRows));
+            int[] chunks = new int[numChunks + 1];
+            int total = ptr[numRows];
+            for (int chunk = 1; chunk < numChunks; chunk++) {
+                int target = (int) ((long) total * chunk / numChunks);
+                int row = Arrays.binarySearch(ptr, 0, numRows + 1, target);
+                if (row < 0) {
+                    row = -row - 2;
+                }
+                // the first row whose entries start at or after the target
+                while (row > 0 && ptr[row - 1] == ptr[row]) {
+                    row--;
+                }
+                chunks[chunk] = Math.max(chunks[chunk - 1], Math.min(row, numRows));
+            }
+            chunks[numChunks] = numRows;
+            return chunks;
+        }
+
+        private int chunkStart(int chunk, int numChunks) {
+            return (int) ((long) size * chunk / numChunks);
+        }
+
+        /**
+         * Run a task on each chunk, on the pool if there are several chunks.
+         */
+        private void parallel(int numChunks, final ChunkTask task) {
+            if (pool == null || numChunks == 1) {
+                for (int chunk = 0; chunk < numChunks; chunk++) {
+                    task.run(chunk);
+                }
+                return;
+            }
+            List<Callable<Void>> callables = new ArrayList<>(numChunks);
+            for (int chunk = 0; chunk < numChunks; chunk++) {
+                final int current = chunk;
+                callables.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        task.run(current);
+                        return null;
+                    }
+                });
+            }
+            try {
+                for (Future<Void> future : pool.invokeAll(callables)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+}
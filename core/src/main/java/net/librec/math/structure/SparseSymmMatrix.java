@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Sparse symmetric matrix in compressed row storage: both triangles are kept, so
+ * each row lists all its entries as sorted {@code int} columns with {@code float}
+ * values, and {@link #row(int)} takes O(nnz(row)).
+ * <p>
+ * The structure is fixed when built by {@link SymmMatrixBuilder}: entries can be
+ * updated by {@link #set(int, int, double)} and {@link #add(int, int, double)},
+ * but new nonzero entries can not be inserted. Stored entries set to zero are
+ * skipped like unset ones by {@link #row(int)}, {@link #size()} and the iterator.
+ */
+public class SparseSymmMatrix extends SymmMatrix {
+
+    /**
+     * row pointers of length dim + 1
+     */
+    private final int[] rowPtr;
+
+    /**
+     * sorted column indices of each row
+     */
+    private final int[] colInd;
+
+    /**
+     * values aligned with the column indices
+     */
+    private final float[] values;
+
+    /**
+     * Construct a sparse symmetric matrix from compressed rows holding both triangles
+     *
+     * @param dim    matrix dimension
+     * @param rowPtr row pointers of length dim + 1
+     * @param colInd sorted column indices of each row
+     * @param values values aligned with the column indices
+     */
+    SparseSymmMatrix(int dim, int[] rowPtr, int[] colInd, float[] values) {
+        super(dim, null);
+        this.rowPtr = rowPtr;
+        this.colInd = colInd;
+        this.values = values;
+    }
+
+    /**
+     * Construct a sparse symmetric matrix by deeply copying data from a given matrix
+     *
+     * @param mat a given matrix
+     */
+    public SparseSymmMatrix(SparseSymmMatrix mat) {
+        this(mat.dim, mat.rowPtr.clone(), mat.colInd.clone(), mat.values.clone());
+    }
+
+    @Override
+    public SparseSymmMatrix clone() {
+        return new SparseSymmMatrix(this);
+    }
+
+    /**
+     * @param row row index
+     * @param col column index
+     * @return position of entry (row, col), or a negative value if it is not stored
+     */
+    private int position(int row, int col) {
+        return Arrays.binarySearch(colInd, rowPtr[row], rowPtr[row + 1], col);
+    }
+
+    @Override
+    public double get(int row, int col) {
+        int position = position(row, col);
+        return position >= 0 ? values[position] : 0.0;
+    }
+
+    @Override
+    public void set(int row, int col, double val) {
+        int position = position(row, col);
+        if (position < 0) {
+            if (val == 0.0) {
+                return;
+            }
+            throw new UnsupportedOperationException("Entry (" + row + ", " + col + ") is not in the structure of the sparse symmetric matrix");
+        }
+        values[position] = (float) val;
+        if (row != col) {
+            values[position(col, row)] = (float) val;
+        }
+    }
+
+    @Override
+    public void add(int row, int col, double val) {
+        set(row, col, get(row, col) + val);
+    }
+
+    @Override
+    public SparseVector row(int row) {
+        int start = rowPtr[row], end = rowPtr[row + 1];
+        int[] index = new int[end - start];
+        double[] data = new double[end - start];
+        int count = 0;
+        for (int position = start; position < end; position++) {
+            if (values[position] != 0) {
+                index[count] = colInd[position];
+                data[count++] = values[position];
+            }
+        }
+
+        return new SparseVector(dim, index, data, 0, count - 1);
+    }
+
+    /**
+     * @param row row index
+     * @return the number of stored entries of the row
+     */
+    public int rowSize(int row) {
+        return rowPtr[row + 1] - rowPtr[row];
+    }
+
+    /**
+     * @return the number of nonzero entries, each pair (row, col) counted once
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (int row = 0; row < dim; row++) {
+            for (int position = rowPtr[row]; position < rowPtr[row + 1] && colInd[position] <= row; position++) {
+                if (values[position] != 0) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Iterate over the nonzero entries, each pair (row, col) once with {@code row >= col}.
+     *
+     * @return an iterator over the nonzero entries
+     */
+    @Override
+    public Iterator<MatrixEntry> iterator() {
+        return new LowerIterator();
+    }
+
+    /**
+     * @return a table copy of the nonzero entries, keyed with {@code row >= col}
+     */
+    @Override
+    public Table<Integer, Integer, Double> getData() {
+        Table<Integer, Integer, Double> table = HashBasedTable.create();
+        for (MatrixEntry entry : this) {
+            table.put(entry.row(), entry.column(), entry.get());
+        }
+        return table;
+    }
+
+    /**
+     * Iterator over the nonzero entries of the lower triangle, whose leading entries
+     * of each row are those with {@code col <= row}.
+     */
+    private class LowerIterator implements Iterator<MatrixEntry>, MatrixEntry {
+        private int row, position;
+        private int nextRow, nextPosition;
+
+        LowerIterator() {
+            nextRow = 0;
+            nextPosition = 0;
+            seek();
+        }
+
+        private void seek() {
+            while (nextRow < dim) {
+                if (nextPosition >= rowPtr[nextRow + 1] || colInd[nextPosition] > nextRow) {
+                    nextRow++;
+                    if (nextRow < dim) {
+                        nextPosition = rowPtr[nextRow];
+                    }
+                } else if (values[nextPosition] == 0) {
+                    nextPosition++;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextRow < dim;
+        }
+
+        @Override
+        public MatrixEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            row = nextRow;
+            position = nextPosition++;
+            seek();
+            return this;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int row() {
+            return row;
+        }
+
+        @Override
+        public int column() {
+            return colInd[position];
+        }
+
+        @Override
+        public double get() {
+            return values[position];
+        }
+
+        @Override
+        public void set(double value) {
+            SparseSymmMatrix.this.set(row, colInd[position], value);
+        }
+    }
+}
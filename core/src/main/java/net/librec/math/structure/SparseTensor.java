@@ -17,25 +17,32 @@
 //
 package net.librec.math.structure;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Table;
 import net.librec.math.algorithm.Randoms;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Data Structure: Sparse Tensor <br>
  * <p>
  * For easy documentation, here we use {@code (keys, value)} to indicate each entry of a tensor, and {@code index} is
- * used to indicate the position in which the entry is stored in the lists.
+ * used to indicate the position in which the entry is stored in the arrays.
+ * </p>
+ * <p>
+ * The entries are stored in coordinate format: the keys of dimension {@code d} in {@code ndKeys[d]} and the values in
+ * {@code values}, sorted in the lexicographic order of their keys. An entry is thus found by binary search, and the
+ * entries sharing their leading keys, e.g. a fiber of the last dimension, are a contiguous range of indices. The
+ * entries of a key of any dimension are listed by a compressed index of that dimension, see {@link #modeIndex(int)},
+ * which is built on demand and dropped when entries are inserted or removed.
  * </p>
  * <Strong>Reference:</strong> Kolda and Bader, <strong>Tensor Decompositions and Applications</strong>, SIAM REVIEW,
  * Vol. 51, No. 3, pp. 455–500
@@ -48,78 +55,79 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
 
     private static final long serialVersionUID = 2487513413901432943L;
 
+    /**
+     * the number of entries from which matricization and n-mode products are computed in parallel
+     */
+    private static final int PARALLEL_SIZE = 1 << 16;
+
     private class TensorIterator implements Iterator<TensorEntry> {
 
-        private int index = 0;
+        private int position = 0;
         private SparseTensorEntry entry = new SparseTensorEntry();
 
         public boolean hasNext() {
-            return index < values.size();
+            return position < size;
         }
 
         public TensorEntry next() {
-            return entry.update(index++);
+            return entry.update(order == null ? position++ : order[position++]);
         }
 
         public void remove() {
             entry.remove();
         }
 
-    }
+        private class SparseTensorEntry implements TensorEntry {
 
-    private class SparseTensorEntry implements TensorEntry {
+            private int index = -1;
 
-        private int index = -1;
-
-        public SparseTensorEntry update(int index) {
-            this.index = index;
-            return this;
-        }
+            public SparseTensorEntry update(int index) {
+                this.index = index;
+                return this;
+            }
 
-        public int key(int d) {
-            return ndKeys[d].get(index);
-        }
+            public int key(int d) {
+                return ndKeys[d][index];
+            }
 
-        public double get() {
-            return values.get(index);
-        }
+            public double get() {
+                return values[index];
+            }
 
-        public void set(double value) {
-            values.set(index, value);
-        }
+            public void set(double value) {
+                values[index] = value;
+            }
 
-        /**
-         * remove the current entry
-         */
-        public void remove() {
-            for (int d = 0; d < numDimensions; d++) {
+            /**
+             * remove the current entry
+             */
+            public void remove() {
+                removeEntry(index);
+                position--;
+            }
 
-                // update indices if necessary
-                if (isIndexed(d))
-                    keyIndices[d].remove(key(d), index);
+            public String toString() {
+                StringBuilder sb = new StringBuilder();
+                for (int d = 0; d < numDimensions; d++) {
+                    sb.append(key(d)).append("\t");
+                }
+                sb.append(get());
 
-                ndKeys[d].remove(index);
+                return sb.toString();
             }
-            values.remove(index);
-        }
 
-        public String toString() {
-            StringBuilder sb = new StringBuilder();
-            for (int d = 0; d < numDimensions; d++) {
-                sb.append(key(d)).append("\t");
+            public int[] keys() {
+                return keys(new int[numDimensions]);
             }
-            sb.append(get());
 
-            return sb.toString();
-        }
+            public int[] keys(int[] keys) {
+                for (int d = 0; d < numDimensions; d++) {
+                    keys[d] = ndKeys[d][index];
+                }
 
-        public int[] keys() {
-            int[] res = new int[numDimensions];
-            for (int d = 0; d < numDimensions; d++) {
-                res[d] = key(d);
+                return keys;
             }
 
-            return res;
         }
 
     }
@@ -129,11 +137,23 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      */
     public int numDimensions;
     public int[] dimensions;
-    public List<Integer>[] ndKeys; // n-dimensional array
-    public List<Double> values; // values
+    public int[][] ndKeys; // n-dimensional keys, ndKeys[d][index], of which the first size() are used
+    public double[] values; // values, of which the first size() are used
+
+    /**
+     * number of entries
+     */
+    private int size;
+
+    /**
+     * iteration order of the entries after shuffling, or null for the order of their keys
+     */
+    private int[] order;
 
-    private Multimap<Integer, Integer>[] keyIndices; // each multimap = {key, {pos1, pos2, ...}}
-    private List<Integer> indexedDimensions; // indexed dimensions
+    /**
+     * compressed index of each dimension, null if not built
+     */
+    private transient IndexAdjacency[] keyIndices;
 
     // dimensions of users and items
     private int userDimension, itemDimension;
@@ -144,7 +164,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @param dims dimensions of a tensor
      */
     public SparseTensor(int... dims) {
-        this(dims, null, null);
+        this(dims, new int[dims.length][0], new double[0], 0);
     }
 
     /**
@@ -154,45 +174,88 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @param nds  n-dimensional keys
      * @param vals entry values
      */
-    @SuppressWarnings("unchecked")
     public SparseTensor(int[] dims, List<Integer>[] nds, List<Double> vals) {
+        this(dims, unboxKeys(dims.length, nds, vals == null ? 0 : vals.size()), unboxValues(vals),
+                vals == null ? 0 : vals.size());
+    }
+
+    /**
+     * Construct a sparse tensor with indices and values, which are copied
+     *
+     * @param dims dimensions of a tensor
+     * @param nds  n-dimensional keys, nds[d][index]
+     * @param vals entry values
+     */
+    public SparseTensor(int[] dims, int[][] nds, double[] vals) {
+        this(dims, copyKeys(dims.length, nds, vals.length), vals.clone(), vals.length);
+    }
+
+    /**
+     * Construct a sparse tensor which takes over the given arrays
+     *
+     * @param dims dimensions of a tensor
+     * @param nds  n-dimensional keys, nds[d][index]
+     * @param vals entry values
+     * @param size the number of entries
+     */
+    private SparseTensor(int[] dims, int[][] nds, double[] vals, int size) {
         if (dims.length < 3)
             throw new Error("The dimension of a tensor cannot be smaller than 3!");
 
         numDimensions = dims.length;
-        dimensions = new int[numDimensions];
+        dimensions = dims.clone();
+        ndKeys = nds;
+        values = vals;
+        this.size = size;
 
-        ndKeys = (List<Integer>[]) new List<?>[numDimensions];
-        keyIndices = (Multimap<Integer, Integer>[]) new Multimap<?, ?>[numDimensions];
+        sortEntries();
+    }
 
-        for (int d = 0; d < numDimensions; d++) {
-            dimensions[d] = dims[d];
-            ndKeys[d] = nds == null ? new ArrayList<Integer>() : new ArrayList<Integer>(nds[d]);
-            keyIndices[d] = HashMultimap.create();
-            //System.out.println(keyIndices[d]);
+    private static int[][] unboxKeys(int numDimensions, List<Integer>[] nds, int size) {
+        int[][] res = new int[numDimensions][size];
+        for (int d = 0; d < numDimensions && size > 0; d++) {
+            int index = 0;
+            for (int key : nds[d]) {
+                if (index == size)
+                    break;
+                res[d][index++] = key;
+            }
+        }
+
+        return res;
+    }
+
+    private static double[] unboxValues(List<Double> vals) {
+        double[] res = new double[vals == null ? 0 : vals.size()];
+        if (vals != null) {
+            int index = 0;
+            for (double val : vals) {
+                res[index++] = val;
+            }
         }
 
-        values = vals == null ? new ArrayList<Double>() : new ArrayList<Double>(vals);
-        indexedDimensions = new ArrayList<Integer>(numDimensions);
+        return res;
+    }
 
+    private static int[][] copyKeys(int numDimensions, int[][] nds, int size) {
+        int[][] res = new int[numDimensions][];
+        for (int d = 0; d < numDimensions; d++) {
+            res[d] = Arrays.copyOf(nds[d], size);
+        }
+
+        return res;
     }
 
     /**
      * make a deep clone
      */
     public SparseTensor clone() {
-        SparseTensor res = new SparseTensor(dimensions);
+        SparseTensor res = new SparseTensor(dimensions, copyKeys(numDimensions, ndKeys, size),
+                Arrays.copyOf(values, size), size);
 
-        // copy indices and values
-        for (int d = 0; d < numDimensions; d++) {
-            res.ndKeys[d].addAll(this.ndKeys[d]);
-            res.keyIndices[d].putAll(this.keyIndices[d]);
-        }
-
-        res.values.addAll(this.values);
-
-        // copy indexed array
-        res.indexedDimensions.addAll(this.indexedDimensions);
+        // the compressed indices are immutable, and shared until either tensor changes
+        res.order = order == null ? null : order.clone();
+        res.keyIndices = keyIndices == null ? null : keyIndices.clone();
 
         // others
         res.userDimension = userDimension;
@@ -214,10 +277,10 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
 
         if (index >= 0) {
             // if keys exist: update value
-            values.set(index, values.get(index) + val);
+            values[index] += val;
         } else {
             // if keys do not exist: add a new entry
-            set(val, keys);
+            insertEntry(-(index + 1), val, keys);
         }
     }
 
@@ -233,23 +296,12 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
 
         // if i-entry exists, set it a new value
         if (index >= 0) {
-            values.set(index, val);
+            values[index] = val;
             return;
         }
 
         // otherwise insert a new entry
-        for (int d = 0; d < numDimensions; d++) {
-            ndKeys[d].add(keys[d]);
-
-            // update indices if necessary
-            if (isIndexed(d)) {
-                keyIndices[d].put(keys[d], ndKeys[d].size() - 1);
-
-                // other keys' indices do not change
-            }
-        }
-        values.add(val);
-
+        insertEntry(-(index + 1), val, keys);
     }
 
     /**
@@ -266,15 +318,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
         if (index < 0)
             return false;
 
-        for (int d = 0; d < numDimensions; d++) {
-            ndKeys[d].remove(index);
-
-            // update indices if necessary
-            if (isIndexed(d)) {
-                buildIndex(d); // re-build indices
-            }
-        }
-        values.remove(index);
+        removeEntry(index);
 
         return true;
     }
@@ -287,13 +331,16 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @return all entries for a (user, item) pair
      */
     public List<Integer> getIndices(int user, int item) {
-        List<Integer> res = new ArrayList<Integer>();
-
-        Collection<Integer> indices = getIndex(userDimension, user);
+        boolean[] fixed = new boolean[numDimensions];
+        int[] keys = new int[numDimensions];
+        fixed[userDimension] = fixed[itemDimension] = true;
+        keys[userDimension] = user;
+        keys[itemDimension] = item;
+
+        int[] indices = match(fixed, keys);
+        List<Integer> res = new ArrayList<Integer>(indices.length);
         for (int index : indices) {
-            if (key(itemDimension, index) == item) {
-                res.add(index);
-            }
+            res.add(index);
         }
 
         return res;
@@ -307,36 +354,22 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @throws Exception if error occurs during getting
      */
     public List<Integer> getTargetKeyFromSubKey(Integer[] subKey) throws Exception {
-        List<Integer> res = new ArrayList<Integer>();
         if (subKey.length != numDimensions - 1)
             throw new Exception("The given input does not match with the subKey dimension!");
-        // if no data exists
-        if (values.size() == 0)
-            return null;
-
-        // if no indexed dimension exists
-        if (indexedDimensions.size() == 0)
-            buildIndex(0);
 
-        // retrieve from the first indexed dimension
-        int d = indexedDimensions.get(0);
+        int[] keys = new int[numDimensions - 1];
+        for (int d = 0; d < keys.length; d++) {
+            keys[d] = subKey[d];
+        }
 
-        // all relevant positions
-        Collection<Integer> indices = keyIndices[d].get(subKey[d]);
-        if (indices == null || indices.size() == 0)
+        // the entries with the sub key are a range of the sorted entries
+        int start = rangeStart(keys), end = rangeEnd(keys);
+        if (start == end)
             return null;
 
-        // for each possible position
-        for (int index : indices) {
-            boolean found = true;
-            for (int dd = 0; dd < numDimensions - 1; dd++) {
-                if (subKey[dd] != key(dd, index)) {
-                    found = false;
-                    break;
-                }
-            }
-            if (found)
-                res.add(ndKeys[numDimensions - 1].get(index));
+        List<Integer> res = new ArrayList<Integer>(end - start);
+        for (int index = start; index < end; index++) {
+            res.add(ndKeys[numDimensions - 1][index]);
         }
 
         return res;
@@ -347,6 +380,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * find the inner index of a given keys
      *
      * @param keys a given keys
+     * @return the index of the keys if found, and otherwise (-(insertion point) - 1)
      * @throws Exception if error occurs during finding
      */
     private int findIndex(int... keys) throws Exception {
@@ -354,38 +388,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
         if (keys.length != numDimensions)
             throw new Exception("The given input does not match with the tensor dimension!");
 
-        // if no data exists
-        if (values.size() == 0)
-            return -1;
-
-        // if no indexed dimension exists
-        if (indexedDimensions.size() == 0)
-            buildIndex(0);
-
-        // retrieve from the first indexed dimension
-        int d = indexedDimensions.get(0);
-
-        // all relevant positions
-        Collection<Integer> indices = keyIndices[d].get(keys[d]);
-        if (indices == null || indices.size() == 0)
-            return -1;
-
-        // for each possible position
-        for (int index : indices) {
-            boolean found = true;
-            for (int dd = 0; dd < numDimensions; dd++) {
-                if (keys[dd] != key(dd, index)) {
-                    found = false;
-                    break;
-                }
-            }
-            if (found)
-                return index;
-        }
-
-        // if not found
-        return -1;
-
+        return search(keys);
     }
 
     /**
@@ -400,43 +403,18 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
         if ((keys.length != numDimensions - 1) || size() < 1)
             throw new Error("The input indices do not match the fiber specification!");
 
-        // find an indexed dimension for searching indices
-        int d = -1;
-        if ((indexedDimensions.size() == 0) || (indexedDimensions.contains(dim) && indexedDimensions.size() == 1)) {
-            d = (dim != 0 ? 0 : 1);
-            buildIndex(d);
-        } else {
-            for (int dd : indexedDimensions) {
-                if (dd != dim) {
-                    d = dd;
-                    break;
-                }
+        boolean[] fixed = new boolean[numDimensions];
+        int[] fixedKeys = new int[numDimensions];
+        for (int d = 0, ndi = 0; d < numDimensions; d++) {
+            if (d != dim) {
+                fixed[d] = true;
+                fixedKeys[d] = keys[ndi++];
             }
         }
 
         SparseVector res = new SparseVector(dimensions[dim]);
-
-        // all relevant positions
-        Collection<Integer> indices = keyIndices[d].get(keys[d < dim ? d : d - 1]);
-        if (indices == null || indices.size() == 0)
-            return res;
-
-        // for each possible position
-        for (int index : indices) {
-            boolean found = true;
-            for (int dd = 0, ndi = 0; dd < numDimensions; dd++) {
-
-                if (dd == dim)
-                    continue;
-
-                if (keys[ndi++] != key(dd, index)) {
-                    found = false;
-                    break;
-                }
-            }
-            if (found) {
-                res.set(key(dim, index), value(index));
-            }
+        for (int index : match(fixed, fixedKeys)) {
+            res.set(ndKeys[dim][index], values[index]);
         }
 
         return res;
@@ -450,7 +428,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @throws Exception if error occurs during checking
      */
     public boolean contains(int... keys) throws Exception {
-        return findIndex(keys) >= 0 ? true : false;
+        return findIndex(keys) >= 0;
     }
 
     /**
@@ -460,7 +438,8 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @return whether a dimension d is indexed
      */
     public boolean isIndexed(int d) {
-        return indexedDimensions.contains(d);
+        IndexAdjacency[] indices = keyIndices;
+        return indices != null && indices[d] != null;
     }
 
     /**
@@ -480,13 +459,11 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @return whether a tensor is diagonal
      */
     public boolean isDiagonal() {
-        for (TensorEntry te : this) {
-            double val = te.get();
-            if (val != 0) {
-                int i = te.key(0);
-                for (int d = 0; d < numDimensions; d++) {
-                    int j = te.key(d);
-                    if (i != j)
+        for (int index = 0; index < size; index++) {
+            if (values[index] != 0) {
+                int i = ndKeys[0][index];
+                for (int d = 1; d < numDimensions; d++) {
+                    if (i != ndKeys[d][index])
                         return false;
                 }
             }
@@ -506,42 +483,28 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
         assert keys.length == this.numDimensions;
 
         int index = findIndex(keys);
-        return index < 0 ? 0 : values.get(index);
+        return index < 0 ? 0 : values[index];
     }
 
     /**
-     * Shuffle a sparse tensor
+     * Shuffle the order in which the entries are iterated. The indices of the entries, which follow the order of
+     * their keys, do not change.
      */
     public void shuffle() {
         int len = size();
+        int[] shuffled = new int[len];
+        for (int i = 0; i < len; i++) {
+            shuffled[i] = i;
+        }
         for (int i = 0; i < len; i++) {
             // target index
             int j = i + Randoms.uniform(len - i);
 
-            // swap values
-            double temp = values.get(i);
-            values.set(i, values.get(j));
-            values.set(j, temp);
-
-            // swap keys
-            for (int d = 0; d < numDimensions; d++) {
-                int ikey = key(d, i);
-                int jkey = key(d, j);
-                ndKeys[d].set(i, jkey);
-                ndKeys[d].set(j, ikey);
-
-                // update indices
-                if (isIndexed(d)) {
-                    keyIndices[d].remove(jkey, j);
-                    keyIndices[d].put(jkey, i);
-
-                    keyIndices[d].remove(ikey, i);
-                    keyIndices[d].put(ikey, j);
-                }
-
-            }
-
+            int temp = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = temp;
         }
+        order = shuffled;
     }
 
     /**
@@ -551,13 +514,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      */
     public void buildIndex(int... dims) {
         for (int d : dims) {
-            keyIndices[d].clear();
-            for (int index = 0; index < ndKeys[d].size(); index++) {
-                keyIndices[d].put(key(d, index), index);
-            }
-
-            if (!indexedDimensions.contains(d))
-                indexedDimensions.add(d);
+            modeIndex(d);
         }
     }
 
@@ -570,6 +527,46 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
         }
     }
 
+    /**
+     * Return the compressed index of dimension d, which lists the indices of the entries with each key of the
+     * dimension in ascending order, without boxing or allocation:
+     * <pre>
+     * IndexAdjacency userIndex = tensor.modeIndex(userDimension);
+     * for (int position = userIndex.start(userIdx); position &lt; userIndex.end(userIdx); position++) {
+     *     int index = userIndex.get(position);
+     *     double rating = tensor.value(index);
+     * }
+     * </pre>
+     * The index is built on the first call, and rebuilt after entries are inserted or removed.
+     *
+     * @param d dimension
+     * @return the compressed index of dimension d
+     */
+    public synchronized IndexAdjacency modeIndex(int d) {
+        if (keyIndices == null)
+            keyIndices = new IndexAdjacency[numDimensions];
+
+        if (keyIndices[d] == null) {
+            int[] keys = ndKeys[d];
+            int numKeys = Math.max(dimensions[d], maxKey(d) + 1);
+            int[] pointers = new int[numKeys + 1];
+            for (int index = 0; index < size; index++) {
+                pointers[keys[index] + 1]++;
+            }
+            for (int key = 0; key < numKeys; key++) {
+                pointers[key + 1] += pointers[key];
+            }
+            int[] cursors = Arrays.copyOf(pointers, numKeys);
+            int[] indices = new int[size];
+            for (int index = 0; index < size; index++) {
+                indices[cursors[keys[index]]++] = index;
+            }
+            keyIndices[d] = new IndexAdjacency(pointers, indices);
+        }
+
+        return keyIndices[d];
+    }
+
     /**
      * Return indices (positions) of a key in dimension d.
      *
@@ -578,10 +575,13 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @return indices (positions) of a key in dimension d
      */
     public Collection<Integer> getIndex(int d, int key) {
-        if (!isIndexed(d))
-            buildIndex(d);
+        IndexAdjacency index = modeIndex(d);
+        List<Integer> res = new ArrayList<Integer>(index.size(key));
+        for (int position = index.start(key); position < index.end(key); position++) {
+            res.add(index.get(position));
+        }
 
-        return keyIndices[d].get(key);
+        return res;
     }
 
     /**
@@ -593,7 +593,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
     public int[] keys(int index) {
         int[] res = new int[numDimensions];
         for (int d = 0; d < numDimensions; d++) {
-            res[d] = key(d, index);
+            res[d] = ndKeys[d][index];
         }
 
         return res;
@@ -607,7 +607,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @return key in the position {@code index} of dimension {@code d}
      */
     public int key(int d, int index) {
-        return ndKeys[d].get(index);
+        return ndKeys[d][index];
     }
 
     /**
@@ -617,7 +617,29 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @return value in a given index
      */
     public double value(int index) {
-        return values.get(index);
+        return values[index];
+    }
+
+    /**
+     * Return the first index of the entries whose leading keys are the given ones, e.g. the first entry of a user if
+     * users are the first dimension. The entries with the same leading keys are the indices in
+     * [rangeStart(keys), rangeEnd(keys)).
+     *
+     * @param leadingKeys keys of the first leadingKeys.length dimensions
+     * @return the first index of the entries with the leading keys
+     */
+    public int rangeStart(int... leadingKeys) {
+        return bound(leadingKeys, leadingKeys.length, false);
+    }
+
+    /**
+     * Return the index after the last entry whose leading keys are the given ones.
+     *
+     * @param leadingKeys keys of the first leadingKeys.length dimensions
+     * @return the index after the last entry with the leading keys
+     */
+    public int rangeEnd(int... leadingKeys) {
+        return bound(leadingKeys, leadingKeys.length, true);
     }
 
     /**
@@ -629,13 +651,10 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @return keys in a target dimension {@code td} related with a key in dimension {@code sd}
      */
     public List<Integer> getRelevantKeys(int sd, int key, int td) {
-        Collection<Integer> indices = getIndex(sd, key);
-        List<Integer> res = null;
-        if (indices != null) {
-            res = new ArrayList<Integer>();
-            for (int index : indices) {
-                res.add(key(td, index));
-            }
+        IndexAdjacency index = modeIndex(sd);
+        List<Integer> res = new ArrayList<Integer>(index.size(key));
+        for (int position = index.start(key); position < index.end(key); position++) {
+            res.add(ndKeys[td][index.get(position)]);
         }
 
         return res;
@@ -645,7 +664,7 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @return number of entries of the tensor
      */
     public int size() {
-        return values.size();
+        return size;
     }
 
     /**
@@ -654,134 +673,91 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      * @param rowDim    row dimension
      * @param colDim    column dimension
      * @param otherKeys keys of other dimensions
-     * @return a sparse matrix
+     * @return a sparse matrix, or null if no entry has the keys of the other dimensions
      */
     public SparseMatrix slice(int rowDim, int colDim, int... otherKeys) {
 
         if (otherKeys.length != numDimensions - 2)
             throw new Error("The input dimensions do not match the tensor specification!");
 
-        // find an indexed array to search
-        int d = -1;
-        boolean cond1 = indexedDimensions.size() == 0;
-        boolean cond2 = (indexedDimensions.contains(rowDim) || indexedDimensions.contains(colDim))
-                && indexedDimensions.size() == 1;
-        boolean cond3 = indexedDimensions.contains(rowDim) && indexedDimensions.contains(colDim)
-                && indexedDimensions.size() == 2;
-        if (cond1 || cond2 || cond3) {
-            for (d = 0; d < numDimensions; d++) {
-                if (d != rowDim && d != colDim)
-                    break;
-            }
-            buildIndex(d);
-        } else {
-            for (int dd : indexedDimensions) {
-                if (dd != rowDim && dd != colDim) {
-                    d = dd;
-                    break;
-                }
+        boolean[] fixed = new boolean[numDimensions];
+        int[] fixedKeys = new int[numDimensions];
+        for (int d = 0, i = 0; d < numDimensions; d++) {
+            if (d != rowDim && d != colDim) {
+                fixed[d] = true;
+                fixedKeys[d] = otherKeys[i++];
             }
         }
 
-        // get search key
-        int key = -1;
-        for (int dim = 0, i = 0; dim < numDimensions; dim++) {
-            if (dim == rowDim || dim == colDim)
-                continue;
-
-            if (dim == d) {
-                key = otherKeys[i];
-                break;
-            }
-            i++;
-        }
-
-        // all relevant positions
-        Collection<Integer> indices = keyIndices[d].get(key);
-        if (indices == null || indices.size() == 0)
+        int[] indices = match(fixed, fixedKeys);
+        if (indices.length == 0)
             return null;
 
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-        Multimap<Integer, Integer> colMap = HashMultimap.create();
-
-        // for each possible position
+        SparseMatrixBuilder builder = new SparseMatrixBuilder(dimensions[rowDim], dimensions[colDim], indices.length);
         for (int index : indices) {
-            boolean found = true;
-            for (int dd = 0, j = 0; dd < numDimensions; dd++) {
-
-                if (dd == rowDim || dd == colDim)
-                    continue;
-
-                if (otherKeys[j++] != key(dd, index)) {
-                    found = false;
-                    break;
-                }
-            }
-            if (found) {
-                int row = ndKeys[rowDim].get(index);
-                int col = ndKeys[colDim].get(index);
-                double val = values.get(index);
-
-                dataTable.put(row, col, val);
-                colMap.put(col, row);
-            }
+            builder.add(ndKeys[rowDim][index], ndKeys[colDim][index], values[index]);
         }
 
-        return new SparseMatrix(dimensions[rowDim], dimensions[colDim], dataTable, colMap);
+        return builder.build();
     }
 
     /**
-     * Re-ordering entries of a tensor into a matrix
+     * Re-ordering entries of a tensor into a matrix. Large tensors are unfolded in parallel.
      *
      * @param n mode or dimension
      * @return an unfolded or flatten matrix
      */
-    public SparseMatrix matricization(int n) {
+    public SparseMatrix matricization(final int n) {
         int numRows = dimensions[n];
         int numCols = 1;
+
+        // key k of dimension d is moved to column k * strides[d]
+        final int[] strides = new int[numDimensions];
         for (int d = 0; d < numDimensions; d++) {
-            if (d != n)
+            if (d != n) {
+                strides[d] = numCols;
                 numCols *= dimensions[d];
+            }
         }
 
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-        Multimap<Integer, Integer> colMap = HashMultimap.create();
-        for (TensorEntry te : this) {
-            int[] keys = te.keys();
-
-            int i = keys[n];
-            int j = 0;
-            for (int k = 0; k < numDimensions; k++) {
-                if (k == n)
-                    continue;
-
-                int ik = keys[k];
-                int jk = 1;
-                for (int m = 0; m < k; m++) {
-                    if (m == n)
-                        continue;
-                    jk *= dimensions[m];
+        int numChunks = numChunks(size);
+        SparseMatrixBuilder builder = new SparseMatrixBuilder(numRows, numCols, numChunks == 1 ? size : 0);
+        // the appenders are created in the order of the chunks so that the matrix does not depend on the threads
+        final SparseMatrixBuilder.Appender[] appenders = new SparseMatrixBuilder.Appender[numChunks];
+        for (int chunk = 0; chunk < numChunks; chunk++) {
+            appenders[chunk] = numChunks == 1 ? null : builder.newAppender();
+        }
+        final SparseMatrixBuilder sequentialBuilder = builder;
+        forEachChunk(size, numChunks, new ChunkKernel() {
+            @Override
+            public void compute(int chunk, int from, int to) {
+                for (int index = from; index < to; index++) {
+                    int j = 0;
+                    for (int d = 0; d < numDimensions; d++) {
+                        j += ndKeys[d][index] * strides[d];
+                    }
+                    if (appenders[chunk] == null) {
+                        sequentialBuilder.add(ndKeys[n][index], j, values[index]);
+                    } else {
+                        appenders[chunk].add(ndKeys[n][index], j, values[index]);
+                    }
                 }
-
-                j += ik * jk;
             }
+        });
 
-            dataTable.put(i, j, te.get());
-            colMap.put(j, i);
-        }
-
-        return new SparseMatrix(numRows, numCols, dataTable, colMap);
+        return builder.build(numChunks);
     }
 
     /**
-     * n-mode product of a tensor A (I1 x I2 x ... x IN) with a matrix B (J x In), denoted by A Xn B
+     * n-mode product of a tensor A (I1 x I2 x ... x IN) with a matrix B (J x In), denoted by A Xn B. The fibers of
+     * large tensors are multiplied in parallel.
      *
      * @param mat mat to be multiplied
      * @param dim mode/dimension of the tensor to be used
      * @return a new tensor in (I1 x I2 x ... x In-1 x J x In+1 x ... x IN)
      * @throws Exception if error occurs during product
      */
-    public SparseTensor modeProduct(DenseMatrix mat, int dim) throws Exception {
+    public SparseTensor modeProduct(DenseMatrix mat, final int dim) throws Exception {
 
         if (dimensions[dim] != mat.numColumns)
             throw new Exception("Dimensions of a tensor and a matrix do not match for n-mode product!");
@@ -791,24 +767,48 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
             dims[i] = i == dim ? mat.numRows : dimensions[i];
         }
 
-        SparseTensor res = new SparseTensor(dims);
-
-        for (TensorEntry te : this) {
-            double val = te.get();
-            int[] keys = te.keys();
-
-            int i = keys[dim];
-            for (int j = 0; j < mat.numRows; j++) {
-
-                int[] ks = new int[numDimensions];
-                for (int k = 0; k < ks.length; k++)
-                    ks[k] = k == dim ? j : keys[k];
-
-                res.add(val * mat.get(j, i), ks);
+        // group the entries by the mode-dim fiber they belong to, i.e. by their keys of the other dimensions
+        final int[] fiberOrder = fiberOrder(dim);
+        int numFibers = 0;
+        final int[] fiberStarts = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || !isSameFiber(fiberOrder[i - 1], fiberOrder[i], dim)) {
+                fiberStarts[numFibers++] = i;
             }
         }
+        fiberStarts[numFibers] = size;
+
+        // each fiber gives an entry for every row of the matrix
+        final int numRows = mat.numRows;
+        final double[][] matData = mat.getData();
+        long resultSize = (long) numFibers * numRows;
+        if (resultSize > Integer.MAX_VALUE)
+            throw new Exception("The n-mode product has too many entries: " + resultSize);
+        final int[][] resKeys = new int[numDimensions][(int) resultSize];
+        final double[] resValues = new double[(int) resultSize];
+        forEachChunk(numFibers, numChunks((long) size * numRows), new ChunkKernel() {
+            @Override
+            public void compute(int chunk, int fromFiber, int toFiber) {
+                for (int fiber = fromFiber; fiber < toFiber; fiber++) {
+                    int first = fiberOrder[fiberStarts[fiber]];
+                    for (int j = 0; j < numRows; j++) {
+                        double val = 0;
+                        for (int i = fiberStarts[fiber]; i < fiberStarts[fiber + 1]; i++) {
+                            int index = fiberOrder[i];
+                            val += values[index] * matData[j][ndKeys[dim][index]];
+                        }
+
+                        int target = fiber * numRows + j;
+                        for (int d = 0; d < numDimensions; d++) {
+                            resKeys[d][target] = d == dim ? j : ndKeys[d][first];
+                        }
+                        resValues[target] = val;
+                    }
+                }
+            }
+        });
 
-        return res;
+        return new SparseTensor(dims, resKeys, resValues, resValues.length);
     }
 
     /**
@@ -824,27 +824,8 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
         if (dimensions[dim] != vec.size)
             throw new Exception("Dimensions of a tensor and a vector do not match for n-mode product!");
 
-        int[] dims = new int[numDimensions];
-        for (int i = 0; i < dims.length; i++) {
-            dims[i] = i == dim ? 1 : dimensions[i];
-        }
-
-        SparseTensor res = new SparseTensor(dims);
-
-        for (TensorEntry te : this) {
-            double val = te.get();
-            int[] keys = te.keys();
-
-            int i = keys[dim];
-
-            int[] ks = new int[numDimensions];
-            for (int k = 0; k < ks.length; k++)
-                ks[k] = k == dim ? 1 : keys[k];
-
-            res.add(val * vec.get(i), ks);
-        }
-
-        return res;
+        // the vector is a 1 x In matrix, whose only row is key 0 of the new dimension
+        return modeProduct(new DenseMatrix(new double[][]{vec.getData()}), dim);
     }
 
     /**
@@ -855,18 +836,15 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
      */
     public SparseMatrix rateMatrix() {
 
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-        Multimap<Integer, Integer> colMap = HashMultimap.create();
-
-        for (TensorEntry te : this) {
-            int u = te.key(userDimension);
-            int i = te.key(itemDimension);
+        SparseMatrixBuilder builder = new SparseMatrixBuilder(dimensions[userDimension], dimensions[itemDimension],
+                size());
 
-            dataTable.put(u, i, te.get());
-            colMap.put(i, u);
+        int[] users = ndKeys[userDimension], items = ndKeys[itemDimension];
+        for (int index = 0; index < size; index++) {
+            builder.add(users[index], items[index], values[index]);
         }
 
-        return new SparseMatrix(dimensions[userDimension], dimensions[itemDimension], dataTable, colMap);
+        return builder.build();
     }
 
     public Iterator<TensorEntry> iterator() {
@@ -879,8 +857,8 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
     public double norm() {
         double res = 0;
 
-        for (double val : values) {
-            res += val * val;
+        for (int index = 0; index < size; index++) {
+            res += values[index] * values[index];
         }
 
         return Math.sqrt(res);
@@ -892,8 +870,8 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
     public double mean() {
         double res = 0;
 
-        for (double val : values) {
-            res += val;
+        for (int index = 0; index < size; index++) {
+            res += values[index];
         }
 
         return res / size();
@@ -909,11 +887,15 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
             throw new Exception("The dimensions of two sparse tensors do not match!");
 
         double res = 0;
-        for (TensorEntry te : this) {
-            double v1 = te.get();
-            double v2 = st.get(te.keys());
-
-            res += v1 * v2;
+        int[] keys = new int[numDimensions];
+        for (int index = 0; index < size; index++) {
+            for (int d = 0; d < numDimensions; d++) {
+                keys[d] = ndKeys[d][index];
+            }
+            int other = st.search(keys);
+            if (other >= 0) {
+                res += values[index] * st.values[other];
+            }
         }
 
         return res;
@@ -977,7 +959,8 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("N-Dimension: ").append(numDimensions).append(", Size: ").append(size()).append("\n");
-        for (int index = 0; index < values.size(); index++) {
+        for (int position = 0; position < size; position++) {
+            int index = order == null ? position : order[position];
             for (int d = 0; d < numDimensions; d++) {
                 sb.append(key(d, index)).append("\t");
             }
@@ -987,6 +970,357 @@ public class SparseTensor implements DataSet, Iterable<TensorEntry>, Serializabl
         return sb.toString();
     }
 
+    /**
+     * Insert an entry at a given index, which keeps the entries sorted.
+     *
+     * @param index the insertion point of the keys
+     * @param val   value of the entry
+     * @param keys  n-dimensional keys
+     */
+    private void insertEntry(int index, double val, int[] keys) {
+        if (size == values.length) {
+            int capacity = Math.max(size + 1, size + (size >> 1));
+            for (int d = 0; d < numDimensions; d++) {
+                ndKeys[d] = Arrays.copyOf(ndKeys[d], capacity);
+            }
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        for (int d = 0; d < numDimensions; d++) {
+            System.arraycopy(ndKeys[d], index, ndKeys[d], index + 1, size - index);
+            ndKeys[d][index] = keys[d];
+        }
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = val;
+        size++;
+
+        // a shuffled order keeps its order and iterates the new entry last
+        if (order != null) {
+            int[] shuffled = new int[size];
+            for (int position = 0; position < size - 1; position++) {
+                shuffled[position] = order[position] >= index ? order[position] + 1 : order[position];
+            }
+            shuffled[size - 1] = index;
+            order = shuffled;
+        }
+        keyIndices = null;
+    }
+
+    /**
+     * Remove the entry at a given index.
+     *
+     * @param index index of the entry
+     */
+    private void removeEntry(int index) {
+        for (int d = 0; d < numDimensions; d++) {
+            System.arraycopy(ndKeys[d], index + 1, ndKeys[d], index, size - index - 1);
+        }
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+
+        if (order != null) {
+            int[] shuffled = new int[size];
+            for (int position = 0, target = 0; position <= size; position++) {
+                if (order[position] != index) {
+                    shuffled[target++] = order[position] > index ? order[position] - 1 : order[position];
+                }
+            }
+            order = shuffled;
+        }
+        keyIndices = null;
+    }
+
+    /**
+     * Binary search of the entry with the given keys.
+     *
+     * @param keys n-dimensional keys
+     * @return the index of the keys if found, and otherwise (-(insertion point) - 1)
+     */
+    private int search(int[] keys) {
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, keys, numDimensions);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+
+        return -(low + 1);
+    }
+
+    /**
+     * Binary search of the bound of the entries with the given leading keys.
+     *
+     * @param keys   leading keys
+     * @param length the number of leading keys
+     * @param upper  true for the index after the last entry, false for the first entry
+     * @return the bound
+     */
+    private int bound(int[] keys, int length, boolean upper) {
+        int low = 0, high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, keys, length);
+            if (cmp < 0 || upper && cmp == 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        return low;
+    }
+
+    /**
+     * Compare the leading keys of an entry with the given keys.
+     */
+    private int compare(int index, int[] keys, int length) {
+        for (int d = 0; d < length; d++) {
+            int key = ndKeys[d][index];
+            if (key != keys[d])
+                return key < keys[d] ? -1 : 1;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Find the entries whose keys of the fixed dimensions are the given ones. The leading fixed keys give a range of
+     * the sorted entries; otherwise the compressed index of the most selective fixed dimension is scanned.
+     *
+     * @param fixed whether the key of each dimension is fixed
+     * @param keys  the fixed keys, indexed by dimension
+     * @return indices of the matched entries in ascending order
+     */
+    private int[] match(boolean[] fixed, int[] keys) {
+        int numLeading = 0;
+        while (numLeading < numDimensions && fixed[numLeading]) {
+            numLeading++;
+        }
+
+        IndexAdjacency index = null;
+        int start = 0, end = size;
+        if (numLeading > 0) {
+            start = bound(keys, numLeading, false);
+            end = bound(keys, numLeading, true);
+        } else {
+            for (int d = 0; d < numDimensions; d++) {
+                if (fixed[d]) {
+                    IndexAdjacency candidate = modeIndex(d);
+                    if (index == null || candidate.size(keys[d]) < end - start) {
+                        index = candidate;
+                        start = candidate.start(keys[d]);
+                        end = candidate.end(keys[d]);
+                    }
+                }
+            }
+        }
+
+        int[] res = new int[end - start];
+        int count = 0;
+        for (int position = start; position < end; position++) {
+            int entry = index == null ? position : index.get(position);
+            boolean found = true;
+            for (int d = numLeading; d < numDimensions; d++) {
+                if (fixed[d] && ndKeys[d][entry] != keys[d]) {
+                    found = false;
+                    break;
+                }
+            }
+            if (found)
+                res[count++] = entry;
+        }
+
+        return count == res.length ? res : Arrays.copyOf(res, count);
+    }
+
+    /**
+     * @param dim the dimension of the fibers
+     * @return the indices of the entries sorted by their keys of the other dimensions
+     */
+    private int[] fiberOrder(int dim) {
+        int[] res = null;
+        if (dim != numDimensions - 1) {
+            for (int d = numDimensions - 1; d >= 0; d--) {
+                if (d != dim) {
+                    res = countingSort(ndKeys[d], res);
+                }
+            }
+        } else {
+            // the sorted entries are already grouped by the fibers of the last dimension
+            res = new int[size];
+            for (int index = 0; index < size; index++) {
+                res[index] = index;
+            }
+        }
+
+        return res;
+    }
+
+    private boolean isSameFiber(int index, int other, int dim) {
+        for (int d = 0; d < numDimensions; d++) {
+            if (d != dim && ndKeys[d][index] != ndKeys[d][other])
+                return false;
+        }
+
+        return true;
+    }
+
+    private int maxKey(int d) {
+        int max = -1;
+        for (int index = 0; index < size; index++) {
+            int key = ndKeys[d][index];
+            if (key < 0)
+                throw new IllegalArgumentException("Negative key " + key + " in dimension " + d);
+            max = Math.max(max, key);
+        }
+
+        return max;
+    }
+
+    /**
+     * Sort the entries in the lexicographic order of their keys, by stable counting sorts from the last dimension to
+     * the first. Entries with the same keys keep their order.
+     */
+    private void sortEntries() {
+        boolean sorted = true;
+        for (int index = 1; index < size && sorted; index++) {
+            sorted = !isDescending(index - 1, index);
+        }
+        if (sorted)
+            return;
+
+        int[] permutation = null;
+        for (int d = numDimensions - 1; d >= 0; d--) {
+            permutation = countingSort(ndKeys[d], permutation);
+        }
+
+        for (int d = 0; d < numDimensions; d++) {
+            int[] keys = new int[size];
+            for (int index = 0; index < size; index++) {
+                keys[index] = ndKeys[d][permutation[index]];
+            }
+            ndKeys[d] = keys;
+        }
+        double[] vals = new double[size];
+        for (int index = 0; index < size; index++) {
+            vals[index] = values[permutation[index]];
+        }
+        values = vals;
+    }
+
+    private boolean isDescending(int index, int other) {
+        for (int d = 0; d < numDimensions; d++) {
+            int key = ndKeys[d][index], otherKey = ndKeys[d][other];
+            if (key != otherKey)
+                return key > otherKey;
+        }
+
+        return false;
+    }
+
+    /**
+     * Stable counting sort of the entries by a key.
+     *
+     * @param keys  key of each entry
+     * @param input entries in input order, or null for the order of the indices
+     * @return entries sorted by key
+     */
+    private int[] countingSort(int[] keys, int[] input) {
+        int numKeys = 0;
+        for (int index = 0; index < size; index++) {
+            if (keys[index] < 0)
+                throw new IllegalArgumentException("Negative key " + keys[index]);
+            numKeys = Math.max(numKeys, keys[index] + 1);
+        }
+
+        int[] starts = new int[numKeys + 1];
+        for (int index = 0; index < size; index++) {
+            starts[keys[index] + 1]++;
+        }
+        for (int key = 0; key < numKeys; key++) {
+            starts[key + 1] += starts[key];
+        }
+
+        int[] output = new int[size];
+        for (int i = 0; i < size; i++) {
+            int entry = input != null ? input[i] : i;
+            output[starts[keys[entry]]++] = entry;
+        }
+
+        return output;
+    }
+
+    /**
+     * A kernel computing a chunk of a range.
+     */
+    private interface ChunkKernel {
+        /**
+         * Compute the elements in [from, to).
+         *
+         * @param chunk the chunk id
+         * @param from  the first element, inclusive
+         * @param to    the last element, exclusive
+         */
+        void compute(int chunk, int from, int to);
+    }
+
+    /**
+     * @param work the number of entries (or multiply-adds) to be computed
+     * @return the number of chunks of the work, one per available processor if it is large enough to pay for them
+     */
+    private static int numChunks(long work) {
+        return work < PARALLEL_SIZE ? 1 : Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Run a kernel over the range [0, length), split into chunks computed in parallel if there are several.
+     *
+     * @param length    the length of the range
+     * @param numChunks the number of chunks
+     * @param kernel    the kernel
+     */
+    private static void forEachChunk(int length, int numChunks, final ChunkKernel kernel) {
+        numChunks = Math.max(1, Math.min(numChunks, length));
+        if (numChunks == 1) {
+            kernel.compute(0, 0, length);
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(numChunks);
+        try {
+            List<Future<?>> chunks = new ArrayList<>(numChunks);
+            for (int chunk = 0; chunk < numChunks; chunk++) {
+                final int current = chunk;
+                final int from = (int) ((long) length * chunk / numChunks);
+                final int to = (int) ((long) length * (chunk + 1) / numChunks);
+                chunks.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        kernel.compute(current, from, to);
+                    }
+                }));
+            }
+            for (Future<?> chunk : chunks) {
+                chunk.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+
     /**
      * Usage demonstration
      *
@@ -364,6 +364,33 @@ public class SparseVector implements Iterable<VectorEntry>, Serializable {
         return res;
     }
 
+    /**
+     * Return the number of nonzero indices shared with a given sparse vector,
+     * merging the sorted indices of both vectors in place.
+     *
+     * @param vec a given sparse vector
+     * @return the number of common nonzero indices
+     */
+    public int intersectionSize(SparseVector vec) {
+        int numCommon = 0;
+        for (int thisPos = 0, thatPos = 0; thisPos < count && thatPos < vec.count; ) {
+            if (data[thisPos] == 0.0) {
+                thisPos++;
+            } else if (vec.data[thatPos] == 0.0) {
+                thatPos++;
+            } else if (index[thisPos] < vec.index[thatPos]) {
+                thisPos++;
+            } else if (index[thisPos] > vec.index[thatPos]) {
+                thatPos++;
+            } else {
+                numCommon++;
+                thisPos++;
+                thatPos++;
+            }
+        }
+        return numCommon;
+    }
+
     /**
      * @return sum of vector entries
      */
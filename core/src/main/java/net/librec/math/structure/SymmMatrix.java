@@ -20,10 +20,17 @@ package net.librec.math.structure;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 
+import java.util.Iterator;
+import java.util.Map;
+
 /**
- *
+ * Symmetric matrix, storing each pair (row, col) once in a hash table.
+ * <p>
+ * Subclasses keep their own storage behind the same {@code get/set/row} API:
+ * {@link PackedSymmMatrix} for dense matrices of small dimension and
+ * {@link SparseSymmMatrix} for sparse ones, both built by {@link SymmMatrixBuilder}.
  */
-public class SymmMatrix {
+public class SymmMatrix implements Iterable<MatrixEntry> {
 
     // matrix dimension
     protected int dim;
@@ -41,6 +48,18 @@ public class SymmMatrix {
         // sparse matrix
     }
 
+    /**
+     * Construct a symmetric matrix with a given table, which is null for subclasses
+     * keeping their own storage
+     *
+     * @param dim  matrix dimension
+     * @param data matrix data
+     */
+    protected SymmMatrix(int dim, Table<Integer, Integer, Double> data) {
+        this.dim = dim;
+        this.data = data;
+    }
+
     /**
      * Construct a symmetric matrix by deeply copying data from a given matrix
      *
@@ -111,15 +130,75 @@ public class SymmMatrix {
      */
     public SparseVector row(int row) {
         SparseVector res = new SparseVector(dim);
-        for (int col = 0; col < dim; col++) {
-            double val = get(row, col);
+        // entries (row, col) with col <= row, and entries (col, row) with col > row
+        for (Map.Entry<Integer, Double> entry : data.row(row).entrySet()) {
+            double val = entry.getValue();
             if (val != 0)
-                res.set(col, val);
+                res.set(entry.getKey(), val);
+        }
+        for (Map.Entry<Integer, Double> entry : data.column(row).entrySet()) {
+            double val = entry.getValue();
+            if (val != 0 && entry.getKey() != row)
+                res.set(entry.getKey(), val);
         }
 
         return res;
     }
 
+    /**
+     * @return the number of stored entries, each pair (row, col) counted once
+     */
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * Iterate over the stored entries, each pair (row, col) once with {@code row >= col}.
+     *
+     * @return an iterator over the stored entries
+     */
+    @Override
+    public Iterator<MatrixEntry> iterator() {
+        final Iterator<Table.Cell<Integer, Integer, Double>> cellIterator = data.cellSet().iterator();
+        return new Iterator<MatrixEntry>() {
+            @Override
+            public boolean hasNext() {
+                return cellIterator.hasNext();
+            }
+
+            @Override
+            public MatrixEntry next() {
+                final Table.Cell<Integer, Integer, Double> cell = cellIterator.next();
+                return new MatrixEntry() {
+                    @Override
+                    public int row() {
+                        return cell.getRowKey();
+                    }
+
+                    @Override
+                    public int column() {
+                        return cell.getColumnKey();
+                    }
+
+                    @Override
+                    public double get() {
+                        return cell.getValue();
+                    }
+
+                    @Override
+                    public void set(double value) {
+                        data.put(cell.getRowKey(), cell.getColumnKey(), value);
+                    }
+                };
+            }
+
+            @Override
+            public void remove() {
+                cellIterator.remove();
+            }
+        };
+    }
+
     /**
      * @return the dim
      */
@@ -136,7 +215,7 @@ public class SymmMatrix {
 
     @Override
     public String toString() {
-        return "Dimension: " + dim + " x " + dim + "\n" + data.toString();
+        return "Dimension: " + dim + " x " + dim + "\n" + getData().toString();
     }
 
 }
@@ -0,0 +1,256 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import java.util.Arrays;
+
+/**
+ * Builder of compact symmetric matrices. Entries are appended to primitive
+ * arrays in any order, and built in one pass into a {@link SparseSymmMatrix} or
+ * a {@link PackedSymmMatrix}. If an entry (row, col) or (col, row) is set more
+ * than once, the last value is kept, as with {@link SymmMatrix#set(int, int, double)}.
+ */
+public class SymmMatrixBuilder {
+
+    /**
+     * matrix dimension
+     */
+    private final int dim;
+
+    /**
+     * appended entries, with {@code rows[i] >= cols[i]}
+     */
+    private int[] rows, cols;
+    private float[] values;
+
+    /**
+     * the number of appended entries
+     */
+    private int size;
+
+    /**
+     * whether the entries are sorted by (row, col) without duplicates
+     */
+    private boolean compacted;
+
+    /**
+     * Create a builder of a symmetric matrix.
+     *
+     * @param dim matrix dimension
+     */
+    public SymmMatrixBuilder(int dim) {
+        this(dim, 16);
+    }
+
+    /**
+     * Create a builder of a symmetric matrix.
+     *
+     * @param dim      matrix dimension
+     * @param capacity initial number of entries
+     */
+    public SymmMatrixBuilder(int dim, int capacity) {
+        this.dim = dim;
+        capacity = Math.max(1, capacity);
+        rows = new int[capacity];
+        cols = new int[capacity];
+        values = new float[capacity];
+    }
+
+    /**
+     * Set a value to entry (row, col), and so to entry (col, row).
+     *
+     * @param row row index
+     * @param col column index
+     * @param val value to set
+     * @return this builder
+     */
+    public SymmMatrixBuilder set(int row, int col, double val) {
+        if (row < 0 || col < 0 || row >= dim || col >= dim) {
+            throw new IndexOutOfBoundsException("Entry (" + row + ", " + col + ") out of dimension " + dim);
+        }
+        if (size == rows.length) {
+            int capacity = rows.length + (rows.length >> 1) + 1;
+            rows = Arrays.copyOf(rows, capacity);
+            cols = Arrays.copyOf(cols, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        rows[size] = Math.max(row, col);
+        cols[size] = Math.min(row, col);
+        values[size++] = (float) val;
+        compacted = false;
+        return this;
+    }
+
+    /**
+     * @return the number of appended entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Build the symmetric matrix taking less memory: the packed matrix if at least
+     * about a quarter of the pairs are set, otherwise the sparse one.
+     *
+     * @return a packed or sparse symmetric matrix
+     */
+    public SymmMatrix build() {
+        compact();
+        long packedBytes = 4L * dim * (dim + 1) / 2;
+        long sparseBytes = 8L * (2L * size - countDiagonal()) + 4L * (dim + 1);
+        if (packedBytes <= sparseBytes && packedBytes / 4 <= Integer.MAX_VALUE - 8) {
+            return buildPacked();
+        }
+        return buildSparse();
+    }
+
+    /**
+     * @return a packed symmetric matrix of the appended entries
+     */
+    public PackedSymmMatrix buildPacked() {
+        PackedSymmMatrix matrix = new PackedSymmMatrix(dim);
+        // appended order, so the last value of an entry wins
+        for (int i = 0; i < size; i++) {
+            matrix.set(rows[i], cols[i], values[i]);
+        }
+        return matrix;
+    }
+
+    /**
+     * @return a sparse symmetric matrix of the appended entries
+     */
+    public SparseSymmMatrix buildSparse() {
+        compact();
+
+        // lower entries are sorted by (row, col): appending (row, col) to row row and
+        // (col, row) to row col keeps the columns of every row sorted
+        int[] rowPtr = new int[dim + 1];
+        for (int i = 0; i < size; i++) {
+            rowPtr[rows[i] + 1]++;
+            if (rows[i] != cols[i]) {
+                rowPtr[cols[i] + 1]++;
+            }
+        }
+        for (int row = 0; row < dim; row++) {
+            rowPtr[row + 1] += rowPtr[row];
+        }
+        int[] colInd = new int[rowPtr[dim]];
+        float[] data = new float[rowPtr[dim]];
+        int[] cursor = Arrays.copyOf(rowPtr, dim);
+        for (int i = 0; i < size; i++) {
+            int position = cursor[rows[i]]++;
+            colInd[position] = cols[i];
+            data[position] = values[i];
+            if (rows[i] != cols[i]) {
+                position = cursor[cols[i]]++;
+                colInd[position] = rows[i];
+                data[position] = values[i];
+            }
+        }
+
+        return new SparseSymmMatrix(dim, rowPtr, colInd, data);
+    }
+
+    /**
+     * Sort the appended entries by (row, col) with two stable counting sorts, keep
+     * the last value of duplicated entries, and drop the zero ones as the packed
+     * matrix does not tell them from unset entries.
+     */
+    private void compact() {
+        if (compacted) {
+            return;
+        }
+        int[] order = countingSort(cols, identity(size));
+        order = countingSort(rows, order);
+
+        int[] sortedRows = new int[size], sortedCols = new int[size];
+        float[] sortedValues = new float[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int entry = order[i];
+            if (count > 0 && sortedRows[count - 1] == rows[entry] && sortedCols[count - 1] == cols[entry]) {
+                sortedValues[count - 1] = values[entry];
+                continue;
+            }
+            sortedRows[count] = rows[entry];
+            sortedCols[count] = cols[entry];
+            sortedValues[count++] = values[entry];
+        }
+        int nonZeros = 0;
+        for (int i = 0; i < count; i++) {
+            if (sortedValues[i] != 0) {
+                sortedRows[nonZeros] = sortedRows[i];
+                sortedCols[nonZeros] = sortedCols[i];
+                sortedValues[nonZeros++] = sortedValues[i];
+            }
+        }
+
+        rows = sortedRows;
+        cols = sortedCols;
+        values = sortedValues;
+        size = nonZeros;
+        compacted = true;
+    }
+
+    /**
+     * @param length the number of entries
+     * @return 0, 1, ..., length - 1
+     */
+    private static int[] identity(int length) {
+        int[] order = new int[length];
+        for (int i = 0; i < length; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    /**
+     * Stable counting sort of entry positions by key.
+     *
+     * @param keys  key of each entry
+     * @param order entry positions to sort
+     * @return entry positions sorted by key, in the given order for equal keys
+     */
+    private int[] countingSort(int[] keys, int[] order) {
+        int[] start = new int[dim + 1];
+        for (int entry : order) {
+            start[keys[entry] + 1]++;
+        }
+        for (int key = 0; key < dim; key++) {
+            start[key + 1] += start[key];
+        }
+        int[] sorted = new int[order.length];
+        for (int entry : order) {
+            sorted[start[keys[entry]]++] = entry;
+        }
+        return sorted;
+    }
+
+    /**
+     * @return the number of appended diagonal entries
+     */
+    private int countDiagonal() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (rows[i] == cols[i]) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
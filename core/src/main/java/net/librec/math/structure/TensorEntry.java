@@ -34,6 +34,14 @@ public interface TensorEntry {
      */
     int[] keys();
 
+    /**
+     * Copy the entry keys into a given array, which avoids allocating an array per entry.
+     *
+     * @param keys an array with a length of at least the number of dimensions
+     * @return the given array
+     */
+    int[] keys(int[] keys);
+
     /**
      * @return the value at the current index
      */
@@ -23,6 +23,8 @@ import net.librec.conf.Configuration;
 import net.librec.data.DataModel;
 import net.librec.eval.Measure;
 import net.librec.eval.Measure.MeasureValue;
+import net.librec.eval.AbstractRecommenderEvaluator;
+import net.librec.eval.RankingEvaluationEngine;
 import net.librec.eval.RecommenderEvaluator;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SparseMatrix;
@@ -56,6 +58,12 @@ public abstract class AbstractRecommender implements Recommender {
      */
     protected int topN;
 
+    /**
+     * the number of threads used to rank items and to evaluate the ranking, see {@link RankingEngine}
+     * and {@link RankingEvaluationEngine}
+     */
+    protected int rankingThreads;
+
     /**
      * conf
      */
@@ -169,6 +177,7 @@ public abstract class AbstractRecommender implements Recommender {
             if (this.topN <= 0) {
                 throw new IndexOutOfBoundsException("rec.recommender.ranking.topn should be more than 0!");
             }
+            rankingThreads = conf.getInt("rec.recommender.ranking.threads", 1);
         }
         earlyStop = conf.getBoolean("rec.recommender.earlystop", false);
         verbose = conf.getBoolean("rec.recommender.verbose", true);
@@ -195,8 +204,8 @@ public abstract class AbstractRecommender implements Recommender {
             int numTestItemsByUser = testMatrix.rowSize(userIdx);
             maxNumTestItemsByUser = maxNumTestItemsByUser < numTestItemsByUser ? numTestItemsByUser : maxNumTestItemsByUser;
         }
-        conf.setInts("rec.eval.auc.dropped.num", numDroppedItemsArray);
-        conf.setInt("test.user.items.num.max", maxNumTestItemsByUser);
+        context.setAttribute(AbstractRecommenderEvaluator.NUM_DROPPED_ITEMS, numDroppedItemsArray);
+        context.setAttribute(AbstractRecommenderEvaluator.MAX_NUM_TEST_ITEMS, maxNumTestItemsByUser);
     }
 
     /**
@@ -247,22 +256,17 @@ public abstract class AbstractRecommender implements Recommender {
      * @throws LibrecException if error occurs during recommending
      */
     protected RecommendedList recommendRank() throws LibrecException {
-        recommendedList = new RecommendedItemList(numUsers - 1, numUsers);
+        RankingEngine rankingEngine = new RankingEngine(this, trainMatrix, topN, rankingThreads);
+        rankingEngine.rank();
 
+        CompactRecommendedItemList rankedList = new CompactRecommendedItemList(numUsers - 1, rankingEngine.getNumRankedItems());
         for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            Set<Integer> itemSet = trainMatrix.getColumnsSet(userIdx);
-            for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
-                if (itemSet.contains(itemIdx)) {
-                    continue;
-                }
-                double predictRating = predict(userIdx, itemIdx);
-                if (Double.isNaN(predictRating)) {
-                    continue;
-                }
-                recommendedList.addUserItemIdx(userIdx, itemIdx, predictRating);
+            int[] rankedItems = rankingEngine.getRankedItems(userIdx);
+            if (rankedItems != null) {
+                rankedList.addUserItemIdxs(userIdx, rankedItems, rankingEngine.getRankedScores(userIdx), rankedItems.length);
             }
-            recommendedList.topNRankItemsByUser(userIdx, topN);
         }
+        recommendedList = rankedList;
 
         if(recommendedList.size()==0){
             throw new IndexOutOfBoundsException("No item is recommended, there is something error in the recommendation algorithm! Please check it!");
@@ -279,7 +283,7 @@ public abstract class AbstractRecommender implements Recommender {
      * @throws LibrecException if error occurs during recommending
      */
     protected RecommendedList recommendRating() throws LibrecException {
-        recommendedList = new RecommendedItemList(numUsers - 1, numUsers);
+        recommendedList = new CompactRecommendedItemList(numUsers - 1, testMatrix.getData().length);
 
         for (MatrixEntry matrixEntry : testMatrix) {
             int userIdx = matrixEntry.row();
@@ -348,13 +352,42 @@ public abstract class AbstractRecommender implements Recommender {
      * @throws LibrecException if error occurs during constructing evaluate map
      */
     public Map<MeasureValue, Double> evaluateMap() throws LibrecException {
+        return evaluateMap(Measure.getMeasureEnumList(isRanking, topN));
+    }
+
+    /**
+     * Evaluate the given measures. The ranking measures with a cutoff are all
+     * evaluated in one pass by a {@link RankingEvaluationEngine}, and the others
+     * by their evaluators, with the cutoff of the measure if it has one.
+     *
+     * @param measureValueList the measures with their cutoffs
+     * @return evaluate map
+     * @throws LibrecException if error occurs during constructing evaluate map
+     */
+    public Map<MeasureValue, Double> evaluateMap(List<MeasureValue> measureValueList) throws LibrecException {
         Map<MeasureValue, Double> evaluatedMap = new HashMap<>();
-        List<MeasureValue> measureValueList = Measure.getMeasureEnumList(isRanking, topN);
         if (measureValueList != null) {
+            // the ranking measures at all cutoffs in one pass over the users
+            List<MeasureValue> rankingMeasureValues = new ArrayList<>();
+            List<MeasureValue> otherMeasureValues = new ArrayList<>();
             for (MeasureValue measureValue : measureValueList) {
+                if (isRanking && RankingEvaluationEngine.isSupported(measureValue)) {
+                    rankingMeasureValues.add(measureValue);
+                } else {
+                    otherMeasureValues.add(measureValue);
+                }
+            }
+            if (rankingMeasureValues.size() > 0) {
+                RankingEvaluationEngine evaluationEngine = new RankingEvaluationEngine(
+                        context.getDataModel().getDataSplitter().getTestData(),
+                        context.getAttribute(AbstractRecommenderEvaluator.NUM_DROPPED_ITEMS), rankingThreads);
+                evaluatedMap.putAll(evaluationEngine.evaluate(recommendedList, rankingMeasureValues));
+            }
+
+            for (MeasureValue measureValue : otherMeasureValues) {
                 RecommenderEvaluator evaluator = ReflectionUtil
                         .newInstance(measureValue.getMeasure().getEvaluatorClass());
-                if (isRanking && measureValue.getTopN() != null && measureValue.getTopN() > 0) {
+                if (measureValue.getTopN() != null) {
                     evaluator.setTopN(measureValue.getTopN());
                 }
                 double evaluatedValue = evaluator.evaluate(context, recommendedList);
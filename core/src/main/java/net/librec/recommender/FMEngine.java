@@ -0,0 +1,451 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import net.librec.common.LibrecException;
+import net.librec.math.structure.DenseMatrix;
+import net.librec.math.structure.DenseVector;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.math.structure.SparseTensor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Alternating least squares of factorization machines over the entries of a tensor.
+ * <p>
+ * Each entry of the tensor is a sample, whose features are its keys: the key of
+ * dimension d is the feature {@code offset(d) + key}, with value 1. The design
+ * matrix of the samples is built once, with both its CRS (sample-major) and CCS
+ * (feature-major) structures, and the training loops read its arrays instead of
+ * building a feature vector of each entry in each iteration.
+ * <p>
+ * The updates follow Rendle, "Factorization Machines with libFM", ACM TIST, 2012.
+ * The engine caches the residual of every sample and, while the factor f is
+ * updated, the sums q(x, f) = sum_l v(l, f) x_l of every sample, so the update
+ * of one parameter only visits the samples having its feature, and a sweep over
+ * all the parameters costs O(k nnz) instead of O(k n p).
+ * <p>
+ * The features of one dimension never occur in the same sample, so their updates
+ * read and write disjoint residuals and sums. They are split into one chunk per
+ * thread, balanced by the number of samples, and updated in parallel, while the
+ * dimensions are updated in order. The model is thus the same as the one of a
+ * sequential sweep, whatever the number of threads.
+ */
+public class FMEngine {
+
+    /**
+     * Update a range of samples or of features.
+     */
+    private interface RangeKernel {
+        /**
+         * @param from the first sample or feature, inclusive
+         * @param to   the last sample or feature, exclusive
+         */
+        void update(int from, int to);
+    }
+
+    /**
+     * design matrix, one row per sample and one column per feature
+     */
+    private final SparseMatrix designMatrix;
+
+    /**
+     * targets and residuals of the samples
+     */
+    private final double[] targets, errors;
+
+    /**
+     * the sums q(x, f) of each sample for the factor being updated
+     */
+    private final double[] sums;
+
+    /**
+     * the number of worker threads
+     */
+    private final int numThreads;
+
+    /**
+     * the chunk bounds of the samples, and of the features of each dimension
+     */
+    private final int[] sampleChunks;
+    private final int[][] featureChunks;
+
+    /**
+     * Create an engine over the entries of a tensor.
+     *
+     * @param tensor     the training tensor
+     * @param numThreads the number of worker threads, a value &lt;= 0 uses all available processors
+     */
+    public FMEngine(SparseTensor tensor, int numThreads) {
+        this.numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+        int[] offsets = featureOffsets(tensor);
+        designMatrix = designMatrix(tensor, offsets);
+
+        int numSamples = tensor.size();
+        targets = new double[numSamples];
+        for (int sample = 0; sample < numSamples; sample++) {
+            targets[sample] = tensor.value(sample);
+        }
+        errors = new double[numSamples];
+        sums = new double[numSamples];
+
+        sampleChunks = new int[this.numThreads + 1];
+        for (int chunk = 0; chunk <= this.numThreads; chunk++) {
+            sampleChunks[chunk] = (int) ((long) numSamples * chunk / this.numThreads);
+        }
+        featureChunks = new int[tensor.numDimensions][];
+        for (int d = 0; d < tensor.numDimensions; d++) {
+            featureChunks[d] = balancedChunks(offsets[d], offsets[d + 1]);
+        }
+    }
+
+    /**
+     * @param tensor a tensor
+     * @return the first feature of each dimension of the tensor, followed by the number of features
+     */
+    public static int[] featureOffsets(SparseTensor tensor) {
+        int[] offsets = new int[tensor.numDimensions + 1];
+        for (int d = 0; d < tensor.numDimensions; d++) {
+            offsets[d + 1] = offsets[d] + tensor.dimensions[d];
+        }
+        return offsets;
+    }
+
+    /**
+     * Build the design matrix of the entries of a tensor, whose row i holds the
+     * features of the i-th entry.
+     *
+     * @param tensor  a tensor
+     * @param offsets the feature offsets of the dimensions, see {@link #featureOffsets(SparseTensor)}
+     * @return the design matrix
+     */
+    public static SparseMatrix designMatrix(SparseTensor tensor, int[] offsets) {
+        int numSamples = tensor.size();
+        int numDimensions = tensor.numDimensions;
+        int[] rowPtr = new int[numSamples + 1];
+        int[] colInd = new int[numSamples * numDimensions];
+        double[] rowData = new double[numSamples * numDimensions];
+        for (int sample = 0, position = 0; sample < numSamples; sample++) {
+            for (int d = 0; d < numDimensions; d++, position++) {
+                colInd[position] = offsets[d] + tensor.key(d, sample);
+                rowData[position] = 1.0d;
+            }
+            rowPtr[sample + 1] = position;
+        }
+        return new SparseMatrix(numSamples, offsets[numDimensions], rowPtr, colInd, rowData);
+    }
+
+    /**
+     * Predict the target of a row of a design matrix.
+     *
+     * @param designMatrix design matrix
+     * @param row          the row of the sample
+     * @param w0           global bias
+     * @param W            weights of the features
+     * @param V            factors of the features
+     * @return the prediction of the sample
+     */
+    public static double predict(SparseMatrix designMatrix, int row, double w0, DenseVector W, DenseMatrix V) {
+        int from = designMatrix.rowPtr[row], to = designMatrix.rowPtr[row + 1];
+        int[] colInd = designMatrix.colInd;
+        double[] rowData = designMatrix.rowData;
+
+        double prediction = w0;
+        for (int position = from; position < to; position++) {
+            prediction += rowData[position] * W.get(colInd[position]);
+        }
+        for (int f = 0, numFactors = V.numColumns(); f < numFactors; f++) {
+            double sum = 0.0d, sumOfSquares = 0.0d;
+            for (int position = from; position < to; position++) {
+                double term = V.get(colInd[position], f) * rowData[position];
+                sum += term;
+                sumOfSquares += term * term;
+            }
+            prediction += (sum * sum - sumOfSquares) / 2;
+        }
+        return prediction;
+    }
+
+    /**
+     * @return the design matrix of the training samples
+     */
+    public SparseMatrix getDesignMatrix() {
+        return designMatrix;
+    }
+
+    /**
+     * @return the number of worker threads
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Compute the residuals of all the samples from scratch.
+     *
+     * @param w0 global bias
+     * @param W  weights of the features
+     * @param V  factors of the features
+     * @return the sum of squared residuals
+     * @throws LibrecException if a worker thread fails
+     */
+    public double computeErrors(final double w0, final DenseVector W, final DenseMatrix V) throws LibrecException {
+        ForkJoinPool pool = newPool();
+        try {
+            run(pool, sampleChunks, new RangeKernel() {
+                @Override
+                public void update(int from, int to) {
+                    for (int sample = from; sample < to; sample++) {
+                        errors[sample] = targets[sample] - predict(designMatrix, sample, w0, W, V);
+                    }
+                }
+            });
+        } finally {
+            shutdown(pool);
+        }
+        return squaredError();
+    }
+
+    /**
+     * @return the sum of squared residuals of the current model
+     */
+    public double squaredError() {
+        double sum = 0.0d;
+        for (double error : errors) {
+            sum += error * error;
+        }
+        return sum;
+    }
+
+    /**
+     * Solve the global bias and update the residuals.
+     *
+     * @param w0  the current global bias
+     * @param reg regularization of the global bias
+     * @return the new global bias
+     */
+    public double updateGlobalBias(double w0, double reg) {
+        double numerator = 0.0d;
+        for (double error : errors) {
+            numerator += w0 + error;
+        }
+        double newW0 = numerator / (errors.length + reg);
+        double delta = w0 - newW0;
+        for (int sample = 0; sample < errors.length; sample++) {
+            errors[sample] += delta;
+        }
+        return newW0;
+    }
+
+    /**
+     * Solve the weight of every feature in turn and update the residuals.
+     *
+     * @param W   weights of the features, updated in place
+     * @param reg regularization of the weights
+     * @throws LibrecException if a worker thread fails
+     */
+    public void updateWeights(final DenseVector W, final double reg) throws LibrecException {
+        final int[] colPtr = designMatrix.colPtr;
+        final int[] rowInd = designMatrix.rowInd;
+        final double[] colData = designMatrix.colData;
+        RangeKernel kernel = new RangeKernel() {
+            @Override
+            public void update(int from, int to) {
+                for (int l = from; l < to; l++) {
+                    double oldWl = W.get(l);
+                    double numerator = 0.0d, denominator = 0.0d;
+                    for (int position = colPtr[l]; position < colPtr[l + 1]; position++) {
+                        double h = colData[position];
+                        numerator += oldWl * h * h + h * errors[rowInd[position]];
+                        denominator += h * h;
+                    }
+                    double newWl = numerator / (denominator + reg);
+                    for (int position = colPtr[l]; position < colPtr[l + 1]; position++) {
+                        errors[rowInd[position]] += (oldWl - newWl) * colData[position];
+                    }
+                    W.set(l, newWl);
+                }
+            }
+        };
+        ForkJoinPool pool = newPool();
+        try {
+            for (int[] chunks : featureChunks) {
+                run(pool, chunks, kernel);
+            }
+        } finally {
+            shutdown(pool);
+        }
+    }
+
+    /**
+     * Solve the factors of every feature in turn, factor by factor, and update the residuals.
+     *
+     * @param V   factors of the features, updated in place
+     * @param reg regularization of the factors
+     * @throws LibrecException if a worker thread fails
+     */
+    public void updateFactors(final DenseMatrix V, final double reg) throws LibrecException {
+        final int[] rowPtr = designMatrix.rowPtr;
+        final int[] colInd = designMatrix.colInd;
+        final double[] rowData = designMatrix.rowData;
+        final int[] colPtr = designMatrix.colPtr;
+        final int[] rowInd = designMatrix.rowInd;
+        final double[] colData = designMatrix.colData;
+        ForkJoinPool pool = newPool();
+        try {
+            for (int factor = 0; factor < V.numColumns(); factor++) {
+                final int f = factor;
+                run(pool, sampleChunks, new RangeKernel() {
+                    @Override
+                    public void update(int from, int to) {
+                        for (int sample = from; sample < to; sample++) {
+                            double sum = 0.0d;
+                            for (int position = rowPtr[sample]; position < rowPtr[sample + 1]; position++) {
+                                sum += V.get(colInd[position], f) * rowData[position];
+                            }
+                            sums[sample] = sum;
+                        }
+                    }
+                });
+
+                RangeKernel kernel = new RangeKernel() {
+                    @Override
+                    public void update(int from, int to) {
+                        for (int l = from; l < to; l++) {
+                            double oldVlf = V.get(l, f);
+                            double numerator = 0.0d, denominator = 0.0d;
+                            for (int position = colPtr[l]; position < colPtr[l + 1]; position++) {
+                                int sample = rowInd[position];
+                                double x = colData[position];
+                                double h = x * (sums[sample] - oldVlf * x);
+                                numerator += oldVlf * h * h + h * errors[sample];
+                                denominator += h * h;
+                            }
+                            double newVlf = numerator / (denominator + reg);
+                            // h does not depend on v(l, f), so the residual changes by (old - new) h
+                            for (int position = colPtr[l]; position < colPtr[l + 1]; position++) {
+                                int sample = rowInd[position];
+                                double x = colData[position];
+                                double h = x * (sums[sample] - oldVlf * x);
+                                errors[sample] += (oldVlf - newVlf) * h;
+                                sums[sample] += (newVlf - oldVlf) * x;
+                            }
+                            V.set(l, f, newVlf);
+                        }
+                    }
+                };
+                for (int[] chunks : featureChunks) {
+                    run(pool, chunks, kernel);
+                }
+            }
+        } finally {
+            shutdown(pool);
+        }
+    }
+
+    /**
+     * Split a range of features into one chunk per thread, with about the same
+     * number of samples in each chunk.
+     *
+     * @param from the first feature, inclusive
+     * @param to   the last feature, exclusive
+     * @return the chunk bounds
+     */
+    private int[] balancedChunks(int from, int to) {
+        int[] colPtr = designMatrix.colPtr;
+        int[] bounds = new int[numThreads + 1];
+        bounds[0] = from;
+        bounds[numThreads] = to;
+        long total = colPtr[to] - colPtr[from];
+        int feature = from;
+        for (int chunk = 1; chunk < numThreads; chunk++) {
+            long target = colPtr[from] + total * chunk / numThreads;
+            while (feature < to && colPtr[feature] < target) {
+                feature++;
+            }
+            bounds[chunk] = feature;
+        }
+        return bounds;
+    }
+
+    /**
+     * @return a pool of the worker threads, or null with one thread
+     */
+    private ForkJoinPool newPool() {
+        return numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+    }
+
+    /**
+     * @param pool a pool of the worker threads, or null
+     */
+    private static void shutdown(ForkJoinPool pool) {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Run a kernel over the chunks, in parallel when there is a pool.
+     *
+     * @param pool   a pool of the worker threads, or null to run on the calling thread
+     * @param bounds the chunk bounds
+     * @param kernel the update of one chunk
+     * @throws LibrecException if a worker thread fails
+     */
+    private static void run(ForkJoinPool pool, int[] bounds, final RangeKernel kernel) throws LibrecException {
+        int numChunks = bounds.length - 1;
+        if (pool == null) {
+            for (int chunk = 0; chunk < numChunks; chunk++) {
+                kernel.update(bounds[chunk], bounds[chunk + 1]);
+            }
+            return;
+        }
+        try {
+            List<Future<Void>> tasks = new ArrayList<>(numChunks);
+            for (int chunk = 0; chunk < numChunks; chunk++) {
+                final int from = bounds[chunk], to = bounds[chunk + 1];
+                if (from == to) {
+                    continue;
+                }
+                tasks.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        kernel.update(from, to);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LibrecException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new LibrecException(e.getCause());
+        }
+    }
+}
@@ -21,7 +21,7 @@ import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.*;
-import net.librec.recommender.item.RecommendedItemList;
+import net.librec.recommender.item.CompactRecommendedItemList;
 import net.librec.recommender.item.RecommendedList;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -160,7 +160,7 @@ public abstract class FactorizationMachineRecommender extends AbstractRecommende
         }
 
         // 2-way interaction
-        for (int f = 1; f < k; f++) {
+        for (int f = 0; f < k; f++) {
             double sum1 = 0;
             double sum2 = 0;
             for (VectorEntry ve : x) {
@@ -206,7 +206,7 @@ public abstract class FactorizationMachineRecommender extends AbstractRecommende
      */
     protected RecommendedList recommendRating() throws LibrecException {
         testMatrix = testTensor.rateMatrix();
-        recommendedList = new RecommendedItemList(numUsers - 1, numUsers);
+        recommendedList = new CompactRecommendedItemList(numUsers - 1, testTensor.size());
 
         // each user-item pair appears in the final recommend list only once
         Table<Integer, Integer, Double> ratingMapping = HashBasedTable.create();
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import net.librec.math.structure.DenseMatrix;
+import net.librec.math.structure.IndexAdjacency;
+
+/**
+ * Normalized sums of the implicit factors of the items (or users) related to each user, i.e.
+ * {@code |N(u)|^-1/2 * sum_{j in N(u)} w(u, j) y_j}, as used by SVD++ and its variants.
+ * <p>
+ * A sum takes O(|N(u)| * k) to compute, so it is computed once per user instead of once per
+ * rating or prediction: {@link #compute(int, double[])} gives the sum of the current factors
+ * to the training of a user, and {@link #get(int)} gives the sum cached for prediction and
+ * ranking. The cache is filled at the first call after {@link #invalidate()}, which training
+ * calls whenever the factors have changed.
+ */
+public class ImplicitFactorSums {
+
+    /**
+     * items (or users) related to each user
+     */
+    protected final IndexAdjacency userItems;
+
+    /**
+     * implicit factors, one row per item (or user)
+     */
+    protected final DenseMatrix factors;
+
+    /**
+     * cached sums, one row per user
+     */
+    private final double[][] sums;
+
+    /**
+     * whether the cached sums are those of the current factors
+     */
+    private volatile boolean valid;
+
+    /**
+     * @param userItems items (or users) related to each user
+     * @param factors   implicit factors
+     * @param numUsers  the number of users, which may be larger than the number of keys of the adjacency
+     */
+    public ImplicitFactorSums(IndexAdjacency userItems, DenseMatrix factors, int numUsers) {
+        this.userItems = userItems;
+        this.factors = factors;
+        this.sums = new double[numUsers][factors.numColumns()];
+    }
+
+    /**
+     * The weight of an item in the sum of a user, 1 by default.
+     *
+     * @param userIdx user index
+     * @param itemIdx item (or user) index
+     * @return the weight w(u, j)
+     */
+    protected double weight(int userIdx, int itemIdx) {
+        return 1.0;
+    }
+
+    /**
+     * @param userIdx user index
+     * @return the normalization |N(u)|^1/2, 0 if the user has no related items
+     */
+    public double norm(int userIdx) {
+        return Math.sqrt(userItems.size(userIdx));
+    }
+
+    /**
+     * Compute the normalized sum of the current factors of a user.
+     *
+     * @param userIdx user index
+     * @param sum     output sum of length k
+     * @return the sum
+     */
+    public double[] compute(int userIdx, double[] sum) {
+        int numFactors = sum.length;
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            sum[factorIdx] = 0.0;
+        }
+        for (int position = userItems.start(userIdx), end = userItems.end(userIdx); position < end; position++) {
+            int itemIdx = userItems.get(position);
+            double weight = weight(userIdx, itemIdx);
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                sum[factorIdx] += weight * factors.get(itemIdx, factorIdx);
+            }
+        }
+        double norm = norm(userIdx);
+        if (norm > 0) {
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                sum[factorIdx] /= norm;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @param userIdx user index
+     * @return the cached sum of the user, not to be modified
+     */
+    public double[] get(int userIdx) {
+        if (!valid) {
+            refresh();
+        }
+        return sums[userIdx];
+    }
+
+    /**
+     * Mark the cached sums as stale, to be recomputed at the next {@link #get(int)}.
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Recompute the sums of all the users.
+     */
+    private synchronized void refresh() {
+        if (valid) {
+            return;
+        }
+        for (int userIdx = 0; userIdx < sums.length; userIdx++) {
+            compute(userIdx, sums[userIdx]);
+        }
+        valid = true;
+    }
+}
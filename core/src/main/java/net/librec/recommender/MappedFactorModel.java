@@ -0,0 +1,299 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import net.librec.io.ModelFile;
+import net.librec.io.WritableEnum;
+import net.librec.util.TopKHeap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * Read-only serving view of a matrix factorization model saved by
+ * {@link Recommender#saveModel(String)}.
+ * <p>
+ * The factor matrices and bias vectors are memory-mapped from the model file
+ * and read in place, so they are never copied to the heap, and every process
+ * serving the same file shares one copy of it in the page cache. A prediction is
+ * <pre>
+ * userFactors(u) . itemFactors(i) + userBiases(u) + itemBiases(i) + globalMean
+ * </pre>
+ * where the terms whose sections are missing from the file are left out, which
+ * is the prediction of {@link MatrixFactorizationRecommender} and of biased
+ * matrix factorization. Besides these sections, a model file may only hold the
+ * training matrix and the ranking flag, which do not change the prediction; the
+ * files of models predicting with other terms, such as the implicit feedback
+ * factors of SVD++ or the time and trust terms of timeSVD++ and TrustSVD, are
+ * refused.
+ * <p>
+ * Once opened, a model may be used by any number of threads concurrently; use
+ * one {@link TopKHeap} per thread for ranking.
+ */
+public class MappedFactorModel implements Closeable {
+
+    /**
+     * the maximum number of bytes of a mapped buffer
+     */
+    private static final long MAX_BUFFER_SIZE = Integer.MAX_VALUE;
+
+    /**
+     * the sections of a model file besides the factor matrices, and their types
+     */
+    private static final String[] OTHER_SECTION_NAMES = {"userBiases", "itemBiases", "globalMean", "trainMatrix", "isRanking"};
+    private static final WritableEnum[] OTHER_SECTION_TYPES = {WritableEnum.DENSEVECTOR, WritableEnum.DENSEVECTOR,
+            WritableEnum.DOUBLEWRITABLE, WritableEnum.SPARSEMATRIX, WritableEnum.BOOLEANWRITABLE};
+
+    private final ModelFile.MappedReader reader;
+
+    /**
+     * the number of users, items and latent factors
+     */
+    private final int numUsers, numItems, numFactors;
+
+    /**
+     * mapped rows of the factor matrices, rowsPerBuffer rows per buffer
+     */
+    private final DoubleBuffer[] userFactors, itemFactors;
+    private final int rowsPerBuffer;
+
+    /**
+     * mapped bias vectors, or null if not in the model file
+     */
+    private final DoubleBuffer userBiases, itemBiases;
+
+    /**
+     * global mean, or 0 if not in the model file
+     */
+    private final double globalMean;
+
+    /**
+     * Open a model file whose factor matrices are named userFactors and itemFactors.
+     *
+     * @param filePath the path of a memory-mapped model file
+     * @throws IOException if the file is not a memory-mapped model file with factor matrices
+     */
+    public MappedFactorModel(String filePath) throws IOException {
+        this(filePath, "userFactors", "itemFactors");
+    }
+
+    /**
+     * Open a model file.
+     *
+     * @param filePath        the path of a memory-mapped model file
+     * @param userFactorsName the name of the user factor matrix
+     * @param itemFactorsName the name of the item factor matrix
+     * @throws IOException if the file is not a memory-mapped model file with factor matrices,
+     *                     or has sections of other terms of the prediction
+     */
+    public MappedFactorModel(String filePath, String userFactorsName, String itemFactorsName) throws IOException {
+        reader = new ModelFile.MappedReader(new File(filePath));
+        try {
+            checkSections(filePath, userFactorsName, itemFactorsName);
+            ModelFile.Section userSection = section(userFactorsName, WritableEnum.DENSEMATRIX);
+            ModelFile.Section itemSection = section(itemFactorsName, WritableEnum.DENSEMATRIX);
+            if (userSection == null || itemSection == null) {
+                throw new IOException(filePath + " has no factor matrices " + userFactorsName + " and " + itemFactorsName);
+            }
+            ByteBuffer userHeader = reader.map(userSection.getOffset(), 8);
+            ByteBuffer itemHeader = reader.map(itemSection.getOffset(), 8);
+            if (userHeader.getInt(4) != itemHeader.getInt(4)) {
+                throw new IOException("The factor matrices of " + filePath + " have different numbers of columns");
+            }
+            numUsers = userHeader.getInt(0);
+            numItems = itemHeader.getInt(0);
+            numFactors = userHeader.getInt(4);
+            rowsPerBuffer = (int) Math.max(1, MAX_BUFFER_SIZE / 8 / Math.max(1, numFactors));
+            userFactors = mapRows(userSection, numUsers);
+            itemFactors = mapRows(itemSection, numItems);
+
+            userBiases = mapVector(section("userBiases", WritableEnum.DENSEVECTOR), numUsers);
+            itemBiases = mapVector(section("itemBiases", WritableEnum.DENSEVECTOR), numItems);
+            Object mean = section("globalMean", WritableEnum.DOUBLEWRITABLE) != null ? reader.read("globalMean") : null;
+            globalMean = mean != null ? (Double) mean : 0.0;
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Check that the file has no section but the factor matrices and the other
+     * sections of a plain or biased matrix factorization model.
+     *
+     * @param filePath        the path of the model file
+     * @param userFactorsName the name of the user factor matrix
+     * @param itemFactorsName the name of the item factor matrix
+     * @throws IOException if the file has another section or a section of another type
+     */
+    private void checkSections(String filePath, String userFactorsName, String itemFactorsName) throws IOException {
+        for (String name : reader.getNames()) {
+            if (name.equals(userFactorsName) || name.equals(itemFactorsName)) {
+                continue;
+            }
+            int sectionIdx = Arrays.asList(OTHER_SECTION_NAMES).indexOf(name);
+            if (sectionIdx < 0) {
+                throw new IOException(filePath + " is not a matrix factorization model file: section " + name
+                        + " is not a term of the prediction");
+            }
+            if (reader.getSection(name).getType() != OTHER_SECTION_TYPES[sectionIdx]) {
+                throw new IOException("Section " + name + " of " + filePath + " is not a "
+                        + OTHER_SECTION_TYPES[sectionIdx]);
+            }
+        }
+    }
+
+    /**
+     * @param name the name of a section
+     * @param type the expected type of the section
+     * @return the section, or null if the file has no section of this name and type
+     */
+    private ModelFile.Section section(String name, WritableEnum type) {
+        ModelFile.Section section = reader.getSection(name);
+        return section != null && section.getType() == type ? section : null;
+    }
+
+    /**
+     * Map the rows of a dense matrix section, in buffers of rowsPerBuffer rows.
+     *
+     * @param section a dense matrix section
+     * @param numRows the number of rows of the matrix
+     * @return the buffers of rows
+     * @throws IOException if the section cannot be mapped
+     */
+    private DoubleBuffer[] mapRows(ModelFile.Section section, int numRows) throws IOException {
+        DoubleBuffer[] buffers = new DoubleBuffer[(numRows + rowsPerBuffer - 1) / rowsPerBuffer];
+        long rowSize = 8L * numFactors;
+        for (int i = 0; i < buffers.length; i++) {
+            long fromRow = (long) i * rowsPerBuffer;
+            long toRow = Math.min(numRows, fromRow + rowsPerBuffer);
+            buffers[i] = reader.map(section.getOffset() + 8 + fromRow * rowSize, (toRow - fromRow) * rowSize)
+                    .asDoubleBuffer();
+        }
+        return buffers;
+    }
+
+    /**
+     * Map a dense vector section.
+     *
+     * @param section a dense vector section, or null
+     * @param size    the expected size of the vector
+     * @return the mapped vector, or null if the section is null
+     * @throws IOException if the section cannot be mapped or has another size
+     */
+    private DoubleBuffer mapVector(ModelFile.Section section, int size) throws IOException {
+        if (section == null) {
+            return null;
+        }
+        if (reader.map(section.getOffset(), 8).getInt(0) != size) {
+            throw new IOException("Vector " + section.getName() + " does not have " + size + " entries");
+        }
+        return reader.map(section.getOffset() + 8, 8L * size).asDoubleBuffer();
+    }
+
+    /**
+     * predict a specific rating for user userIdx on item itemIdx.
+     *
+     * @param userIdx user index
+     * @param itemIdx item index
+     * @return predictive rating for user userIdx on item itemIdx
+     */
+    public double predict(int userIdx, int itemIdx) {
+        DoubleBuffer userBuffer = userFactors[userIdx / rowsPerBuffer];
+        DoubleBuffer itemBuffer = itemFactors[itemIdx / rowsPerBuffer];
+        int userOffset = (userIdx % rowsPerBuffer) * numFactors;
+        int itemOffset = (itemIdx % rowsPerBuffer) * numFactors;
+        double res = 0;
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            res += userBuffer.get(userOffset + factorIdx) * itemBuffer.get(itemOffset + factorIdx);
+        }
+        if (userBiases != null) {
+            res += userBiases.get(userIdx);
+        }
+        if (itemBiases != null) {
+            res += itemBiases.get(itemIdx);
+        }
+        return res + globalMean;
+    }
+
+    /**
+     * Offer the predictions of all items for a user to a heap. The heap is not
+     * cleared first.
+     *
+     * @param userIdx user index
+     * @param heap    top-N heap of the current thread
+     */
+    public void rank(int userIdx, TopKHeap heap) {
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            double score = predict(userIdx, itemIdx);
+            if (!Double.isNaN(score)) {
+                heap.offer(itemIdx, score);
+            }
+        }
+    }
+
+    /**
+     * Recommend the top-N items of a user.
+     *
+     * @param userIdx user index
+     * @param topN    the number of recommended items
+     * @return the indices of the recommended items in descending order of prediction
+     */
+    public int[] recommend(int userIdx, int topN) {
+        TopKHeap heap = new TopKHeap(topN);
+        rank(userIdx, heap);
+        heap.sortDescending();
+        return heap.toIndexArray();
+    }
+
+    /**
+     * @return the number of users
+     */
+    public int getNumUsers() {
+        return numUsers;
+    }
+
+    /**
+     * @return the number of items
+     */
+    public int getNumItems() {
+        return numItems;
+    }
+
+    /**
+     * @return the number of latent factors
+     */
+    public int getNumFactors() {
+        return numFactors;
+    }
+
+    /**
+     * Close the model file. The mapped buffers are released once they are
+     * garbage collected, so the model must not be used after closing.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -1,6 +1,7 @@
 package net.librec.recommender;
 
 import net.librec.common.LibrecException;
+import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.DenseMatrix;
 
 /**
@@ -45,6 +46,16 @@ public abstract class MatrixFactorizationRecommender extends AbstractRecommender
      */
     protected float initStd;
 
+    /**
+     * the number of threads initializing the factors, see {@link #initFactors(DenseMatrix)}
+     */
+    protected int initThreads;
+
+    /**
+     * whether the user and item factors are stored in single precision, see {@link DenseMatrix#singlePrecision(int, int)}
+     */
+    protected boolean singlePrecision;
+
     /**
      * user regularization
      */
@@ -60,6 +71,44 @@ public abstract class MatrixFactorizationRecommender extends AbstractRecommender
      */
     protected double globalMean;
 
+    /**
+     * the number of threads of stochastic gradient descent, see {@link SGDEngine}
+     */
+    protected int sgdThreads;
+
+    /**
+     * whether stochastic gradient descent runs stratified (DSGD) epochs, see {@link SGDEngine}
+     */
+    protected boolean sgdStratified;
+
+    /**
+     * whether SVD++ and its variants apply the gradient of the implicit factors once per user, summed over the
+     * ratings of the user, instead of once per rating
+     */
+    protected boolean implicitPerUser;
+
+    /**
+     * the number of entries of the packed item factors scored per tile
+     */
+    private static final int SCORING_TILE_ENTRIES = 32 * 1024;
+
+    /**
+     * the maximum number of entries of the packed item factors, as some virtual machines
+     * reserve a few header words in an array
+     */
+    private static final int MAX_PACKED_ENTRIES = Integer.MAX_VALUE - 8;
+
+    /**
+     * item factors packed row by row into one array, built by {@link #prepareBatchScoring()},
+     * or null if they are too many to be packed
+     */
+    private double[] packedItemFactors;
+
+    /**
+     * whether {@link #prepareBatchScoring()} was called since the model was set up
+     */
+    private boolean batchScoringPrepared;
+
     /**
      * setup
      * init member method
@@ -78,17 +127,60 @@ public abstract class MatrixFactorizationRecommender extends AbstractRecommender
         numFactors = conf.getInt("rec.factor.number", 10);
         isBoldDriver = conf.getBoolean("rec.learnrate.bolddriver", false);
         decay = conf.getFloat("rec.learnrate.decay", 1.0f);
+        sgdThreads = conf.getInt("rec.sgd.threads", 1);
+        sgdStratified = conf.getBoolean("rec.sgd.stratified", false);
+        implicitPerUser = conf.getBoolean("rec.implicit.peruser", false);
+        initThreads = conf.getInt("rec.factor.init.threads", 1);
+        singlePrecision = "float".equalsIgnoreCase(conf.get("rec.factor.precision", "double"));
 
-        userFactors = new DenseMatrix(numUsers, numFactors);
-        itemFactors = new DenseMatrix(numItems, numFactors);
+        if (singlePrecision) {
+            userFactors = DenseMatrix.singlePrecision(numUsers, numFactors);
+            itemFactors = DenseMatrix.singlePrecision(numItems, numFactors);
+        } else {
+            userFactors = new DenseMatrix(numUsers, numFactors);
+            itemFactors = new DenseMatrix(numItems, numFactors);
+        }
         globalMean = trainMatrix.mean();
 
         initMean = 0.0f;
         initStd = 0.1f;
 
         // initialize factors
-        userFactors.init(initMean, initStd);
-        itemFactors.init(initMean, initStd);
+        initFactors(userFactors);
+        initFactors(itemFactors);
+
+        packedItemFactors = null;
+        batchScoringPrepared = false;
+    }
+
+    /**
+     * Initialize a factor matrix with Gaussian values of mean initMean and standard
+     * deviation initStd. With one thread, the values are drawn in order from
+     * {@link Randoms}; otherwise blocks of rows are filled in parallel from streams
+     * split from its source, so the values only depend on rec.random.seed.
+     *
+     * @param factors a factor matrix
+     */
+    protected void initFactors(DenseMatrix factors) {
+        if (initThreads == 1) {
+            factors.init(initMean, initStd);
+        } else {
+            factors.init(initMean, initStd, Randoms.generator(), initThreads);
+        }
+    }
+
+    /**
+     * Create the engine of stochastic gradient descent over the training matrix.
+     * A stratified engine is seeded by rec.random.seed, so that its model only
+     * depends on the seed and the number of threads.
+     *
+     * @return the engine of stochastic gradient descent
+     */
+    protected SGDEngine createSGDEngine() {
+        if (sgdStratified) {
+            return new SGDEngine(trainMatrix, sgdThreads, conf.getLong("rec.random.seed", 1L));
+        }
+        return new SGDEngine(trainMatrix, sgdThreads);
     }
 
     /**
@@ -103,6 +195,172 @@ public abstract class MatrixFactorizationRecommender extends AbstractRecommender
         return DenseMatrix.rowMult(userFactors, userIdx, itemFactors, itemIdx);
     }
 
+    /**
+     * Whether {@link #scoreAllItems(int, double[])} and {@link #scoreBlock(int[], double[][])}
+     * can be used in place of {@link #predict(int, int)}, i.e. whether predict is the product of
+     * {@link #userScoringFactors(int, double[])} with the item factors followed by
+     * {@link #addScoringTerms(int, int, int, double[])}. Subclasses for which it holds override it
+     * to return true, and their subclasses overriding predict otherwise override it to return false.
+     *
+     * @return true if the batch scoring is supported
+     */
+    public boolean isBatchScoringSupported() {
+        return false;
+    }
+
+    /**
+     * Pack the item factors row by row into one contiguous array. It should be called
+     * once the model is trained and before scoring in batch, as the packed factors are
+     * not updated with {@link #itemFactors} afterwards. The factors of too many items to
+     * fit in one array are not packed, and then scored row by row.
+     */
+    public void prepareBatchScoring() {
+        prepareBatchScoring(MAX_PACKED_ENTRIES);
+    }
+
+    /**
+     * Pack the item factors if they have at most the given number of entries.
+     *
+     * @param maxPackedEntries the maximum number of entries of the packed item factors
+     */
+    void prepareBatchScoring(int maxPackedEntries) {
+        int numRows = itemFactors.numRows();
+        int numColumns = itemFactors.numColumns();
+        long numEntries = (long) numRows * numColumns;
+        double[] packed = null;
+        if (numEntries <= maxPackedEntries) {
+            packed = new double[(int) numEntries];
+            for (int itemIdx = 0; itemIdx < numRows; itemIdx++) {
+                itemFactors.copyRow(itemIdx, packed, itemIdx * numColumns);
+            }
+        } else {
+            LOG.info("Item factors of " + numEntries + " entries are scored row by row");
+        }
+        packedItemFactors = packed;
+        batchScoringPrepared = true;
+    }
+
+    /**
+     * Score all the items for a user, giving the same values as {@link #predict(int, int)}.
+     *
+     * @param userIdx user index
+     * @param out     output scores, indexed by item, of length at least the number of items
+     * @throws LibrecException if error occurs during scoring
+     */
+    public void scoreAllItems(int userIdx, double[] out) throws LibrecException {
+        scoreBlock(new int[]{userIdx}, new double[][]{out});
+    }
+
+    /**
+     * Score all the items for a block of users, giving the same values as
+     * {@link #predict(int, int)}.
+     *
+     * @param users user indices
+     * @param out   output scores of each user, indexed by item, of length at least the number of items
+     * @throws LibrecException if error occurs during scoring
+     */
+    public void scoreBlock(int[] users, double[][] out) throws LibrecException {
+        scoreBlock(users, 0, itemFactors.numRows(), out);
+    }
+
+    /**
+     * Score the items in [fromItem, toItem) for a block of users, giving the same values as
+     * {@link #predict(int, int)}. The packed item factors are walked tile by tile, and each
+     * tile is scored against all the users of the block while it is in cache.
+     *
+     * @param users    user indices
+     * @param fromItem the first item, inclusive
+     * @param toItem   the last item, exclusive
+     * @param out      output scores of each user, where {@code out[i][k]} is the score of item
+     *                 {@code fromItem + k}, of length at least {@code toItem - fromItem}
+     * @throws LibrecException if error occurs during scoring
+     */
+    public void scoreBlock(int[] users, int fromItem, int toItem, double[][] out) throws LibrecException {
+        if (!isBatchScoringSupported()) {
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support batch scoring");
+        }
+        if (out.length < users.length) {
+            throw new IllegalArgumentException("Output of " + out.length + " rows for " + users.length + " users");
+        }
+        if (!batchScoringPrepared) {
+            prepareBatchScoring();
+        }
+        double[] packed = packedItemFactors;
+        int numRows = itemFactors.numRows();
+        int numColumns = itemFactors.numColumns();
+        if (fromItem < 0 || toItem > numRows || fromItem > toItem) {
+            throw new IndexOutOfBoundsException("Items [" + fromItem + ", " + toItem + ") of " + numRows);
+        }
+
+        double[][] userVectors = new double[users.length][numColumns];
+        double[] itemVector = packed == null ? new double[numColumns] : null;
+        for (int i = 0; i < users.length; i++) {
+            if (out[i].length < toItem - fromItem) {
+                throw new IllegalArgumentException("Output of " + out[i].length + " scores for " + (toItem - fromItem) + " items");
+            }
+            userScoringFactors(users[i], userVectors[i]);
+        }
+
+        int tileSize = Math.max(1, SCORING_TILE_ENTRIES / Math.max(1, numColumns));
+        for (int fromTile = fromItem; fromTile < toItem; fromTile += tileSize) {
+            int toTile = Math.min(toItem, fromTile + tileSize);
+            for (int i = 0; i < users.length; i++) {
+                double[] userVector = userVectors[i];
+                double[] scores = out[i];
+                if (packed == null) {
+                    for (int itemIdx = fromTile; itemIdx < toTile; itemIdx++) {
+                        itemFactors.copyRow(itemIdx, itemVector, 0);
+                        double res = 0;
+                        for (int factorIdx = 0; factorIdx < numColumns; factorIdx++) {
+                            res += userVector[factorIdx] * itemVector[factorIdx];
+                        }
+                        scores[itemIdx - fromItem] = res;
+                    }
+                    continue;
+                }
+                for (int itemIdx = fromTile, offset = fromTile * numColumns; itemIdx < toTile; itemIdx++) {
+                    double res = 0;
+                    for (int factorIdx = 0; factorIdx < numColumns; factorIdx++, offset++) {
+                        res += userVector[factorIdx] * packed[offset];
+                    }
+                    scores[itemIdx - fromItem] = res;
+                }
+            }
+        }
+
+        for (int i = 0; i < users.length; i++) {
+            addScoringTerms(users[i], fromItem, toItem, out[i]);
+        }
+    }
+
+    /**
+     * Fill the factors of a user which are multiplied with the item factors in batch scoring.
+     * Subclasses overriding {@link #predict(int, int)} with a different user vector override it
+     * in the same class.
+     *
+     * @param userIdx user index
+     * @param factors output user factors
+     * @throws LibrecException if error occurs during scoring
+     */
+    protected void userScoringFactors(int userIdx, double[] factors) throws LibrecException {
+        userFactors.copyRow(userIdx, factors, 0);
+    }
+
+    /**
+     * Add the terms of {@link #predict(int, int)} other than the factor product to the scores
+     * of the items in [fromItem, toItem), in the same order as predict does so that the scores
+     * are equal. Subclasses overriding predict with bias terms override it in the same class.
+     *
+     * @param userIdx  user index
+     * @param fromItem the first item, inclusive
+     * @param toItem   the last item, exclusive
+     * @param scores   factor products of the items, where {@code scores[k]} is that of item
+     *                 {@code fromItem + k}, to update in place
+     * @throws LibrecException if error occurs during scoring
+     */
+    protected void addScoringTerms(int userIdx, int fromItem, int toItem, double[] scores) throws LibrecException {
+    }
+
     /**
      * Post each iteration, we do things:
      * <ol>
@@ -53,6 +53,11 @@ public abstract class ProbabilisticGraphicalRecommender extends AbstractRecommen
      */
     protected int sampleLag;
 
+    /**
+     * the number of threads and of Metropolis-Hastings steps per token (0 for exact sampling) of the Gibbs sampler
+     */
+    protected int samplerThreads, samplerSteps;
+
     /**
      * setup
      * init member method
@@ -66,6 +71,8 @@ public abstract class ProbabilisticGraphicalRecommender extends AbstractRecommen
         numItems = trainMatrix.numColumns();
         burnIn = conf.getInt("rec.pgm.burnin", 100);
         sampleLag = conf.getInt("rec.pgm.samplelag", 100);
+        samplerThreads = conf.getInt("rec.pgm.threads", 1);
+        samplerSteps = conf.getInt("rec.pgm.mh.steps", 0);
     }
 
     @Override
@@ -0,0 +1,377 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import net.librec.common.LibrecException;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.util.TopKHeap;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Top-N ranking engine of {@link AbstractRecommender}.
+ * <p>
+ * Users are partitioned into blocks which are ranked on a fork-join pool. Each
+ * worker thread keeps its own {@link TopKHeap} of size topN, and the items
+ * rated by a user are skipped by walking the CRS slice of the training matrix
+ * alongside the candidate items, so no per-user set or boxed entry is built.
+ * The ranked items of every user are written into their own slot of
+ * {@link #getRankedItems(int)} and {@link #getRankedScores(int)}.
+ * <p>
+ * If the recommender is a {@link MatrixFactorizationRecommender} supporting batch
+ * scoring, the items are scored for a few users at a time, one tile of items after
+ * the other, with {@link MatrixFactorizationRecommender#scoreBlock(int[], int, int, double[][])}
+ * instead of one predict call per item. The scores of a tile are offered to the heaps
+ * of the users before the next tile is scored into the same per-thread buffers, so
+ * no score array over all the items is built.
+ * <p>
+ * With one thread the users are ranked in order on the calling thread. More
+ * threads require {@code predict(userIdx, itemIdx)} of the recommender to be
+ * safe for concurrent calls once the model is trained.
+ */
+public class RankingEngine {
+
+    /**
+     * the number of users of a block is at most numUsers / (numThreads * BLOCKS_PER_THREAD)
+     */
+    private static final int BLOCKS_PER_THREAD = 16;
+
+    /**
+     * the number of users scored together in batch scoring
+     */
+    private static final int SCORING_USERS = 8;
+
+    /**
+     * the number of items scored together in batch scoring
+     */
+    private static final int SCORING_ITEMS = 2048;
+
+    /**
+     * recommender whose predictions are ranked
+     */
+    private final AbstractRecommender recommender;
+
+    /**
+     * recommender scoring all items in batch, or null if not supported
+     */
+    private final MatrixFactorizationRecommender batchScorer;
+
+    /**
+     * training matrix, whose rated items are excluded
+     */
+    private final SparseMatrix trainMatrix;
+
+    /**
+     * the number of users and items
+     */
+    private final int numUsers, numItems;
+
+    /**
+     * the number of recommended items per user
+     */
+    private final int topN;
+
+    /**
+     * the number of worker threads
+     */
+    private final int numThreads;
+
+    /**
+     * ranked item indices and scores of each user
+     */
+    private final int[][] rankedItems;
+    private final double[][] rankedScores;
+
+    /**
+     * top-N heap of each worker thread
+     */
+    private final ThreadLocal<TopKHeap> heaps;
+
+    /**
+     * top-N heaps of the users scored together by each worker thread in batch scoring
+     */
+    private final ThreadLocal<TopKHeap[]> blockHeaps;
+
+    /**
+     * score buffers of each worker thread in batch scoring
+     */
+    private final ThreadLocal<double[][]> scoreBuffers;
+
+    /**
+     * Create a ranking engine over all the users and items of the training matrix.
+     *
+     * @param recommender a trained recommender
+     * @param trainMatrix training matrix
+     * @param topN        the number of recommended items per user
+     * @param numThreads  the number of worker threads
+     */
+    public RankingEngine(AbstractRecommender recommender, SparseMatrix trainMatrix, final int topN, int numThreads) {
+        if (topN <= 0) {
+            throw new IllegalArgumentException("topN should be more than 0!");
+        }
+        this.recommender = recommender;
+        this.batchScorer = recommender instanceof MatrixFactorizationRecommender
+                && ((MatrixFactorizationRecommender) recommender).isBatchScoringSupported()
+                ? (MatrixFactorizationRecommender) recommender : null;
+        this.trainMatrix = trainMatrix;
+        this.numUsers = trainMatrix.numRows();
+        this.numItems = trainMatrix.numColumns();
+        this.topN = topN;
+        this.numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+        this.rankedItems = new int[numUsers][];
+        this.rankedScores = new double[numUsers][];
+        this.heaps = new ThreadLocal<TopKHeap>() {
+            @Override
+            protected TopKHeap initialValue() {
+                return new TopKHeap(topN);
+            }
+        };
+        this.blockHeaps = new ThreadLocal<TopKHeap[]>() {
+            @Override
+            protected TopKHeap[] initialValue() {
+                TopKHeap[] heaps = new TopKHeap[SCORING_USERS];
+                for (int i = 0; i < SCORING_USERS; i++) {
+                    heaps[i] = new TopKHeap(topN);
+                }
+                return heaps;
+            }
+        };
+        this.scoreBuffers = new ThreadLocal<double[][]>() {
+            @Override
+            protected double[][] initialValue() {
+                return new double[SCORING_USERS][Math.min(numItems, SCORING_ITEMS)];
+            }
+        };
+    }
+
+    /**
+     * Rank the candidate items of all users.
+     *
+     * @throws LibrecException if error occurs during predicting
+     */
+    public void rank() throws LibrecException {
+        if (batchScorer != null) {
+            batchScorer.prepareBatchScoring();
+        }
+        if (numThreads == 1 || numUsers <= 1) {
+            rankUsers(0, numUsers);
+            return;
+        }
+
+        int blockSize = Math.max(1, numUsers / (numThreads * BLOCKS_PER_THREAD));
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            pool.invoke(new RankTask(0, numUsers, blockSize));
+        } catch (RuntimeException e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof LibrecException) {
+                    throw (LibrecException) cause;
+                }
+            }
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Rank the candidate items of the users in [fromUser, toUser).
+     *
+     * @param fromUser the first user, inclusive
+     * @param toUser   the last user, exclusive
+     * @throws LibrecException if error occurs during predicting
+     */
+    private void rankUsers(int fromUser, int toUser) throws LibrecException {
+        if (batchScorer == null) {
+            TopKHeap heap = heaps.get();
+            for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+                heap.clear();
+                rankUser(userIdx, heap);
+                collect(userIdx, heap);
+            }
+            return;
+        }
+
+        TopKHeap[] userHeaps = blockHeaps.get();
+        double[][] scores = scoreBuffers.get();
+        int[] users = new int[SCORING_USERS];
+        int[] cursors = new int[SCORING_USERS];
+        for (int tileUser = fromUser; tileUser < toUser; tileUser += SCORING_USERS) {
+            int tileSize = Math.min(SCORING_USERS, toUser - tileUser);
+            if (tileSize < users.length) {
+                users = new int[tileSize];
+            }
+            for (int i = 0; i < tileSize; i++) {
+                users[i] = tileUser + i;
+                cursors[i] = trainMatrix.rowPtr[users[i]];
+                userHeaps[i].clear();
+            }
+            for (int fromItem = 0; fromItem < numItems; fromItem += SCORING_ITEMS) {
+                int toItem = Math.min(numItems, fromItem + SCORING_ITEMS);
+                batchScorer.scoreBlock(users, fromItem, toItem, scores);
+                for (int i = 0; i < tileSize; i++) {
+                    cursors[i] = rankItems(users[i], fromItem, toItem, scores[i], cursors[i], userHeaps[i]);
+                }
+            }
+            for (int i = 0; i < tileSize; i++) {
+                collect(users[i], userHeaps[i]);
+            }
+        }
+    }
+
+    /**
+     * Keep the ranked items of the user in the heap.
+     *
+     * @param userIdx user index
+     * @param heap    top-N heap holding the items of the user
+     */
+    private void collect(int userIdx, TopKHeap heap) {
+        if (heap.size() > 0) {
+            heap.sortDescending();
+            rankedItems[userIdx] = heap.toIndexArray();
+            rankedScores[userIdx] = heap.toValueArray();
+        }
+    }
+
+    /**
+     * Offer the predictions of all items which are not rated by the user to the heap.
+     *
+     * @param userIdx user index
+     * @param heap    top-N heap of the current thread
+     * @throws LibrecException if error occurs during predicting
+     */
+    private void rankUser(int userIdx, TopKHeap heap) throws LibrecException {
+        int[] colInd = trainMatrix.colInd;
+        double[] rowData = trainMatrix.rowData;
+        int cursor = trainMatrix.rowPtr[userIdx];
+        int end = trainMatrix.rowPtr[userIdx + 1];
+
+        for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
+            while (cursor < end && colInd[cursor] < itemIdx) {
+                cursor++;
+            }
+            if (cursor < end && colInd[cursor] == itemIdx && rowData[cursor] != 0.0) {
+                continue;
+            }
+            double predictRating = recommender.predict(userIdx, itemIdx);
+            if (Double.isNaN(predictRating)) {
+                continue;
+            }
+            heap.offer(itemIdx, predictRating);
+        }
+    }
+
+    /**
+     * Offer the precomputed scores of the items in [fromItem, toItem) which are not rated
+     * by the user to the heap.
+     *
+     * @param userIdx  user index
+     * @param fromItem the first item, inclusive
+     * @param toItem   the last item, exclusive
+     * @param scores   scores of the items for the user, where {@code scores[k]} is that of item {@code fromItem + k}
+     * @param cursor   position of the CRS slice of the user from which to look for rated items
+     * @param heap     top-N heap of the user
+     * @return the position of the CRS slice of the user from which to look for the rated items of the next tile
+     */
+    private int rankItems(int userIdx, int fromItem, int toItem, double[] scores, int cursor, TopKHeap heap) {
+        int[] colInd = trainMatrix.colInd;
+        double[] rowData = trainMatrix.rowData;
+        int end = trainMatrix.rowPtr[userIdx + 1];
+
+        for (int itemIdx = fromItem; itemIdx < toItem; ++itemIdx) {
+            while (cursor < end && colInd[cursor] < itemIdx) {
+                cursor++;
+            }
+            if (cursor < end && colInd[cursor] == itemIdx && rowData[cursor] != 0.0) {
+                continue;
+            }
+            double score = scores[itemIdx - fromItem];
+            if (Double.isNaN(score)) {
+                continue;
+            }
+            heap.offer(itemIdx, score);
+        }
+        return cursor;
+    }
+
+    /**
+     * @param userIdx user index
+     * @return ranked item indices of the user in descending order of score, or null if no item is ranked
+     */
+    public int[] getRankedItems(int userIdx) {
+        return rankedItems[userIdx];
+    }
+
+    /**
+     * @param userIdx user index
+     * @return scores of the ranked items of the user, or null if no item is ranked
+     */
+    public double[] getRankedScores(int userIdx) {
+        return rankedScores[userIdx];
+    }
+
+    /**
+     * @return the number of ranked items of all users
+     */
+    public int getNumRankedItems() {
+        int numRankedItems = 0;
+        for (int[] items : rankedItems) {
+            if (items != null) {
+                numRankedItems += items.length;
+            }
+        }
+        return numRankedItems;
+    }
+
+    /**
+     * @return the number of users
+     */
+    public int getNumUsers() {
+        return numUsers;
+    }
+
+    /**
+     * Recursively split a range of users into blocks.
+     */
+    private class RankTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int fromUser, toUser, blockSize;
+
+        RankTask(int fromUser, int toUser, int blockSize) {
+            this.fromUser = fromUser;
+            this.toUser = toUser;
+            this.blockSize = blockSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (toUser - fromUser <= blockSize) {
+                try {
+                    rankUsers(fromUser, toUser);
+                } catch (LibrecException e) {
+                    throw new RuntimeException(e);
+                }
+            } else {
+                int middle = (fromUser + toUser) >>> 1;
+                invokeAll(new RankTask(fromUser, middle, blockSize), new RankTask(middle, toUser, blockSize));
+            }
+        }
+    }
+}
@@ -19,8 +19,10 @@ package net.librec.recommender;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.librec.common.AbstractContext;
+import net.librec.common.ContextKey;
 import net.librec.conf.Configuration;
 import net.librec.data.DataModel;
 import net.librec.similarity.RecommenderSimilarity;
@@ -38,6 +40,11 @@ public class RecommenderContext extends AbstractContext {
 
     protected Map<String, RecommenderSimilarity> similarities;
 
+    /**
+     * shared attributes, see {@link ContextKey}
+     */
+    protected Map<ContextKey<?>, Object> attributes = new ConcurrentHashMap<>();
+
     public RecommenderContext(Configuration conf) {
         this.conf = conf;
     }
@@ -84,4 +91,38 @@ public class RecommenderContext extends AbstractContext {
         }
         this.similarities.put(similarityKey, similarity);
     }
+
+    /**
+     * Get a shared attribute.
+     *
+     * @param key the key of the attribute
+     * @param <T> type of the value of the attribute
+     * @return the value of the attribute, or null if it is not set
+     */
+    public <T> T getAttribute(ContextKey<T> key) {
+        return key.getType().cast(attributes.get(key));
+    }
+
+    /**
+     * Set a shared attribute, replacing the previous value.
+     *
+     * @param key   the key of the attribute
+     * @param value the value of the attribute, or null to remove it
+     * @param <T>   type of the value of the attribute
+     */
+    public <T> void setAttribute(ContextKey<T> key, T value) {
+        if (value == null) {
+            attributes.remove(key);
+        } else {
+            attributes.put(key, value);
+        }
+    }
+
+    /**
+     * @param key the key of an attribute
+     * @return whether the attribute is set
+     */
+    public boolean hasAttribute(ContextKey<?> key) {
+        return attributes.containsKey(key);
+    }
 }
@@ -0,0 +1,492 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import net.librec.common.LibrecException;
+import net.librec.math.algorithm.RandomSource;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.SparseMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Stochastic gradient descent over the entries of a training matrix.
+ * <p>
+ * With one thread an epoch visits the entries in the order of the matrix
+ * iterator on the calling thread, exactly as {@code for (MatrixEntry e : trainMatrix)}
+ * does, so training is reproducible.
+ * <p>
+ * With more threads an epoch runs Hogwild-style: the entry indices are shuffled
+ * and split into one shard per thread, and the threads update the shared model
+ * parameters without locks. The loss of each shard is accumulated by its own
+ * thread and the shard losses are summed in order. The updater must only write
+ * to parameters of fixed size, such as dense matrices and vectors, since
+ * concurrent structural changes of maps or tables are not safe.
+ * <p>
+ * A stratified engine runs DSGD instead. The users and the items are randomly
+ * split into p blocks each, for p threads, and an epoch is made of p sub-epochs
+ * in random order. In sub-epoch s, thread t updates from the entries of user
+ * block t and item block (t + s) mod p, in a random order, so that the threads
+ * update disjoint users and items. All the randomness comes from the seed and is
+ * drawn on the calling thread, so the model is the same in every run with the
+ * same seed and number of threads, provided the updater only writes to the
+ * parameters of the user and the item of the entry.
+ * <p>
+ * A user epoch visits the users instead, and hands all the entries of a user to
+ * one call of the updater, so that the state derived from all the ratings of a
+ * user, such as the implicit factor sums of SVD++, is computed once per user.
+ * With one thread the users are visited in order; with more threads, stratified
+ * or not, the users are shuffled and split into one shard per thread, Hogwild-style.
+ */
+public class SGDEngine {
+
+    /**
+     * Update the model parameters from one entry.
+     */
+    public interface EntryUpdater {
+        /**
+         * @param userIdx user index
+         * @param itemIdx item index
+         * @param rating  rating of the entry
+         * @param loss    the loss accumulated so far by the current thread
+         * @return the loss plus the loss of the entry
+         * @throws LibrecException if error occurs during updating
+         */
+        double update(int userIdx, int itemIdx, double rating, double loss) throws LibrecException;
+    }
+
+    /**
+     * Update the model parameters from all the entries of one user.
+     */
+    public interface UserUpdater {
+        /**
+         * @param userIdx user index
+         * @param from    the first entry of the user in CRS order of the training matrix, inclusive
+         * @param to      the last entry of the user in CRS order of the training matrix, exclusive
+         * @param loss    the loss accumulated so far by the current thread
+         * @return the loss plus the loss of the entries of the user
+         * @throws LibrecException if error occurs during updating
+         */
+        double update(int userIdx, int from, int to, double loss) throws LibrecException;
+    }
+
+    /**
+     * training matrix
+     */
+    private final SparseMatrix trainMatrix;
+
+    /**
+     * the number of worker threads
+     */
+    private final int numThreads;
+
+    /**
+     * the row of each entry in CRS order, and the entry indices in the order of the current epoch
+     */
+    private int[] entryRows, entryOrder;
+
+    /**
+     * the users in the order of the current user epoch
+     */
+    private int[] userOrder;
+
+    /**
+     * random source of a stratified engine, or null
+     */
+    private final RandomSource random;
+
+    /**
+     * entry indices of each block of a stratified engine, indexed by user block and item block
+     */
+    private int[][][] blockEntries;
+
+    /**
+     * Create an engine over the entries of the training matrix.
+     *
+     * @param trainMatrix training matrix
+     * @param numThreads  the number of worker threads, a value &lt;= 0 uses all available processors
+     */
+    public SGDEngine(SparseMatrix trainMatrix, int numThreads) {
+        this.trainMatrix = trainMatrix;
+        this.numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+        this.random = null;
+    }
+
+    /**
+     * Create a stratified engine over the entries of the training matrix.
+     *
+     * @param trainMatrix training matrix
+     * @param numThreads  the number of worker threads and of blocks of users and items,
+     *                    a value &lt;= 0 uses all available processors
+     * @param seed        the seed of the blocks and of the order of the entries
+     */
+    public SGDEngine(SparseMatrix trainMatrix, int numThreads, long seed) {
+        this.trainMatrix = trainMatrix;
+        this.numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+        this.random = RandomSource.splittable(seed);
+    }
+
+    /**
+     * @return the number of worker threads
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * @return whether the engine runs stratified epochs
+     */
+    public boolean isStratified() {
+        return random != null;
+    }
+
+    /**
+     * Run one epoch over all the entries.
+     *
+     * @param updater the update of the model parameters from one entry
+     * @return the loss accumulated over the epoch
+     * @throws LibrecException if error occurs during updating
+     */
+    public double epoch(final EntryUpdater updater) throws LibrecException {
+        final int numEntries = trainMatrix.rowPtr[trainMatrix.numRows()];
+        if (random != null) {
+            return stratifiedEpoch(updater);
+        }
+        if (numThreads == 1 || numEntries <= 1) {
+            return updateEntries(updater);
+        }
+
+        shuffle(numEntries);
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            List<Future<Double>> shards = new ArrayList<>(numThreads);
+            for (int shard = 0; shard < numThreads; shard++) {
+                final int from = (int) ((long) numEntries * shard / numThreads);
+                final int to = (int) ((long) numEntries * (shard + 1) / numThreads);
+                shards.add(pool.submit(new Callable<Double>() {
+                    @Override
+                    public Double call() throws LibrecException {
+                        return updateEntries(updater, from, to);
+                    }
+                }));
+            }
+            return sum(shards);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Run one epoch over all the users, with all the entries of a user at once.
+     *
+     * @param updater the update of the model parameters from the entries of one user
+     * @return the loss accumulated over the epoch
+     * @throws LibrecException if error occurs during updating
+     */
+    public double userEpoch(final UserUpdater updater) throws LibrecException {
+        final int numRows = trainMatrix.numRows();
+        final int[] rowPtr = trainMatrix.rowPtr;
+        if (numThreads == 1 || numRows <= 1) {
+            double loss = 0.0d;
+            for (int row = 0; row < numRows; row++) {
+                loss = updater.update(row, rowPtr[row], rowPtr[row + 1], loss);
+            }
+            return loss;
+        }
+
+        shuffleUsers(numRows);
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            List<Future<Double>> shards = new ArrayList<>(numThreads);
+            for (int shard = 0; shard < numThreads; shard++) {
+                final int from = (int) ((long) numRows * shard / numThreads);
+                final int to = (int) ((long) numRows * (shard + 1) / numThreads);
+                shards.add(pool.submit(new Callable<Double>() {
+                    @Override
+                    public Double call() throws LibrecException {
+                        double loss = 0.0d;
+                        for (int position = from; position < to; position++) {
+                            int row = userOrder[position];
+                            loss = updater.update(row, rowPtr[row], rowPtr[row + 1], loss);
+                        }
+                        return loss;
+                    }
+                }));
+            }
+            return sum(shards);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Run one stratified epoch, made of one sub-epoch per stratum.
+     *
+     * @param updater the update of the model parameters from one entry
+     * @return the loss accumulated over the epoch
+     * @throws LibrecException if error occurs during updating
+     */
+    private double stratifiedEpoch(final EntryUpdater updater) throws LibrecException {
+        if (blockEntries == null) {
+            splitBlocks();
+        }
+        int[] strata = permutation(numThreads);
+        ForkJoinPool pool = numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+        try {
+            double loss = 0.0d;
+            for (int stratum : strata) {
+                List<Future<Double>> blocks = new ArrayList<>(numThreads);
+                for (int userBlock = 0; userBlock < numThreads; userBlock++) {
+                    final int[] entries = blockEntries[userBlock][(userBlock + stratum) % numThreads];
+                    final RandomSource blockRandom = random.split();
+                    Callable<Double> task = new Callable<Double>() {
+                        @Override
+                        public Double call() throws LibrecException {
+                            return updateBlock(updater, entries, blockRandom);
+                        }
+                    };
+                    if (pool == null) {
+                        loss += task.call();
+                    } else {
+                        blocks.add(pool.submit(task));
+                    }
+                }
+                loss += sum(blocks);
+            }
+            return loss;
+        } catch (LibrecException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new LibrecException(e);
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Sum the losses of the tasks of an epoch in order.
+     *
+     * @param tasks the tasks of an epoch
+     * @return the sum of the losses
+     * @throws LibrecException if a task fails
+     */
+    private static double sum(List<Future<Double>> tasks) throws LibrecException {
+        try {
+            double loss = 0.0d;
+            for (Future<Double> task : tasks) {
+                loss += task.get();
+            }
+            return loss;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LibrecException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof LibrecException) {
+                throw (LibrecException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new LibrecException(e.getCause());
+        }
+    }
+
+    /**
+     * Update the model from all the entries in CRS order.
+     *
+     * @param updater the update of the model parameters from one entry
+     * @return the loss of the entries
+     * @throws LibrecException if error occurs during updating
+     */
+    private double updateEntries(EntryUpdater updater) throws LibrecException {
+        int[] rowPtr = trainMatrix.rowPtr;
+        int[] colInd = trainMatrix.colInd;
+        double[] rowData = trainMatrix.rowData;
+        double loss = 0.0d;
+        for (int row = 0, numRows = trainMatrix.numRows(); row < numRows; row++) {
+            for (int entry = rowPtr[row]; entry < rowPtr[row + 1]; entry++) {
+                loss = updater.update(row, colInd[entry], rowData[entry], loss);
+            }
+        }
+        return loss;
+    }
+
+    /**
+     * Update the model from the entries of a shard of the current epoch.
+     *
+     * @param updater the update of the model parameters from one entry
+     * @param from    the first position of the shard in the epoch order, inclusive
+     * @param to      the last position of the shard in the epoch order, exclusive
+     * @return the loss of the entries
+     * @throws LibrecException if error occurs during updating
+     */
+    private double updateEntries(EntryUpdater updater, int from, int to) throws LibrecException {
+        int[] colInd = trainMatrix.colInd;
+        double[] rowData = trainMatrix.rowData;
+        double loss = 0.0d;
+        for (int position = from; position < to; position++) {
+            int entry = entryOrder[position];
+            loss = updater.update(entryRows[entry], colInd[entry], rowData[entry], loss);
+        }
+        return loss;
+    }
+
+    /**
+     * Update the model from the entries of a block in random order.
+     *
+     * @param updater the update of the model parameters from one entry
+     * @param entries the entry indices of the block
+     * @param random  random stream of the order of the entries
+     * @return the loss of the entries
+     * @throws LibrecException if error occurs during updating
+     */
+    private double updateBlock(EntryUpdater updater, int[] entries, RandomSource random) throws LibrecException {
+        int[] colInd = trainMatrix.colInd;
+        double[] rowData = trainMatrix.rowData;
+        for (int position = entries.length - 1; position > 0; position--) {
+            int other = random.nextInt(position + 1);
+            int entry = entries[position];
+            entries[position] = entries[other];
+            entries[other] = entry;
+        }
+        double loss = 0.0d;
+        for (int entry : entries) {
+            loss = updater.update(entryRows[entry], colInd[entry], rowData[entry], loss);
+        }
+        return loss;
+    }
+
+    /**
+     * Randomly split the users and the items into blocks of equal sizes, and
+     * collect the entry indices of each block.
+     */
+    private void splitBlocks() {
+        int numRows = trainMatrix.numRows();
+        int numEntries = trainMatrix.rowPtr[numRows];
+        int[] userBlocks = blocks(numRows);
+        int[] itemBlocks = blocks(trainMatrix.numColumns());
+        int[] rowPtr = trainMatrix.rowPtr;
+        int[] colInd = trainMatrix.colInd;
+
+        entryRows = new int[numEntries];
+        int[][] blockSizes = new int[numThreads][numThreads];
+        for (int row = 0; row < numRows; row++) {
+            for (int entry = rowPtr[row]; entry < rowPtr[row + 1]; entry++) {
+                entryRows[entry] = row;
+                blockSizes[userBlocks[row]][itemBlocks[colInd[entry]]]++;
+            }
+        }
+        blockEntries = new int[numThreads][numThreads][];
+        for (int userBlock = 0; userBlock < numThreads; userBlock++) {
+            for (int itemBlock = 0; itemBlock < numThreads; itemBlock++) {
+                blockEntries[userBlock][itemBlock] = new int[blockSizes[userBlock][itemBlock]];
+                blockSizes[userBlock][itemBlock] = 0;
+            }
+        }
+        for (int entry = 0; entry < numEntries; entry++) {
+            int userBlock = userBlocks[entryRows[entry]];
+            int itemBlock = itemBlocks[colInd[entry]];
+            blockEntries[userBlock][itemBlock][blockSizes[userBlock][itemBlock]++] = entry;
+        }
+    }
+
+    /**
+     * @param size the number of users or items
+     * @return the block of each user or item, for randomly permuted blocks of equal sizes
+     */
+    private int[] blocks(int size) {
+        int[] order = permutation(size);
+        int[] blocks = new int[size];
+        for (int position = 0; position < size; position++) {
+            blocks[order[position]] = (int) ((long) position * numThreads / size);
+        }
+        return blocks;
+    }
+
+    /**
+     * @param size the size of the permutation
+     * @return a random permutation of [0, size)
+     */
+    private int[] permutation(int size) {
+        int[] order = new int[size];
+        for (int position = 0; position < size; position++) {
+            order[position] = position;
+        }
+        for (int position = size - 1; position > 0; position--) {
+            int other = random.nextInt(position + 1);
+            int value = order[position];
+            order[position] = order[other];
+            order[other] = value;
+        }
+        return order;
+    }
+
+    /**
+     * Shuffle the entry indices for the next epoch.
+     *
+     * @param numEntries the number of entries
+     */
+    private void shuffle(int numEntries) {
+        if (entryRows == null) {
+            entryRows = new int[numEntries];
+            entryOrder = new int[numEntries];
+            int[] rowPtr = trainMatrix.rowPtr;
+            for (int row = 0, numRows = trainMatrix.numRows(); row < numRows; row++) {
+                for (int entry = rowPtr[row]; entry < rowPtr[row + 1]; entry++) {
+                    entryRows[entry] = row;
+                }
+            }
+            for (int entry = 0; entry < numEntries; entry++) {
+                entryOrder[entry] = entry;
+            }
+        }
+        for (int position = numEntries - 1; position > 0; position--) {
+            int other = Randoms.uniform(position + 1);
+            int entry = entryOrder[position];
+            entryOrder[position] = entryOrder[other];
+            entryOrder[other] = entry;
+        }
+    }
+
+    /**
+     * Shuffle the users for the next user epoch.
+     *
+     * @param numRows the number of users
+     */
+    private void shuffleUsers(int numRows) {
+        if (userOrder == null) {
+            userOrder = new int[numRows];
+            for (int row = 0; row < numRows; row++) {
+                userOrder[row] = row;
+            }
+        }
+        for (int position = numRows - 1; position > 0; position--) {
+            int other = Randoms.uniform(position + 1);
+            int row = userOrder[position];
+            userOrder[position] = userOrder[other];
+            userOrder[other] = row;
+        }
+    }
+}
@@ -25,8 +25,8 @@ import net.librec.eval.Measure.MeasureValue;
 import net.librec.eval.RecommenderEvaluator;
 import net.librec.math.structure.SparseTensor;
 import net.librec.math.structure.TensorEntry;
+import net.librec.recommender.item.CompactRecommendedItemList;
 import net.librec.recommender.item.RecommendedItem;
-import net.librec.recommender.item.RecommendedItemList;
 import net.librec.recommender.item.RecommendedList;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -276,7 +276,7 @@ public abstract class TensorRecommender implements Recommender {
      * @throws LibrecException if error occurs during recommending
      */
     protected RecommendedList recommendRank() throws LibrecException {
-        recommendedList = new RecommendedItemList(numUsers - 1, numUsers);
+        recommendedList = new CompactRecommendedItemList(numUsers - 1);
         //TODO
         return recommendedList;
     }
@@ -289,7 +289,7 @@ public abstract class TensorRecommender implements Recommender {
      * @throws LibrecException if error occurs during recommending
      */
     protected RecommendedList recommendRating() throws LibrecException {
-        recommendedList = new RecommendedItemList(numUsers - 1, numUsers);
+        recommendedList = new CompactRecommendedItemList(numUsers - 1, testTensor.size());
         for (TensorEntry testTensorEntry : testTensor) {
             int[] keys = testTensorEntry.keys();
             int userIdx = testTensorEntry.key(userDimension);
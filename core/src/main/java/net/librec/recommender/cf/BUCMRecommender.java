@@ -18,14 +18,13 @@
 package net.librec.recommender.cf;
 
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.DenseVector;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.recommender.ProbabilisticGraphicalRecommender;
+import net.librec.recommender.sampler.TopicSamplingEngine;
 
 import static net.librec.math.algorithm.Gamma.digamma;
 
@@ -43,16 +42,6 @@ public class BUCMRecommender extends ProbabilisticGraphicalRecommender {
      */
     private int[][][] topicItemRatingNum;
 
-    /**
-     * number of occurrentces of entry (user, topic)
-     */
-    private DenseMatrix userTopicNum;
-
-    /**
-     * number of occurences of users
-     */
-    private DenseVector userNum;
-
     /**
      * number of occurrences of entry (topic, item)
      */
@@ -99,9 +88,14 @@ public class BUCMRecommender extends ProbabilisticGraphicalRecommender {
     private DenseVector gamma;
 
     /**
-     *
+     * sums of beta and gamma in the current sweep
+     */
+    private double sumBeta, sumGamma;
+
+    /**
+     * Gibbs sampler of the topic assignments, which holds the number of occurrences of entry (user, topic)
      */
-    protected Table<Integer, Integer, Integer> topics;
+    protected TopicSamplingEngine samplingEngine;
 
     /**
      * number of topics
@@ -127,9 +121,6 @@ public class BUCMRecommender extends ProbabilisticGraphicalRecommender {
         topicItemRatingSumProbs = new double[numTopics][numItems][numRatingLevels];
 
         // initialize count varialbes
-        userTopicNum = new DenseMatrix(numUsers, numTopics);
-        userNum = new DenseVector(numUsers);
-
         topicItemNum = new DenseMatrix(numTopics, numItems);
         topicNum = new DenseVector(numTopics);
 
@@ -147,95 +138,55 @@ public class BUCMRecommender extends ProbabilisticGraphicalRecommender {
         gamma = new DenseVector(numRatingLevels);
         gamma.setAll(initGamma);
 
-        // initialize topics
-        topics = HashBasedTable.create();
-        for (MatrixEntry me : trainMatrix) {
-            int u = me.row();
-            int i = me.column();
-            double rating = me.get();
+        // initialize topics, the words of user u are the pairs (i, r) of its ratings
+        int numRatings = trainMatrix.rowPtr[numUsers];
+        int[] userPtr = new int[numUsers + 1];
+        int[] itemRatings = new int[numRatings];
+        int[] topics = new int[numRatings];
+        for (int u = 0; u < numUsers; u++) {
+            for (int entry = trainMatrix.rowPtr[u]; entry < trainMatrix.rowPtr[u + 1]; entry++) {
+                int i = trainMatrix.colInd[entry];
+                int r = ratingScale.indexOf(trainMatrix.rowData[entry]);  // rating level 0 ~ numLevels
 
-            int r = ratingScale.indexOf(rating);  // rating level 0 ~ numLevels
-            int t = (int) (Randoms.uniform() * numTopics);    // 0 ~ k-1
+                itemRatings[entry] = i * numRatingLevels + r;
+                topics[entry] = (int) (Randoms.uniform() * numTopics);    // 0 ~ k-1
+            }
+            userPtr[u + 1] = trainMatrix.rowPtr[u + 1];
+        }
 
-            // Assign a topic t to pair (u, i)
-            topics.put(u, i, t);
-            // for users
-            userTopicNum.add(u, t, 1);
-            userNum.add(u, 1);
+        sumBeta = beta.sum();
+        sumGamma = gamma.sum();
+        TopicSamplingEngine.WordModel itemRatingModel = new TopicSamplingEngine.WordModel() {
+            @Override
+            public double weight(int itemRating, int k, int removed) {
+                int i = itemRating / numRatingLevels, r = itemRating % numRatingLevels;
+                double v2 = (topicItemNum.get(k, i) - removed + beta.get(i)) / (topicNum.get(k) - removed + sumBeta);
+                double v3 = (topicItemRatingNum[k][i][r] - removed + gamma.get(r)) / (topicItemNum.get(k, i) - removed + sumGamma);
+                return v2 * v3;
+            }
 
-            // for items
-            topicItemNum.add(t, i, 1);
-            topicNum.add(t, 1);
+            @Override
+            public void add(int itemRating, int t, int delta) {
+                int i = itemRating / numRatingLevels, r = itemRating % numRatingLevels;
+                // for items
+                topicItemNum.add(t, i, delta);
+                topicNum.add(t, delta);
 
-            // for ratings
-            topicItemRatingNum[t][i][r]++;
-        }
+                // for ratings
+                topicItemRatingNum[t][i][r] += delta;
+            }
+        };
+        samplingEngine = new TopicSamplingEngine(userPtr, itemRatings, topics, numTopics, numItems * numRatingLevels,
+                itemRatingModel, samplerThreads, samplerSteps);
     }
 
     @Override
     protected void eStep() {
-
-        double sumAlpha = alpha.sum();
-        double sumBeta = beta.sum();
-        double sumGamma = gamma.sum();
+        sumBeta = beta.sum();
+        sumGamma = gamma.sum();
 
         // collapse Gibbs sampling
-        for (MatrixEntry me : trainMatrix) {
-            int u = me.row();
-            int i = me.column();
-            double rating = me.get();
-
-            int r = ratingScale.indexOf(rating); // rating level 0 ~ numLevels
-            int t = topics.get(u, i);
-
-            // for user
-            userTopicNum.add(u, t, -1);
-            userNum.add(u, -1);
-
-            // for item
-            topicItemNum.add(t, i, -1);
-            topicNum.add(t, -1);
-
-            // for rating
-            topicItemRatingNum[t][i][r]--;
-
-            // do multinomial sampling via cumulative method:
-            double[] p = new double[numTopics];
-
-            double v1, v2, v3;
-            for (int k = 0; k < numTopics; k++) {
-
-                v1 = (userTopicNum.get(u, k) + alpha.get(k)) / (userNum.get(u) + sumAlpha);
-                v2 = (topicItemNum.get(k, i) + beta.get(i)) / (topicNum.get(k) + sumBeta);
-                v3 = (topicItemRatingNum[k][i][r] + gamma.get(r)) / (topicItemNum.get(k, i) + sumGamma);
-
-                p[k] = v1 * v2 * v3;
-            }
-
-            // cumulate multinomial parameters
-            for (int k = 1; k < p.length; k++) {
-                p[k] += p[k - 1];
-            }
-
-            // scaled sample because of unnormalized p[], randomly sampled a new topic t
-            double rand = Randoms.uniform() * p[numTopics - 1];
-            for (t = 0; t < p.length; t++) {
-                if (rand < p[t])
-                    break;
-            }
-
-            // new topic t
-            topics.put(u, i, t);
-
-            // add newly estimated z_i to count variables
-            userTopicNum.add(u, t, 1);
-            userNum.add(u, 1);
-
-            topicItemNum.add(t, i, 1);
-            topicNum.add(t, 1);
-
-            topicItemRatingNum[t][i][r]++;
-        }
+        samplingEngine.sweep(alpha.getData());
     }
 
     /**
@@ -254,8 +205,8 @@ public class BUCMRecommender extends ProbabilisticGraphicalRecommender {
             ak = alpha.get(k);
             double numerator = 0, denominator = 0;
             for (int u = 0; u < numUsers; u++) {
-                numerator += digamma(userTopicNum.get(u, k) + ak) - digamma(ak);
-                denominator += digamma(userNum.get(u) + sumAlpha) - digamma(sumAlpha);
+                numerator += digamma(samplingEngine.getDocTopicCount(u, k) + ak) - digamma(ak);
+                denominator += digamma(samplingEngine.getDocCount(u) + sumAlpha) - digamma(sumAlpha);
             }
 
             if (numerator != 0)
@@ -334,7 +285,7 @@ public class BUCMRecommender extends ProbabilisticGraphicalRecommender {
 
         for (int u = 0; u < numUsers; u++) {
             for (int k = 0; k < numTopics; k++) {
-                val = (userTopicNum.get(u, k) + alpha.get(k)) / (userNum.get(u) + sumAlpha);
+                val = (samplingEngine.getDocTopicCount(u, k) + alpha.get(k)) / (samplingEngine.getDocCount(u) + sumAlpha);
                 userTopicSumProbs.add(u, k, val);
             }
         }
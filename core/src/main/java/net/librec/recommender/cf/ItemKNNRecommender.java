@@ -20,14 +20,11 @@ package net.librec.recommender.cf;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseVector;
-import net.librec.math.structure.SparseVector;
+import net.librec.math.structure.SparseMatrix;
 import net.librec.math.structure.SymmMatrix;
-import net.librec.math.structure.VectorEntry;
 import net.librec.recommender.AbstractRecommender;
-import net.librec.util.Lists;
-
-import java.util.*;
-import java.util.Map.Entry;
+import net.librec.similarity.AbstractRecommenderSimilarity;
+import net.librec.similarity.SimilarityNeighbors;
 
 /**
  * ItemKNNRecommender
@@ -39,9 +36,16 @@ public class ItemKNNRecommender extends AbstractRecommender {
     private int knn;
     private DenseVector itemMeans;
     private SymmMatrix similarityMatrix;
-    private List<Map.Entry<Integer, Double>>[] itemSimilarityList;
-    private int currentUserIdx = -1;
-    private Set<Integer> currentItemIdxSet;
+    private SimilarityNeighbors itemNeighbors;
+    /**
+     * the items rated by the user of the last prediction, one per thread
+     */
+    private final ThreadLocal<CurrentUser> currentUsers = new ThreadLocal<CurrentUser>() {
+        @Override
+        protected CurrentUser initialValue() {
+            return new CurrentUser();
+        }
+    };
 
     /**
      * (non-Javadoc)
@@ -53,6 +57,7 @@ public class ItemKNNRecommender extends AbstractRecommender {
         super.setup();
         knn = conf.getInt("rec.neighbors.knn.number",50);
         similarityMatrix = context.getSimilarity().getSimilarityMatrix();
+        itemNeighbors = AbstractRecommenderSimilarity.neighborsOf(context.getSimilarity());
     }
 
     /**
@@ -66,9 +71,10 @@ public class ItemKNNRecommender extends AbstractRecommender {
         itemMeans = new DenseVector(itemNum);
         int numRates = trainMatrix.size();
         double globalMean = trainMatrix.sum() / numRates;
+        SparseMatrix.RowView uv = new SparseMatrix.RowView();
         for (int u = 0; u < itemNum; u++) {
-            SparseVector uv = trainMatrix.row(u);
-            itemMeans.set(u, uv.getCount() > 0 ? uv.mean() : globalMean);
+            trainMatrix.rowView(u, uv);
+            itemMeans.set(u, uv.size() > 0 ? uv.mean() : globalMean);
         }
     }
 
@@ -78,77 +84,70 @@ public class ItemKNNRecommender extends AbstractRecommender {
      * @see net.librec.recommender.AbstractRecommender#predict(int, int)
      */
     public double predict(int userIdx, int itemIdx) throws LibrecException {
-        //create itemSimilarityList if not exists
-        if (!(null != itemSimilarityList && itemSimilarityList.length > 0)) {
+        //create itemNeighbors if not exists
+        if (itemNeighbors == null) {
             createItemSimilarityList();
         }
 
-        if (currentUserIdx != userIdx) {
-            currentItemIdxSet = trainMatrix.getColumnsSet(userIdx);
-            currentUserIdx = userIdx;
+        CurrentUser currentUser = currentUsers.get();
+        if (currentUser.userIdx != userIdx) {
+            trainMatrix.rowView(userIdx, currentUser.itemRatings);
+            currentUser.userIdx = userIdx;
         }
+        SparseMatrix.RowView currentItemIdxSet = currentUser.itemRatings;
 
-        // find a number of similar items
-        List<Map.Entry<Integer, Double>> nns = new ArrayList<>();
-        List<Map.Entry<Integer, Double>> simList = itemSimilarityList[itemIdx];
+        // find a number of similar items, sorted by similarity in descending order
+        int[] neighbors = itemNeighbors.getNeighbors(itemIdx);
+        double[] similarities = itemNeighbors.getSimilarities(itemIdx);
 
         int count = 0;
-        for (Map.Entry<Integer, Double> itemRatingEntry : simList) {
-            int similarItemIdx = itemRatingEntry.getKey();
-            if (!currentItemIdxSet.contains(similarItemIdx)) {
+        double sum = 0, ws = 0;
+        for (int i = 0; i < neighbors.length; i++) {
+            int similarItemIdx = neighbors[i];
+            int position = currentItemIdxSet.positionOf(similarItemIdx);
+            if (position < 0) {
                 continue;
             }
 
-            double sim = itemRatingEntry.getValue();
+            double sim = similarities[i];
             if (isRanking) {
-                nns.add(itemRatingEntry);
+                sum += sim;
                 count++;
             } else if (sim > 0) {
-                nns.add(itemRatingEntry);
+                // for rating prediction
+                double rate = currentItemIdxSet.valueAt(position);
+                sum += sim * (rate - itemMeans.get(itemIdx));
+                ws += Math.abs(sim);
                 count++;
             }
             if (count == knn) {
                 break;
             }
         }
-        if (nns.size() == 0) {
+        if (count == 0) {
             return isRanking ? 0 : globalMean;
         }
         if (isRanking) {
-            double sum = 0.0d;
-            for (Entry<Integer, Double> itemRatingEntry : nns) {
-                sum += itemRatingEntry.getValue();
-            }
             return sum;
         } else {
-            // for rating prediction
-            double sum = 0, ws = 0;
-            for (Entry<Integer, Double> itemRatingEntry : nns) {
-                int similarItemIdx = itemRatingEntry.getKey();
-                double sim = itemRatingEntry.getValue();
-                double rate = trainMatrix.get(userIdx, similarItemIdx);
-                sum += sim * (rate - itemMeans.get(itemIdx));
-                ws += Math.abs(sim);
-            }
             return ws > 0 ? itemMeans.get(itemIdx) + sum / ws : globalMean;
         }
     }
 
     /**
-     * Create itemSimilarityList.
+     * Create itemNeighbors from the similarity matrix, e.g. of a loaded model.
      */
     public void createItemSimilarityList() {
-        itemSimilarityList = new ArrayList[numItems];
-        for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
-            SparseVector similarityVector = similarityMatrix.row(itemIdx);
-            itemSimilarityList[itemIdx] = new ArrayList<>(similarityVector.size());
-            Iterator<VectorEntry> simItr = similarityVector.iterator();
-            while (simItr.hasNext()) {
-                VectorEntry simVectorEntry = simItr.next();
-                itemSimilarityList[itemIdx].add(new AbstractMap.SimpleImmutableEntry<>(simVectorEntry.index(), simVectorEntry.get()));
-            }
-            Lists.sortList(itemSimilarityList[itemIdx], false);
-        }
+        itemNeighbors = SimilarityNeighbors.of(similarityMatrix);
+    }
+
+    /**
+     * The items rated by the user of the last prediction of a thread, which are looked up
+     * for all the items predicted for the user in a row.
+     */
+    private static class CurrentUser {
+        private int userIdx = -1;
+        private final SparseMatrix.RowView itemRatings = new SparseMatrix.RowView();
     }
 
 }
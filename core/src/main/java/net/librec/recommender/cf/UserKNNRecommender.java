@@ -20,14 +20,11 @@ package net.librec.recommender.cf;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseVector;
-import net.librec.math.structure.SparseVector;
+import net.librec.math.structure.SparseMatrix;
 import net.librec.math.structure.SymmMatrix;
-import net.librec.math.structure.VectorEntry;
 import net.librec.recommender.AbstractRecommender;
-import net.librec.util.Lists;
-
-import java.util.*;
-import java.util.Map.Entry;
+import net.librec.similarity.AbstractRecommenderSimilarity;
+import net.librec.similarity.SimilarityNeighbors;
 
 /**
  * UserKNNRecommender
@@ -39,7 +36,16 @@ public class UserKNNRecommender extends AbstractRecommender {
     private int knn;
     private DenseVector userMeans;
     private SymmMatrix similarityMatrix;
-    private List<Map.Entry<Integer, Double>>[] userSimilarityList;
+    private SimilarityNeighbors userNeighbors;
+    /**
+     * view of the users who rated the item of the current prediction, one per thread
+     */
+    private final ThreadLocal<SparseMatrix.ColumnView> userRatings = new ThreadLocal<SparseMatrix.ColumnView>() {
+        @Override
+        protected SparseMatrix.ColumnView initialValue() {
+            return new SparseMatrix.ColumnView();
+        }
+    };
 
     /**
      * (non-Javadoc)
@@ -51,6 +57,7 @@ public class UserKNNRecommender extends AbstractRecommender {
         super.setup();
         knn = conf.getInt("rec.neighbors.knn.number");
         similarityMatrix = context.getSimilarity().getSimilarityMatrix();
+        userNeighbors = AbstractRecommenderSimilarity.neighborsOf(context.getSimilarity());
     }
 
     /**
@@ -61,9 +68,10 @@ public class UserKNNRecommender extends AbstractRecommender {
     @Override
     protected void trainModel() throws LibrecException {
         userMeans = new DenseVector(numUsers);
+        SparseMatrix.RowView userRatingVector = new SparseMatrix.RowView();
         for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-            SparseVector userRatingVector = trainMatrix.row(userIdx);
-            userMeans.set(userIdx, userRatingVector.getCount() > 0 ? userRatingVector.mean() : globalMean);
+            trainMatrix.rowView(userIdx, userRatingVector);
+            userMeans.set(userIdx, userRatingVector.size() > 0 ? userRatingVector.mean() : globalMean);
         }
     }
 
@@ -74,70 +82,52 @@ public class UserKNNRecommender extends AbstractRecommender {
      */
     @Override
     public double predict(int userIdx, int itemIdx) throws LibrecException {
-        //create userSimilarityList if not exists
-        if (!(null != userSimilarityList && userSimilarityList.length > 0)) {
+        //create userNeighbors if not exists
+        if (userNeighbors == null) {
             createUserSimilarityList();
         }
-        // find a number of similar users
-        List<Map.Entry<Integer, Double>> nns = new ArrayList<>();
-        List<Map.Entry<Integer, Double>> simList = userSimilarityList[userIdx];
+        // find a number of similar users, sorted by similarity in descending order
+        int[] neighbors = userNeighbors.getNeighbors(userIdx);
+        double[] similarities = userNeighbors.getSimilarities(userIdx);
 
         int count = 0;
-        Set<Integer> userSet = trainMatrix.getRowsSet(itemIdx);
-        for (Map.Entry<Integer, Double> userRatingEntry : simList) {
-            int similarUserIdx = userRatingEntry.getKey();
-            if (!userSet.contains(similarUserIdx)) {
+        double sum = 0, ws = 0;
+        SparseMatrix.ColumnView userSet = trainMatrix.columnView(itemIdx, userRatings.get());
+        for (int i = 0; i < neighbors.length; i++) {
+            int similarUserIdx = neighbors[i];
+            int position = userSet.positionOf(similarUserIdx);
+            if (position < 0) {
                 continue;
             }
-            double sim = userRatingEntry.getValue();
+            double sim = similarities[i];
             if (isRanking) {
-                nns.add(userRatingEntry);
+                sum += sim;
                 count++;
             } else if (sim > 0) {
-                nns.add(userRatingEntry);
+                // for rating prediction
+                double rate = userSet.valueAt(position);
+                sum += sim * (rate - userMeans.get(similarUserIdx));
+                ws += Math.abs(sim);
                 count++;
             }
             if (count == knn) {
                 break;
             }
         }
-        if (nns.size() == 0) {
+        if (count == 0) {
             return isRanking ? 0 : globalMean;
         }
         if (isRanking) {
-            double sum = 0.0d;
-            for (Entry<Integer, Double> userRatingEntry : nns) {
-                sum += userRatingEntry.getValue();
-            }
             return sum;
         } else {
-            // for rating prediction
-            double sum = 0, ws = 0;
-            for (Entry<Integer, Double> userRatingEntry : nns) {
-                int similarUserIdx = userRatingEntry.getKey();
-                double sim = userRatingEntry.getValue();
-                double rate = trainMatrix.get(similarUserIdx, itemIdx);
-                sum += sim * (rate - userMeans.get(similarUserIdx));
-                ws += Math.abs(sim);
-            }
             return ws > 0 ? userMeans.get(userIdx) + sum / ws : globalMean;
         }
     }
 
     /**
-     * Create userSimilarityList.
+     * Create userNeighbors from the similarity matrix, e.g. of a loaded model.
      */
     public void createUserSimilarityList() {
-        userSimilarityList = new ArrayList[numUsers];
-        for (int userIndex = 0; userIndex < numUsers; ++userIndex) {
-            SparseVector similarityVector = similarityMatrix.row(userIndex);
-            userSimilarityList[userIndex] = new ArrayList<>(similarityVector.size());
-            Iterator<VectorEntry> simItr = similarityVector.iterator();
-            while (simItr.hasNext()) {
-                VectorEntry simVectorEntry = simItr.next();
-                userSimilarityList[userIndex].add(new AbstractMap.SimpleImmutableEntry<>(simVectorEntry.index(), simVectorEntry.get()));
-            }
-            Lists.sortList(userSimilarityList[userIndex], false);
-        }
+        userNeighbors = SimilarityNeighbors.of(similarityMatrix);
     }
 }
@@ -20,16 +20,13 @@ package net.librec.recommender.cf.ranking;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
-import net.librec.math.algorithm.Randoms;
-import net.librec.math.algorithm.Stats;
-import net.librec.math.structure.DenseVector;
-import net.librec.math.structure.MatrixEntry;
-import net.librec.math.structure.SparseMatrix;
+import net.librec.math.structure.IndexAdjacency;
 import net.librec.recommender.MatrixFactorizationRecommender;
 import net.librec.recommender.item.RecommendedItemList;
-import net.librec.util.Lists;
+import net.librec.recommender.sampler.RankAwareNegativeSampler;
+import net.librec.recommender.sampler.SamplingEngine;
 
-import java.util.*;
+import java.util.Random;
 
 import static net.librec.math.algorithm.Maths.logistic;
 
@@ -50,11 +47,20 @@ public class AoBPRRecommender extends MatrixFactorizationRecommender {
      */
     private int lambdaItem;
 
-    private double[] var;
-    private int[][] factorRanking;
-    private double[] RankingPro;
+    /**
+     * items rated by each user
+     */
+    private IndexAdjacency userItemsAdjacency;
 
-    private List<Set<Integer>> userItemsSet;
+    /**
+     * user of each training entry, in the order of the entries of the train matrix
+     */
+    private int[] entryUsers;
+
+    /**
+     * adaptive sampler of the negative items
+     */
+    private RankAwareNegativeSampler negativeSampler;
 
     @Override
     protected void setup() throws LibrecException {
@@ -64,104 +70,41 @@ public class AoBPRRecommender extends MatrixFactorizationRecommender {
         //lamda_Item=500;
         loopNumber = (int) (numItems * Math.log(numItems));
 
-        var = new double[numFactors];
-        factorRanking = new int[numFactors][numItems];
-
-        RankingPro = new double[numItems];
-        double sum = 0;
-        for (int i = 0; i < numItems; i++) {
-            RankingPro[i] = Math.exp(-(i + 1) / lambdaItem);
-            sum += RankingPro[i];
-        }
-        for (int i = 0; i < numItems; i++) {
-            RankingPro[i] /= sum;
-        }
         recommendedList = new RecommendedItemList(numUsers);
     }
 
     @Override
     protected void trainModel() throws LibrecException {
-        userItemsSet = getUserItemsSet(trainMatrix);
-        List<Integer>[] dataLists = getTrainList(trainMatrix);
-        List<Integer> userTrainList = dataLists[0];
-        List<Integer> itemTrainList = dataLists[1];
+        userItemsAdjacency = trainMatrix.rowAdjacency();
+        entryUsers = new int[numRates];
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            for (int entry = trainMatrix.rowPtr[userIdx]; entry < trainMatrix.rowPtr[userIdx + 1]; entry++) {
+                entryUsers[entry] = userIdx;
+            }
+        }
+        negativeSampler = new RankAwareNegativeSampler(userItemsAdjacency, userFactors, itemFactors, lambdaItem);
+
+        SamplingEngine samplingEngine = new SamplingEngine(sgdThreads);
+        SamplingEngine.SampleUpdater updater = new SamplingEngine.SampleUpdater() {
+            @Override
+            public double update(Random random, double loss) throws LibrecException {
+                return updateSample(random, loss);
+            }
+        };
         int countIter = 0;
 
         for (int iter = 1; iter <= numIterations; iter++) {
 
             loss = 0.0d;
-            for (int s = 0, smax = numUsers * 100; s < smax; s++) {
+            for (int numSamples = numUsers * 100; numSamples > 0; ) {
                 //update Ranking every |I|log|I|
-                if (countIter % loopNumber == 0) {
-                    updateRankingInFactor();
-                    countIter = 0;
-                }
-                countIter++;
-
-                // randomly draw (u, i, j)
-                int userIdx, posItemIdx, negItemIdx;
-                while (true) {
-                    int dataIdx = Randoms.uniform(numRates);
-                    userIdx = userTrainList.get(dataIdx);
-                    Set<Integer> itemSet = userItemsSet.get(userIdx);
-                    if (itemSet.size() == 0 || itemSet.size() == numItems)
-                        continue;
-
-                    posItemIdx = itemTrainList.get(dataIdx);
-
-                    do {
-                        //randoms get a r by exp(-r/lamda)
-                        int randomNegItemIndex = 0;
-                        do {
-                            randomNegItemIndex = Randoms.discrete(RankingPro);
-                        } while (randomNegItemIndex > numItems);
-
-                        //randoms get a f by p(f|c)
-                        double[] pfc = new double[numFactors];
-                        double sumfc = 0;
-                        for (int pfcFactprIdx = 0; pfcFactprIdx < numFactors; pfcFactprIdx++) {
-                            double tempAbsValue = Math.abs(userFactors.get(userIdx, pfcFactprIdx));
-                            sumfc += tempAbsValue * var[pfcFactprIdx];
-                            pfc[pfcFactprIdx] = tempAbsValue * var[pfcFactprIdx];
-                        }
-                        //normalization
-                        for (int pfcFactprIdx = 0; pfcFactprIdx < numFactors; pfcFactprIdx++) {
-                            pfc[pfcFactprIdx] /= sumfc;
-                        }
-                        int factorIdx = Randoms.discrete(pfc);
-
-                        //get the r-1 in f item
-                        if (userFactors.get(userIdx, factorIdx) > 0) {
-                            negItemIdx = factorRanking[factorIdx][randomNegItemIndex];
-                        } else {
-                            negItemIdx = factorRanking[factorIdx][numItems - randomNegItemIndex - 1];
-                        }
-                    } while (itemSet.contains(negItemIdx));
-
-                    break;
-                }
-
-                // update parameters
-                double posPredictRating = predict(userIdx, posItemIdx);
-                double negPredictRating = predict(userIdx, negItemIdx);
-                double diffValue = posPredictRating - negPredictRating;
-
-                double lossValue = -Math.log(Maths.logistic(diffValue));
-                loss += lossValue;
-
-                double deriValue = logistic(-diffValue);
-
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = userFactors.get(userIdx, factorIdx);
-                    double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
-                    double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
-
-                    userFactors.add(userIdx, factorIdx, learnRate * (deriValue * (posItemFactorValue - negItemFactorValue) - regUser * userFactorValue));
-                    itemFactors.add(posItemIdx, factorIdx, learnRate * (deriValue * userFactorValue - regItem * posItemFactorValue));
-                    itemFactors.add(negItemIdx, factorIdx, learnRate * (deriValue * (-userFactorValue) - regItem * negItemFactorValue));
-
-                    loss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue + regItem * negItemFactorValue * negItemFactorValue;
+                if (countIter == 0) {
+                    negativeSampler.update();
                 }
+                int chunk = Math.min(numSamples, loopNumber - countIter);
+                loss = samplingEngine.run(chunk, updater, loss);
+                numSamples -= chunk;
+                countIter = (countIter + chunk) % loopNumber;
             }
 
             if (isConverged(iter) && earlyStop) {
@@ -171,48 +114,50 @@ public class AoBPRRecommender extends MatrixFactorizationRecommender {
         }
     }
 
+    /**
+     * randomly draw (userIdx, posItemIdx, negItemIdx) and update the factors.
+     *
+     * @param random random generator of the current thread
+     * @param loss   the loss accumulated so far
+     * @return the loss plus the loss of the sample
+     * @throws LibrecException if error occurs during predicting
+     */
+    private double updateSample(Random random, double loss) throws LibrecException {
+        // randomly draw (u, i, j)
+        int dataIdx, userIdx;
+        do {
+            dataIdx = random.nextInt(numRates);
+            userIdx = entryUsers[dataIdx];
+        } while (!negativeSampler.hasNegative(userIdx));
+        int posItemIdx = trainMatrix.colInd[dataIdx];
+        int negItemIdx = negativeSampler.sample(userIdx, random);
+
+        // update parameters
+        double posPredictRating = predict(userIdx, posItemIdx);
+        double negPredictRating = predict(userIdx, negItemIdx);
+        double diffValue = posPredictRating - negPredictRating;
+
+        double lossValue = -Math.log(Maths.logistic(diffValue));
+        loss += lossValue;
+
+        double deriValue = logistic(-diffValue);
 
-    public List<Map.Entry<Integer, Double>> sortByDenseVectorValue(DenseVector vector) {
-        List<Map.Entry<Integer, Double>> sortList = new ArrayList<>();
-        for (int itemIdx = 0, length = vector.getData().length; itemIdx < length; itemIdx++) {
-            sortList.add(new AbstractMap.SimpleImmutableEntry(itemIdx, vector.get(itemIdx)));
-        }
-        Lists.sortList(sortList, true);
-        return sortList;
-    }
-
-    public void updateRankingInFactor() {
-        //echo for each factors
         for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-            DenseVector factorVector = itemFactors.column(factorIdx).clone();
-            List<Map.Entry<Integer, Double>> sort = sortByDenseVectorValue(factorVector);
-            double[] valueList = new double[numItems];
-            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-                factorRanking[factorIdx][itemIdx] = sort.get(itemIdx).getKey();
-                valueList[itemIdx] = sort.get(itemIdx).getValue();
-            }
-            //get
-            var[factorIdx] = Stats.var(valueList);
-        }
-    }
+            double userFactorValue = userFactors.get(userIdx, factorIdx);
+            double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
+            double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
 
-    private List<Set<Integer>> getUserItemsSet(SparseMatrix sparseMatrix) {
-        List<Set<Integer>> userItemsSet = new ArrayList<>();
-        for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            userItemsSet.add(new HashSet(sparseMatrix.getColumns(userIdx)));
+            userFactors.add(userIdx, factorIdx, learnRate * (deriValue * (posItemFactorValue - negItemFactorValue) - regUser * userFactorValue));
+            itemFactors.add(posItemIdx, factorIdx, learnRate * (deriValue * userFactorValue - regItem * posItemFactorValue));
+            itemFactors.add(negItemIdx, factorIdx, learnRate * (deriValue * (-userFactorValue) - regItem * negItemFactorValue));
+
+            loss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue + regItem * negItemFactorValue * negItemFactorValue;
         }
-        return userItemsSet;
+        return loss;
     }
 
-    private List<Integer>[] getTrainList(SparseMatrix sparseMatrix) {
-        List<Integer> userTrainList = new ArrayList<>(), itemTrainList = new ArrayList<>();
-        for (MatrixEntry matrixEntry : sparseMatrix) {
-            int userIdx = matrixEntry.row();
-            int itemIdx = matrixEntry.column();
-
-            userTrainList.add(userIdx);
-            itemTrainList.add(itemIdx);
-        }
-        return new List[]{userTrainList, itemTrainList};
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
     }
 }
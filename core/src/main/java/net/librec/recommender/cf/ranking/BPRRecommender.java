@@ -20,15 +20,13 @@ package net.librec.recommender.cf.ranking;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
-import net.librec.math.algorithm.Randoms;
-import net.librec.math.structure.MatrixEntry;
-import net.librec.math.structure.SparseMatrix;
+import net.librec.math.structure.IndexAdjacency;
 import net.librec.recommender.MatrixFactorizationRecommender;
+import net.librec.recommender.sampler.NegativeSampler;
+import net.librec.recommender.sampler.SamplingEngine;
+import net.librec.recommender.sampler.UniformNegativeSampler;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.Random;
 
 /**
  * Rendle et al., <strong>BPR: Bayesian Personalized Ranking from Implicit Feedback</strong>, UAI 2009.
@@ -37,7 +35,15 @@ import java.util.Set;
  */
 @ModelData({"isRanking", "bpr", "userFactors", "itemFactors"})
 public class BPRRecommender extends MatrixFactorizationRecommender {
-    private List<Set<Integer>> userItemsSet;
+    /**
+     * items rated by each user
+     */
+    private IndexAdjacency userItemsAdjacency;
+
+    /**
+     * sampler of the negative items
+     */
+    private NegativeSampler negativeSampler;
 
     @Override
     protected void setup() throws LibrecException {
@@ -47,52 +53,19 @@ public class BPRRecommender extends MatrixFactorizationRecommender {
     @Override
     protected void trainModel() throws LibrecException {
 
-        userItemsSet = getUserItemsSet(trainMatrix);
+        userItemsAdjacency = trainMatrix.rowAdjacency();
+        negativeSampler = new UniformNegativeSampler(userItemsAdjacency, numItems);
+        SamplingEngine samplingEngine = new SamplingEngine(sgdThreads);
+        SamplingEngine.SampleUpdater updater = new SamplingEngine.SampleUpdater() {
+            @Override
+            public double update(Random random, double loss) throws LibrecException {
+                return updateSample(random, loss);
+            }
+        };
 
         for (int iter = 1; iter <= numIterations; iter++) {
 
-            loss = 0.0d;
-            for (int sampleCount = 0, smax = numUsers * 100; sampleCount < smax; sampleCount++) {
-
-                // randomly draw (userIdx, posItemIdx, negItemIdx)
-                int userIdx, posItemIdx, negItemIdx;
-                while (true) {
-                    userIdx = Randoms.uniform(numUsers);
-                    Set<Integer> itemSet = userItemsSet.get(userIdx);
-                    if (itemSet.size() == 0 || itemSet.size() == numItems)
-                        continue;
-
-                    List<Integer> itemList = trainMatrix.getColumns(userIdx);
-                    posItemIdx = itemList.get(Randoms.uniform(itemList.size()));
-                    do {
-                        negItemIdx = Randoms.uniform(numItems);
-                    } while (itemSet.contains(negItemIdx));
-
-                    break;
-                }
-
-                // update parameters
-                double posPredictRating = predict(userIdx, posItemIdx);
-                double negPredictRating = predict(userIdx, negItemIdx);
-                double diffValue = posPredictRating - negPredictRating;
-
-                double lossValue = -Math.log(Maths.logistic(diffValue));
-                loss += lossValue;
-
-                double deriValue = Maths.logistic(-diffValue);
-
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = userFactors.get(userIdx, factorIdx);
-                    double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
-                    double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
-
-                    userFactors.add(userIdx, factorIdx, learnRate * (deriValue * (posItemFactorValue - negItemFactorValue) - regUser * userFactorValue));
-                    itemFactors.add(posItemIdx, factorIdx, learnRate * (deriValue * userFactorValue - regItem * posItemFactorValue));
-                    itemFactors.add(negItemIdx, factorIdx, learnRate * (deriValue * (-userFactorValue) - regItem * negItemFactorValue));
-
-                    loss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue + regItem * negItemFactorValue * negItemFactorValue;
-                }
-            }
+            loss = samplingEngine.run(numUsers * 100, updater, 0.0d);
             if (isConverged(iter) && earlyStop) {
                 break;
             }
@@ -100,11 +73,49 @@ public class BPRRecommender extends MatrixFactorizationRecommender {
         }
     }
 
-    private List<Set<Integer>> getUserItemsSet(SparseMatrix sparseMatrix) {
-        List<Set<Integer>> userItemsSet = new ArrayList<>();
-        for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            userItemsSet.add(new HashSet(sparseMatrix.getColumns(userIdx)));
+    /**
+     * randomly draw (userIdx, posItemIdx, negItemIdx) and update the factors.
+     *
+     * @param random random generator of the current thread
+     * @param loss   the loss accumulated so far
+     * @return the loss plus the loss of the sample
+     * @throws LibrecException if error occurs during predicting
+     */
+    private double updateSample(Random random, double loss) throws LibrecException {
+        // randomly draw (userIdx, posItemIdx, negItemIdx)
+        int userIdx;
+        do {
+            userIdx = random.nextInt(numUsers);
+        } while (userItemsAdjacency.size(userIdx) == 0 || !negativeSampler.hasNegative(userIdx));
+        int posItemIdx = userItemsAdjacency.random(userIdx, random);
+        int negItemIdx = negativeSampler.sample(userIdx, random);
+
+        // update parameters
+        double posPredictRating = predict(userIdx, posItemIdx);
+        double negPredictRating = predict(userIdx, negItemIdx);
+        double diffValue = posPredictRating - negPredictRating;
+
+        double lossValue = -Math.log(Maths.logistic(diffValue));
+        loss += lossValue;
+
+        double deriValue = Maths.logistic(-diffValue);
+
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            double userFactorValue = userFactors.get(userIdx, factorIdx);
+            double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
+            double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
+
+            userFactors.add(userIdx, factorIdx, learnRate * (deriValue * (posItemFactorValue - negItemFactorValue) - regUser * userFactorValue));
+            itemFactors.add(posItemIdx, factorIdx, learnRate * (deriValue * userFactorValue - regItem * posItemFactorValue));
+            itemFactors.add(negItemIdx, factorIdx, learnRate * (deriValue * (-userFactorValue) - regItem * negItemFactorValue));
+
+            loss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue + regItem * negItemFactorValue * negItemFactorValue;
         }
-        return userItemsSet;
+        return loss;
+    }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
     }
 }
@@ -156,4 +156,9 @@ public class CLIMFRecommender extends MatrixFactorizationRecommender {
         }
         return userItemsSet;
     }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
+    }
 }
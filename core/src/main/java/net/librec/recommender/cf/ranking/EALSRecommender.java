@@ -210,4 +210,9 @@ public class EALSRecommender extends MatrixFactorizationRecommender {
         }
         return itemUsersList;
     }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
+    }
 }
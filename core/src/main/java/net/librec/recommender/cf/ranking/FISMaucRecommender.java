@@ -73,7 +73,7 @@ public class FISMaucRecommender extends MatrixFactorizationRecommender {
         itemBiases.init();
 
         anotherItemFactors = new DenseMatrix(numItems, numFactors);
-        anotherItemFactors.init(initMean, initStd);
+        initFactors(anotherItemFactors);
 
         isRanking = true;
         rho = conf.getInt("rec.fismauc.rho");
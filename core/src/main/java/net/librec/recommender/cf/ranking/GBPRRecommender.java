@@ -17,19 +17,18 @@
  */
 package net.librec.recommender.cf.ranking;
 
-import com.google.common.cache.LoadingCache;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
-import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.DenseVector;
+import net.librec.math.structure.IndexAdjacency;
 import net.librec.recommender.MatrixFactorizationRecommender;
+import net.librec.recommender.sampler.NegativeSampler;
+import net.librec.recommender.sampler.SamplingEngine;
+import net.librec.recommender.sampler.UniformNegativeSampler;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.concurrent.ExecutionException;
+import java.util.Random;
 
 /**
  * Pan and Chen, <strong>GBPR: Group Preference Based Bayesian Personalized Ranking for One-Class Collaborative
@@ -53,14 +52,19 @@ public class GBPRRecommender extends MatrixFactorizationRecommender {
     private DenseVector itemBiases;
 
     /**
-     * user-items cache, item-users cache
+     * items rated by each user, users who rated each item
      */
-    protected LoadingCache<Integer, List<Integer>> userItemsCache, itemUsersCache;
+    private IndexAdjacency userItemsAdjacency, itemUsersAdjacency;
 
     /**
-     * Guava cache configuration
+     * sampler of the negative items
      */
-    protected static String cacheSpec;
+    private NegativeSampler negativeSampler;
+
+    /**
+     * updates of the user and item factors in the current iteration
+     */
+    private DenseMatrix tempUserFactors, tempItemFactors;
 
     @Override
     protected void setup() throws LibrecException {
@@ -72,109 +76,27 @@ public class GBPRRecommender extends MatrixFactorizationRecommender {
         rho = conf.getFloat("rec.gpbr.rho",1.5f);
         gLen = conf.getInt("rec.gpbr.gsize",2);
 
-        cacheSpec = conf.get("guava.cache.spec", "maximumSize=200,expireAfterAccess=2m");
-        userItemsCache = trainMatrix.rowColumnsCache(cacheSpec);
-        itemUsersCache = trainMatrix.columnRowsCache(cacheSpec);
+        userItemsAdjacency = trainMatrix.rowAdjacency();
+        itemUsersAdjacency = trainMatrix.columnAdjacency();
+        negativeSampler = new UniformNegativeSampler(userItemsAdjacency, numItems);
     }
 
     @Override
     protected void trainModel() throws LibrecException {
+        SamplingEngine samplingEngine = new SamplingEngine(sgdThreads);
+        SamplingEngine.SampleUpdater updater = new SamplingEngine.SampleUpdater() {
+            @Override
+            public double update(Random random, double loss) throws LibrecException {
+                return updateSample(random, loss);
+            }
+        };
+
         for (int iter = 1; iter <= numIterations; iter++) {
 
-            loss = 0.0d;
-
-            DenseMatrix tempUserFactors = new DenseMatrix(numUsers, numFactors);
-            DenseMatrix tempItemFactors = new DenseMatrix(numItems, numFactors);
-
-            for (int sample = 0, smax = numUsers * 100; sample < smax; sample++) {
-                // uniformly draw (userIdx, posItemIdx, userGroupSet, negItemIdx)
-                int userIdx, posItemIdx, negItemIdx;
-                // userIdx
-                List<Integer> ratedItems = null; // row userIdx itemList
-                do {
-                    userIdx = Randoms.uniform(trainMatrix.numRows());
-                    try {
-                        ratedItems = userItemsCache.get(userIdx);
-                    } catch (ExecutionException e) {
-                        e.printStackTrace();
-                    }
-                } while (ratedItems.size() == 0);
-
-                // positive item
-                posItemIdx = Randoms.random(ratedItems);
-
-                // users group Set
-                List<Integer> posRatedUserList = null; // column i
-                try {
-                    posRatedUserList = itemUsersCache.get(posItemIdx);
-                } catch (ExecutionException e) {
-                    e.printStackTrace();
-                }
-                Set<Integer> groupSet = new HashSet<>();
-                if (posRatedUserList.size() <= gLen) {
-                    groupSet.addAll(posRatedUserList);
-                } else {
-                    groupSet.add(userIdx); // u in G
-                    while (groupSet.size() < gLen) {
-                        int tempUserIdx = Randoms.random(posRatedUserList);
-                        if (!groupSet.contains(tempUserIdx))
-                            groupSet.add(tempUserIdx);
-                    }
-                }
-
-                double posPredictRating = predict(userIdx, posItemIdx, groupSet);
-
-                // negative item index
-                do {
-                    negItemIdx = Randoms.uniform(numItems);
-                } while (ratedItems.contains(negItemIdx));
-
-                double negPredictRating = predict(userIdx, negItemIdx);
-
-                double diffValue = posPredictRating - negPredictRating;
-
-                double lossValue = -Math.log(Maths.logistic(diffValue));
-                loss += lossValue;
-
-                double deriValue = Maths.logistic(-diffValue);
-
-                // update bi, bj
-                double posBiasValue = itemBiases.get(posItemIdx);
-                itemBiases.add(posItemIdx, learnRate * (deriValue - regBias * posBiasValue));
-
-                double negBiasValue = itemBiases.get(negItemIdx);
-                itemBiases.add(negItemIdx, learnRate * (-deriValue - regBias * negBiasValue));
-
-                // update Pw
-                double averageWeight = 1.0 / groupSet.size();
-                double sumGroup[] = new double[numFactors];
-                for (int groupUserIdx : groupSet) {
-                    double delta = groupUserIdx == userIdx ? 1 : 0;
-                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        double groupUserFactorValue = userFactors.get(groupUserIdx, factorIdx);
-                        double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
-                        double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
-
-                        double deltaGroup = rho * averageWeight * posItemFactorValue + (1 - rho) * delta * posItemFactorValue - delta * negItemFactorValue;
-                        tempUserFactors.add(groupUserIdx, factorIdx, learnRate * (deriValue * deltaGroup - regUser * groupUserFactorValue));
-
-                        sumGroup[factorIdx] += groupUserFactorValue;
-                    }
-                }
-
-                // update itemFactors
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = userFactors.get(userIdx, factorIdx);
-                    double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
-                    double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
-
-                    double posDelta = rho * averageWeight * sumGroup[factorIdx] + (1 - rho) * userFactorValue;
-                    tempItemFactors.add(posItemIdx, factorIdx, learnRate * (deriValue * posDelta - regItem * posItemFactorValue));
-
-                    double negDelta = -userFactorValue;
-                    tempItemFactors.add(negItemIdx, factorIdx, learnRate * (deriValue * negDelta - regItem * negItemFactorValue));
-                }
-            }
+            tempUserFactors = new DenseMatrix(numUsers, numFactors);
+            tempItemFactors = new DenseMatrix(numItems, numFactors);
+
+            loss = samplingEngine.run(numUsers * 100, updater, 0.0d);
 
             userFactors.addEqual(tempUserFactors);
             itemFactors.addEqual(tempItemFactors);
@@ -186,16 +108,125 @@ public class GBPRRecommender extends MatrixFactorizationRecommender {
         }
     }
 
+    /**
+     * uniformly draw (userIdx, posItemIdx, userGroup, negItemIdx) and accumulate the updates of the factors.
+     *
+     * @param random random generator of the current thread
+     * @param loss   the loss accumulated so far
+     * @return the loss plus the loss of the sample
+     * @throws LibrecException if error occurs during predicting
+     */
+    private double updateSample(Random random, double loss) throws LibrecException {
+        // userIdx
+        int userIdx;
+        do {
+            userIdx = random.nextInt(numUsers);
+        } while (userItemsAdjacency.size(userIdx) == 0 || !negativeSampler.hasNegative(userIdx));
+
+        // positive item
+        int posItemIdx = userItemsAdjacency.random(userIdx, random);
+
+        // users group
+        int numPosRatedUsers = itemUsersAdjacency.size(posItemIdx);
+        int[] group;
+        if (numPosRatedUsers <= gLen) {
+            group = new int[numPosRatedUsers];
+            for (int position = 0; position < numPosRatedUsers; position++) {
+                group[position] = itemUsersAdjacency.get(itemUsersAdjacency.start(posItemIdx) + position);
+            }
+        } else {
+            group = new int[gLen];
+            group[0] = userIdx; // u in G
+            int groupSize = 1;
+            while (groupSize < gLen) {
+                int tempUserIdx = itemUsersAdjacency.random(posItemIdx, random);
+                if (!contains(group, groupSize, tempUserIdx))
+                    group[groupSize++] = tempUserIdx;
+            }
+        }
+
+        double posPredictRating = predict(userIdx, posItemIdx, group);
+
+        // negative item index
+        int negItemIdx = negativeSampler.sample(userIdx, random);
+
+        double negPredictRating = predict(userIdx, negItemIdx);
+
+        double diffValue = posPredictRating - negPredictRating;
+
+        double lossValue = -Math.log(Maths.logistic(diffValue));
+        loss += lossValue;
+
+        double deriValue = Maths.logistic(-diffValue);
+
+        // update bi, bj
+        double posBiasValue = itemBiases.get(posItemIdx);
+        itemBiases.add(posItemIdx, learnRate * (deriValue - regBias * posBiasValue));
+
+        double negBiasValue = itemBiases.get(negItemIdx);
+        itemBiases.add(negItemIdx, learnRate * (-deriValue - regBias * negBiasValue));
 
-    protected double predict(int userIdx, int itemIdx, Set<Integer> groupSet) throws LibrecException {
+        // update Pw
+        double averageWeight = 1.0 / group.length;
+        double sumGroup[] = new double[numFactors];
+        for (int groupUserIdx : group) {
+            double delta = groupUserIdx == userIdx ? 1 : 0;
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                double groupUserFactorValue = userFactors.get(groupUserIdx, factorIdx);
+                double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
+                double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
+
+                double deltaGroup = rho * averageWeight * posItemFactorValue + (1 - rho) * delta * posItemFactorValue - delta * negItemFactorValue;
+                tempUserFactors.add(groupUserIdx, factorIdx, learnRate * (deriValue * deltaGroup - regUser * groupUserFactorValue));
+
+                sumGroup[factorIdx] += groupUserFactorValue;
+            }
+        }
+
+        // update itemFactors
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            double userFactorValue = userFactors.get(userIdx, factorIdx);
+            double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
+            double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
+
+            double posDelta = rho * averageWeight * sumGroup[factorIdx] + (1 - rho) * userFactorValue;
+            tempItemFactors.add(posItemIdx, factorIdx, learnRate * (deriValue * posDelta - regItem * posItemFactorValue));
+
+            double negDelta = -userFactorValue;
+            tempItemFactors.add(negItemIdx, factorIdx, learnRate * (deriValue * negDelta - regItem * negItemFactorValue));
+        }
+        return loss;
+    }
+
+    /**
+     * @param group     users of the group
+     * @param groupSize the number of users drawn so far
+     * @param userIdx   user index
+     * @return true if the user was drawn in the group
+     */
+    private static boolean contains(int[] group, int groupSize, int userIdx) {
+        for (int position = 0; position < groupSize; position++) {
+            if (group[position] == userIdx) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected double predict(int userIdx, int itemIdx, int[] group) throws LibrecException {
         double predictRating = predict(userIdx, itemIdx);
 
         double sum = 0;
-        for (int groupUserIdx : groupSet)
+        for (int groupUserIdx : group)
             sum += DenseMatrix.rowMult(userFactors, groupUserIdx, itemFactors, itemIdx);
 
-        double groupRating = sum / groupSet.size() + itemBiases.get(itemIdx);
+        double groupRating = sum / group.length + itemBiases.get(itemIdx);
 
         return rho * groupRating + (1 - rho) * predictRating;
     }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
+    }
 }
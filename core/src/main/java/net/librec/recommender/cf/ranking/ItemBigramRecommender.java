@@ -21,6 +21,7 @@ import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
+import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.DenseVector;
 import net.librec.math.structure.SparseMatrix;
@@ -161,7 +162,7 @@ public class ItemBigramRecommender extends ProbabilisticGraphicalRecommender {
             for (int itemIdxIndex = 0; itemIdxIndex < itemIdxList.size(); itemIdxIndex++) {
                 int itemIdx = itemIdxList.get(itemIdxIndex);
 
-                int topicIdx = (int) (Math.random() * numTopics);
+                int topicIdx = (int) (Randoms.random() * numTopics);
                 topicAssignments.put(userIdx, itemIdx, topicIdx);
 
                 userTopicNumbers.add(userIdx, topicIdx, 1.0);
@@ -207,7 +208,7 @@ public class ItemBigramRecommender extends ProbabilisticGraphicalRecommender {
                     tempUserProbs[topicInIdx] += tempUserProbs[topicInIdx - 1];
                 }
 
-                double rand = Math.random() * tempUserProbs[numTopics - 1];
+                double rand = Randoms.random() * tempUserProbs[numTopics - 1];
                 for (topicIdx = 0; topicIdx < numTopics; topicIdx++) {
                     if (rand < tempUserProbs[topicIdx])
                         break;
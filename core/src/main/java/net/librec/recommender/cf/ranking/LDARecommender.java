@@ -19,13 +19,11 @@ package net.librec.recommender.cf.ranking;
 
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
+import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.DenseVector;
-import net.librec.math.structure.MatrixEntry;
 import net.librec.recommender.ProbabilisticGraphicalRecommender;
-
-import java.util.ArrayList;
-import java.util.List;
+import net.librec.recommender.sampler.TopicSamplingEngine;
 
 import static net.librec.math.algorithm.Gamma.digamma;
 
@@ -58,21 +56,6 @@ public class LDARecommender extends ProbabilisticGraphicalRecommender {
      */
     protected DenseMatrix topicItemNumbers;
 
-    /**
-     * entry[u, k]: number of tokens assigned to topic k, given user u.
-     */
-    protected DenseMatrix userTopicNumbers;
-
-    /**
-     * topic assignment as list from the iterator of trainMatrix
-     */
-    protected List<Integer> topicAssignments;
-
-    /**
-     * entry[u]: number of tokens rated by user u.
-     */
-    protected DenseVector userTokenNumbers;
-
     /**
      * entry[k]: number of tokens assigned to topic t.
      */
@@ -88,6 +71,16 @@ public class LDARecommender extends ProbabilisticGraphicalRecommender {
      */
     protected DenseVector alpha, beta;
 
+    /**
+     * sum of beta in the current sweep
+     */
+    protected double sumBeta;
+
+    /**
+     * Gibbs sampler of the topic assignments, which holds the number of tokens of each user assigned to each topic
+     */
+    protected TopicSamplingEngine samplingEngine;
+
     /**
      * cumulative statistics of theta, phi
      */
@@ -117,9 +110,6 @@ public class LDARecommender extends ProbabilisticGraphicalRecommender {
         topicItemProbsSum = new DenseMatrix(numTopics, numItems);
 
         // initialize count variables.
-        userTopicNumbers = new DenseMatrix(numUsers, numTopics);
-        userTokenNumbers = new DenseVector(numUsers);
-
         topicItemNumbers = new DenseMatrix(numTopics, numItems);
         topicTokenNumbers = new DenseVector(numTopics);
 
@@ -136,77 +126,53 @@ public class LDARecommender extends ProbabilisticGraphicalRecommender {
         beta.setAll(initBeta);
 
         // The z_u,i are initialized to values in [0, K-1] to determine the initial state of the Markov chain.
-        topicAssignments = new ArrayList<>(trainMatrix.size());
-        for (MatrixEntry matrixEntry : trainMatrix) {
-            int userIdx = matrixEntry.row();
-            int itemIdx = matrixEntry.column();
-            int num = (int) (matrixEntry.get());
-            for(int numIdx = 0; numIdx < num; numIdx++) {
-                int topicIdx = (int) (Math.random() * numTopics); // 0 ~ k-1
-
-                // assign a topic t to pair (u, i)
-                topicAssignments.add(topicIdx);
-
-                // number of items of user u assigned to topic t.
-                userTopicNumbers.add(userIdx, topicIdx, 1);
-                // total number of items of user u
-                userTokenNumbers.add(userIdx, 1);
+        // each user is a document with one token per unit of the entries of its row
+        int numTokens = 0;
+        for (int entry = 0; entry < trainMatrix.rowPtr[numUsers]; entry++) {
+            numTokens += (int) trainMatrix.rowData[entry];
+        }
+        int[] userPtr = new int[numUsers + 1];
+        int[] items = new int[numTokens];
+        int[] topics = new int[numTokens];
+        int tokenIdx = 0;
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            for (int entry = trainMatrix.rowPtr[userIdx]; entry < trainMatrix.rowPtr[userIdx + 1]; entry++) {
+                int num = (int) trainMatrix.rowData[entry];
+                for (int numIdx = 0; numIdx < num; numIdx++) {
+                    items[tokenIdx] = trainMatrix.colInd[entry];
+                    topics[tokenIdx] = (int) (Randoms.random() * numTopics); // 0 ~ k-1
+                    tokenIdx++;
+                }
+            }
+            userPtr[userIdx + 1] = tokenIdx;
+        }
+
+        sumBeta = beta.sum();
+        TopicSamplingEngine.WordModel itemModel = new TopicSamplingEngine.WordModel() {
+            @Override
+            public double weight(int itemIdx, int topicIdx, int removed) {
+                return (topicItemNumbers.get(topicIdx, itemIdx) - removed + beta.get(itemIdx))
+                        / (topicTokenNumbers.get(topicIdx) - removed + sumBeta);
+            }
+
+            @Override
+            public void add(int itemIdx, int topicIdx, int delta) {
                 // number of instances of item i assigned to topic t
-                topicItemNumbers.add(topicIdx, itemIdx, 1);
+                topicItemNumbers.add(topicIdx, itemIdx, delta);
                 // total number of words assigned to topic t.
-                topicTokenNumbers.add(topicIdx, 1);
+                topicTokenNumbers.add(topicIdx, delta);
             }
-        }
+        };
+        samplingEngine = new TopicSamplingEngine(userPtr, items, topics, numTopics, numItems, itemModel,
+                samplerThreads, samplerSteps);
     }
 
     @Override
     protected void eStep() {
-        double sumAlpha = alpha.sum();
-        double sumBeta = beta.sum();
+        sumBeta = beta.sum();
 
         // Gibbs sampling from full conditional distribution
-        int topicAssignmentsIdx = 0;
-        for (MatrixEntry matrixEntry : trainMatrix) {
-            int userIdx = matrixEntry.row();
-            int itemIdx = matrixEntry.column();
-
-            int num = (int) (matrixEntry.get());
-            for (int numIdx = 0; numIdx < num; numIdx++) {
-                int topicIdx = topicAssignments.get(topicAssignmentsIdx); // topic
-
-                userTopicNumbers.add(userIdx, topicIdx, -1);
-                userTokenNumbers.add(userIdx, -1);
-                topicItemNumbers.add(topicIdx, itemIdx, -1);
-                topicTokenNumbers.add(topicIdx, -1);
-
-                // do multinomial sampling via cumulative method:
-                double[] p = new double[numTopics];
-                for (topicIdx = 0; topicIdx < numTopics; topicIdx++) {
-                    p[topicIdx] = (userTopicNumbers.get(userIdx, topicIdx) + alpha.get(topicIdx)) / (userTokenNumbers.get(userIdx)
-                            + sumAlpha) * (topicItemNumbers.get(topicIdx, itemIdx) + beta.get(itemIdx))
-                            / (topicTokenNumbers.get(topicIdx) + sumBeta);
-                }
-                // cumulating multinomial parameters
-                for (topicIdx = 1; topicIdx < p.length; topicIdx++) {
-                    p[topicIdx] += p[topicIdx - 1];
-                }
-                // scaled sample because of unnormalized p[], randomly sampled a new topic t
-                double rand = Math.random() * p[numTopics - 1];
-                for (topicIdx = 0; topicIdx < p.length; topicIdx++) {
-                    if (rand < p[topicIdx])
-                        break;
-                }
-
-                // add newly estimated z_i to count variables
-                userTopicNumbers.add(userIdx, topicIdx, 1);
-                userTokenNumbers.add(userIdx, 1);
-                topicItemNumbers.add(topicIdx, itemIdx, 1);
-                topicTokenNumbers.add(topicIdx, 1);
-
-                topicAssignments.set(topicAssignmentsIdx, topicIdx);
-                topicAssignmentsIdx ++;
-            }
-        }
+        samplingEngine.sweep(alpha.getData());
     }
 
     @Override
@@ -221,8 +187,8 @@ public class LDARecommender extends ProbabilisticGraphicalRecommender {
             topicAlpha = alpha.get(topicIdx);
             double numerator = 0, denominator = 0;
             for (int itemIdx = 0; itemIdx < numUsers; itemIdx++) {
-                numerator += digamma(userTopicNumbers.get(itemIdx, topicIdx) + topicAlpha) - digamma(topicAlpha);
-                denominator += digamma(userTokenNumbers.get(itemIdx) + sumAlpha) - digamma(sumAlpha);
+                numerator += digamma(samplingEngine.getDocTopicCount(itemIdx, topicIdx) + topicAlpha) - digamma(topicAlpha);
+                denominator += digamma(samplingEngine.getDocCount(itemIdx) + sumAlpha) - digamma(sumAlpha);
             }
             if (numerator != 0)
                 alpha.set(topicIdx, topicAlpha * (numerator / denominator));
@@ -252,7 +218,7 @@ public class LDARecommender extends ProbabilisticGraphicalRecommender {
         double val;
         for (int userIdx = 0; userIdx < numUsers; userIdx++) {
             for (int factorIdx = 0; factorIdx < numTopics; factorIdx++) {
-                val = (userTopicNumbers.get(userIdx, factorIdx) + alpha.get(factorIdx)) / (userTokenNumbers.get(userIdx) + sumAlpha);
+                val = (samplingEngine.getDocTopicCount(userIdx, factorIdx) + alpha.get(factorIdx)) / (samplingEngine.getDocCount(userIdx) + sumAlpha);
                 userTopicProbsSum.add(userIdx, factorIdx, val);
             }
         }
@@ -89,4 +89,9 @@ public class ListwiseMFRecommender extends MatrixFactorizationRecommender {
             updateLRate(iter);
         } // end of training
     }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
+    }
 }
\ No newline at end of file
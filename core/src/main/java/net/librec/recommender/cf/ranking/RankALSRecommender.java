@@ -181,4 +181,9 @@ public class RankALSRecommender extends MatrixFactorizationRecommender {
             }
         }
     }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
+    }
 }
@@ -124,4 +124,9 @@ public class RankSGDRecommender extends MatrixFactorizationRecommender {
         }
         return userItemsSet;
     }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
+    }
 }
@@ -20,11 +20,11 @@ package net.librec.recommender.cf.ranking;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseMatrix;
-import net.librec.math.structure.SparseVector;
 import net.librec.math.structure.SymmMatrix;
 import net.librec.math.structure.VectorEntry;
 import net.librec.recommender.AbstractRecommender;
-import net.librec.util.Lists;
+import net.librec.similarity.AbstractRecommenderSimilarity;
+import net.librec.similarity.SimilarityNeighbors;
 
 import java.util.*;
 
@@ -73,6 +73,11 @@ public class SLIMRecommender extends AbstractRecommender {
      */
     private SymmMatrix similarityMatrix;
 
+    /**
+     * item's neighbors sorted by similarity in descending order
+     */
+    private SimilarityNeighbors itemNeighbors;
+
     /**
      * item's nearest neighbors for kNN <=0, i.e., all other items
      */
@@ -95,6 +100,7 @@ public class SLIMRecommender extends AbstractRecommender {
         // initial guesses: make smaller guesses (e.g., W.init(0.01)) to speed up training
         coefficientMatrix.init();
         similarityMatrix = context.getSimilarity().getSimilarityMatrix();
+        itemNeighbors = AbstractRecommenderSimilarity.neighborsOf(context.getSimilarity());
 
         for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
             coefficientMatrix.set(itemIdx, itemIdx, 0.0d);
@@ -250,24 +256,16 @@ public class SLIMRecommender extends AbstractRecommender {
         itemNNs = new HashSet[numItems];
 
         // find the nearest neighbors for each item based on item similarity
-        List<Map.Entry<Integer, Double>> tempItemSimList;
         if (knn > 0) {
+            if (itemNeighbors == null) {
+                itemNeighbors = SimilarityNeighbors.of(similarityMatrix);
+            }
             for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
-                SparseVector similarityVector = similarityMatrix.row(itemIdx);
-                if (knn < similarityVector.size()) {
-                    tempItemSimList = new ArrayList<>(similarityVector.size() + 1);
-                    Iterator<VectorEntry> simItr = similarityVector.iterator();
-                    while (simItr.hasNext()) {
-                        VectorEntry simVectorEntry = simItr.next();
-                        tempItemSimList.add(new AbstractMap.SimpleImmutableEntry<>(simVectorEntry.index(), simVectorEntry.get()));
-                    }
-                    tempItemSimList = Lists.sortListTopK(tempItemSimList, true, knn);
-                    itemNNs[itemIdx] = new HashSet<>((int) (tempItemSimList.size() / 0.5));
-                    for (Map.Entry<Integer, Double> tempItemSimEntry : tempItemSimList) {
-                        itemNNs[itemIdx].add(tempItemSimEntry.getKey());
-                    }
-                } else {
-                    itemNNs[itemIdx] = similarityVector.getIndexSet();
+                int[] neighbors = itemNeighbors.getNeighbors(itemIdx);
+                int numNeighbors = Math.min(knn, neighbors.length);
+                itemNNs[itemIdx] = new HashSet<>((int) (numNeighbors / 0.5));
+                for (int i = 0; i < numNeighbors; i++) {
+                    itemNNs[itemIdx].add(neighbors[i]);
                 }
             }
         } else {
@@ -17,20 +17,18 @@
  */
 package net.librec.recommender.cf.ranking;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
-import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.DenseVector;
+import net.librec.math.structure.IndexAdjacency;
 import net.librec.recommender.MatrixFactorizationRecommender;
-import net.librec.util.Lists;
+import net.librec.recommender.sampler.NegativeSampler;
+import net.librec.recommender.sampler.PopularityNegativeSampler;
+import net.librec.recommender.sampler.SamplingEngine;
 
-import java.util.*;
-import java.util.concurrent.ExecutionException;
+import java.util.Random;
 
 /**
  * Gantner et al., <strong>Bayesian Personalized Ranking for Non-Uniformly Sampled Items</strong>, JMLR, 2012.
@@ -40,24 +38,14 @@ import java.util.concurrent.ExecutionException;
 @ModelData({"isRanking", "wbpr", "userFactors", "itemFactors", "itemBiases", "trainMatrix"})
 public class WBPRRecommender extends MatrixFactorizationRecommender {
     /**
-     * user items Set
+     * items rated by each user
      */
-    private LoadingCache<Integer, Set<Integer>> userItemsSet;
+    private IndexAdjacency userItemsAdjacency;
 
     /**
-     * pre-compute and sort by item's popularity
+     * sampler of the negative items by item's popularity
      */
-    private List<Map.Entry<Integer, Double>> sortedItemPops;
-
-    /**
-     * cache each user's candidate items with probabilities
-     */
-    private LoadingCache<Integer, List<Map.Entry<Integer, Double>>> cacheItemProbs;
-
-    /**
-     * user-items cache, item-users cache
-     */
-    protected LoadingCache<Integer, List<Integer>> userItemsCache;
+    private NegativeSampler negativeSampler;
 
     /**
      * items biases
@@ -69,11 +57,6 @@ public class WBPRRecommender extends MatrixFactorizationRecommender {
      */
     protected float regBias;
 
-    /**
-     * Guava cache configuration
-     */
-    protected static String cacheSpec;
-
     @Override
     protected void setup() throws LibrecException {
         super.setup();
@@ -82,93 +65,29 @@ public class WBPRRecommender extends MatrixFactorizationRecommender {
         itemBiases = new DenseVector(numItems);
         itemBiases.init(0.01);
 
-        cacheSpec = conf.get("guava.cache.spec", "maximumSize=200,expireAfterAccess=2m");
-        userItemsCache = trainMatrix.rowColumnsCache(cacheSpec);
-        userItemsSet = trainMatrix.rowColumnsSetCache(cacheSpec);
+        userItemsAdjacency = trainMatrix.rowAdjacency();
 
-        // pre-compute and sort by item's popularity
-        sortedItemPops = new ArrayList<>();
+        // item's popularity
+        double[] itemPops = new double[numItems];
         for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-            sortedItemPops.add(new AbstractMap.SimpleEntry<>(itemIdx, Double.valueOf(trainMatrix.columnSize(itemIdx))));
+            itemPops[itemIdx] = trainMatrix.columnSize(itemIdx);
         }
-        Lists.sortList(sortedItemPops, true);
-
-        // cache each user's candidate items with probabilities
-        cacheItemProbs = getCacheItemProbs();
+        negativeSampler = new PopularityNegativeSampler(userItemsAdjacency, itemPops);
     }
 
     @Override
     protected void trainModel() throws LibrecException {
+        SamplingEngine samplingEngine = new SamplingEngine(sgdThreads);
+        SamplingEngine.SampleUpdater updater = new SamplingEngine.SampleUpdater() {
+            @Override
+            public double update(Random random, double loss) throws LibrecException {
+                return updateSample(random, loss);
+            }
+        };
+
         for (int iter = 1; iter <= numIterations; iter++) {
 
-            loss = 0.0d;
-            for (int sampleCount = 0, smax = numUsers * 100; sampleCount < smax; sampleCount++) {
-                // randomly draw (userIdx, posItemIdx, negItemIdx)
-                int userIdx = 0, posItemIdx = 0, negItemIdx = 0;
-                List<Integer> ratedItems = null;
-                List<Map.Entry<Integer, Double>> itemProbs = null;
-
-                while (true) {
-                    userIdx = Randoms.uniform(numUsers);
-                    try {
-                        ratedItems = userItemsCache.get(userIdx);
-                    } catch (ExecutionException e) {
-                        e.printStackTrace();
-                    }
-
-                    if (ratedItems.size() == 0)
-                        continue;
-
-                    posItemIdx = Randoms.random(ratedItems);
-
-                    // sample j by popularity (probability)
-                    try {
-                        itemProbs = cacheItemProbs.get(userIdx);
-                    } catch (ExecutionException e) {
-                        e.printStackTrace();
-                    }
-
-                    double rand = Randoms.random();
-                    double sum = 0;
-                    for (Map.Entry<Integer, Double> itemProb : itemProbs) {
-                        sum += itemProb.getValue();
-                        if (sum >= rand) {
-                            negItemIdx = itemProb.getKey();
-                            break;
-                        }
-                    }
-
-                    break;
-                }
-
-                // update parameters
-                double posPredictRating = predict(userIdx, posItemIdx);
-                double negPredictRating = predict(userIdx, negItemIdx);
-                double diffValue = posPredictRating - negPredictRating;
-
-                double lossValue = -Math.log(Maths.logistic(diffValue));
-                loss += lossValue;
-                double deriValue = Maths.logistic(-diffValue);
-
-                // update bias
-                double posItemBiasValue = itemBiases.get(posItemIdx), negItemBiasValue = itemBiases.get(negItemIdx);
-                itemBiases.add(posItemIdx, learnRate * (deriValue - regBias * posItemBiasValue));
-                itemBiases.add(negItemIdx, learnRate * (-deriValue - regBias * negItemBiasValue));
-                loss += regBias * (posItemBiasValue * posItemBiasValue + negItemBiasValue * negItemBiasValue);
-
-                // update user/item vectors
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = userFactors.get(userIdx, factorIdx);
-                    double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
-                    double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
-
-                    userFactors.add(userIdx, factorIdx, learnRate * (deriValue * (posItemFactorValue - negItemFactorValue) - regUser * userFactorValue));
-                    itemFactors.add(posItemIdx, factorIdx, learnRate * (deriValue * userFactorValue - regItem * posItemFactorValue));
-                    itemFactors.add(negItemIdx, factorIdx, learnRate * (deriValue * (-userFactorValue) - regItem * negItemFactorValue));
-
-                    loss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue + regItem * negItemFactorValue * negItemFactorValue;
-                }
-            }
+            loss = samplingEngine.run(numUsers * 100, updater, 0.0d);
             if (isConverged(iter) && earlyStop) {
                 break;
             }
@@ -176,6 +95,54 @@ public class WBPRRecommender extends MatrixFactorizationRecommender {
         }
     }
 
+    /**
+     * randomly draw (userIdx, posItemIdx, negItemIdx) and update the parameters.
+     *
+     * @param random random generator of the current thread
+     * @param loss   the loss accumulated so far
+     * @return the loss plus the loss of the sample
+     * @throws LibrecException if error occurs during predicting
+     */
+    private double updateSample(Random random, double loss) throws LibrecException {
+        // randomly draw (userIdx, posItemIdx, negItemIdx)
+        int userIdx;
+        do {
+            userIdx = random.nextInt(numUsers);
+        } while (userItemsAdjacency.size(userIdx) == 0 || !negativeSampler.hasNegative(userIdx));
+        int posItemIdx = userItemsAdjacency.random(userIdx, random);
+        // sample j by popularity (probability)
+        int negItemIdx = negativeSampler.sample(userIdx, random);
+
+        // update parameters
+        double posPredictRating = predict(userIdx, posItemIdx);
+        double negPredictRating = predict(userIdx, negItemIdx);
+        double diffValue = posPredictRating - negPredictRating;
+
+        double lossValue = -Math.log(Maths.logistic(diffValue));
+        loss += lossValue;
+        double deriValue = Maths.logistic(-diffValue);
+
+        // update bias
+        double posItemBiasValue = itemBiases.get(posItemIdx), negItemBiasValue = itemBiases.get(negItemIdx);
+        itemBiases.add(posItemIdx, learnRate * (deriValue - regBias * posItemBiasValue));
+        itemBiases.add(negItemIdx, learnRate * (-deriValue - regBias * negItemBiasValue));
+        loss += regBias * (posItemBiasValue * posItemBiasValue + negItemBiasValue * negItemBiasValue);
+
+        // update user/item vectors
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            double userFactorValue = userFactors.get(userIdx, factorIdx);
+            double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
+            double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
+
+            userFactors.add(userIdx, factorIdx, learnRate * (deriValue * (posItemFactorValue - negItemFactorValue) - regUser * userFactorValue));
+            itemFactors.add(posItemIdx, factorIdx, learnRate * (deriValue * userFactorValue - regItem * posItemFactorValue));
+            itemFactors.add(negItemIdx, factorIdx, learnRate * (deriValue * (-userFactorValue) - regItem * negItemFactorValue));
+
+            loss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue + regItem * negItemFactorValue * negItemFactorValue;
+        }
+        return loss;
+    }
+
     /**
      * predict a specific rating for user userIdx on item itemIdx.
      *
@@ -188,41 +155,15 @@ public class WBPRRecommender extends MatrixFactorizationRecommender {
         return itemBiases.get(itemIdx) + DenseMatrix.rowMult(userFactors, userIdx, itemFactors, itemIdx);
     }
 
-    /**
-     * cache each user's candidate items with probabilities
-     *
-     * @return cache each user's candidate items with probabilities
-     */
-    private LoadingCache<Integer, List<Map.Entry<Integer, Double>>> getCacheItemProbs() {
-        LoadingCache<Integer, List<Map.Entry<Integer, Double>>> cache = CacheBuilder.from(cacheSpec).build(new CacheLoader<Integer, List<Map.Entry<Integer, Double>>>() {
+    @Override
+    protected void addScoringTerms(int userIdx, int fromItem, int toItem, double[] scores) throws LibrecException {
+        for (int itemIdx = fromItem; itemIdx < toItem; itemIdx++) {
+            scores[itemIdx - fromItem] += itemBiases.get(itemIdx);
+        }
+    }
 
-            @Override
-            public List<Map.Entry<Integer, Double>> load(Integer u) throws Exception {
-                List<Map.Entry<Integer, Double>> itemProbs = new ArrayList<>();
-
-                Set<Integer> ratedItemsSet = userItemsSet.get(u);
-
-                // filter candidate items
-                double sum = 0;
-                for (Map.Entry<Integer, Double> itemPop : sortedItemPops) {
-                    Integer itemIdx = itemPop.getKey();
-                    double popularity = itemPop.getValue();
-
-                    if (!ratedItemsSet.contains(itemIdx) && popularity > 0) {
-                        // make a clone to prevent bugs from normalization
-                        itemProbs.add(itemPop);
-                        sum += popularity;
-                    }
-                }
-
-                // normalization
-                for (Map.Entry<Integer, Double> itemProb : itemProbs) {
-                    itemProb.setValue(itemProb.getValue() / sum);
-                }
-
-                return itemProbs;
-            }
-        });
-        return cache;
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
     }
 }
@@ -23,7 +23,8 @@ import net.librec.math.structure.*;
 import net.librec.recommender.MatrixFactorizationRecommender;
 
 import java.util.Date;
-import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * <h3>WRMF: Weighted Regularized Matrix Factorization.</h3>
@@ -33,144 +34,305 @@ import java.util.List;
  * <li><strong>Binary ratings:</strong> Pan et al., One-class Collaborative Filtering, ICDM 2008.</li>
  * <li><strong>Real ratings:</strong> Hu et al., Collaborative filtering for implicit feedback datasets, ICDM 2008.</li>
  * </ul>
+ * <p>
+ * Each least square step only walks the nonzero entries of a row (or column) of the
+ * training matrix, and is solved by a Cholesky decomposition in per-thread buffers.
+ * The rows are solved in parallel with {@code rec.thread.count} threads; every row is
+ * computed the same way whatever the number of threads, so the factors do not depend on it.
  *
  * @author guoguibing and Keqiang Wang
  */
 @ModelData({"isRanking", "wrmf", "userFactors", "itemFactors", "trainMatrix"})
 public class WRMFRecommender extends MatrixFactorizationRecommender {
+    /**
+     * the number of rows of a block is at most numRows / (numThreads * BLOCKS_PER_THREAD)
+     */
+    private static final int BLOCKS_PER_THREAD = 16;
+
     /**
      * confidence weight coefficient
      */
     protected float weightCoefficient;
 
     /**
-     * confindence Minus Identity Matrix{ui} = confidenceMatrix_{ui} - 1 =alpha * r_{ui} or log(1+10^alpha * r_{ui})
+     * confindence Minus Identity Matrix{ui} = confidenceMatrix_{ui} - 1 =alpha * r_{ui} or log(1+10^alpha * r_{ui}),
+     * sharing the structure of the training matrix
      */
     protected SparseMatrix confindenceMinusIdentityMatrix;
 
     /**
-     * preferenceMatrix_{ui} = 1 if {@code r_{ui}>0 or preferenceMatrix_{ui} = 0}
+     * the number of threads solving the least squares
+     */
+    protected int numThreads;
+
+    /**
+     * k x k matrix, k vector and k factor row buffers of each thread
      */
-    protected SparseMatrix preferenceMatrix;
+    private final ThreadLocal<double[][]> buffers = new ThreadLocal<double[][]>() {
+        @Override
+        protected double[][] initialValue() {
+            return new double[][]{new double[numFactors * numFactors], new double[numFactors], new double[numFactors]};
+        }
+    };
 
     @Override
     protected void setup() throws LibrecException {
         super.setup();
         weightCoefficient = conf.getFloat("rec.wrmf.weight.coefficient", 4.0f);
+        numThreads = conf.getInt("rec.thread.count", Runtime.getRuntime().availableProcessors());
+        if (numThreads <= 0) {
+            numThreads = Runtime.getRuntime().availableProcessors();
+        }
 
-        confindenceMinusIdentityMatrix = new SparseMatrix(trainMatrix);
-        preferenceMatrix = new SparseMatrix(trainMatrix);
-        for (MatrixEntry matrixEntry : trainMatrix) {
-            int userIdx = matrixEntry.row();
-            int itemIdx = matrixEntry.column();
-//            confindenceMinusIdentityMatrix.set(userIdx, itemIdx, alpha * matrixEntry.get());
-            confindenceMinusIdentityMatrix.set(userIdx, itemIdx, Math.log(1.0 + Math.pow(10, weightCoefficient) * matrixEntry.get())); //maybe better for poi recommender
-            preferenceMatrix.set(userIdx, itemIdx, 1.0d);
+        confindenceMinusIdentityMatrix = confidenceMinusIdentity(trainMatrix, weightCoefficient);
+    }
+
+    /**
+     * @param trainMatrix       training matrix
+     * @param weightCoefficient confidence weight coefficient
+     * @return the confidences minus one of the entries of the training matrix, with its structure
+     */
+    static SparseMatrix confidenceMinusIdentity(SparseMatrix trainMatrix, double weightCoefficient) {
+        // the copy keeps the CRS and CCS structures of trainMatrix, so the values are set in place
+        SparseMatrix confindenceMinusIdentityMatrix = new SparseMatrix(trainMatrix);
+        double scale = Math.pow(10, weightCoefficient);
+        for (int index = 0; index < trainMatrix.rowData.length; index++) {
+//            confindenceMinusIdentityMatrix.rowData[index] = alpha * trainMatrix.rowData[index];
+            confindenceMinusIdentityMatrix.rowData[index] = Math.log(1.0 + scale * trainMatrix.rowData[index]); //maybe better for poi recommender
         }
+        for (int index = 0; index < trainMatrix.colData.length; index++) {
+            confindenceMinusIdentityMatrix.colData[index] = Math.log(1.0 + scale * trainMatrix.colData[index]);
+        }
+        return confindenceMinusIdentityMatrix;
     }
 
     @Override
     protected void trainModel() throws LibrecException {
+        ForkJoinPool pool = numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+        try {
+            // Updating by using alternative least square (ALS)
+            // due to large amount of entries to be processed (SGD will be too slow)
+            for (int iter = 1; iter <= numIterations; iter++) {
+                updateFactors(pool);
 
-        SparseMatrix userIdentityMatrix = DiagMatrix.eye(numFactors).scale(regUser);
-        SparseMatrix itemIdentityMatrix = DiagMatrix.eye(numFactors).scale(regItem);
+                if (verbose) {
+                    LOG.info(getClass()+" runs at iteration = "+iter+" "+new Date());
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
 
+    /**
+     * Update the user factors with the item factors fixed, then the item factors with the user factors fixed.
+     *
+     * @param pool fork join pool, or null to solve on the calling thread
+     * @throws LibrecException if a least square can not be solved
+     */
+    void updateFactors(ForkJoinPool pool) throws LibrecException {
         // To be consistent with the symbols in the paper
         DenseMatrix X = userFactors, Y = itemFactors;
-        // Updating by using alternative least square (ALS)
-        // due to large amount of entries to be processed (SGD will be too slow)
-        for (int iter = 1; iter <= numIterations; iter++) {
-            // Step 1: update user factors;
-            DenseMatrix Yt = Y.transpose();
-            DenseMatrix YtY = Yt.mult(Y);
-            for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-
-                DenseMatrix YtCuI = new DenseMatrix(numFactors, numItems);//actually YtCuI is a sparse matrix
-                //Yt * (Cu-itemIdx)
-                List<Integer> itemList = trainMatrix.getColumns(userIdx);
-                for (int itemIdx : itemList) {
-                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        YtCuI.set(factorIdx, itemIdx, Y.get(itemIdx, factorIdx) * confindenceMinusIdentityMatrix.get(userIdx, itemIdx));
-                    }
-                }
 
-                // YtY + Yt * (Cu - itemIdx) * Y
-                DenseMatrix YtCuY = new DenseMatrix(numFactors, numFactors);
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    for (int factorIdxIn = 0; factorIdxIn < numFactors; factorIdxIn++) {
-                        double value = 0.0;
-                        for (int itemIdx : itemList) {
-                            value += YtCuI.get(factorIdx, itemIdx) * Y.get(itemIdx, factorIdxIn);
-                        }
-                        YtCuY.set(factorIdx, factorIdxIn, value);
-                    }
-                }
-                YtCuY.addEqual(YtY);
-                // (YtCuY + lambda * itemIdx)^-1
-                //lambda * itemIdx can be pre-difined because every time is the same.
-                DenseMatrix Wu = (YtCuY.add(userIdentityMatrix)).inv();
-                // Yt * (Cu - itemIdx) * Pu + Yt * Pu
-                DenseVector YtCuPu = new DenseVector(numFactors);
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    for (int itemIdx : itemList) {
-                        YtCuPu.add(factorIdx, preferenceMatrix.get(userIdx, itemIdx) * (YtCuI.get(factorIdx, itemIdx) + Yt.get(factorIdx, itemIdx)));
-                    }
-                }
+        // Step 1: update user factors;
+        double[] YtY = gram(Y);
+        solve(pool, new LeastSquares(X, Y, YtY, regUser, trainMatrix.rowPtr, trainMatrix.colInd,
+                trainMatrix.rowData, confindenceMinusIdentityMatrix.rowData));
 
-                DenseVector xu = Wu.mult(YtCuPu);
-                // udpate user factors
-                X.setRow(userIdx, xu);
+        // Step 2: update item factors;
+        double[] XtX = gram(X);
+        solve(pool, new LeastSquares(Y, X, XtX, regItem, trainMatrix.colPtr, trainMatrix.rowInd,
+                trainMatrix.colData, confindenceMinusIdentityMatrix.colData));
+    }
+
+    /**
+     * Solve the least squares of all rows, in parallel if a pool is given.
+     *
+     * @param pool          fork join pool, or null to solve on the calling thread
+     * @param leastSquares  least squares to solve
+     * @throws LibrecException if a least square can not be solved
+     */
+    private void solve(ForkJoinPool pool, LeastSquares leastSquares) throws LibrecException {
+        int numRows = leastSquares.solvedFactors.numRows();
+        if (pool == null) {
+            leastSquares.solve(0, numRows);
+            return;
+        }
+
+        int blockSize = Math.max(1, numRows / (numThreads * BLOCKS_PER_THREAD));
+        try {
+            pool.invoke(new SolveTask(leastSquares, 0, numRows, blockSize));
+        } catch (RuntimeException e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof LibrecException) {
+                    throw (LibrecException) cause;
+                }
             }
+            throw e;
+        }
+    }
 
-            // Step 2: update item factors;
-            DenseMatrix Xt = X.transpose();
-            DenseMatrix XtX = Xt.mult(X);
+    /**
+     * @param factors factor matrix F
+     * @return F^t * F, row by row
+     */
+    private double[] gram(DenseMatrix factors) {
+        double[] gram = new double[numFactors * numFactors];
+        DenseMatrix product = factors.transMult();
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            product.copyRow(factorIdx, gram, factorIdx * numFactors);
+        }
+        return gram;
+    }
 
-            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+    /**
+     * The least squares updating the rows of one factor matrix with the other one fixed:
+     * (FtF + Ft * (Cu - I) * F + lambda * I) * x_u = Ft * Cu * Pu for every row u, where
+     * only the nonzero entries of row u of the training matrix contribute to Ft * (Cu - I) * F
+     * and Ft * Cu * Pu.
+     */
+    private class LeastSquares {
+        private final DenseMatrix solvedFactors, fixedFactors;
+        private final double[] gram;
+        private final double regularization;
+        private final int[] ptr, idx;
+        private final double[] ratings, confidences;
 
+        LeastSquares(DenseMatrix solvedFactors, DenseMatrix fixedFactors, double[] gram, double regularization,
+                     int[] ptr, int[] idx, double[] ratings, double[] confidences) {
+            this.solvedFactors = solvedFactors;
+            this.fixedFactors = fixedFactors;
+            this.gram = gram;
+            this.regularization = regularization;
+            this.ptr = ptr;
+            this.idx = idx;
+            this.ratings = ratings;
+            this.confidences = confidences;
+        }
 
-                DenseMatrix XtCiI = new DenseMatrix(numFactors, numUsers);
-                //actually XtCiI is a sparse matrix
-                //Xt * (Ci-itemIdx)
-                List<Integer> userList = trainMatrix.getRows(itemIdx);
-                for (int userIdx : userList) {
-                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        XtCiI.set(factorIdx, userIdx, X.get(userIdx, factorIdx) * confindenceMinusIdentityMatrix.get(userIdx, itemIdx));
-                    }
+        /**
+         * Solve the rows in [fromRow, toRow).
+         *
+         * @param fromRow the first row, inclusive
+         * @param toRow   the last row, exclusive
+         * @throws LibrecException if a least square can not be solved
+         */
+        void solve(int fromRow, int toRow) throws LibrecException {
+            double[][] buffer = buffers.get();
+            double[] A = buffer[0], b = buffer[1], fixedRow = buffer[2];
+            for (int rowIdx = fromRow; rowIdx < toRow; rowIdx++) {
+                System.arraycopy(gram, 0, A, 0, A.length);
+                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                    A[factorIdx * numFactors + factorIdx] += regularization;
+                    b[factorIdx] = 0.0;
                 }
 
-                // XtX + Xt * (Ci - itemIdx) * X
-                DenseMatrix XtCiX = new DenseMatrix(numFactors, numFactors);
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    for (int factorIdxIn = 0; factorIdxIn < numFactors; factorIdxIn++) {
-                        double value = 0.0;
-                        for (int userIdx : userList) {
-                            value += XtCiI.get(factorIdx, userIdx) * X.get(userIdx, factorIdxIn);
+                // FtF + Ft * (Cu - I) * F and Ft * Cu * Pu over the nonzero entries, upper triangle only
+                for (int index = ptr[rowIdx]; index < ptr[rowIdx + 1]; index++) {
+                    if (ratings[index] == 0.0) {
+                        continue;
+                    }
+                    double confidence = confidences[index];
+                    fixedFactors.copyRow(idx[index], fixedRow, 0);
+                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                        double value = fixedRow[factorIdx] * confidence;
+                        for (int factorIdxIn = factorIdx, offset = factorIdx * numFactors + factorIdx; factorIdxIn < numFactors; factorIdxIn++, offset++) {
+                            A[offset] += value * fixedRow[factorIdxIn];
                         }
-                        XtCiX.set(factorIdx, factorIdxIn, value);
+                        b[factorIdx] += value + fixedRow[factorIdx];
                     }
                 }
-                XtCiX.addEqual(XtX);
 
-                // (XtCuX + lambda * itemIdx)^-1
-                //lambda * itemIdx can be pre-difined because every time is the same.
-                DenseMatrix Wi = (XtCiX.add(itemIdentityMatrix)).inv();
-                // Xt * (Ci - itemIdx) * Pu + Xt * Pu
-                DenseVector XtCiPu = new DenseVector(numFactors);
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    for (int userIdx : userList) {
-                        XtCiPu.add(factorIdx, preferenceMatrix.get(userIdx, itemIdx) * (XtCiI.get(factorIdx, userIdx) + Xt.get(factorIdx, userIdx)));
+                choleskySolve(A, b);
+                solvedFactors.setRow(rowIdx, new DenseVector(b, false));
+            }
+        }
+
+        /**
+         * Solve A * x = b in place by a Cholesky decomposition A = L * Lt, reading only the
+         * upper triangle of A. L is stored transposed in the upper triangle, and b is
+         * overwritten by x.
+         *
+         * @param A symmetric positive definite matrix, row by row
+         * @param b right hand side
+         * @throws LibrecException if A is not positive definite
+         */
+        private void choleskySolve(double[] A, double[] b) throws LibrecException {
+            int n = numFactors;
+            for (int j = 0; j < n; j++) {
+                double diagonal = A[j * n + j];
+                for (int k = 0; k < j; k++) {
+                    double lkj = A[k * n + j];
+                    diagonal -= lkj * lkj;
+                }
+                if (!(diagonal > 0.0)) {
+                    throw new LibrecException("WRMF least square is not positive definite, try a positive regularization");
+                }
+                diagonal = Math.sqrt(diagonal);
+                A[j * n + j] = diagonal;
+                for (int i = j + 1; i < n; i++) {
+                    double value = A[j * n + i];
+                    for (int k = 0; k < j; k++) {
+                        value -= A[k * n + j] * A[k * n + i];
                     }
+                    A[j * n + i] = value / diagonal;
                 }
-
-                DenseVector yi = Wi.mult(XtCiPu);
-                // udpate item factors
-                Y.setRow(itemIdx, yi);
             }
+            // L * y = b
+            for (int i = 0; i < n; i++) {
+                double value = b[i];
+                for (int k = 0; k < i; k++) {
+                    value -= A[k * n + i] * b[k];
+                }
+                b[i] = value / A[i * n + i];
+            }
+            // Lt * x = y
+            for (int i = n - 1; i >= 0; i--) {
+                double value = b[i];
+                for (int k = i + 1; k < n; k++) {
+                    value -= A[i * n + k] * b[k];
+                }
+                b[i] = value / A[i * n + i];
+            }
+        }
+    }
 
-            if (verbose) {
-                LOG.info(getClass()+" runs at iteration = "+iter+" "+new Date());
+    /**
+     * Recursively split a range of rows into blocks.
+     */
+    private static class SolveTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final LeastSquares leastSquares;
+        private final int fromRow, toRow, blockSize;
+
+        SolveTask(LeastSquares leastSquares, int fromRow, int toRow, int blockSize) {
+            this.leastSquares = leastSquares;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.blockSize = blockSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow <= blockSize) {
+                try {
+                    leastSquares.solve(fromRow, toRow);
+                } catch (LibrecException e) {
+                    throw new RuntimeException(e);
+                }
+            } else {
+                int middle = (fromRow + toRow) >>> 1;
+                invokeAll(new SolveTask(leastSquares, fromRow, middle, blockSize),
+                        new SolveTask(leastSquares, middle, toRow, blockSize));
             }
         }
     }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
+    }
 }
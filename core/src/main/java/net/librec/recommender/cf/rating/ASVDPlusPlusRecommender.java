@@ -19,123 +19,229 @@ package net.librec.recommender.cf.rating;
 
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseMatrix;
-import net.librec.math.structure.MatrixEntry;
-import net.librec.math.structure.SparseMatrix;
-
-import java.util.ArrayList;
-import java.util.List;
+import net.librec.math.structure.IndexAdjacency;
+import net.librec.recommender.ImplicitFactorSums;
 
 /**
  * Yehuda Koren, <strong>Factorization Meets the Neighborhood: a Multifaceted
  * Collaborative Filtering Model.</strong>, KDD 2008. Asymmetric SVD++
  * Recommender
+ * <p>
+ * The implicit and the neighborhood factors of the items rated by a user are updated with
+ * each rating of the user. With {@code rec.implicit.peruser} their gradients are summed over
+ * the ratings of the user and applied once per user instead.
  *
  * @author Bin Wu(wubin@gs.zzu.edu.cn)
  */
 public class ASVDPlusPlusRecommender extends BiasedMFRecommender {
 
     protected DenseMatrix impItemFactors, neiItemFactors;
+
+    /**
+     * items rated by each user
+     */
+    protected IndexAdjacency userItemsAdjacency;
+
     /**
-     * user items list
+     * normalized sums of the implicit factors and of the neighborhood factors weighted by
+     * the rating residuals r_uj - mu - b_u - b_j of the items rated by each user, as predicted
      */
-    protected List<List<Integer>> userItemsList;
+    protected ImplicitFactorSums impItemSums, neiItemSums;
 
     protected void setup() throws LibrecException {
         super.setup();
         impItemFactors = new DenseMatrix(numItems, numFactors);
-        impItemFactors.init(initMean, initStd);
+        initFactors(impItemFactors);
         neiItemFactors = new DenseMatrix(numItems, numFactors);
-        neiItemFactors.init(initMean, initStd);
-        userItemsList = getUserItemsList(trainMatrix);
+        initFactors(neiItemFactors);
+        userItemsAdjacency = trainMatrix.rowAdjacency();
+        impItemSums = new ImplicitFactorSums(userItemsAdjacency, impItemFactors, numUsers);
+        neiItemSums = new ImplicitFactorSums(userItemsAdjacency, neiItemFactors, numUsers) {
+            @Override
+            protected double weight(int userIdx, int itemIdx) {
+                return residual(userIdx, itemIdx);
+            }
+        };
     }
 
     @Override
     protected void trainModel() throws LibrecException {
+        double[] sumImpItemsFactors = new double[numFactors];
+        double[] predictNeiItemsFactors = new double[numFactors];
+        double[] sumNeiItemsFactors = new double[numFactors];
+        double[] sumNeiBiasesFactors = new double[numFactors];
+        double[] gradient = new double[numFactors];
+        double[] residualGradient = new double[numFactors];
 
         for (int iter = 1; iter <= numIterations; iter++) {
             loss = 0.0d;
 
-            for (MatrixEntry matrixEntry : trainMatrix) {
-
-                int userIdx = matrixEntry.row();
-                int itemIdx = matrixEntry.column();
-                double realRating = matrixEntry.get();
-
-                double predictRating = predict(userIdx, itemIdx);
-                double error = realRating - predictRating;
-                List<Integer> items = userItemsList.get(userIdx);
-                double impNor = Math.sqrt(items.size());
-
-                // update factors
-                double userBiasValue = userBiases.get(userIdx);
-                userBiases.add(userIdx, learnRate * (error - regBias * userBiasValue));
-
-                double itemBiasValue = itemBiases.get(itemIdx);
-                itemBiases.add(itemIdx, learnRate * (error - regBias * itemBiasValue));
-
-                double[] sumImpItemsFactors = new double[numFactors];
-                double[] sumNeiItemsFactors = new double[numFactors];
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double sumImpItemsFactor = 0;
-                    double sumNeiItemsFactor = 0;
-                    for (int ItemIdx : items) {
-                        sumImpItemsFactor += impItemFactors.get(ItemIdx, factorIdx);
-                        sumNeiItemsFactor += neiItemFactors.get(ItemIdx, factorIdx)
-                                * (realRating - globalMean - userBiases.get(userIdx) - itemBiases.get(ItemIdx));
-                    }
-                    sumImpItemsFactors[factorIdx] = impNor > 0 ? sumImpItemsFactor / impNor : sumImpItemsFactor;
-                    sumNeiItemsFactors[factorIdx] = impNor > 0 ? sumNeiItemsFactor / impNor : sumNeiItemsFactor;
+            for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+                int from = trainMatrix.rowPtr[userIdx], to = trainMatrix.rowPtr[userIdx + 1];
+                if (from == to) {
+                    continue;
                 }
+                double impNor = impItemSums.norm(userIdx);
+
+                for (int entry = from; entry < to; entry++) {
+                    int itemIdx = trainMatrix.colInd[entry];
+                    double realRating = trainMatrix.rowData[entry];
+
+                    // the implicit and neighborhood factors change with each rating, or once per user
+                    if (!implicitPerUser || entry == from) {
+                        impItemSums.compute(userIdx, sumImpItemsFactors);
+                        neiItemSums.compute(userIdx, predictNeiItemsFactors);
+                        sumNeighborhoodFactors(userIdx, sumNeiItemsFactors, sumNeiBiasesFactors);
+                    }
+
+                    double predictRating = globalMean + userBiases.get(userIdx) + itemBiases.get(itemIdx);
+                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                        predictRating += (userFactors.get(userIdx, factorIdx) + sumImpItemsFactors[factorIdx] + predictNeiItemsFactors[factorIdx])
+                                * itemFactors.get(itemIdx, factorIdx);
+                    }
+                    double error = realRating - predictRating;
+
+                    // update factors
+                    double userBiasValue = userBiases.get(userIdx);
+                    userBiases.add(userIdx, learnRate * (error - regBias * userBiasValue));
+
+                    double itemBiasValue = itemBiases.get(itemIdx);
+                    itemBiases.add(itemIdx, learnRate * (error - regBias * itemBiasValue));
+
+                    // the neighborhood factors are weighted by r_ui - mu - b_u - b_j in training
+                    double residual = realRating - globalMean - userBiases.get(userIdx);
+
+                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                        double userFactorIdx = userFactors.get(userIdx, factorIdx);
+                        double itemFactorIdx = itemFactors.get(itemIdx, factorIdx);
+                        double sumNeiItemsFactor = residual * sumNeiItemsFactors[factorIdx] - sumNeiBiasesFactors[factorIdx];
+
+                        double sgd_user = error * itemFactorIdx - regUser * userFactorIdx;
+                        double sgd_item = error
+                                * (userFactorIdx + sumImpItemsFactors[factorIdx] + sumNeiItemsFactor)
+                                - regItem * itemFactorIdx;
 
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorIdx = userFactors.get(userIdx, factorIdx);
-                    double itemFactorIdx = itemFactors.get(itemIdx, factorIdx);
-
-                    double sgd_user = error * itemFactorIdx - regUser * userFactorIdx;
-                    double sgd_item = error
-                            * (userFactorIdx + sumImpItemsFactors[factorIdx] + sumNeiItemsFactors[factorIdx])
-                            - regItem * itemFactorIdx;
-
-                    userFactors.add(userIdx, factorIdx, learnRate * sgd_user);
-                    itemFactors.add(itemIdx, factorIdx, learnRate * sgd_item);
-                    for (int ImpitemIdx : items) {
-                        double impItemFactorIdx = impItemFactors.get(ImpitemIdx, factorIdx);
-                        double neiItemFactorIdx = neiItemFactors.get(ImpitemIdx, factorIdx);
-                        double delta_impItem = error * itemFactorIdx / impNor - regUser * impItemFactorIdx;
-                        double delta_neiItem = error * itemFactorIdx
-                                * (realRating - globalMean - userBiases.get(userIdx) - itemBiases.get(ImpitemIdx)) / impNor
-                                - regUser * neiItemFactorIdx;
-                        impItemFactors.add(ImpitemIdx, factorIdx, learnRate * delta_impItem);
-                        neiItemFactors.add(ImpitemIdx, factorIdx, learnRate * delta_neiItem);
+                        userFactors.add(userIdx, factorIdx, learnRate * sgd_user);
+                        itemFactors.add(itemIdx, factorIdx, learnRate * sgd_item);
+
+                        gradient[factorIdx] += error * itemFactorIdx / impNor;
+                        residualGradient[factorIdx] += error * itemFactorIdx * residual / impNor;
+                    }
+
+                    if (!implicitPerUser) {
+                        updateImplicitFactors(userIdx, gradient, residualGradient);
                     }
                 }
 
+                if (implicitPerUser) {
+                    updateImplicitFactors(userIdx, gradient, residualGradient);
+                }
+            }
+            impItemSums.invalidate();
+            neiItemSums.invalidate();
+        }
+    }
+
+    /**
+     * Compute the normalized sums of the neighborhood factors of the items rated by a user, and of
+     * these factors weighted by the item biases, so that the sum weighted by r_ui - mu - b_u - b_j
+     * is {@code (r_ui - mu - b_u) * sum - biasesSum}.
+     *
+     * @param userIdx   user index
+     * @param sum       output sum of the neighborhood factors
+     * @param biasesSum output sum of the neighborhood factors weighted by the item biases
+     */
+    private void sumNeighborhoodFactors(int userIdx, double[] sum, double[] biasesSum) {
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            sum[factorIdx] = 0.0;
+            biasesSum[factorIdx] = 0.0;
+        }
+        for (int position = userItemsAdjacency.start(userIdx); position < userItemsAdjacency.end(userIdx); position++) {
+            int neiItemIdx = userItemsAdjacency.get(position);
+            double itemBiasValue = itemBiases.get(neiItemIdx);
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                double neiItemFactorIdx = neiItemFactors.get(neiItemIdx, factorIdx);
+                sum[factorIdx] += neiItemFactorIdx;
+                biasesSum[factorIdx] += itemBiasValue * neiItemFactorIdx;
+            }
+        }
+        double impNor = impItemSums.norm(userIdx);
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            sum[factorIdx] /= impNor;
+            biasesSum[factorIdx] /= impNor;
+        }
+    }
+
+    /**
+     * Update the implicit and the neighborhood factors of the items rated by a user, and reset their gradients.
+     *
+     * @param userIdx          user index
+     * @param gradient         gradient of the implicit factors, reset to zero
+     * @param residualGradient gradient of the neighborhood factors before the item biases, i.e. the gradient of
+     *                         the implicit factors weighted by r_ui - mu - b_u, reset to zero
+     */
+    private void updateImplicitFactors(int userIdx, double[] gradient, double[] residualGradient) {
+        for (int position = userItemsAdjacency.start(userIdx); position < userItemsAdjacency.end(userIdx); position++) {
+            int impItemIdx = userItemsAdjacency.get(position);
+            double itemBiasValue = itemBiases.get(impItemIdx);
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                double impItemFactorIdx = impItemFactors.get(impItemIdx, factorIdx);
+                double neiItemFactorIdx = neiItemFactors.get(impItemIdx, factorIdx);
+                double delta_impItem = gradient[factorIdx] - regUser * impItemFactorIdx;
+                double delta_neiItem = residualGradient[factorIdx] - itemBiasValue * gradient[factorIdx]
+                        - regUser * neiItemFactorIdx;
+                impItemFactors.add(impItemIdx, factorIdx, learnRate * delta_impItem);
+                neiItemFactors.add(impItemIdx, factorIdx, learnRate * delta_neiItem);
             }
         }
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            gradient[factorIdx] = 0.0;
+            residualGradient[factorIdx] = 0.0;
+        }
     }
 
+    /**
+     * @param userIdx user index
+     * @param itemIdx index of an item rated by the user
+     * @return the residual r_uj - mu - b_u - b_j of the rating
+     */
+    private double residual(int userIdx, int itemIdx) {
+        return trainMatrix.get(userIdx, itemIdx) - globalMean - userBiases.get(userIdx) - itemBiases.get(itemIdx);
+    }
 
     @Override
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
-        double predictRating = globalMean + userBiases.get(userIdx) + itemBiases.get(itemIdx)
-                + DenseMatrix.rowMult(userFactors, userIdx, itemFactors, itemIdx);
-
-        List<Integer> items = userItemsList.get(userIdx);
-        double w = Math.sqrt(items.size());
-        for (int k : items) {
-            predictRating += DenseMatrix.rowMult(impItemFactors, k, itemFactors, itemIdx) / w;
-            predictRating += neiItemFactors.row(k)
-                    .scale(trainMatrix.get(userIdx, k) - globalMean - userBiases.get(userIdx) - itemBiases.get(k))
-                    .inner(itemFactors.row(itemIdx)) / w;
+        double predictRating = globalMean + userBiases.get(userIdx) + itemBiases.get(itemIdx);
+
+        double[] userImpFactor = impItemSums.get(userIdx);
+        double[] userNeiFactor = neiItemSums.get(userIdx);
+        double product = 0.0;
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            product += (userFactors.get(userIdx, factorIdx) + userImpFactor[factorIdx] + userNeiFactor[factorIdx])
+                    * itemFactors.get(itemIdx, factorIdx);
+        }
+        return predictRating + product;
+    }
+
+    @Override
+    protected void userScoringFactors(int userIdx, double[] factors) throws LibrecException {
+        double[] userImpFactor = impItemSums.get(userIdx);
+        double[] userNeiFactor = neiItemSums.get(userIdx);
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            factors[factorIdx] = userFactors.get(userIdx, factorIdx) + userImpFactor[factorIdx] + userNeiFactor[factorIdx];
         }
-        return predictRating;
     }
 
-    private List<List<Integer>> getUserItemsList(SparseMatrix sparseMatrix) {
-        List<List<Integer>> userItemsList = new ArrayList<>();
-        for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            userItemsList.add(sparseMatrix.getColumns(userIdx));
+    @Override
+    protected void addScoringTerms(int userIdx, int fromItem, int toItem, double[] scores) throws LibrecException {
+        double userBias = userBiases.get(userIdx);
+        for (int itemIdx = fromItem; itemIdx < toItem; itemIdx++) {
+            scores[itemIdx - fromItem] = globalMean + userBias + itemBiases.get(itemIdx) + scores[itemIdx - fromItem];
         }
-        return userItemsList;
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
+    }
+}
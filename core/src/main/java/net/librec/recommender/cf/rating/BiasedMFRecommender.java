@@ -21,15 +21,15 @@ import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.DenseVector;
-import net.librec.math.structure.MatrixEntry;
 import net.librec.recommender.MatrixFactorizationRecommender;
+import net.librec.recommender.SGDEngine;
 
 /**
  * Biased Matrix Factorization Recommender
  *
  * @author GuoGuibing and Keqiang Wang
  */
-@ModelData({"isRating", "biasedMF", "userFactors", "itemFactors", "userBiases", "itemBiases"})
+@ModelData({"isRating", "biasedMF", "userFactors", "itemFactors", "userBiases", "itemBiases", "globalMean"})
 public class BiasedMFRecommender extends MatrixFactorizationRecommender {
     /**
      * bias regularization
@@ -66,38 +66,15 @@ public class BiasedMFRecommender extends MatrixFactorizationRecommender {
 
     @Override
     protected void trainModel() throws LibrecException {
-        for (int iter = 1; iter <= numIterations; iter++) {
-            loss = 0.0d;
-
-            for (MatrixEntry matrixEntry : trainMatrix) {
-
-                int userIdx = matrixEntry.row(); // user userIdx
-                int itemIdx = matrixEntry.column(); // item itemIdx
-                double realRating = matrixEntry.get(); // real rating on item itemIdx rated by user userIdx
-
-                double predictRating = predict(userIdx, itemIdx);
-                double error = realRating - predictRating;
-                loss += error * error;
-
-                // update user and item bias
-                double userBiasValue = userBiases.get(userIdx);
-                userBiases.add(userIdx, learnRate * (error - regBias * userBiasValue));
-                loss += regBias * userBiasValue * userBiasValue;
-
-                double itemBiasValue = itemBiases.get(itemIdx);
-                itemBiases.add(itemIdx, learnRate * (error - regBias * itemBiasValue));
-                loss += regBias * itemBiasValue * itemBiasValue;
-
-                //update user and item factors
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = userFactors.get(userIdx, factorIdx);
-                    double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
-
-                    userFactors.add(userIdx, factorIdx, learnRate * (error * itemFactorValue - regUser * userFactorValue));
-                    itemFactors.add(itemIdx, factorIdx, learnRate * (error * userFactorValue - regItem * itemFactorValue));
-                    loss += regUser * userFactorValue * userFactorValue + regItem * itemFactorValue * itemFactorValue;
-                }
+        SGDEngine sgdEngine = createSGDEngine();
+        SGDEngine.EntryUpdater updater = new SGDEngine.EntryUpdater() {
+            @Override
+            public double update(int userIdx, int itemIdx, double realRating, double loss) throws LibrecException {
+                return updateEntry(userIdx, itemIdx, realRating, loss);
             }
+        };
+        for (int iter = 1; iter <= numIterations; iter++) {
+            loss = sgdEngine.epoch(updater);
 
             loss *= 0.5d;
             if (isConverged(iter) && earlyStop) {
@@ -107,6 +84,42 @@ public class BiasedMFRecommender extends MatrixFactorizationRecommender {
         }
     }
 
+    /**
+     * update the biases and factors from the rating of user userIdx on item itemIdx.
+     *
+     * @param userIdx    user index
+     * @param itemIdx    item index
+     * @param realRating real rating on item itemIdx rated by user userIdx
+     * @param loss       the loss accumulated so far
+     * @return the loss plus the loss of the rating
+     * @throws LibrecException if error occurs during predicting
+     */
+    private double updateEntry(int userIdx, int itemIdx, double realRating, double loss) throws LibrecException {
+        double predictRating = predict(userIdx, itemIdx);
+        double error = realRating - predictRating;
+        loss += error * error;
+
+        // update user and item bias
+        double userBiasValue = userBiases.get(userIdx);
+        userBiases.add(userIdx, learnRate * (error - regBias * userBiasValue));
+        loss += regBias * userBiasValue * userBiasValue;
+
+        double itemBiasValue = itemBiases.get(itemIdx);
+        itemBiases.add(itemIdx, learnRate * (error - regBias * itemBiasValue));
+        loss += regBias * itemBiasValue * itemBiasValue;
+
+        //update user and item factors
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            double userFactorValue = userFactors.get(userIdx, factorIdx);
+            double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
+
+            userFactors.add(userIdx, factorIdx, learnRate * (error * itemFactorValue - regUser * userFactorValue));
+            itemFactors.add(itemIdx, factorIdx, learnRate * (error * userFactorValue - regItem * itemFactorValue));
+            loss += regUser * userFactorValue * userFactorValue + regItem * itemFactorValue * itemFactorValue;
+        }
+        return loss;
+    }
+
     /**
      * predict a specific rating for user userIdx on item itemIdx.
      *
@@ -119,4 +132,17 @@ public class BiasedMFRecommender extends MatrixFactorizationRecommender {
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
         return DenseMatrix.rowMult(userFactors, userIdx, itemFactors, itemIdx) + userBiases.get(userIdx) + itemBiases.get(itemIdx) + globalMean;
     }
+
+    @Override
+    protected void addScoringTerms(int userIdx, int fromItem, int toItem, double[] scores) throws LibrecException {
+        double userBias = userBiases.get(userIdx);
+        for (int itemIdx = fromItem; itemIdx < toItem; itemIdx++) {
+            scores[itemIdx - fromItem] = scores[itemIdx - fromItem] + userBias + itemBiases.get(itemIdx) + globalMean;
+        }
+    }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
+    }
 }
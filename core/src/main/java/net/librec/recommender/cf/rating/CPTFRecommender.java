@@ -63,8 +63,9 @@ public class CPTFRecommender extends TensorRecommender {
             // SGD Optimization
             loss = 0.0d;
             // Step 1: compute gradients
+            int[] keys = new int[numDimensions];
             for (TensorEntry trainTensorEntry : trainTensor) {
-                int[] keys = trainTensorEntry.keys();
+                trainTensorEntry.keys(keys);
                 double realRating = trainTensorEntry.get();
                 if (realRating <= 0)
                     continue;
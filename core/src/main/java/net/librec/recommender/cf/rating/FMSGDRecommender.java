@@ -20,17 +20,10 @@ package net.librec.recommender.cf.rating;
 
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
-import net.librec.math.algorithm.Maths;
-import net.librec.math.algorithm.Randoms;
-import net.librec.math.structure.SparseVector;
-import net.librec.math.structure.TensorEntry;
-import net.librec.math.structure.VectorEntry;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.recommender.FMEngine;
 import net.librec.recommender.FactorizationMachineRecommender;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ExecutionException;
-
 /**
  * Stochastic Gradient Descent with Square Loss
  * Rendle, Steffen, "Factorization Machines", Proceedings of the 10th IEEE International Conference on Data Mining, 2010
@@ -60,16 +53,36 @@ public class FMSGDRecommender extends FactorizationMachineRecommender {
     }
 
     private void buildRatingModel() throws LibrecException {
+        // the features of each rating, built once
+        SparseMatrix designMatrix = FMEngine.designMatrix(trainTensor, FMEngine.featureOffsets(trainTensor));
+        int[] rowPtr = designMatrix.rowPtr;
+        int[] colInd = designMatrix.colInd;
+        double[] rowData = designMatrix.rowData;
+        double[] sums = new double[k];
+
         for (int iter = 0; iter < numIterations; iter++) {
-            double loss = 0.0;
+            loss = 0.0;
 
-            for (TensorEntry me : trainTensor) {
-                int[] entryKeys = me.keys();
-                SparseVector x = tenserKeysToFeatureVector(entryKeys);
+            for (int sample = 0; sample < n; sample++) {
+                int from = rowPtr[sample], to = rowPtr[sample + 1];
 
-                double rate = me.get();
-                double pred = predict(x);
+                // prediction, keeping the sums of the factors for the gradients
+                double pred = w0;
+                for (int position = from; position < to; position++) {
+                    pred += rowData[position] * W.get(colInd[position]);
+                }
+                for (int f = 0; f < k; f++) {
+                    double sum = 0, sumOfSquares = 0;
+                    for (int position = from; position < to; position++) {
+                        double term = V.get(colInd[position], f) * rowData[position];
+                        sum += term;
+                        sumOfSquares += term * term;
+                    }
+                    sums[f] = sum;
+                    pred += (sum * sum - sumOfSquares) / 2;
+                }
 
+                double rate = trainTensor.value(sample);
                 double err = pred - rate;
                 loss += err * err;
                 double gradLoss = err;
@@ -84,12 +97,11 @@ public class FMSGDRecommender extends FactorizationMachineRecommender {
                 w0 += -learnRate * gradW0;
 
                 // 1-way interactions
-                for (int l = 0; l < p; l++) {
-                    if (!x.contains(l))
-                        continue;
+                for (int position = from; position < to; position++) {
+                    int l = colInd[position];
+                    double xl = rowData[position];
                     double oldWl = W.get(l);
-                    double hWl = x.get(l);
-                    double gradWl = gradLoss * hWl + regW * oldWl;
+                    double gradWl = gradLoss * xl + regW * oldWl;
                     W.add(l, -learnRate * gradWl);
 
                     loss += regW * oldWl * oldWl;
@@ -97,12 +109,7 @@ public class FMSGDRecommender extends FactorizationMachineRecommender {
                     // 2-way interactions
                     for (int f = 0; f < k; f++) {
                         double oldVlf = V.get(l, f);
-                        double hVlf = 0;
-                        double xl = x.get(l);
-                        for (int j = 0; j < p; j++) {
-                            if (j != l && x.contains(j))
-                                hVlf += xl * V.get(j, f) * x.get(j);
-                        }
+                        double hVlf = xl * (sums[f] - oldVlf * xl);
                         double gradVlf = gradLoss * hVlf + regF * oldVlf;
                         V.add(l, f, -learnRate * gradVlf);
                         loss += regF * oldVlf * oldVlf;
@@ -54,8 +54,10 @@ public class MFALSRecommender extends MatrixFactorizationRecommender {
                     }
                 }
 
+                if (M.numRows() == 0)
+                    continue;
                 // step 1:
-                DenseMatrix A = M.transpose().mult(M).add(identify.scale(regUser).scale(numitems));
+                DenseMatrix A = M.transMult().add(identify.scale(regUser).scale(numitems));
                 // step 2:
                 // ratings of this userIdx
                 DenseVector uservector = new DenseVector(numitems);
@@ -67,7 +69,7 @@ public class MFALSRecommender extends MatrixFactorizationRecommender {
                     }
                 }
                 // step 3: the updated user matrix wrt user j
-                userFactors.setRow(userIdx, A.inv().mult(M.transpose().mult(uservector)));
+                userFactors.setRow(userIdx, A.choleskySolve(M.transpose().mult(uservector)));
             }
             // fix user matrix U, solve item matrix M
             for (int itemIdx = 0; itemIdx < itemFactors.numRows(); itemIdx++) {
@@ -84,7 +86,7 @@ public class MFALSRecommender extends MatrixFactorizationRecommender {
                 if (U.numRows() == 0)
                     continue;
                 // step 1:
-                DenseMatrix A = U.transpose().mult(U).add(identify.scale(regItem).scale(numusers));
+                DenseMatrix A = U.transMult().add(identify.scale(regItem).scale(numusers));
                 // step 2:
                 // ratings of this item
                 DenseVector itemvector = new DenseVector(numusers);
@@ -96,9 +98,13 @@ public class MFALSRecommender extends MatrixFactorizationRecommender {
                     }
                 }
                 // step 3: the updated item matrix wrt item j
-                itemFactors.setRow(itemIdx, A.inv().mult(U.transpose().mult(itemvector)));
+                itemFactors.setRow(itemIdx, A.choleskySolve(U.transpose().mult(itemvector)));
             }
         }
     }
 
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
+    }
 }
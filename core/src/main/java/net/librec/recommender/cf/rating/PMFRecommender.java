@@ -18,8 +18,8 @@
 package net.librec.recommender.cf.rating;
 
 import net.librec.common.LibrecException;
-import net.librec.math.structure.MatrixEntry;
 import net.librec.recommender.MatrixFactorizationRecommender;
+import net.librec.recommender.SGDEngine;
 
 /**
  * <ul>
@@ -39,34 +39,54 @@ public class PMFRecommender extends MatrixFactorizationRecommender {
 
     @Override
     protected void trainModel() throws LibrecException {
+        SGDEngine sgdEngine = createSGDEngine();
+        SGDEngine.EntryUpdater updater = new SGDEngine.EntryUpdater() {
+            @Override
+            public double update(int userId, int itemId, double realRating, double loss) throws LibrecException {
+                return updateEntry(userId, itemId, realRating, loss);
+            }
+        };
         for (int iter = 1; iter <= numIterations; iter++) {
 
-            loss = 0.0d;
-            for (MatrixEntry me : trainMatrix) {
-                int userId = me.row(); // user
-                int itemId = me.column(); // item
-                double realRating = me.get();
+            loss = sgdEngine.epoch(updater);
 
-                double predictRating = predict(userId, itemId);
-                double error = realRating - predictRating;
+            if (isConverged(iter) && earlyStop) {
+                break;
+            }
+            updateLRate(iter);
+        }
+    }
 
-                loss += error * error;
+    /**
+     * update the factors from the rating of user userId on item itemId.
+     *
+     * @param userId     user index
+     * @param itemId     item index
+     * @param realRating real rating on item itemId rated by user userId
+     * @param loss       the loss accumulated so far
+     * @return the loss plus the loss of the rating
+     * @throws LibrecException if error occurs during predicting
+     */
+    private double updateEntry(int userId, int itemId, double realRating, double loss) throws LibrecException {
+        double predictRating = predict(userId, itemId);
+        double error = realRating - predictRating;
 
-                // update factors
-                for (int factorId = 0; factorId < numFactors; factorId++) {
-                    double userFactor = userFactors.get(userId, factorId), itemFactor = itemFactors.get(itemId, factorId);
+        loss += error * error;
 
-                    userFactors.add(userId, factorId, learnRate * (error * itemFactor - regUser * userFactor));
-                    itemFactors.add(itemId, factorId, learnRate * (error * userFactor - regItem * itemFactor));
+        // update factors
+        for (int factorId = 0; factorId < numFactors; factorId++) {
+            double userFactor = userFactors.get(userId, factorId), itemFactor = itemFactors.get(itemId, factorId);
 
-                    loss += regUser * userFactor * userFactor + regItem * itemFactor * itemFactor;
-                }
-            }
+            userFactors.add(userId, factorId, learnRate * (error * itemFactor - regUser * userFactor));
+            itemFactors.add(itemId, factorId, learnRate * (error * userFactor - regItem * itemFactor));
 
-            if (isConverged(iter) && earlyStop) {
-                break;
-            }
-            updateLRate(iter);
+            loss += regUser * userFactor * userFactor + regItem * itemFactor * itemFactor;
         }
+        return loss;
+    }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
     }
 }
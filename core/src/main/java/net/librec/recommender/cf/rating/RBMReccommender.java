@@ -141,7 +141,7 @@ public class RBMReccommender extends MatrixFactorizationRecommender {
             }
             for (int k = 0; k < softmax; k++) {
                 if (mtot == 0) {
-                    visbiases[i][k] = new Random().nextDouble() * 0.001;
+                    visbiases[i][k] = Randoms.uniform() * 0.001;
                 } else {
                     visbiases[i][k] = Math.log(((double) moviecount[i][k]) / ((double) mtot));
                     // visbiases[i][k] = Math.log(((moviecount[i][k]) + 1) /
@@ -154,7 +154,7 @@ public class RBMReccommender extends MatrixFactorizationRecommender {
     @Override
     protected void trainModel() throws LibrecException {
         int loopcount = 0;
-        Random randn = new Random();
+        Random randn = Randoms.generator();
         while (loopcount < maxIter) {
             loopcount++;
             Zero();
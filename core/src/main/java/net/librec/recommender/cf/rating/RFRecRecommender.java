@@ -19,6 +19,7 @@
 package net.librec.recommender.cf.rating;
 
 import net.librec.common.LibrecException;
+import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.DenseVector;
 import net.librec.math.structure.MatrixEntry;
@@ -79,11 +80,11 @@ public class RFRecRecommender extends MatrixFactorizationRecommender {
         itemWeights = new DenseVector(numItems);
         for (int u = 0; u < numUsers; u++) {
             userAverages.set(u, trainMatrix.row(u).mean());
-            userWeights.set(u, 0.6 + Math.random() * 0.01);
+            userWeights.set(u, 0.6 + Randoms.random() * 0.01);
         }
         for (int j = 0; j < numItems; j++) {
             itemAverages.set(j, trainMatrix.column(j).mean());
-            itemWeights.set(j, 0.4 + Math.random() * 0.01);
+            itemWeights.set(j, 0.4 + Randoms.random() * 0.01);
         }
         // Calculate the frequencies.
         // Users,items
@@ -20,15 +20,18 @@ package net.librec.recommender.cf.rating;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseMatrix;
-import net.librec.math.structure.DenseVector;
-import net.librec.math.structure.MatrixEntry;
-import net.librec.math.structure.SparseMatrix;
-
-import java.util.ArrayList;
-import java.util.List;
+import net.librec.math.structure.IndexAdjacency;
+import net.librec.recommender.ImplicitFactorSums;
+import net.librec.recommender.SGDEngine;
 
 /**
  * SVD++ Recommender
+ * <p>
+ * The implicit factors of the items rated by a user are updated with each rating of the
+ * user. With {@code rec.implicit.peruser} the ratings of a user are trained together
+ * instead: the implicit factor sum of the user is computed once, and the gradient of the
+ * implicit factors accumulated over the ratings is applied once at the end of the user,
+ * so that an epoch is linear in the number of ratings.
  *
  * @author GuoGuibing and Keqiang Wang
  */
@@ -40,9 +43,14 @@ public class SVDPlusPlusRecommender extends BiasedMFRecommender {
     protected DenseMatrix impItemFactors;
 
     /**
-     * user items list
+     * items rated by each user
+     */
+    protected IndexAdjacency userItemsAdjacency;
+
+    /**
+     * normalized sums of the implicit factors of the items rated by each user
      */
-    protected List<List<Integer>> userItemsList;
+    protected ImplicitFactorSums impItemSums;
 
     /**
      * implicit item regularization
@@ -61,103 +69,191 @@ public class SVDPlusPlusRecommender extends BiasedMFRecommender {
         regImpItem = conf.getDouble("rec.impItem.regularization", 0.015d);
 
         impItemFactors = new DenseMatrix(numItems, numFactors);
-        impItemFactors.init(initMean, initStd);
-        userItemsList = getUserItemsList(trainMatrix);
+        initFactors(impItemFactors);
+        userItemsAdjacency = trainMatrix.rowAdjacency();
+        impItemSums = new ImplicitFactorSums(userItemsAdjacency, impItemFactors, numUsers);
     }
 
     @Override
     protected void trainModel() throws LibrecException {
+        // the implicit factors of all the items rated by a user are updated with
+        // each rating or user, which conflicts across item blocks of stratified epochs
+        if (sgdStratified) {
+            LOG.warn("Stratified SGD is not supported by SVD++, running Hogwild SGD instead");
+        }
+        SGDEngine sgdEngine = new SGDEngine(trainMatrix, sgdThreads);
+        SGDEngine.EntryUpdater entryUpdater = new SGDEngine.EntryUpdater() {
+            @Override
+            public double update(int userIdx, int itemIdx, double realRating, double loss) throws LibrecException {
+                return updateEntry(userIdx, itemIdx, realRating, loss);
+            }
+        };
+        SGDEngine.UserUpdater userUpdater = new SGDEngine.UserUpdater() {
+            @Override
+            public double update(int userIdx, int from, int to, double loss) throws LibrecException {
+                return updateUser(userIdx, from, to, loss);
+            }
+        };
         for (int iter = 1; iter <= numIterations; iter++) {
-            loss = 0.0d;
-            for (MatrixEntry matrixEntry : trainMatrix) {
+            loss = implicitPerUser ? sgdEngine.userEpoch(userUpdater) : sgdEngine.epoch(entryUpdater);
+            loss *= 0.5d;
+            impItemSums.invalidate();
 
-                int userIdx = matrixEntry.row(); // user
-                int itemIdx = matrixEntry.column(); // item
-                double realRating = matrixEntry.get();
+            if (isConverged(iter) && earlyStop) {
+                break;
+            }
+            updateLRate(iter);
+        }
+    }
 
-                double predictRating = predict(userIdx, itemIdx);
-                double error = realRating - predictRating;
+    /**
+     * update the biases, factors and implicit item factors from the rating of
+     * user userIdx on item itemIdx.
+     *
+     * @param userIdx    user index
+     * @param itemIdx    item index
+     * @param realRating real rating on item itemIdx rated by user userIdx
+     * @param loss       the loss accumulated so far
+     * @return the loss plus the loss of the rating
+     * @throws LibrecException if error occurs during updating
+     */
+    private double updateEntry(int userIdx, int itemIdx, double realRating, double loss) throws LibrecException {
+        double[] sumImpItemsFactors = impItemSums.compute(userIdx, new double[numFactors]);
+        double[] impItemsGradient = new double[numFactors];
 
-                loss += error * error;
+        loss = updateRating(userIdx, itemIdx, realRating, sumImpItemsFactors, impItemsGradient, loss);
+        return updateImpItemFactors(userIdx, impItemsGradient, loss);
+    }
 
-                List<Integer> items = userItemsList.get(userIdx);
+    /**
+     * update the biases, factors and implicit item factors from the ratings of user userIdx,
+     * with the gradient of the implicit item factors applied once for the user.
+     *
+     * @param userIdx user index
+     * @param from    the first entry of the user in the training matrix, inclusive
+     * @param to      the last entry of the user in the training matrix, exclusive
+     * @param loss    the loss accumulated so far
+     * @return the loss plus the loss of the ratings of the user
+     * @throws LibrecException if error occurs during updating
+     */
+    private double updateUser(int userIdx, int from, int to, double loss) throws LibrecException {
+        if (from == to) {
+            return loss;
+        }
+        double[] sumImpItemsFactors = impItemSums.compute(userIdx, new double[numFactors]);
+        double[] impItemsGradient = new double[numFactors];
 
-                // update user and item bias
-                double userBiasValue = userBiases.get(userIdx);
-                userBiases.add(userIdx, learnRate * (error - regBias * userBiasValue));
+        for (int entry = from; entry < to; entry++) {
+            loss = updateRating(userIdx, trainMatrix.colInd[entry], trainMatrix.rowData[entry], sumImpItemsFactors,
+                    impItemsGradient, loss);
+        }
+        return updateImpItemFactors(userIdx, impItemsGradient, loss);
+    }
 
-                loss += regBias * userBiasValue * userBiasValue;
+    /**
+     * update the biases and factors from the rating of user userIdx on item itemIdx, and add
+     * the gradient of the rating to the gradient of the implicit item factors.
+     *
+     * @param userIdx            user index
+     * @param itemIdx            item index
+     * @param realRating         real rating on item itemIdx rated by user userIdx
+     * @param sumImpItemsFactors normalized sum of the implicit factors of the items rated by the user
+     * @param impItemsGradient   gradient of the implicit item factors, to add to
+     * @param loss               the loss accumulated so far
+     * @return the loss plus the loss of the rating
+     */
+    private double updateRating(int userIdx, int itemIdx, double realRating, double[] sumImpItemsFactors,
+                                double[] impItemsGradient, double loss) {
+        double impNor = impItemSums.norm(userIdx);
 
-                double itemBiasValue = itemBiases.get(itemIdx);
-                itemBiases.add(itemIdx, learnRate * (error - regBias * itemBiasValue));
+        double predictRating = userBiases.get(userIdx) + itemBiases.get(itemIdx) + globalMean;
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            predictRating += (userFactors.get(userIdx, factorIdx) + sumImpItemsFactors[factorIdx]) * itemFactors.get(itemIdx, factorIdx);
+        }
+        double error = realRating - predictRating;
 
-                loss += regBias * itemBiasValue * itemBiasValue;
+        loss += error * error;
 
-                DenseVector sumImpItemsFactors = new DenseVector(numFactors);
-                for (int impItemIdx : items) {
-                    sumImpItemsFactors.addEqual(impItemFactors.row(impItemIdx, false));
-                }
+        // update user and item bias
+        double userBiasValue = userBiases.get(userIdx);
+        userBiases.add(userIdx, learnRate * (error - regBias * userBiasValue));
 
-                double impNor = Math.sqrt(items.size());
-                if (impNor > 0) {
-                    sumImpItemsFactors.scaleEqual(1.0 / impNor);
-                }
+        loss += regBias * userBiasValue * userBiasValue;
 
-                //update user and item factors
-                for (int factorIdx = 0; factorIdx < numFactors; ++factorIdx) {
-                    double userFactorValue = userFactors.get(userIdx, factorIdx);
-                    double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
+        double itemBiasValue = itemBiases.get(itemIdx);
+        itemBiases.add(itemIdx, learnRate * (error - regBias * itemBiasValue));
 
-                    userFactors.add(userIdx, factorIdx, learnRate * (error * itemFactorValue - regUser * userFactorValue));
-                    itemFactors.add(itemIdx, factorIdx, learnRate * (error * (userFactorValue + sumImpItemsFactors.get(factorIdx)) - regItem * itemFactorValue));
+        loss += regBias * itemBiasValue * itemBiasValue;
 
-                    loss += regUser * userFactorValue * userFactorValue + regItem * itemFactorValue * itemFactorValue;
+        //update user and item factors
+        for (int factorIdx = 0; factorIdx < numFactors; ++factorIdx) {
+            double userFactorValue = userFactors.get(userIdx, factorIdx);
+            double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
 
-                    for (int impItemIdx : items) {
-                        double impItemFactor = impItemFactors.get(impItemIdx, factorIdx);
-                        impItemFactors.add(impItemIdx, factorIdx, learnRate * (error * itemFactorValue / impNor - regImpItem * impItemFactor));
+            userFactors.add(userIdx, factorIdx, learnRate * (error * itemFactorValue - regUser * userFactorValue));
+            itemFactors.add(itemIdx, factorIdx, learnRate * (error * (userFactorValue + sumImpItemsFactors[factorIdx]) - regItem * itemFactorValue));
 
-                        loss += regImpItem * impItemFactor * impItemFactor;
-                    }
-                }
-            }
-            loss *= 0.5d;
+            loss += regUser * userFactorValue * userFactorValue + regItem * itemFactorValue * itemFactorValue;
 
-            if (isConverged(iter) && earlyStop) {
-                break;
-            }
-            updateLRate(iter);
+            impItemsGradient[factorIdx] += error * itemFactorValue / impNor;
         }
+        return loss;
     }
 
+    /**
+     * update the implicit factors of the items rated by user userIdx.
+     *
+     * @param userIdx          user index
+     * @param impItemsGradient gradient of the implicit item factors
+     * @param loss             the loss accumulated so far
+     * @return the loss plus the regularization of the implicit item factors
+     */
+    private double updateImpItemFactors(int userIdx, double[] impItemsGradient, double loss) {
+        for (int position = userItemsAdjacency.start(userIdx); position < userItemsAdjacency.end(userIdx); position++) {
+            int impItemIdx = userItemsAdjacency.get(position);
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                double impItemFactor = impItemFactors.get(impItemIdx, factorIdx);
+                impItemFactors.add(impItemIdx, factorIdx, learnRate * (impItemsGradient[factorIdx] - regImpItem * impItemFactor));
+
+                loss += regImpItem * impItemFactor * impItemFactor;
+            }
+        }
+        return loss;
+    }
 
     @Override
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
         double predictRating = userBiases.get(userIdx) + itemBiases.get(itemIdx) + globalMean;
 
-        List<Integer> items = userItemsList.get(userIdx);
-        DenseVector userImpFactor = new DenseVector(numFactors);
+        // normalized sum of the implicit feedback factors of the items rated by userIdx
+        double[] userImpFactor = impItemSums.get(userIdx);
 
-        // sum of implicit feedback factors of userIdx with weight Math.sqrt(1.0 / userItemsList.get(userIdx).size())
-        for (int impItemIdx : items) {
-            userImpFactor.addEqual(impItemFactors.row(impItemIdx, false));
+        // sum with user factors
+        double product = 0.0;
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            product += (userFactors.get(userIdx, factorIdx) + userImpFactor[factorIdx]) * itemFactors.get(itemIdx, factorIdx);
         }
+        return predictRating + product;
+    }
 
-        double impNor = Math.sqrt(items.size());
-        if (impNor > 0) {
-            userImpFactor.scaleEqual(1.0 / impNor);
+    @Override
+    protected void userScoringFactors(int userIdx, double[] factors) throws LibrecException {
+        double[] userImpFactor = impItemSums.get(userIdx);
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            factors[factorIdx] = userFactors.get(userIdx, factorIdx) + userImpFactor[factorIdx];
         }
-        // sum with user factors
-        userImpFactor.add(userFactors.row(userIdx, false));
-
-        return predictRating + userImpFactor.inner(itemFactors.row(itemIdx, false));
     }
 
-    private List<List<Integer>> getUserItemsList(SparseMatrix sparseMatrix) {
-        List<List<Integer>> userItemsList = new ArrayList<>();
-        for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            userItemsList.add(sparseMatrix.getColumns(userIdx));
+    @Override
+    protected void addScoringTerms(int userIdx, int fromItem, int toItem, double[] scores) throws LibrecException {
+        double userBias = userBiases.get(userIdx);
+        for (int itemIdx = fromItem; itemIdx < toItem; itemIdx++) {
+            scores[itemIdx - fromItem] = userBias + itemBiases.get(itemIdx) + globalMean + scores[itemIdx - fromItem];
         }
-        return userItemsList;
+    }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
     }
 }
@@ -17,14 +17,13 @@
  */
 package net.librec.recommender.cf.rating;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.DenseVector;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.recommender.ProbabilisticGraphicalRecommender;
+import net.librec.recommender.sampler.TopicSamplingEngine;
 
 import static net.librec.math.algorithm.Gamma.digamma;
 
@@ -40,16 +39,6 @@ import static net.librec.math.algorithm.Gamma.digamma;
 public class URPRecommender extends ProbabilisticGraphicalRecommender {
     private double preRMSE;
 
-    /**
-     * number of occurrentces of entry (user, topic)
-     */
-    private DenseMatrix userTopicNum;
-
-    /**
-     * number of occurences of users
-     */
-    private DenseVector userNum;
-
     /**
      * number of occurrences of entry (topic, item)
      */
@@ -71,9 +60,14 @@ public class URPRecommender extends ProbabilisticGraphicalRecommender {
     private DenseVector beta;
 
     /**
-     *
+     * sum of beta in the current sweep
      */
-    protected Table<Integer, Integer, Integer> topics;
+    private double sumBeta;
+
+    /**
+     * Gibbs sampler of the topic assignments, which holds the number of occurrences of entry (user, topic)
+     */
+    protected TopicSamplingEngine samplingEngine;
 
     /**
      * number of topics
@@ -110,9 +104,6 @@ public class URPRecommender extends ProbabilisticGraphicalRecommender {
         topicItemRatingSumProbs = new double[numTopics][numItems][numRatingLevels];
 
         // initialize count variables
-        userTopicNum = new DenseMatrix(numUsers, numTopics);
-        userNum = new DenseVector(numUsers);
-
         topicItemRatingNum = new int[numTopics][numItems][numRatingLevels];
         topicItemNum = new DenseMatrix(numTopics, numItems);
 
@@ -124,77 +115,49 @@ public class URPRecommender extends ProbabilisticGraphicalRecommender {
         double initBeta = conf.getDouble("rec.pgm.bucm.beta", 1.0 / numTopics);
         beta.setAll(initBeta);
 
-        // initialize topics
-        topics = HashBasedTable.create();
-        for (MatrixEntry me : trainMatrix) {
-            int u = me.row();
-            int i = me.column();
-            double rui = me.get();
-
-            int r = ratingScale.indexOf(rui);  // rating level 0 ~ numLevels
-            int t = (int) (Randoms.uniform() * numTopics); // 0 ~ k-1
-
-            // Assign a topic t to pair (u, i)
-            topics.put(u, i, t);
-            // number of pairs (u, t) in (u, i, t)
-            userTopicNum.add(u, t, 1);
-            // total number of items of user u
-            userNum.add(u, 1);
-
-            // number of pairs (t, i, r)
-            topicItemRatingNum[t][i][r]++;
-            // total number of words assigned to topic t
-            topicItemNum.add(t, i, 1);
+        // initialize topics, the words of user u are the pairs (i, r) of its ratings
+        int numRatings = trainMatrix.rowPtr[numUsers];
+        int[] userPtr = new int[numUsers + 1];
+        int[] itemRatings = new int[numRatings];
+        int[] topics = new int[numRatings];
+        for (int u = 0; u < numUsers; u++) {
+            for (int entry = trainMatrix.rowPtr[u]; entry < trainMatrix.rowPtr[u + 1]; entry++) {
+                int i = trainMatrix.colInd[entry];
+                int r = ratingScale.indexOf(trainMatrix.rowData[entry]);  // rating level 0 ~ numLevels
+
+                itemRatings[entry] = i * numRatingLevels + r;
+                topics[entry] = (int) (Randoms.uniform() * numTopics); // 0 ~ k-1
+            }
+            userPtr[u + 1] = trainMatrix.rowPtr[u + 1];
         }
+
+        sumBeta = beta.sum();
+        TopicSamplingEngine.WordModel itemRatingModel = new TopicSamplingEngine.WordModel() {
+            @Override
+            public double weight(int itemRating, int k, int removed) {
+                int i = itemRating / numRatingLevels, r = itemRating % numRatingLevels;
+                return (topicItemRatingNum[k][i][r] - removed + beta.get(r)) / (topicItemNum.get(k, i) - removed + sumBeta);
+            }
+
+            @Override
+            public void add(int itemRating, int t, int delta) {
+                int i = itemRating / numRatingLevels, r = itemRating % numRatingLevels;
+                // number of pairs (t, i, r)
+                topicItemRatingNum[t][i][r] += delta;
+                // total number of words assigned to topic t
+                topicItemNum.add(t, i, delta);
+            }
+        };
+        samplingEngine = new TopicSamplingEngine(userPtr, itemRatings, topics, numTopics, numItems * numRatingLevels,
+                itemRatingModel, samplerThreads, samplerSteps);
     }
 
     @Override
     protected void eStep() {
-
-        double sumAlpha = alpha.sum();
-        double sumBeta = beta.sum();
+        sumBeta = beta.sum();
 
         // collapse Gibbs sampling
-        for (MatrixEntry me : trainMatrix) {
-            int u = me.row();
-            int i = me.column();
-            double rui = me.get();
-
-            int r = ratingScale.indexOf(rui);  // rating level 0 ~ numLevels
-            int t = topics.get(u, i);
-
-            userTopicNum.add(u, t, -1);
-            userNum.add(u, -1);
-            topicItemRatingNum[t][i][r]--;
-            topicItemNum.add(t, i, -1);
-
-            // do multinomial sampling via cumulative method:
-            double[] p = new double[numTopics];
-            for (int k = 0; k < numTopics; k++) {
-                p[k] = (userTopicNum.get(u, k) + alpha.get(k)) / (userNum.get(u) + sumAlpha) * (topicItemRatingNum[k][i][r] + beta.get(r))
-                        / (topicItemNum.get(k, i) + sumBeta);
-            }
-            // cumulate multinomial parameters
-            for (int k = 1; k < p.length; k++) {
-                p[k] += p[k - 1];
-            }
-            // scaled sample because of unnormalized p[], randomly sampled a new topic t
-            double rand = Randoms.uniform() * p[numTopics - 1];
-            for (t = 0; t < p.length; t++) {
-                if (rand < p[t])
-                    break;
-            }
-
-            // new topic t
-            topics.put(u, i, t);
-
-            // add newly estimated z_i to count variables
-            userTopicNum.add(u, t, 1);
-            userNum.add(u, 1);
-            topicItemRatingNum[t][i][r]++;
-            topicItemNum.add(t, i, 1);
-        }
-
+        samplingEngine.sweep(alpha.getData());
     }
 
     /**
@@ -212,8 +175,8 @@ public class URPRecommender extends ProbabilisticGraphicalRecommender {
             ak = alpha.get(k);
             double numerator = 0, denominator = 0;
             for (int u = 0; u < numUsers; u++) {
-                numerator += digamma(userTopicNum.get(u, k) + ak) - digamma(ak);
-                denominator += digamma(userNum.get(u) + sumAlpha) - digamma(sumAlpha);
+                numerator += digamma(samplingEngine.getDocTopicCount(u, k) + ak) - digamma(ak);
+                denominator += digamma(samplingEngine.getDocCount(u) + sumAlpha) - digamma(sumAlpha);
             }
             if (numerator != 0)
                 alpha.set(k, ak * (numerator / denominator));
@@ -240,7 +203,7 @@ public class URPRecommender extends ProbabilisticGraphicalRecommender {
 
         for (int u = 0; u < numUsers; u++) {
             for (int k = 0; k < numTopics; k++) {
-                val = (userTopicNum.get(u, k) + alpha.get(k)) / (userNum.get(u) + sumAlpha);
+                val = (samplingEngine.getDocTopicCount(u, k) + alpha.get(k)) / (samplingEngine.getDocCount(u) + sumAlpha);
                 userTopicSumProbs.add(u, k, val);
             }
         }
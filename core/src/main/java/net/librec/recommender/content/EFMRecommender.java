@@ -140,7 +140,7 @@ public class EFMRecommender extends BiasedMFRecommender {
         itemFactors = new DenseMatrix(numberOfItems, numFactors);
         
         
-        featureMatrix.init(initMean, initStd);
+        initFactors(featureMatrix);
         userFeatureMatrix = userFactors.getSubMatrix(0, userFactors.numRows() - 1, 0, featureFactor - 1);
         userHiddenMatrix = userFactors.getSubMatrix(0, userFactors.numRows() - 1, featureFactor, userFactors.numColumns() - 1);
         itemFeatureMatrix = itemFactors.getSubMatrix(0, itemFactors.numRows() - 1, 0, featureFactor - 1);
@@ -266,4 +266,9 @@ public class EFMRecommender extends BiasedMFRecommender {
         double pred = DenseMatrix.rowMult(userFeatureMatrix, u, itemFeatureMatrix, j) + DenseMatrix.rowMult(userHiddenMatrix, u, itemHiddenMatrix, j);
         return pred;
     }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return false;
+    }
 }
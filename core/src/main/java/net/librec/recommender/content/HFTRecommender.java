@@ -136,7 +136,7 @@ public class HFTRecommender extends BiasedMFRecommender {
         reviewMatrix = new SparseStringMatrix(numUsers, numItems, res);
         trainMatrix = new SparseMatrix(numUsers, numItems, ratings);
         topicToWord = new DenseMatrix(K, numberOfWords);
-        topicToWord.init(initMean, initStd);
+        initFactors(topicToWord);
         topicAssignment = new SparseStringMatrix(reviewMatrix);
         thetaus = new double[numberOfUsers][K];
         phiks = new double[K][numberOfWords];
@@ -290,4 +290,8 @@ public class HFTRecommender extends BiasedMFRecommender {
         return pred;
     }
 
+    @Override
+    public boolean isBatchScoringSupported() {
+        return false;
+    }
 }
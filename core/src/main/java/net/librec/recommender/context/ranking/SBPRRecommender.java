@@ -17,20 +17,19 @@
  */
 package net.librec.recommender.context.ranking;
 
-import com.google.common.cache.LoadingCache;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
-import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.DenseVector;
-import net.librec.math.structure.SparseVector;
-import net.librec.math.structure.VectorEntry;
+import net.librec.math.structure.IndexAdjacency;
 import net.librec.recommender.SocialRecommender;
+import net.librec.recommender.sampler.NegativeSampler;
+import net.librec.recommender.sampler.SamplingEngine;
+import net.librec.recommender.sampler.UniformNegativeSampler;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
  * Social Bayesian Personalized Ranking (SBPR)
@@ -53,204 +52,204 @@ public class SBPRRecommender extends SocialRecommender {
     protected float regBias;
 
     /**
-     * user-items cache, item-users cache
+     * items rated by each user
      */
-    protected LoadingCache<Integer, List<Integer>> userItemsCache;
+    private IndexAdjacency userItemsAdjacency;
 
     /**
-     * Guava cache configuration
+     * find items rated by trusted neighbors only, in the order they are found
      */
-    protected static String cacheSpec;
+    private int[][] userSocialItems;
 
     /**
-     * find items rated by trusted neighbors only
+     * sampler of the negative items, which are neither rated by the user nor by its trusted neighbors
      */
-    private List<List<Integer>> userSocialItemsSetList;
+    private NegativeSampler negativeSampler;
 
     @Override
     public void setup() throws LibrecException {
         super.setup();
         regBias = conf.getFloat("rec.bias.regularization", 0.01f);
-        cacheSpec = conf.get("guava.cache.spec", "maximumSize=5000,expireAfterAccess=50m");
 
         itemBiases = new DenseVector(numItems);
         itemBiases.init();
 
-        userItemsCache = trainMatrix.rowColumnsCache(cacheSpec);
+        userItemsAdjacency = trainMatrix.rowAdjacency();
+        IndexAdjacency userTrusteesAdjacency = socialMatrix.rowAdjacency();
 
         // find items rated by trusted neighbors only
-        userSocialItemsSetList = new ArrayList<>(numUsers);
+        userSocialItems = new int[numUsers][];
+        int[] items = new int[numItems];
+        boolean[] isSocialItem = new boolean[numItems];
         for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-            userSocialItemsSetList.add(new ArrayList<Integer>());
-        }
-
-        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-
-            List<Integer> uRatedItems = null;
-            try {
-                uRatedItems = userItemsCache.get(userIdx);
-            } catch (ExecutionException e) {
-                e.printStackTrace();
-            }
-            if (uRatedItems.size() == 0)
-                continue; // no rated items
-
-            // find items rated by trusted neighbors only
-            List<Integer> trustedUsers = socialMatrix.getColumns(userIdx);
-            List<Integer> items = new ArrayList<>();
-            for (int trustedUserIdx : trustedUsers) {
-
-                List<Integer> trustedRatedItems = null;
-                try {
-                    trustedRatedItems = userItemsCache.get(trustedUserIdx);
-                } catch (ExecutionException e) {
-                    e.printStackTrace();
-                }
-                for (int trustedRatedItemIdx : trustedRatedItems) {
-                    // v's rated items
-                    if (!uRatedItems.contains(trustedRatedItemIdx) && !items.contains(trustedRatedItemIdx)) // if not rated by user u and not already added to item list
-                        items.add(trustedRatedItemIdx);
+            int numSocialItems = 0;
+            if (userItemsAdjacency.size(userIdx) > 0 && userIdx < userTrusteesAdjacency.numKeys()) {
+                for (int trustedPosition = userTrusteesAdjacency.start(userIdx); trustedPosition < userTrusteesAdjacency.end(userIdx); trustedPosition++) {
+                    int trustedUserIdx = userTrusteesAdjacency.get(trustedPosition);
+                    if (trustedUserIdx >= numUsers)
+                        continue;
+                    for (int itemPosition = userItemsAdjacency.start(trustedUserIdx); itemPosition < userItemsAdjacency.end(trustedUserIdx); itemPosition++) {
+                        // v's rated items
+                        int trustedRatedItemIdx = userItemsAdjacency.get(itemPosition);
+                        // if not rated by user u and not already added to item list
+                        if (!isSocialItem[trustedRatedItemIdx] && !userItemsAdjacency.contains(userIdx, trustedRatedItemIdx)) {
+                            isSocialItem[trustedRatedItemIdx] = true;
+                            items[numSocialItems++] = trustedRatedItemIdx;
+                        }
+                    }
                 }
             }
-            userSocialItemsSetList.set(userIdx, items);
+            userSocialItems[userIdx] = Arrays.copyOf(items, numSocialItems);
+            for (int position = 0; position < numSocialItems; position++) {
+                isSocialItem[items[position]] = false;
+            }
         }
+        negativeSampler = new UniformNegativeSampler(userItemsAdjacency, IndexAdjacency.of(userSocialItems), numItems);
     }
 
     @Override
     protected void trainModel() throws LibrecException {
-        for (int iter = 1; iter <= numIterations; iter++) {
-
-            loss = 0.0d;
-
-            for (int sample = 0, smax = numUsers * 100; sample < smax; sample++) {
-                // uniformly draw (userIdx, posItemIdx, k, negItemIdx)
-                int userIdx, posItemIdx, negItemIdx;
-                // userIdx
-                List<Integer> ratedItems = null;
-                do {
-                    userIdx = Randoms.uniform(trainMatrix.numRows());
-                    try {
-                        ratedItems = userItemsCache.get(userIdx);
-                    } catch (ExecutionException e) {
-                        e.printStackTrace();
-                    }
-                } while (ratedItems.size() == 0);
-
-                // positive item index
-                posItemIdx = Randoms.random(ratedItems);
-
-                double posPredictRating = predict(userIdx, posItemIdx);
-
-                // social Items List
-                List<Integer> socialItemsList = userSocialItemsSetList.get(userIdx);
+        SamplingEngine samplingEngine = new SamplingEngine(sgdThreads);
+        SamplingEngine.SampleUpdater updater = new SamplingEngine.SampleUpdater() {
+            @Override
+            public double update(Random random, double loss) throws LibrecException {
+                return updateSample(random, loss);
+            }
+        };
 
-                // negative item index
-                do {
-                    negItemIdx = Randoms.uniform(numItems);
-                } while (ratedItems.contains(negItemIdx) || socialItemsList.contains(negItemIdx));
+        for (int iter = 1; iter <= numIterations; iter++) {
 
-                double negPredictRating = predict(userIdx, negItemIdx);
+            loss = samplingEngine.run(numUsers * 100, updater, 0.0d);
 
-                if (socialItemsList.size() > 0) {
-                    // if having social neighbors
-                    int socialItemIdx = Randoms.random(socialItemsList);
-                    double socialPredictRating = predict(userIdx, socialItemIdx);
+            if (isConverged(iter) && earlyStop) {
+                break;
+            }
+            updateLRate(iter);
+        }
+    }
 
-                    SparseVector trustedUsersVector = socialMatrix.row(userIdx);
-                    double socialWeight = 0;
-                    for (VectorEntry trustedVectorEntry : trustedUsersVector) {
-                        int trustedUserIdx = trustedVectorEntry.index();
-                        if (trustedUserIdx < trainMatrix.numRows()) {
-                            double socialRating = trainMatrix.get(trustedUserIdx, socialItemIdx);
-                            if (socialRating > 0)
-                                socialWeight += 1;
-                        }
+    /**
+     * uniformly draw (userIdx, posItemIdx, k, negItemIdx) and update the parameters.
+     *
+     * @param random random generator of the current thread
+     * @param loss   the loss accumulated so far
+     * @return the loss plus the loss of the sample
+     * @throws LibrecException if error occurs during predicting
+     */
+    private double updateSample(Random random, double loss) throws LibrecException {
+        // userIdx
+        int userIdx;
+        do {
+            userIdx = random.nextInt(numUsers);
+        } while (userItemsAdjacency.size(userIdx) == 0 || !negativeSampler.hasNegative(userIdx));
+
+        // positive item index
+        int posItemIdx = userItemsAdjacency.random(userIdx, random);
+
+        double posPredictRating = predict(userIdx, posItemIdx);
+
+        // social Items List
+        int[] socialItems = userSocialItems[userIdx];
+
+        // negative item index
+        int negItemIdx = negativeSampler.sample(userIdx, random);
+
+        double negPredictRating = predict(userIdx, negItemIdx);
+
+        if (socialItems.length > 0) {
+            // if having social neighbors
+            int socialItemIdx = socialItems[random.nextInt(socialItems.length)];
+            double socialPredictRating = predict(userIdx, socialItemIdx);
+
+            double socialWeight = 0;
+            if (userIdx < socialMatrix.numRows()) {
+                for (int entry = socialMatrix.rowPtr[userIdx]; entry < socialMatrix.rowPtr[userIdx + 1]; entry++) {
+                    int trustedUserIdx = socialMatrix.colInd[entry];
+                    if (trustedUserIdx < trainMatrix.numRows()) {
+                        double socialRating = trainMatrix.get(trustedUserIdx, socialItemIdx);
+                        if (socialRating > 0)
+                            socialWeight += 1;
                     }
+                }
+            }
 
-                    double posSocialDiffValue = (posPredictRating - socialPredictRating) / (1 + socialWeight);
-                    double socialNegDiffValue = socialPredictRating - negPredictRating;
+            double posSocialDiffValue = (posPredictRating - socialPredictRating) / (1 + socialWeight);
+            double socialNegDiffValue = socialPredictRating - negPredictRating;
 
-                    double error = -Math.log(Maths.logistic(posSocialDiffValue)) - Math.log(Maths.logistic(socialNegDiffValue));
-                    loss += error;
+            double error = -Math.log(Maths.logistic(posSocialDiffValue)) - Math.log(Maths.logistic(socialNegDiffValue));
+            loss += error;
 
-                    double posSocialGradient = Maths.logistic(-posSocialDiffValue), socialNegGradient = Maths.logistic(-socialNegDiffValue);
+            double posSocialGradient = Maths.logistic(-posSocialDiffValue), socialNegGradient = Maths.logistic(-socialNegDiffValue);
 
-                    // update bi, bk, bj
-                    double posItemBiasValue = itemBiases.get(posItemIdx);
-                    itemBiases.add(posItemIdx, learnRate * (posSocialGradient / (1 + socialWeight) - regBias * posItemBiasValue));
-                    loss += regBias * posItemBiasValue * posItemBiasValue;
+            // update bi, bk, bj
+            double posItemBiasValue = itemBiases.get(posItemIdx);
+            itemBiases.add(posItemIdx, learnRate * (posSocialGradient / (1 + socialWeight) - regBias * posItemBiasValue));
+            loss += regBias * posItemBiasValue * posItemBiasValue;
 
-                    double socialItemBiasValue = itemBiases.get(socialItemIdx);
-                    itemBiases.add(socialItemIdx, learnRate * (-posSocialGradient / (1 + socialWeight) + socialNegGradient - regBias * socialItemBiasValue));
-                    loss += regBias * socialItemBiasValue * socialItemBiasValue;
+            double socialItemBiasValue = itemBiases.get(socialItemIdx);
+            itemBiases.add(socialItemIdx, learnRate * (-posSocialGradient / (1 + socialWeight) + socialNegGradient - regBias * socialItemBiasValue));
+            loss += regBias * socialItemBiasValue * socialItemBiasValue;
 
-                    double negItemBiasValue = itemBiases.get(negItemIdx);
-                    itemBiases.add(negItemIdx, learnRate * (-socialNegGradient - regBias * negItemBiasValue));
-                    loss += regBias * negItemBiasValue * negItemBiasValue;
+            double negItemBiasValue = itemBiases.get(negItemIdx);
+            itemBiases.add(negItemIdx, learnRate * (-socialNegGradient - regBias * negItemBiasValue));
+            loss += regBias * negItemBiasValue * negItemBiasValue;
 
-                    // update P, Q
-                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        double userFactorValue = userFactors.get(userIdx, factorIdx);
-                        double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
-                        double socialItemFactorValue = itemFactors.get(socialItemIdx, factorIdx);
-                        double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
+            // update P, Q
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                double userFactorValue = userFactors.get(userIdx, factorIdx);
+                double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
+                double socialItemFactorValue = itemFactors.get(socialItemIdx, factorIdx);
+                double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
 
-                        double delta_puf = posSocialGradient * (posItemFactorValue - socialItemFactorValue) / (1 + socialWeight)
-                                + socialNegGradient * (socialItemFactorValue - negItemFactorValue);
-                        userFactors.add(userIdx, factorIdx, learnRate * (delta_puf - regUser * userFactorValue));
+                double delta_puf = posSocialGradient * (posItemFactorValue - socialItemFactorValue) / (1 + socialWeight)
+                        + socialNegGradient * (socialItemFactorValue - negItemFactorValue);
+                userFactors.add(userIdx, factorIdx, learnRate * (delta_puf - regUser * userFactorValue));
 
-                        itemFactors.add(posItemIdx, factorIdx, learnRate * (posSocialGradient * userFactorValue / (1 + socialWeight)
-                                - regItem * posItemFactorValue));
+                itemFactors.add(posItemIdx, factorIdx, learnRate * (posSocialGradient * userFactorValue / (1 + socialWeight)
+                        - regItem * posItemFactorValue));
 
-                        double delta_qkf = posSocialGradient * (-userFactorValue / (1 + socialWeight)) + socialNegGradient * userFactorValue;
-                        itemFactors.add(socialItemIdx, factorIdx, learnRate * (delta_qkf - regItem * socialItemFactorValue));
+                double delta_qkf = posSocialGradient * (-userFactorValue / (1 + socialWeight)) + socialNegGradient * userFactorValue;
+                itemFactors.add(socialItemIdx, factorIdx, learnRate * (delta_qkf - regItem * socialItemFactorValue));
 
-                        itemFactors.add(negItemIdx, factorIdx, learnRate * (socialNegGradient * (-userFactorValue) -
-                                regItem * negItemFactorValue));
+                itemFactors.add(negItemIdx, factorIdx, learnRate * (socialNegGradient * (-userFactorValue) -
+                        regItem * negItemFactorValue));
 
-                        loss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue +
-                                regItem * negItemFactorValue * negItemFactorValue + regItem * socialItemFactorValue * socialItemFactorValue;
-                    }
-                } else {
-                    // if no social neighbors, the same as BPR
-                    double posNegDiffValue = posPredictRating - negPredictRating;
-                    loss += posNegDiffValue;
-
-                    double posNegGradient = Maths.logistic(-posNegDiffValue);
-
-                    // update bi, bj
-                    double posItemBiasValue = itemBiases.get(posItemIdx);
-                    itemBiases.add(posItemIdx, learnRate * (posNegGradient - regBias * posItemBiasValue));
-                    loss += regBias * posItemBiasValue * posItemBiasValue;
-
-                    double negItemBiasValue = itemBiases.get(negItemIdx);
-                    itemBiases.add(negItemIdx, learnRate * (-posNegGradient - regBias * negItemBiasValue));
-                    loss += regBias * negItemBiasValue * negItemBiasValue;
-
-                    // update user factors, item factors
-                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        double userFactorValue = userFactors.get(userIdx, factorIdx);
-                        double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
-                        double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
-
-                        userFactors.add(userIdx, factorIdx, learnRate * (posNegGradient * (posItemFactorValue - negItemFactorValue) - regUser * userFactorValue));
-                        itemFactors.add(posItemIdx, factorIdx, learnRate * (posNegGradient * userFactorValue - regItem * posItemFactorValue));
-                        itemFactors.add(negItemIdx, factorIdx, learnRate * (posNegGradient * (-userFactorValue) - regItem * negItemFactorValue));
-
-                        loss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue +
-                                regItem * negItemFactorValue * negItemFactorValue;
-                    }
-                }
+                loss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue +
+                        regItem * negItemFactorValue * negItemFactorValue + regItem * socialItemFactorValue * socialItemFactorValue;
             }
-
-            if (isConverged(iter) && earlyStop) {
-                break;
+        } else {
+            // if no social neighbors, the same as BPR
+            double posNegDiffValue = posPredictRating - negPredictRating;
+            loss += posNegDiffValue;
+
+            double posNegGradient = Maths.logistic(-posNegDiffValue);
+
+            // update bi, bj
+            double posItemBiasValue = itemBiases.get(posItemIdx);
+            itemBiases.add(posItemIdx, learnRate * (posNegGradient - regBias * posItemBiasValue));
+            loss += regBias * posItemBiasValue * posItemBiasValue;
+
+            double negItemBiasValue = itemBiases.get(negItemIdx);
+            itemBiases.add(negItemIdx, learnRate * (-posNegGradient - regBias * negItemBiasValue));
+            loss += regBias * negItemBiasValue * negItemBiasValue;
+
+            // update user factors, item factors
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                double userFactorValue = userFactors.get(userIdx, factorIdx);
+                double posItemFactorValue = itemFactors.get(posItemIdx, factorIdx);
+                double negItemFactorValue = itemFactors.get(negItemIdx, factorIdx);
+
+                userFactors.add(userIdx, factorIdx, learnRate * (posNegGradient * (posItemFactorValue - negItemFactorValue) - regUser * userFactorValue));
+                itemFactors.add(posItemIdx, factorIdx, learnRate * (posNegGradient * userFactorValue - regItem * posItemFactorValue));
+                itemFactors.add(negItemIdx, factorIdx, learnRate * (posNegGradient * (-userFactorValue) - regItem * negItemFactorValue));
+
+                loss += regUser * userFactorValue * userFactorValue + regItem * posItemFactorValue * posItemFactorValue +
+                        regItem * negItemFactorValue * negItemFactorValue;
             }
-            updateLRate(iter);
         }
+        return loss;
     }
 
-
     /**
      * predict a specific ranking score for user userIdx on item itemIdx.
      *
@@ -264,4 +263,16 @@ public class SBPRRecommender extends SocialRecommender {
 
         return predictRating;
     }
+
+    @Override
+    protected void addScoringTerms(int userIdx, int fromItem, int toItem, double[] scores) throws LibrecException {
+        for (int itemIdx = fromItem; itemIdx < toItem; itemIdx++) {
+            scores[itemIdx - fromItem] += itemBiases.get(itemIdx);
+        }
+    }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
+    }
 }
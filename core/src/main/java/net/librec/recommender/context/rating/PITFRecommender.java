@@ -19,7 +19,6 @@ package net.librec.recommender.context.rating;
  */
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import net.librec.math.structure.DenseMatrix;
@@ -169,12 +168,15 @@ public class PITFRecommender extends TensorRecommender {
 						fiberKey[i] = posSample[i];
 					}
 
-					int[] positiveValues = trainTensor.fiber(featureSize-1, fiberKey).getIndex();
+					// the positive values are the fiber of the sorted entries starting with the fiber key
+					int numPositiveValues = trainTensor.rangeEnd(fiberKey) - trainTensor.rangeStart(fiberKey);
+					if (numPositiveValues >= dimensions[featureSize-1])
+						continue;
 					int negtiveValue = 0;
 					do {
 						negtiveValue = Randoms.uniform(dimensions[featureSize-1]);
-					} while (Arrays.asList(positiveValues).contains(negtiveValue));
-					negSample[featureSize-1] = negtiveValue;
+						negSample[featureSize-1] = negtiveValue;
+					} while (trainTensor.contains(negSample));
 
 					double xpos = predict(posSample);
 					double xneg = predict(negSample);
@@ -51,7 +51,7 @@ public class SoRecRecommender extends SocialRecommender {
         regUserSocial = conf.getFloat("rec.user.social.regularization", 0.01f);
 
         userSocialFactors = new DenseMatrix(numUsers, numFactors);
-        userSocialFactors.init(initMean, initStd);
+        initFactors(userSocialFactors);
 
         inDegrees = new ArrayList<>();
         outDegrees = new ArrayList<>();
@@ -139,4 +139,9 @@ public class SoRecRecommender extends SocialRecommender {
             updateLRate(iter);
         }
     }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
+    }
 }
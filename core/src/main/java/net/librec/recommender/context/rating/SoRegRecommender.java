@@ -120,4 +120,9 @@ public class SoRegRecommender extends SocialRecommender {
             updateLRate(iter);
         }
     }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
+    }
 }
@@ -134,4 +134,9 @@ public class SocialMFRecommender extends SocialRecommender {
     protected double normalize(double rating) {
         return (rating - minRate) / (maxRate - minRate);
     }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return true;
+    }
 }
@@ -17,7 +17,6 @@
  */
 package net.librec.recommender.context.rating;
 
-import com.google.common.cache.LoadingCache;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 import net.librec.annotation.ModelData;
@@ -25,14 +24,14 @@ import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.DenseVector;
+import net.librec.math.structure.IndexAdjacency;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SparseMatrix;
+import net.librec.recommender.ImplicitFactorSums;
 import net.librec.recommender.cf.rating.BiasedMFRecommender;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -108,14 +107,14 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
     private static long minTimestamp, maxTimestamp;
 
     /**
-     * Guava cache configuration
+     * items rated by each user
      */
-    protected static String cacheSpec;
+    private IndexAdjacency userItemsAdjacency;
 
     /**
-     * user-items cache
+     * normalized sums of the implicit factors Y of the items rated by each user
      */
-    private LoadingCache<Integer, List<Integer>> userItemsCache;
+    private ImplicitFactorSums impItemSums;
 
     /**
      * matrix of time stamp
@@ -176,8 +175,8 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
         Cut = new DenseMatrix(numUsers, numDays);
         Cut.init();
 
-        cacheSpec = conf.get("guava.cache.spec", "maximumSize=200,expireAfterAccess=2m");
-        userItemsCache = trainMatrix.rowColumnsCache(cacheSpec);
+        userItemsAdjacency = trainMatrix.rowAdjacency();
+        impItemSums = new ImplicitFactorSums(userItemsAdjacency, Y, numUsers);
 
         P = new DenseMatrix(numUsers, numFactors);
         Q = new DenseMatrix(numItems, numFactors);
@@ -202,172 +201,173 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
 
         // compute user's mean of rating timestamps
         userMeanDate = new DenseVector(numUsers);
-        List<Integer> Ru = null;
         for (int u = 0; u < numUsers; u++) {
 
             sum = 0;
-            try {
-                Ru = userItemsCache.get(u);
-            } catch (ExecutionException e) {
-                e.printStackTrace();
-            }
-            for (int i : Ru) {
-                sum += days((long) timeMatrix.get(u, i), minTimestamp);
+            for (int position = userItemsAdjacency.start(u); position < userItemsAdjacency.end(u); position++) {
+                sum += days((long) timeMatrix.get(u, userItemsAdjacency.get(position)), minTimestamp);
             }
 
-            double mean = (Ru.size() > 0) ? (sum + 0.0) / Ru.size() : globalMeanDate;
+            int numRated = userItemsAdjacency.size(u);
+            double mean = (numRated > 0) ? (sum + 0.0) / numRated : globalMeanDate;
             userMeanDate.set(u, mean);
         }
     }
 
     @Override
     protected void trainModel() throws LibrecException {
+        double[] sumY = new double[numFactors];
+        double[] gradientY = new double[numFactors];
         for (int iter = 1; iter <= numIterations; iter++) {
             loss = 0;
 
-            for (MatrixEntry me : trainMatrix) {
-                int u = me.row();
-                int i = me.column();
-                double rui = me.get();
+            // the implicit factors are updated with each rating, or with rec.implicit.peruser
+            // once per user from the gradient summed over the ratings of the user
+            for (int u = 0; u < numUsers; u++) {
+                int from = trainMatrix.rowPtr[u], to = trainMatrix.rowPtr[u + 1];
+                if (from == to)
+                    continue;
 
-                long timestamp = (long) timeMatrix.get(u, i);
-                // day t
-                int t = days(timestamp, minTimestamp);
-                int bin = bin(t);
-                double dev_ut = dev(u, t);
+                impItemSums.compute(u, sumY);
+                double norm = impItemSums.norm(u);
+                for (int k = 0; k < numFactors; k++)
+                    gradientY[k] = 0;
 
-                double bi = itemBiases.get(i);
-                double bit = Bit.get(i, bin);
-                double bu = userBiases.get(u);
+                for (int entry = from; entry < to; entry++) {
+                    int i = trainMatrix.colInd[entry];
+                    double rui = trainMatrix.rowData[entry];
 
-                double cu = Cu.get(u);
-                double cut = Cut.get(u, t);
+                    // the implicit factors have changed with the previous rating of the user
+                    if (!implicitPerUser && entry > from)
+                        impItemSums.compute(u, sumY);
 
-                // lazy initialization
-                if (!But.contains(u, t))
-                    But.put(u, t, Randoms.random());
-                double but = But.get(u, t);
+                    long timestamp = (long) timeMatrix.get(u, i);
+                    // day t
+                    int t = days(timestamp, minTimestamp);
+                    int bin = bin(t);
+                    double dev_ut = dev(u, t);
 
-                double au = Alpha.get(u); // alpha_u
+                    double bi = itemBiases.get(i);
+                    double bit = Bit.get(i, bin);
+                    double bu = userBiases.get(u);
 
-                double pui = globalMean + (bi + bit) * (cu + cut); // mu + bi(t)
-                pui += bu + au * dev_ut + but; // bu(t)
+                    double cu = Cu.get(u);
+                    double cut = Cut.get(u, t);
 
-                // qi * yj
-                List<Integer> Ru = null;
-                try {
-                    Ru = userItemsCache.get(u);
-                } catch (ExecutionException e) {
-                    e.printStackTrace();
-                }
+                    // lazy initialization
+                    if (!But.contains(u, t))
+                        But.put(u, t, Randoms.random());
+                    double but = But.get(u, t);
 
-                double sum_y = 0;
-                for (int j : Ru) {
-                    sum_y += DenseMatrix.rowMult(Y, j, Q, i);
-                }
-                double wi = Ru.size() > 0 ? Math.pow(Ru.size(), -0.5) : 0;
-                pui += sum_y * wi;
+                    double au = Alpha.get(u); // alpha_u
 
-                // qi * pu(t)
-                if (!Pukt.containsKey(u)) {
-                    Table<Integer, Integer, Double> data = HashBasedTable.create();
-                    Pukt.put(u, data);
-                }
+                    double pui = globalMean + (bi + bit) * (cu + cut); // mu + bi(t)
+                    pui += bu + au * dev_ut + but; // bu(t)
 
-                Table<Integer, Integer, Double> Pkt = Pukt.get(u);
-                for (int k = 0; k < numFactors; k++) {
-                    double qik = Q.get(i, k);
+                    // qi * yj
+                    for (int k = 0; k < numFactors; k++) {
+                        pui += sumY[k] * Q.get(i, k);
+                    }
 
-                    // lazy initialization
-                    if (!Pkt.contains(k, t))
-                        Pkt.put(k, t, Randoms.random());
+                    // qi * pu(t)
+                    if (!Pukt.containsKey(u)) {
+                        Table<Integer, Integer, Double> data = HashBasedTable.create();
+                        Pukt.put(u, data);
+                    }
 
-                    double puk = P.get(u, k) + Auk.get(u, k) * dev_ut + Pkt.get(k, t);
+                    Table<Integer, Integer, Double> Pkt = Pukt.get(u);
+                    for (int k = 0; k < numFactors; k++) {
+                        double qik = Q.get(i, k);
 
-                    pui += puk * qik;
-                }
+                        // lazy initialization
+                        if (!Pkt.contains(k, t))
+                            Pkt.put(k, t, Randoms.random());
+
+                        double puk = P.get(u, k) + Auk.get(u, k) * dev_ut + Pkt.get(k, t);
 
-                double eui = pui - rui;
-                loss += eui * eui;
-
-                // update bi
-                double sgd = eui * (cu + cut) + regBias * bi;
-                itemBiases.add(i, -learnRate * sgd);
-                loss += regBias * bi * bi;
-
-                // update bi,bin(t)
-                sgd = eui * (cu + cut) + regBias * bit;
-                Bit.add(i, bin, -learnRate * sgd);
-                loss += regBias * bit * bit;
-
-                // update cu
-                sgd = eui * (bi + bit) + regBias * cu;
-                Cu.add(u, -learnRate * sgd);
-                loss += regBias * cu * cu;
-
-                // update cut
-                sgd = eui * (bi + bit) + regBias * cut;
-                Cut.add(u, t, -learnRate * sgd);
-                loss += regBias * cut * cut;
-
-                // update bu
-                sgd = eui + regBias * bu;
-                userBiases.add(u, -learnRate * sgd);
-                loss += regBias * bu * bu;
-
-                // update au
-                sgd = eui * dev_ut + regBias * au;
-                Alpha.add(u, -learnRate * sgd);
-                loss += regBias * au * au;
-
-                // update but
-                sgd = eui + regBias * but;
-                double delta = but - learnRate * sgd;
-                But.put(u, t, delta);
-                loss += regBias * but * but;
-
-                for (int k = 0; k < numFactors; k++) {
-                    double qik = Q.get(i, k);
-                    double puk = P.get(u, k);
-                    double auk = Auk.get(u, k);
-                    double pkt = Pkt.get(k, t);
-
-                    // update qik
-                    double pukt = puk + auk * dev_ut + pkt;
-
-                    double sum_yk = 0;
-                    for (int j : Ru)
-                        sum_yk += Y.get(j, k);
-
-                    sgd = eui * (pukt + wi * sum_yk) + regItem * qik;
-                    Q.add(i, k, -learnRate * sgd);
-                    loss += regItem * qik * qik;
-
-                    // update puk
-                    sgd = eui * qik + regUser * puk;
-                    P.add(u, k, -learnRate * sgd);
-                    loss += regUser * puk * puk;
-
-                    // update auk
-                    sgd = eui * qik * dev_ut + regUser * auk;
-                    Auk.add(u, k, -learnRate * sgd);
-                    loss += regUser * auk * auk;
-
-                    // update pkt
-                    sgd = eui * qik + regUser * pkt;
-                    delta = pkt - learnRate * sgd;
-                    Pkt.put(k, t, delta);
-                    loss += regUser * pkt * pkt;
-
-                    // update yjk
-                    for (int j : Ru) {
-                        double yjk = Y.get(j, k);
-                        sgd = eui * wi * qik + regItem * yjk;
-                        Y.add(j, k, -learnRate * sgd);
-                        loss += regItem * yjk * yjk;
+                        pui += puk * qik;
                     }
+
+                    double eui = pui - rui;
+                    loss += eui * eui;
+
+                    // update bi
+                    double sgd = eui * (cu + cut) + regBias * bi;
+                    itemBiases.add(i, -learnRate * sgd);
+                    loss += regBias * bi * bi;
+
+                    // update bi,bin(t)
+                    sgd = eui * (cu + cut) + regBias * bit;
+                    Bit.add(i, bin, -learnRate * sgd);
+                    loss += regBias * bit * bit;
+
+                    // update cu
+                    sgd = eui * (bi + bit) + regBias * cu;
+                    Cu.add(u, -learnRate * sgd);
+                    loss += regBias * cu * cu;
+
+                    // update cut
+                    sgd = eui * (bi + bit) + regBias * cut;
+                    Cut.add(u, t, -learnRate * sgd);
+                    loss += regBias * cut * cut;
+
+                    // update bu
+                    sgd = eui + regBias * bu;
+                    userBiases.add(u, -learnRate * sgd);
+                    loss += regBias * bu * bu;
+
+                    // update au
+                    sgd = eui * dev_ut + regBias * au;
+                    Alpha.add(u, -learnRate * sgd);
+                    loss += regBias * au * au;
+
+                    // update but
+                    sgd = eui + regBias * but;
+                    double delta = but - learnRate * sgd;
+                    But.put(u, t, delta);
+                    loss += regBias * but * but;
+
+                    for (int k = 0; k < numFactors; k++) {
+                        double qik = Q.get(i, k);
+                        double puk = P.get(u, k);
+                        double auk = Auk.get(u, k);
+                        double pkt = Pkt.get(k, t);
+
+                        // update qik
+                        double pukt = puk + auk * dev_ut + pkt;
+
+                        sgd = eui * (pukt + sumY[k]) + regItem * qik;
+                        Q.add(i, k, -learnRate * sgd);
+                        loss += regItem * qik * qik;
+
+                        // update puk
+                        sgd = eui * qik + regUser * puk;
+                        P.add(u, k, -learnRate * sgd);
+                        loss += regUser * puk * puk;
+
+                        // update auk
+                        sgd = eui * qik * dev_ut + regUser * auk;
+                        Auk.add(u, k, -learnRate * sgd);
+                        loss += regUser * auk * auk;
+
+                        // update pkt
+                        sgd = eui * qik + regUser * pkt;
+                        delta = pkt - learnRate * sgd;
+                        Pkt.put(k, t, delta);
+                        loss += regUser * pkt * pkt;
+
+                        // gradient of yjk
+                        gradientY[k] += eui * qik / norm;
+                    }
+
+                    if (!implicitPerUser)
+                        updateY(u, gradientY);
                 }
+
+                if (implicitPerUser)
+                    updateY(u, gradientY);
             }
+            impItemSums.invalidate();
 
             loss *= 0.5;
 
@@ -376,6 +376,26 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
         }
     }
 
+    /**
+     * update the implicit factors of the items rated by a user, and reset their gradient
+     *
+     * @param u         the inner id of a user
+     * @param gradientY the gradient of the implicit factors, reset to zero
+     */
+    private void updateY(int u, double[] gradientY) {
+        for (int position = userItemsAdjacency.start(u); position < userItemsAdjacency.end(u); position++) {
+            int j = userItemsAdjacency.get(position);
+            for (int k = 0; k < numFactors; k++) {
+                double yjk = Y.get(j, k);
+                double sgd = gradientY[k] + regItem * yjk;
+                Y.add(j, k, -learnRate * sgd);
+                loss += regItem * yjk * yjk;
+            }
+        }
+        for (int k = 0; k < numFactors; k++)
+            gradientY[k] = 0;
+    }
+
     /**
      * predict a specific rating for user userIdx on item itemIdx.
      *
@@ -401,18 +421,9 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
         pred += userBiases.get(userIdx) + Alpha.get(userIdx) * dev_ut + but;
 
         // qi * yj
-        List<Integer> Ru = null;
-        try {
-            Ru = userItemsCache.get(userIdx);
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        }
-        double sum_y = 0;
-        for (int j : Ru)
-            sum_y += DenseMatrix.rowMult(Y, j, Q, itemIdx);
-
-        double wi = Ru.size() > 0 ? Math.pow(Ru.size(), -0.5) : 0;
-        pred += sum_y * wi;
+        double[] sumY = impItemSums.get(userIdx);
+        for (int k = 0; k < numFactors; k++)
+            pred += sumY[k] * Q.get(itemIdx, k);
 
         // qi * pu(t)
         for (int k = 0; k < numFactors; k++) {
@@ -500,4 +511,9 @@ public class TimeSVDRecommender extends BiasedMFRecommender {
             }
         }
     }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return false;
+    }
 }
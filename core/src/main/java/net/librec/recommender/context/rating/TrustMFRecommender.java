@@ -295,4 +295,9 @@ public class TrustMFRecommender extends SocialMFRecommender {
 
         return predictRating;
     }
+
+    @Override
+    public boolean isBatchScoringSupported() {
+        return false;
+    }
 }
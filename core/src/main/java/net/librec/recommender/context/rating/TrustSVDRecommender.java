@@ -17,20 +17,22 @@
  */
 package net.librec.recommender.context.rating;
 
-import com.google.common.cache.LoadingCache;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.DenseVector;
+import net.librec.math.structure.IndexAdjacency;
 import net.librec.math.structure.MatrixEntry;
+import net.librec.recommender.ImplicitFactorSums;
 import net.librec.recommender.SocialRecommender;
 
-import java.util.List;
-import java.util.concurrent.ExecutionException;
-
 /**
  * Guo et al., <strong>TrustSVD: Collaborative Filtering with Both the Explicit and Implicit Influence of User Trust and
  * of Item Ratings</strong>, AAAI 2015.
+ * <p>
+ * The implicit item factors of the items rated by a user are updated with each rating of the
+ * user. With {@code rec.implicit.peruser} the gradient of the implicit item factors is summed
+ * over the ratings of the user and applied once per user instead.
  *
  * @author guoguibing and Keqiang Wang
  */
@@ -72,15 +74,14 @@ public class TrustSVDRecommender extends SocialRecommender {
     protected double regBias;
 
     /**
-     * user-items cache, user-trustee cache
+     * items rated by each user, users (trustees) trusted by each user
      */
-    protected LoadingCache<Integer, List<Integer>> userItemsCache, userTrusteeCache;
-
+    protected IndexAdjacency userItemsAdjacency, userTrusteesAdjacency;
 
     /**
-     * Guava cache configuration
+     * normalized sums of the implicit factors of the items rated by each user, and of the factors of its trustees
      */
-    protected static String cacheSpec;
+    protected ImplicitFactorSums impItemSums, trusteeSums;
 
     /**
      * initial the model
@@ -92,8 +93,6 @@ public class TrustSVDRecommender extends SocialRecommender {
         super.setup();
         regBias = conf.getDouble("rec.bias.regularization", 0.01);
 
-        cacheSpec = conf.get("guava.cache.spec", "maximumSize=200,expireAfterAccess=2m");
-
         //initialize userBiases and itemBiases
         userBiases = new DenseVector(numUsers);
         itemBiases = new DenseVector(numItems);
@@ -103,8 +102,8 @@ public class TrustSVDRecommender extends SocialRecommender {
         //initialize trusteeFactors and impItemFactors
         trusteeFactors = new DenseMatrix(numUsers, numFactors);
         impItemFactors = new DenseMatrix(numItems, numFactors);
-        trusteeFactors.init(initMean, initStd);
-        impItemFactors.init(initMean, initStd);
+        initFactors(trusteeFactors);
+        initFactors(impItemFactors);
 
         //initialize trusteeWeights, trusterWeights, impItemWeights
         trusteeWeights = new DenseVector(numUsers);
@@ -124,9 +123,11 @@ public class TrustSVDRecommender extends SocialRecommender {
             impItemWeights.set(itemIdx, itemUsersCount > 0 ? 1.0 / Math.sqrt(itemUsersCount) : 1.0);
         }
 
-        //initialize user-items cache, user-trustee cache
-        userItemsCache = trainMatrix.rowColumnsCache(cacheSpec);
-        userTrusteeCache = socialMatrix.rowColumnsCache(cacheSpec);
+        //initialize user-items adjacency, user-trustees adjacency
+        userItemsAdjacency = trainMatrix.rowAdjacency();
+        userTrusteesAdjacency = socialMatrix.rowAdjacency();
+        impItemSums = new ImplicitFactorSums(userItemsAdjacency, impItemFactors, numUsers);
+        trusteeSums = new ImplicitFactorSums(userTrusteesAdjacency, trusteeFactors, numUsers);
     }
 
     /**
@@ -144,118 +145,106 @@ public class TrustSVDRecommender extends SocialRecommender {
             DenseMatrix tempUserFactors = new DenseMatrix(numUsers, numFactors);
             DenseMatrix trusteeTempFactors = new DenseMatrix(numUsers, numFactors);
 
-            for (MatrixEntry matrixEntry : trainMatrix) {
-                int userIdx = matrixEntry.row(); // user userIdx
-                int itemIdx = matrixEntry.column(); // item itemIdx
-                double realRating = matrixEntry.get(); // real rating on item itemIdx rated by user userIdx
-
-                // To speed up, directly access the prediction instead of invoking "predictRating = predict(userIdx,itemIdx)"
-                double userBiasValue = userBiases.get(userIdx);
-                double itemBiasValue = itemBiases.get(itemIdx);
-                double predictRating = globalMean + userBiasValue + itemBiasValue + DenseMatrix.rowMult(userFactors, userIdx, itemFactors, itemIdx);
-
-                // get the implicit influence predict rating using items rated by user userIdx
-                List<Integer> impItemsList = null;
-                try {
-                    impItemsList = userItemsCache.get(userIdx);
-                } catch (ExecutionException e) {
-                    e.printStackTrace();
+            double[] sumImpItemsFactors = new double[numFactors];
+            double[] sumTrusteesFactors = new double[numFactors];
+            double[] impItemsGradient = new double[numFactors];
+            double[] trusteesGradient = new double[numFactors];
+            for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+                int from = trainMatrix.rowPtr[userIdx], to = trainMatrix.rowPtr[userIdx + 1];
+                if (from == to) {
+                    continue;
                 }
-                if (impItemsList.size() > 0) {
-                    double sum = 0;
-                    for (int impItemIdx : impItemsList)
-                        sum += DenseMatrix.rowMult(impItemFactors, impItemIdx, itemFactors, itemIdx);
 
-                    predictRating += sum / Math.sqrt(impItemsList.size());
-                }
+                // the implicit influence of the items rated by user userIdx and
+                // the user-specific influence of users (trustees) trusted by user userIdx
+                impItemSums.compute(userIdx, sumImpItemsFactors);
+                trusteeSums.compute(userIdx, sumTrusteesFactors);
+                int impItemsSize = userItemsAdjacency.size(userIdx);
+                int trusteesSize = userTrusteesAdjacency.size(userIdx);
 
-                // the user-specific influence of users (trustees)trusted by user userIdx
-                List<Integer> trusteesList = null;
-                try {
-                    trusteesList = userTrusteeCache.get(userIdx);
-                } catch (ExecutionException e) {
-                    e.printStackTrace();
-                }
-                if (trusteesList.size() > 0) {
-                    double sum = 0.0;
-                    for (int trusteeIdx : trusteesList)
-                        sum += DenseMatrix.rowMult(trusteeFactors, trusteeIdx, itemFactors, itemIdx);
+                double userWeightDenom = Math.sqrt(impItemsSize);
+                double trusteeWeightDenom = Math.sqrt(trusteesSize);
 
-                    predictRating += sum / Math.sqrt(trusteesList.size());
+                double userWeight = 1.0 / userWeightDenom;
+                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                    impItemsGradient[factorIdx] = 0.0;
+                    trusteesGradient[factorIdx] = 0.0;
                 }
 
-                double error = predictRating - realRating;
-
-                loss += error * error;
-
-                double userWeightDenom = Math.sqrt(impItemsList.size());
-                double trusteeWeightDenom = Math.sqrt(trusteesList.size());
+                for (int entry = from; entry < to; entry++) {
+                    int itemIdx = trainMatrix.colInd[entry]; // item itemIdx
+                    double realRating = trainMatrix.rowData[entry]; // real rating on item itemIdx rated by user userIdx
 
-                double userWeight = 1.0 / userWeightDenom;
-                double itemWeight = impItemWeights.get(itemIdx);
-
-                // update factors
-                // stochastic gradient descent sgd
-                double sgd = error + regBias * userWeight * userBiasValue;
-                userBiases.add(userIdx, -learnRate * sgd);
+                    // the implicit item factors have changed with the previous rating of the user
+                    if (!implicitPerUser && entry > from) {
+                        impItemSums.compute(userIdx, sumImpItemsFactors);
+                    }
 
-                sgd = error + regBias * itemWeight * itemBiasValue;
-                itemBiases.add(itemIdx, -learnRate * sgd);
+                    // To speed up, directly access the prediction instead of invoking "predictRating = predict(userIdx,itemIdx)"
+                    double userBiasValue = userBiases.get(userIdx);
+                    double itemBiasValue = itemBiases.get(itemIdx);
+                    double predictRating = globalMean + userBiasValue + itemBiasValue + DenseMatrix.rowMult(userFactors, userIdx, itemFactors, itemIdx);
+                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                        predictRating += (sumImpItemsFactors[factorIdx] + sumTrusteesFactors[factorIdx]) * itemFactors.get(itemIdx, factorIdx);
+                    }
 
-                loss += regBias * userWeight * userBiasValue * userBiasValue +
-                        regBias * itemWeight * itemBiasValue * itemBiasValue;
+                    double error = predictRating - realRating;
 
-                double[] sumImpItemsFactors = new double[numFactors];
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double sum = 0;
-                    for (int impItemIdx : impItemsList)
-                        sum += impItemFactors.get(impItemIdx, factorIdx);
+                    loss += error * error;
 
-                    sumImpItemsFactors[factorIdx] = userWeightDenom > 0 ? sum / userWeightDenom : sum;
-                }
+                    double itemWeight = impItemWeights.get(itemIdx);
 
-                double[] sumTrusteesFactors = new double[numFactors];
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double sum = 0;
-                    for (int trusteeIdx : trusteesList)
-                        sum += trusteeFactors.get(trusteeIdx, factorIdx);
+                    // update factors
+                    // stochastic gradient descent sgd
+                    double sgd = error + regBias * userWeight * userBiasValue;
+                    userBiases.add(userIdx, -learnRate * sgd);
 
-                    sumTrusteesFactors[factorIdx] = trusteeWeightDenom > 0 ? sum / trusteeWeightDenom : sum;
-                }
+                    sgd = error + regBias * itemWeight * itemBiasValue;
+                    itemBiases.add(itemIdx, -learnRate * sgd);
 
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = userFactors.get(userIdx, factorIdx);
-                    double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
+                    loss += regBias * userWeight * userBiasValue * userBiasValue +
+                            regBias * itemWeight * itemBiasValue * itemBiasValue;
 
-                    double deltaUser = error * itemFactorValue + regUser * userWeight * userFactorValue;
-                    double deltaItem = error * (userFactorValue + sumImpItemsFactors[factorIdx] + sumTrusteesFactors[factorIdx])
-                            + regItem * itemWeight * itemFactorValue;
+                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                        double userFactorValue = userFactors.get(userIdx, factorIdx);
+                        double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
 
-                    tempUserFactors.add(userIdx, factorIdx, deltaUser);
-                    itemFactors.add(itemIdx, factorIdx, -learnRate * deltaItem);
+                        double deltaUser = error * itemFactorValue + regUser * userWeight * userFactorValue;
+                        double deltaItem = error * (userFactorValue + sumImpItemsFactors[factorIdx] + sumTrusteesFactors[factorIdx])
+                                + regItem * itemWeight * itemFactorValue;
 
-                    loss += regUser * userWeight * userFactorValue * userFactorValue
-                            + regItem * itemWeight * itemFactorValue * itemFactorValue;
+                        tempUserFactors.add(userIdx, factorIdx, deltaUser);
+                        itemFactors.add(itemIdx, factorIdx, -learnRate * deltaItem);
 
-                    for (int impItemIdx : impItemsList) {
-                        double impItemFactorValue = impItemFactors.get(impItemIdx, factorIdx);
+                        loss += regUser * userWeight * userFactorValue * userFactorValue
+                                + regItem * itemWeight * itemFactorValue * itemFactorValue;
 
-                        double impItemWeightValue = impItemWeights.get(impItemIdx);
-                        double deltaImpItem = error * itemFactorValue / userWeightDenom + regItem * impItemWeightValue * impItemFactorValue;
-                        impItemFactors.add(impItemIdx, factorIdx, -learnRate * deltaImpItem);
+                        impItemsGradient[factorIdx] += error * itemFactorValue / userWeightDenom;
+                        if (trusteesSize > 0)
+                            trusteesGradient[factorIdx] += error * itemFactorValue / trusteeWeightDenom;
+                    }
 
-                        loss += regItem * itemWeight * impItemFactorValue * impItemFactorValue;
+                    if (!implicitPerUser) {
+                        updateImpItemFactors(userIdx, impItemsGradient);
                     }
+                }
 
-                    // update trusteeTempFactors
-                    for (int trusteeIdx : trusteesList) {
+                if (implicitPerUser) {
+                    updateImpItemFactors(userIdx, impItemsGradient);
+                }
+
+                // update trusteeTempFactors, with the regularization of each rating of the user
+                int numRatings = to - from;
+                for (int position = userTrusteesAdjacency.start(userIdx); position < userTrusteesAdjacency.end(userIdx); position++) {
+                    int trusteeIdx = userTrusteesAdjacency.get(position);
+                    double trusteeWeightValue = trusteeWeights.get(trusteeIdx);
+                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
                         double trusteeFactorValue = trusteeFactors.get(trusteeIdx, factorIdx);
 
-                        double trusteeWeightValue = trusteeWeights.get(trusteeIdx);
-                        double deltaTrustee = error * itemFactorValue / trusteeWeightDenom + regUser * trusteeWeightValue * trusteeFactorValue;
+                        double deltaTrustee = trusteesGradient[factorIdx] + numRatings * regUser * trusteeWeightValue * trusteeFactorValue;
                         trusteeTempFactors.add(trusteeIdx, factorIdx, deltaTrustee);
 
-                        loss += regUser * userWeight * trusteeFactorValue * trusteeFactorValue;
+                        loss += numRatings * regUser * userWeight * trusteeFactorValue * trusteeFactorValue;
                     }
                 }
             }
@@ -289,6 +278,8 @@ public class TrustSVDRecommender extends SocialRecommender {
 
             userFactors.addEqual(tempUserFactors.scale(-learnRate));
             trusteeFactors.addEqual(trusteeTempFactors.scale(-learnRate));
+            impItemSums.invalidate();
+            trusteeSums.invalidate();
 
             loss *= 0.5d;
 
@@ -299,6 +290,30 @@ public class TrustSVDRecommender extends SocialRecommender {
         }// end of training
     }
 
+    /**
+     * update the implicit factors of the items rated by user userIdx, and reset their gradient.
+     *
+     * @param userIdx          user index
+     * @param impItemsGradient gradient of the implicit item factors, reset to zero
+     */
+    private void updateImpItemFactors(int userIdx, double[] impItemsGradient) {
+        for (int position = userItemsAdjacency.start(userIdx); position < userItemsAdjacency.end(userIdx); position++) {
+            int impItemIdx = userItemsAdjacency.get(position);
+            double impItemWeightValue = impItemWeights.get(impItemIdx);
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                double impItemFactorValue = impItemFactors.get(impItemIdx, factorIdx);
+
+                double deltaImpItem = impItemsGradient[factorIdx] + regItem * impItemWeightValue * impItemFactorValue;
+                impItemFactors.add(impItemIdx, factorIdx, -learnRate * deltaImpItem);
+
+                loss += regItem * impItemWeightValue * impItemFactorValue * impItemFactorValue;
+            }
+        }
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            impItemsGradient[factorIdx] = 0.0;
+        }
+    }
+
     /**
      * predict a specific rating for user userIdx on item itemIdx.
      *
@@ -310,34 +325,12 @@ public class TrustSVDRecommender extends SocialRecommender {
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
         double predictRating = globalMean + userBiases.get(userIdx) + itemBiases.get(itemIdx) + DenseMatrix.rowMult(userFactors, userIdx, itemFactors, itemIdx);
 
-        //the implicit influence of items rated by user in the past on the ratings of unknown items in the future.
-        List<Integer> userItemsList = null;
-        try {
-            userItemsList = userItemsCache.get(userIdx);
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        }
-        if (userItemsList.size() > 0) {
-            double sum = 0;
-            for (int userItemIdx : userItemsList)
-                sum += DenseMatrix.rowMult(impItemFactors, userItemIdx, itemFactors, itemIdx);
-
-            predictRating += sum / Math.sqrt(userItemsList.size());
-        }
-
-        // the user-specific influence of users (trustees)trusted by user u
-        List<Integer> trusteeList = null;
-        try {
-            trusteeList = userTrusteeCache.get(userIdx);
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        }
-        if (trusteeList.size() > 0) {
-            double sum = 0.0;
-            for (int trusteeIdx : trusteeList)
-                sum += DenseMatrix.rowMult(trusteeFactors, trusteeIdx, itemFactors, itemIdx);
-
-            predictRating += sum / Math.sqrt(trusteeList.size());
+        //the implicit influence of items rated by user in the past on the ratings of unknown items in the future,
+        // and the user-specific influence of users (trustees)trusted by user u
+        double[] userImpItemsFactors = impItemSums.get(userIdx);
+        double[] userTrusteesFactors = trusteeSums.get(userIdx);
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            predictRating += (userImpItemsFactors[factorIdx] + userTrusteesFactors[factorIdx]) * itemFactors.get(itemIdx, factorIdx);
         }
 
         return predictRating;
@@ -17,16 +17,13 @@
  */
 package net.librec.recommender.ext;
 
-import com.google.common.cache.LoadingCache;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
-import net.librec.math.structure.SparseVector;
-import net.librec.math.structure.VectorEntry;
+import net.librec.math.structure.IndexAdjacency;
 import net.librec.recommender.AbstractRecommender;
 
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
 
 /**
  * Choonho Kim and Juntae Kim, <strong>A Recommendation Algorithm Using Multi-Level Association Rules</strong>, WI 2003.
@@ -45,14 +42,9 @@ public class AssociationRuleRecommender extends AbstractRecommender {
     private Table<Integer, Integer, Double> associationTable;
 
     /**
-     * user-vector cache, item-vector cache
+     * users who rated each item
      */
-    protected LoadingCache<Integer, SparseVector> userCache;
-
-    /**
-     * Guava cache configuration
-     */
-    protected static String cacheSpec;
+    protected IndexAdjacency itemUsersAdjacency;
 
     /**
      * setup
@@ -62,29 +54,32 @@ public class AssociationRuleRecommender extends AbstractRecommender {
     @Override
     protected void setup() throws LibrecException {
         super.setup();
-        cacheSpec = conf.get("guava.cache.spec", "maximumSize=200,expireAfterAccess=2m");
 
         associationTable = HashBasedTable.create(numItems, numItems);
-        userCache = trainMatrix.rowCache(cacheSpec);
+        itemUsersAdjacency = trainMatrix.columnAdjacency();
     }
 
     @Override
     protected void trainModel() throws LibrecException {
         // simple rule: X => Y, given that each user vector is regarded as a transaction
+        int[] counts = new int[numItems];
         for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
             // all transactions for item itemIdx
-            SparseVector userRatingsVector = trainMatrix.column(itemIdx);
-            int userCount = userRatingsVector.size();
+            int userCount = itemUsersAdjacency.size(itemIdx);
 
-            for (int assoItemIdx = 0; assoItemIdx < numItems; assoItemIdx++) {
-                // compute confidence where containing item assoItemIdx among userRatingsVector
-                int count = 0;
-                for (VectorEntry vectorEntry : userRatingsVector) {
-                    int userIdx = vectorEntry.index();
-                    double assoRatings = trainMatrix.get(userIdx, assoItemIdx);
-                    if (assoRatings > 0)
-                        count++;
+            // count the transactions containing each item assoItemIdx by walking the items of the users
+            for (int userPosition = itemUsersAdjacency.start(itemIdx); userPosition < itemUsersAdjacency.end(itemIdx); userPosition++) {
+                int userIdx = itemUsersAdjacency.get(userPosition);
+                for (int entry = trainMatrix.rowPtr[userIdx]; entry < trainMatrix.rowPtr[userIdx + 1]; entry++) {
+                    if (trainMatrix.rowData[entry] > 0)
+                        counts[trainMatrix.colInd[entry]]++;
                 }
+            }
+
+            for (int assoItemIdx = 0; assoItemIdx < numItems; assoItemIdx++) {
+                // compute confidence where containing item assoItemIdx among the transactions
+                int count = counts[assoItemIdx];
+                counts[assoItemIdx] = 0;
 
                 if (count > 0) {
                     double conf = (count + 0.0) / userCount;
@@ -104,18 +99,11 @@ public class AssociationRuleRecommender extends AbstractRecommender {
      */
     @Override
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
-        SparseVector itemRatingsVector = null;
-        try {
-            itemRatingsVector = userCache.get(userIdx);
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        }
-
         double predictRatings = 0;
         for (Map.Entry<Integer, Double> mapEntry : associationTable.column(itemIdx).entrySet()) {
             int assoItemIdx = mapEntry.getKey();
             double support = mapEntry.getValue();
-            predictRatings += itemRatingsVector.get(assoItemIdx) * support;
+            predictRatings += trainMatrix.get(userIdx, assoItemIdx) * support;
         }
 
         return predictRatings;
@@ -20,7 +20,7 @@ package net.librec.recommender.ext;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseMatrix;
-import net.librec.math.structure.SparseVector;
+import net.librec.math.structure.SparseMatrix;
 import net.librec.recommender.AbstractRecommender;
 
 /**
@@ -38,6 +38,16 @@ public class SlopeOneRecommender extends AbstractRecommender {
      */
     private DenseMatrix devMatrix, cardMatrix;
 
+    /**
+     * view of the items rated by the user of the current prediction, one per thread
+     */
+    private final ThreadLocal<SparseMatrix.RowView> itemRatings = new ThreadLocal<SparseMatrix.RowView>() {
+        @Override
+        protected SparseMatrix.RowView initialValue() {
+            return new SparseMatrix.RowView();
+        }
+    };
+
     /**
      * initialization
      *
@@ -59,15 +69,17 @@ public class SlopeOneRecommender extends AbstractRecommender {
     @Override
     protected void trainModel() throws LibrecException {
         // compute items' differences
+        SparseMatrix.RowView itemRatingsVector = new SparseMatrix.RowView();
         for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-            SparseVector itemRatingsVector = trainMatrix.row(userIdx);
-            int[] items = itemRatingsVector.getIndex();
+            trainMatrix.rowView(userIdx, itemRatingsVector);
 
-            for (int itemIdx : items) {
-                double userItemRating = itemRatingsVector.get(itemIdx);
-                for (int comparedItemIdx : items) {
+            for (int position = 0; position < itemRatingsVector.size(); position++) {
+                int itemIdx = itemRatingsVector.indexAt(position);
+                double userItemRating = itemRatingsVector.valueAt(position);
+                for (int comparedPosition = 0; comparedPosition < itemRatingsVector.size(); comparedPosition++) {
+                    int comparedItemIdx = itemRatingsVector.indexAt(comparedPosition);
                     if (itemIdx != comparedItemIdx) {
-                        double comparedRating = itemRatingsVector.get(comparedItemIdx);
+                        double comparedRating = itemRatingsVector.valueAt(comparedPosition);
                         devMatrix.add(itemIdx, comparedItemIdx, userItemRating - comparedRating);
                         cardMatrix.add(itemIdx, comparedItemIdx, 1);
                     }
@@ -98,12 +110,16 @@ public class SlopeOneRecommender extends AbstractRecommender {
      */
     @Override
     protected double predict(int userIdx, int itemIdx) throws LibrecException {
-        SparseVector itemRatingsVector = trainMatrix.row(userIdx, itemIdx);
+        SparseMatrix.RowView itemRatingsVector = trainMatrix.rowView(userIdx, itemRatings.get());
         double predictRatings = 0, cardinaryValues = 0;
-        for (int comparedItemIdx : itemRatingsVector.getIndex()) {
+        for (int position = 0; position < itemRatingsVector.size(); position++) {
+            int comparedItemIdx = itemRatingsVector.indexAt(position);
+            if (comparedItemIdx == itemIdx) {
+                continue;
+            }
             double cardinaryValue = cardMatrix.get(itemIdx, comparedItemIdx);
             if (cardinaryValue > 0) {
-                predictRatings += (devMatrix.get(itemIdx, comparedItemIdx) + itemRatingsVector.get(comparedItemIdx)) * cardinaryValues;
+                predictRatings += (devMatrix.get(itemIdx, comparedItemIdx) + itemRatingsVector.valueAt(position)) * cardinaryValues;
                 cardinaryValues += cardinaryValue;
             }
         }
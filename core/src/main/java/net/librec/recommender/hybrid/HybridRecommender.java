@@ -20,13 +20,10 @@ package net.librec.recommender.hybrid;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
-import net.librec.math.structure.SparseVector;
+import net.librec.math.structure.IntSet;
+import net.librec.math.structure.SparseMatrix;
 import net.librec.recommender.AbstractRecommender;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
-
 /**
  * Zhou et al., <strong>Solving the apparent diversity-accuracy dilemma of recommender systems</strong>, Proceedings of
  * the National Academy of Sciences, 2010.
@@ -37,7 +34,13 @@ public class HybridRecommender extends AbstractRecommender {
     Table<Integer, Integer, Double> userItemRanks = HashBasedTable.create();
     protected float lambda;
 
-    Map<Integer, Integer> itemDegrees = new HashMap<>();
+    int[] itemDegrees;
+
+    /**
+     * the items rated by the current user, and the resources distributed to each user
+     */
+    private IntSet itemsSet;
+    private double[] userResources;
 
     /**
      * initialization
@@ -50,9 +53,12 @@ public class HybridRecommender extends AbstractRecommender {
 
         lambda = conf.getFloat("rec.hybrid.lambda");
 
+        itemDegrees = new int[numItems];
         for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-            itemDegrees.put(itemIdx, trainMatrix.columnSize(itemIdx));
+            itemDegrees[itemIdx] = trainMatrix.columnSize(itemIdx);
         }
+        itemsSet = new IntSet(numItems);
+        userResources = new double[numUsers];
     }
 
     /**
@@ -74,35 +80,36 @@ public class HybridRecommender extends AbstractRecommender {
             // new user
             userItemRanks.clear();
 
-            SparseVector itemRatingsVector = trainMatrix.row(userIdx);
-            Set<Integer> itemsSet = itemRatingsVector.getIndexSet();
+            itemsSet.clear();
+            itemsSet.addAll(trainMatrix.rowView(userIdx));
 
             // distribute resources to users, including user u
-            Map<Integer, Double> userResources = new HashMap<>();
+            SparseMatrix.RowView tempItemRatingsVector = new SparseMatrix.RowView();
             for (int tempUserIdx = 0; tempUserIdx < numUsers; tempUserIdx++) {
-                SparseVector tempItemRatingsVector = trainMatrix.row(tempUserIdx);
+                trainMatrix.rowView(tempUserIdx, tempItemRatingsVector);
                 double sum = 0;
-                int tempItemsCount = tempItemRatingsVector.getCount();
-                for (int tempItemIdx : tempItemRatingsVector.getIndex()) {
+                int tempItemsCount = tempItemRatingsVector.size();
+                for (int position = 0; position < tempItemsCount; position++) {
+                    int tempItemIdx = tempItemRatingsVector.indexAt(position);
                     if (itemsSet.contains(tempItemIdx))
-                        sum += 1.0 / Math.pow(itemDegrees.get(tempItemIdx), lambda);
+                        sum += 1.0 / Math.pow(itemDegrees[tempItemIdx], lambda);
                 }
 
-                if (tempItemsCount > 0)
-                    userResources.put(tempUserIdx, sum / tempItemsCount);
+                userResources[tempUserIdx] = tempItemsCount > 0 ? sum / tempItemsCount : 0.0;
             }
 
             // redistribute resources to items
+            SparseMatrix.ColumnView tempUserRatingsVector = new SparseMatrix.ColumnView();
             for (int tempItemIdx = 0; tempItemIdx < numItems; tempItemIdx++) {
                 if (itemsSet.contains(tempItemIdx))
                     continue;
 
-                SparseVector tempUserRatingsVector = trainMatrix.column(tempItemIdx);
+                trainMatrix.columnView(tempItemIdx, tempUserRatingsVector);
                 double sum = 0;
-                for (int tempUserIdx : tempUserRatingsVector.getIndex())
-                    sum += userResources.containsKey(tempUserIdx) ? userResources.get(tempUserIdx) : 0.0;
+                for (int position = 0; position < tempUserRatingsVector.size(); position++)
+                    sum += userResources[tempUserRatingsVector.indexAt(position)];
 
-                double score = sum / Math.pow(itemDegrees.get(tempItemIdx), 1 - lambda);
+                double score = sum / Math.pow(itemDegrees[tempItemIdx], 1 - lambda);
                 userItemRanks.put(userIdx, tempItemIdx, score);
             }
         }
@@ -0,0 +1,643 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.item;
+
+import net.librec.util.TopKHeap;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Compact Recommended Item List
+ * <p>
+ * A {@link RecommendedList} stored column-wise in flat primitive arrays: the
+ * entries of user {@code u} are {@code itemIndices[userOffsets[u] .. userOffsets[u + 1])}
+ * and the matching {@code scores}, i.e. about 12 bytes per entry instead of an
+ * {@link ItemEntry} with a boxed key and value.
+ * <p>
+ * Entries appended in non-decreasing user order, as produced by
+ * {@code recommendRank} and {@code recommendRating}, are written in place.
+ * Entries of an earlier user are buffered and grouped by user with a stable
+ * counting sort on the next read, so the insertion order within a user is kept.
+ * {@link #getEntryValue(int, int)} binary searches a per-user item order which is
+ * built on first use.
+ */
+public class CompactRecommendedItemList implements RecommendedList, Serializable {
+    private static final long serialVersionUID = 3170421736547251097L;
+
+    /**
+     * default number of entries allocated at construction
+     */
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * the max user index
+     */
+    private final int maxUserIdx;
+
+    /**
+     * start of the entries of each user, {@code userOffsets[maxUserIdx + 1]} is the number of entries
+     */
+    private int[] userOffsets;
+
+    /**
+     * item index of each entry
+     */
+    private int[] itemIndices;
+
+    /**
+     * score of each entry
+     */
+    private double[] scores;
+
+    /**
+     * the number of entries
+     */
+    private int numEntries;
+
+    /**
+     * the user of the last entry appended in user order
+     */
+    private int lastUserIdx = -1;
+
+    /**
+     * the number of entries covered by {@link #userOffsets}
+     */
+    private int sealedEntries = -1;
+
+    /**
+     * user index of each entry, only kept while entries are out of user order
+     */
+    private int[] entryUsers;
+
+    /**
+     * positions of the entries of each user sorted by item index, built lazily
+     */
+    private transient int[] itemOrder;
+
+    /**
+     * the number of users with at least one entry
+     */
+    private int size;
+
+    /**
+     * Constructs an empty list.
+     *
+     * @param maxUserIdxParam the max user index
+     * @throws IllegalArgumentException if the max user index is negative
+     */
+    public CompactRecommendedItemList(int maxUserIdxParam) {
+        this(maxUserIdxParam, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty list with the specified initial capacity (number of entries).
+     *
+     * @param maxUserIdxParam   the max user index
+     * @param initCapacityParam the number of entries to allocate
+     * @throws IllegalArgumentException if the max user index or the capacity is negative
+     */
+    public CompactRecommendedItemList(int maxUserIdxParam, int initCapacityParam) {
+        if (maxUserIdxParam < 0)
+            throw new IllegalArgumentException("Illegal max user index: " + maxUserIdxParam);
+        if (initCapacityParam < 0)
+            throw new IllegalArgumentException("Illegal capacity: " + initCapacityParam);
+
+        this.maxUserIdx = maxUserIdxParam;
+        this.userOffsets = new int[maxUserIdx + 2];
+        this.itemIndices = new int[initCapacityParam];
+        this.scores = new double[initCapacityParam];
+    }
+
+    /**
+     * Appends the specified element to the end of this list.
+     *
+     * @param userIdx user index
+     * @param itemIdx item index
+     * @param rating  rating value
+     * @return <tt>true</tt> (as specified by {@link Collection#add})
+     */
+    @Override
+    public boolean addUserItemIdx(int userIdx, int itemIdx, double rating) {
+        userRangeCheck(userIdx);
+        prepareAppend(userIdx, 1);
+        itemIndices[numEntries] = itemIdx;
+        scores[numEntries] = rating;
+        numEntries++;
+        return true;
+    }
+
+    /**
+     * Appends the first {@code length} items and ratings of the given arrays to the entries of a user.
+     *
+     * @param userIdx     user index
+     * @param itemIdxList item indices
+     * @param ratingList  rating values
+     * @param length      the number of entries to append
+     * @return <tt>true</tt> if any entry is appended
+     */
+    public boolean addUserItemIdxs(int userIdx, int[] itemIdxList, double[] ratingList, int length) {
+        userRangeCheck(userIdx);
+        if (length <= 0) {
+            return false;
+        }
+        prepareAppend(userIdx, length);
+        System.arraycopy(itemIdxList, 0, itemIndices, numEntries, length);
+        System.arraycopy(ratingList, 0, scores, numEntries, length);
+        numEntries += length;
+        return true;
+    }
+
+    /**
+     * Make room for new entries of a user and record where they start.
+     *
+     * @param userIdx    user index
+     * @param numAppends the number of entries to append
+     */
+    private void prepareAppend(int userIdx, int numAppends) {
+        ensureCapacity(numEntries + numAppends);
+        itemOrder = null;
+
+        if (entryUsers == null && userIdx < lastUserIdx) {
+            // out of user order: remember the user of every entry until the next read
+            seal();
+            entryUsers = new int[itemIndices.length];
+            for (int user = 0; user <= maxUserIdx; user++) {
+                Arrays.fill(entryUsers, userOffsets[user], userOffsets[user + 1], user);
+            }
+        }
+
+        if (entryUsers != null) {
+            if (entryUsers.length < itemIndices.length) {
+                entryUsers = Arrays.copyOf(entryUsers, itemIndices.length);
+            }
+            Arrays.fill(entryUsers, numEntries, numEntries + numAppends, userIdx);
+        } else if (userIdx > lastUserIdx) {
+            Arrays.fill(userOffsets, lastUserIdx + 1, userIdx + 1, numEntries);
+            lastUserIdx = userIdx;
+        }
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > itemIndices.length) {
+            int newCapacity = Math.max(minCapacity, itemIndices.length + (itemIndices.length >> 1) + 1);
+            itemIndices = Arrays.copyOf(itemIndices, newCapacity);
+            scores = Arrays.copyOf(scores, newCapacity);
+        }
+    }
+
+    /**
+     * Bring {@link #userOffsets} up to date with the appended entries.
+     */
+    private void seal() {
+        if (entryUsers != null) {
+            groupByUser();
+        } else if (sealedEntries != numEntries) {
+            Arrays.fill(userOffsets, lastUserIdx + 1, maxUserIdx + 2, numEntries);
+        } else {
+            return;
+        }
+        sealedEntries = numEntries;
+        countUsers();
+    }
+
+    /**
+     * Recount the users with at least one entry.
+     */
+    private void countUsers() {
+        size = 0;
+        for (int user = 0; user <= maxUserIdx; user++) {
+            if (userOffsets[user + 1] > userOffsets[user]) {
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Stable counting sort of the buffered entries by user.
+     */
+    private void groupByUser() {
+        int[] counts = new int[maxUserIdx + 2];
+        for (int i = 0; i < numEntries; i++) {
+            counts[entryUsers[i] + 1]++;
+        }
+        for (int user = 0; user <= maxUserIdx; user++) {
+            counts[user + 1] += counts[user];
+        }
+        System.arraycopy(counts, 0, userOffsets, 0, counts.length);
+
+        int[] sortedItems = new int[itemIndices.length];
+        double[] sortedScores = new double[scores.length];
+        for (int i = 0; i < numEntries; i++) {
+            int position = counts[entryUsers[i]]++;
+            sortedItems[position] = itemIndices[i];
+            sortedScores[position] = scores[i];
+        }
+        itemIndices = sortedItems;
+        scores = sortedScores;
+        entryUsers = null;
+
+        lastUserIdx = -1;
+        for (int user = maxUserIdx; user >= 0; user--) {
+            if (userOffsets[user + 1] > userOffsets[user]) {
+                lastUserIdx = user;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the itemEntry of user index in this list, as a read-only view which
+     * is valid until this list is modified.
+     *
+     * @param userIdx user index
+     * @return the itemEntry of user index in this list
+     * @throws IndexOutOfBoundsException if the user index is out of range
+     */
+    @Override
+    public List<ItemEntry<Integer, Double>> getItemIdxListByUserIdx(int userIdx) throws IndexOutOfBoundsException {
+        userRangeCheck(userIdx);
+        seal();
+        return new ItemEntryListView(userOffsets[userIdx], userOffsets[userIdx + 1]);
+    }
+
+    /**
+     * @param userIdx user index
+     * @return the number of entries of the user
+     */
+    public int getItemSizeByUserIdx(int userIdx) {
+        userRangeCheck(userIdx);
+        seal();
+        return userOffsets[userIdx + 1] - userOffsets[userIdx];
+    }
+
+    /**
+     * @param userIdx  user index
+     * @param position position in the entries of the user
+     * @return item index of the entry
+     */
+    public int getItemIdx(int userIdx, int position) {
+        return itemIndices[entryIndex(userIdx, position)];
+    }
+
+    /**
+     * @param userIdx  user index
+     * @param position position in the entries of the user
+     * @return score of the entry
+     */
+    public double getItemValue(int userIdx, int position) {
+        return scores[entryIndex(userIdx, position)];
+    }
+
+    private int entryIndex(int userIdx, int position) {
+        userRangeCheck(userIdx);
+        seal();
+        int index = userOffsets[userIdx] + position;
+        if (position < 0 || index >= userOffsets[userIdx + 1])
+            throw new IndexOutOfBoundsException(outOfBoundsMsg(position, " Item position", userOffsets[userIdx + 1] - userOffsets[userIdx]));
+        return index;
+    }
+
+    /**
+     * Removes the entries of a user.
+     *
+     * @param userIdx user index
+     * @return the entries that were removed from the list
+     * @throws IndexOutOfBoundsException if the user index is out of range
+     */
+    @Override
+    public List<ItemEntry<Integer, Double>> removeUserIdx(int userIdx) throws IndexOutOfBoundsException {
+        userRangeCheck(userIdx);
+        seal();
+        int from = userOffsets[userIdx], to = userOffsets[userIdx + 1];
+        List<ItemEntry<Integer, Double>> oldValue = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            oldValue.add(new ItemEntry<Integer, Double>(itemIndices[i], scores[i]));
+        }
+        if (to > from) {
+            removeRange(userIdx, from, to);
+            size--;
+        }
+        return oldValue;
+    }
+
+    /**
+     * Remove the entries in [from, to) which belong to the given user, and shift the following entries.
+     */
+    private void removeRange(int userIdx, int from, int to) {
+        int removed = to - from;
+        System.arraycopy(itemIndices, to, itemIndices, from, numEntries - to);
+        System.arraycopy(scores, to, scores, from, numEntries - to);
+        for (int user = userIdx + 1; user <= maxUserIdx + 1; user++) {
+            userOffsets[user] -= removed;
+        }
+        numEntries -= removed;
+        sealedEntries = numEntries;
+        itemOrder = null;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this list contains entries of the specified userIdx.
+     *
+     * @param userIdx user index whose presence in this list is to be tested
+     * @return <tt>true</tt> if this list contains the specified userIdx
+     */
+    @Override
+    public boolean contains(int userIdx) {
+        if (userIdx < 0 || userIdx > maxUserIdx) {
+            return false;
+        }
+        seal();
+        return userOffsets[userIdx + 1] > userOffsets[userIdx];
+    }
+
+    /**
+     * Returns the score of an entry, searched in O(log n) through the item order of the user.
+     *
+     * @param userIdx user index
+     * @param itemIdx item index
+     * @return the score of the entry, or -1.0 if there is no such entry
+     * @throws IndexOutOfBoundsException if the user index is out of range
+     */
+    @Deprecated
+    @Override
+    public double getEntryValue(int userIdx, int itemIdx) throws IndexOutOfBoundsException {
+        userRangeCheck(userIdx);
+        seal();
+        if (itemOrder == null) {
+            buildItemOrder();
+        }
+        int low = userOffsets[userIdx], high = userOffsets[userIdx + 1] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleItemIdx = itemIndices[itemOrder[middle]];
+            if (middleItemIdx < itemIdx) {
+                low = middle + 1;
+            } else if (middleItemIdx > itemIdx) {
+                high = middle - 1;
+            } else {
+                return scores[itemOrder[middle]];
+            }
+        }
+        return -1.0;
+    }
+
+    /**
+     * Sort the entry positions of every user by item index.
+     */
+    private void buildItemOrder() {
+        int[] order = new int[numEntries];
+        for (int user = 0; user <= maxUserIdx; user++) {
+            int from = userOffsets[user], to = userOffsets[user + 1];
+            for (int i = from; i < to; i++) {
+                // insertion sort, recommended lists of a user are short
+                int itemIdx = itemIndices[i];
+                int j = i - 1;
+                while (j >= from && itemIndices[order[j]] > itemIdx) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = i;
+            }
+        }
+        itemOrder = order;
+    }
+
+    /**
+     * top n ranked Items for all userIdx
+     *
+     * @param itemTopN top n ranked Items
+     */
+    @Override
+    public void topNRank(int itemTopN) {
+        seal();
+        TopKHeap heap = new TopKHeap(Math.max(1, itemTopN));
+        int writeIndex = 0;
+        int readStart = userOffsets[0];
+        for (int user = 0; user <= maxUserIdx; user++) {
+            int from = readStart, to = userOffsets[user + 1];
+            readStart = to;
+            userOffsets[user] = writeIndex;
+            writeIndex = rankSlice(heap, from, to, writeIndex, itemTopN);
+        }
+        userOffsets[maxUserIdx + 1] = writeIndex;
+        numEntries = writeIndex;
+        sealedEntries = numEntries;
+        itemOrder = null;
+        countUsers();
+    }
+
+    /**
+     * top n ranked Items at user userIdx
+     *
+     * @param userIdx user userIdx
+     * @param topN    top n ranked Items
+     */
+    @Override
+    public void topNRankItemsByUser(int userIdx, int topN) {
+        userRangeCheck(userIdx);
+        seal();
+        int from = userOffsets[userIdx], to = userOffsets[userIdx + 1];
+        int end = rankSlice(new TopKHeap(Math.max(1, topN)), from, to, from, topN);
+        if (end < to) {
+            removeRange(userIdx, end, to);
+            if (end == from) {
+                size--;
+            }
+        }
+        itemOrder = null;
+    }
+
+    /**
+     * Keep the topN entries of [from, to) by descending score and write them from writeIndex on.
+     *
+     * @return the end of the written entries
+     */
+    private int rankSlice(TopKHeap heap, int from, int to, int writeIndex, int topN) {
+        if (topN <= 0) {
+            return writeIndex;
+        }
+        heap.clear();
+        for (int i = from; i < to; i++) {
+            heap.offer(itemIndices[i], scores[i]);
+        }
+        heap.sortDescending();
+        for (int rank = 0; rank < heap.size(); rank++) {
+            itemIndices[writeIndex] = heap.indexAt(rank);
+            scores[writeIndex] = heap.valueAt(rank);
+            writeIndex++;
+        }
+        return writeIndex;
+    }
+
+    /**
+     * Checks if the given user index is in range. If not, throws an appropriate
+     * runtime exception.
+     *
+     * @param userIdx user index
+     */
+    private void userRangeCheck(int userIdx) {
+        if (userIdx < 0 || userIdx > maxUserIdx)
+            throw new IndexOutOfBoundsException(outOfBoundsMsg(userIdx, " User", maxUserIdx));
+    }
+
+    private String outOfBoundsMsg(int index, String msg, int size) {
+        return msg + " Index: " + index + ", Size: " + size;
+    }
+
+    /**
+     * the number of users with at least one entry
+     *
+     * @return the number of users
+     */
+    @Override
+    public int size() {
+        seal();
+        return size;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int numEntries() {
+        return numEntries;
+    }
+
+    /**
+     * get the iterator of user index
+     *
+     * @return user index iterator
+     */
+    @Override
+    public Iterator<Integer> userIterator() {
+        seal();
+        return new UserListIterator();
+    }
+
+    /**
+     * get the iterator of user-item-rating entry. The iterator returns the same
+     * entry instance on every call of {@code next()}.
+     *
+     * @return user item-rating-entry iterator
+     */
+    @Override
+    public Iterator<UserItemRatingEntry> entryIterator() {
+        seal();
+        return new UserItemRatingItr();
+    }
+
+    /**
+     * read-only list of item entries backed by a slice of the arrays
+     */
+    private class ItemEntryListView extends AbstractList<ItemEntry<Integer, Double>> implements RandomAccess {
+        private final int from, to;
+
+        ItemEntryListView(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public ItemEntry<Integer, Double> get(int index) {
+            if (index < 0 || index >= to - from)
+                throw new IndexOutOfBoundsException(outOfBoundsMsg(index, " Item position", to - from));
+            return new ItemEntry<Integer, Double>(itemIndices[from + index], scores[from + index]);
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    /**
+     * user list iterator
+     */
+    private class UserListIterator implements Iterator<Integer> {
+        int cursor; // index of next element to return
+        int lastRet = -1; // index of last element returned; -1 if no such
+
+        public UserListIterator() {
+            cursor = nextNonEmptyUser(0);
+        }
+
+        private int nextNonEmptyUser(int user) {
+            while (user <= maxUserIdx && userOffsets[user + 1] == userOffsets[user]) {
+                user++;
+            }
+            return user;
+        }
+
+        public boolean hasNext() {
+            return cursor <= maxUserIdx;
+        }
+
+        public Integer next() {
+            if (cursor > maxUserIdx)
+                throw new NoSuchElementException();
+            lastRet = cursor;
+            cursor = nextNonEmptyUser(cursor + 1);
+            return lastRet;
+        }
+
+        public void remove() {
+            if (lastRet < 0)
+                throw new IllegalStateException();
+            CompactRecommendedItemList.this.removeUserIdx(lastRet);
+            lastRet = -1;
+        }
+    }
+
+    /**
+     * iterator of user-item-rating entry
+     */
+    private class UserItemRatingItr implements Iterator<UserItemRatingEntry> {
+        private final UserItemRatingEntry entry = new UserItemRatingEntry();
+        private int userIdx;
+        private int cursor;
+
+        public UserItemRatingItr() {
+            userIdx = 0;
+            cursor = userOffsets[0];
+        }
+
+        public boolean hasNext() {
+            return cursor < numEntries;
+        }
+
+        public UserItemRatingEntry next() {
+            if (cursor >= numEntries)
+                throw new NoSuchElementException();
+            while (userOffsets[userIdx + 1] <= cursor) {
+                userIdx++;
+            }
+            entry.setUserIdx(userIdx);
+            entry.setItemIdx(itemIndices[cursor]);
+            entry.setValue(scores[cursor]);
+            cursor++;
+
+            return entry;
+        }
+
+        @Override
+        @Deprecated
+        public void remove() {
+            throw new IllegalStateException();
+        }
+    }
+}
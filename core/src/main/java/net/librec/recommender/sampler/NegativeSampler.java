@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.sampler;
+
+import java.util.Random;
+
+/**
+ * Sampler of the negative items of pairwise ranking models.
+ * <p>
+ * A sampler only reads shared state while sampling, and draws all its random
+ * numbers from the generator it is given, so that it may be used by several
+ * threads with one generator per thread.
+ */
+public interface NegativeSampler {
+
+    /**
+     * @param userIdx user index
+     * @return true if the user has at least one candidate negative item
+     */
+    boolean hasNegative(int userIdx);
+
+    /**
+     * Draw a negative item of a user.
+     *
+     * @param userIdx user index, for which {@link #hasNegative(int)} is true
+     * @param random  random generator of the current thread
+     * @return the index of a negative item
+     */
+    int sample(int userIdx, Random random);
+}
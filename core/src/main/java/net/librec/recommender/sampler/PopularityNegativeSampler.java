@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.sampler;
+
+import net.librec.math.structure.IndexAdjacency;
+
+import java.util.Random;
+
+/**
+ * Draw the negative items of a user with probabilities proportional to their
+ * popularity among the items which are not positive.
+ * <p>
+ * An item is drawn from the popularity distribution of all the items by a binary
+ * search of the cumulative popularity, and drawn again while it is positive,
+ * which gives the popularity distribution restricted to the candidate items
+ * without building it for every user.
+ */
+public class PopularityNegativeSampler implements NegativeSampler {
+
+    /**
+     * positive items of each user
+     */
+    private final IndexAdjacency positiveItems;
+
+    /**
+     * cumulative popularity of the items
+     */
+    private final double[] cumulativePopularity;
+
+    /**
+     * whether each user has a candidate item of positive popularity
+     */
+    private final boolean[] hasNegative;
+
+    /**
+     * @param positiveItems positive items of each user
+     * @param popularity    non-negative popularity of each item
+     */
+    public PopularityNegativeSampler(IndexAdjacency positiveItems, double[] popularity) {
+        this.positiveItems = positiveItems;
+        this.cumulativePopularity = new double[popularity.length];
+        int numPopularItems = 0;
+        double sum = 0.0d;
+        for (int itemIdx = 0; itemIdx < popularity.length; itemIdx++) {
+            sum += popularity[itemIdx];
+            cumulativePopularity[itemIdx] = sum;
+            if (popularity[itemIdx] > 0) {
+                numPopularItems++;
+            }
+        }
+
+        int numUsers = positiveItems.numKeys();
+        hasNegative = new boolean[numUsers];
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            int numPositivePopularItems = 0;
+            for (int position = positiveItems.start(userIdx); position < positiveItems.end(userIdx); position++) {
+                if (popularity[positiveItems.get(position)] > 0) {
+                    numPositivePopularItems++;
+                }
+            }
+            hasNegative[userIdx] = numPositivePopularItems < numPopularItems;
+        }
+    }
+
+    @Override
+    public boolean hasNegative(int userIdx) {
+        return hasNegative[userIdx];
+    }
+
+    @Override
+    public int sample(int userIdx, Random random) {
+        int numItems = cumulativePopularity.length;
+        double total = cumulativePopularity[numItems - 1];
+        while (true) {
+            double rand = random.nextDouble() * total;
+            int low = 0, high = numItems;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (cumulativePopularity[middle] > rand) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            if (low < numItems && !positiveItems.contains(userIdx, low)) {
+                return low;
+            }
+        }
+    }
+}
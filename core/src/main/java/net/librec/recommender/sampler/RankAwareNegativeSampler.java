@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.sampler;
+
+import net.librec.math.algorithm.Stats;
+import net.librec.math.structure.DenseMatrix;
+import net.librec.math.structure.IndexAdjacency;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Adaptive, rank-aware sampler of the negative items of AoBPR.
+ * <p>
+ * A rank r is drawn with probability proportional to exp(-(r + 1) / lambda), and
+ * a factor f with probability proportional to |p_uf| * var(q_.f). The negative
+ * item is the item of rank r in the descending order of factor f if p_uf is
+ * positive, or in the ascending order otherwise. The ranks of the items in each
+ * factor are computed by {@link #update()}, which must not run concurrently with
+ * {@link #sample(int, Random)}.
+ * <p>
+ * Steffen Rendle and Christoph Freudenthaler, <strong>Improving pairwise learning for item
+ * recommendation from implicit feedback</strong>, WSDM 2014.
+ */
+public class RankAwareNegativeSampler implements NegativeSampler {
+
+    /**
+     * positive items of each user
+     */
+    private final IndexAdjacency positiveItems;
+
+    /**
+     * user and item latent factors of the model
+     */
+    private final DenseMatrix userFactors, itemFactors;
+
+    /**
+     * the number of items and of latent factors
+     */
+    private final int numItems, numFactors;
+
+    /**
+     * cumulative probability of each rank
+     */
+    private final double[] cumulativeRankProbs;
+
+    /**
+     * items of each factor in descending order of their factor values
+     */
+    private final int[][] factorRanking;
+
+    /**
+     * variance of the item factor values of each factor
+     */
+    private final double[] factorVars;
+
+    /**
+     * buffers of the ranking update
+     */
+    private final Integer[] sortedItems;
+    private final double[] sortedValues;
+
+    /**
+     * @param positiveItems positive items of each user
+     * @param userFactors   user latent factors of the model
+     * @param itemFactors   item latent factors of the model
+     * @param lambdaItem    the parameter lambda of the rank distribution
+     */
+    public RankAwareNegativeSampler(IndexAdjacency positiveItems, DenseMatrix userFactors, DenseMatrix itemFactors,
+                                    int lambdaItem) {
+        this.positiveItems = positiveItems;
+        this.userFactors = userFactors;
+        this.itemFactors = itemFactors;
+        this.numItems = itemFactors.numRows();
+        this.numFactors = itemFactors.numColumns();
+
+        double[] rankProbs = new double[numItems];
+        double sum = 0;
+        for (int rank = 0; rank < numItems; rank++) {
+            rankProbs[rank] = Math.exp(-(rank + 1) / lambdaItem);
+            sum += rankProbs[rank];
+        }
+        cumulativeRankProbs = new double[numItems];
+        double cumulative = 0.0;
+        for (int rank = 0; rank < numItems; rank++) {
+            cumulative = cumulative + rankProbs[rank] / sum;
+            cumulativeRankProbs[rank] = cumulative;
+        }
+
+        factorRanking = new int[numFactors][numItems];
+        factorVars = new double[numFactors];
+        sortedItems = new Integer[numItems];
+        sortedValues = new double[numItems];
+    }
+
+    /**
+     * Rank the items in each factor by the current item factors.
+     */
+    public void update() {
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            final double[] values = new double[numItems];
+            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                values[itemIdx] = itemFactors.get(itemIdx, factorIdx);
+                sortedItems[itemIdx] = itemIdx;
+            }
+            Arrays.sort(sortedItems, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return -Double.compare(values[a], values[b]);
+                }
+            });
+            for (int rank = 0; rank < numItems; rank++) {
+                factorRanking[factorIdx][rank] = sortedItems[rank];
+                sortedValues[rank] = values[sortedItems[rank]];
+            }
+            factorVars[factorIdx] = Stats.var(sortedValues);
+        }
+    }
+
+    @Override
+    public boolean hasNegative(int userIdx) {
+        int size = positiveItems.size(userIdx);
+        return size > 0 && size < numItems;
+    }
+
+    @Override
+    public int sample(int userIdx, Random random) {
+        while (true) {
+            int rank = sampleRank(random);
+            int factorIdx = sampleFactor(userIdx, random);
+            int negItemIdx = userFactors.get(userIdx, factorIdx) > 0
+                    ? factorRanking[factorIdx][rank] : factorRanking[factorIdx][numItems - rank - 1];
+            if (!positiveItems.contains(userIdx, negItemIdx)) {
+                return negItemIdx;
+            }
+        }
+    }
+
+    /**
+     * @param random random generator of the current thread
+     * @return a rank drawn from the rank distribution
+     */
+    private int sampleRank(Random random) {
+        while (true) {
+            double rand = random.nextDouble();
+            int low = 0, high = numItems;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (cumulativeRankProbs[middle] > rand) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            if (low < numItems) {
+                return low;
+            }
+        }
+    }
+
+    /**
+     * @param userIdx user index
+     * @param random  random generator of the current thread
+     * @return a factor drawn with probability proportional to |p_uf| * var(q_.f)
+     */
+    private int sampleFactor(int userIdx, Random random) {
+        double sumFactors = 0;
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            sumFactors += Math.abs(userFactors.get(userIdx, factorIdx)) * factorVars[factorIdx];
+        }
+        while (true) {
+            double rand = random.nextDouble();
+            double sum = 0.0;
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                sum = sum + Math.abs(userFactors.get(userIdx, factorIdx)) * factorVars[factorIdx] / sumFactors;
+                if (sum > rand) {
+                    return factorIdx;
+                }
+            }
+        }
+    }
+}
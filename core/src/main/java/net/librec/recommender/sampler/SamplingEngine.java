@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.sampler;
+
+import net.librec.common.LibrecException;
+import net.librec.math.algorithm.RandomSource;
+import net.librec.math.algorithm.Randoms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Stochastic gradient descent over randomly drawn samples, such as the
+ * (user, positive item, negative item) triples of pairwise ranking models.
+ * <p>
+ * With one thread the samples are drawn and applied in order on the calling
+ * thread from the generator of {@link Randoms}, so training is reproducible.
+ * With more threads each thread draws its share of the samples from its own
+ * stream, split from {@link Randoms} on the calling thread, and updates the
+ * shared model parameters without locks, as in Hogwild.
+ */
+public class SamplingEngine {
+
+    /**
+     * Draw one sample and update the model parameters from it.
+     */
+    public interface SampleUpdater {
+        /**
+         * @param random random generator of the current thread
+         * @param loss   the loss accumulated so far by the current thread
+         * @return the loss plus the loss of the sample
+         * @throws LibrecException if error occurs during updating
+         */
+        double update(Random random, double loss) throws LibrecException;
+    }
+
+    /**
+     * the number of worker threads
+     */
+    private final int numThreads;
+
+    /**
+     * @param numThreads the number of worker threads, a value &lt;= 0 uses all available processors
+     */
+    public SamplingEngine(int numThreads) {
+        this.numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return the number of worker threads
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Draw and apply a number of samples.
+     *
+     * @param numSamples the number of samples
+     * @param updater    the draw of a sample and the update of the model parameters from it
+     * @param loss       the loss accumulated so far
+     * @return the loss plus the loss of the samples
+     * @throws LibrecException if error occurs during updating
+     */
+    public double run(int numSamples, final SampleUpdater updater, double loss) throws LibrecException {
+        if (numThreads == 1 || numSamples <= 1) {
+            Random random = Randoms.generator();
+            for (int sample = 0; sample < numSamples; sample++) {
+                loss = updater.update(random, loss);
+            }
+            return loss;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            List<Future<Double>> shards = new ArrayList<>(numThreads);
+            for (int shard = 0; shard < numThreads; shard++) {
+                final int shardSamples = (int) ((long) numSamples * (shard + 1) / numThreads)
+                        - (int) ((long) numSamples * shard / numThreads);
+                final RandomSource random = Randoms.generator().split();
+                shards.add(pool.submit(new Callable<Double>() {
+                    @Override
+                    public Double call() throws LibrecException {
+                        double shardLoss = 0.0d;
+                        for (int sample = 0; sample < shardSamples; sample++) {
+                            shardLoss = updater.update(random, shardLoss);
+                        }
+                        return shardLoss;
+                    }
+                }));
+            }
+            for (Future<Double> shard : shards) {
+                loss += shard.get();
+            }
+            return loss;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LibrecException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof LibrecException) {
+                throw (LibrecException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new LibrecException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,420 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.sampler;
+
+import net.librec.math.algorithm.RandomSource;
+import net.librec.math.algorithm.Randoms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Collapsed Gibbs sampler of the topic assignments of LDA-style models, where users are the
+ * documents and the tokens of a user are drawn from its topics.
+ * <p>
+ * The full conditional of the topic k of a token of word w in document d has the form
+ * {@code (n_dk + alpha_k) * phi(k, w)}. The engine keeps the document side, i.e. the assignments
+ * and the counts n_dk, in primitive arrays, while the model keeps the word side behind a
+ * {@link WordModel}, so the same engine serves models whose words are items, (item, rating)
+ * pairs and so on.
+ * <p>
+ * By default topics are drawn exactly from the full conditional, in O(K) per token. With a
+ * positive number of Metropolis-Hastings steps they are drawn as in LightLDA (Yuan et al.,
+ * <strong>LightLDA: Big Topic Models on Modest Computer Clusters</strong>, WWW 2015) in O(1) per
+ * token: the steps alternate a proposal from an alias table of {@code phi(., w)}, built once per
+ * sweep, and a proposal from {@code n_dk + alpha_k}, drawn by picking the topic of a random token
+ * of the document. The chain then only approaches the full conditional, so the results differ
+ * from those of exact sampling.
+ * <p>
+ * With one thread the tokens are sampled in order from the generator of {@link Randoms}, and the
+ * word counts are updated after every token. With more threads the documents are split into one
+ * shard per thread as in AD-LDA (Newman et al., <strong>Distributed Algorithms for Topic
+ * Models</strong>, JMLR 2009): each shard draws from its own stream against the word counts of
+ * the previous sweep, less the token being sampled, and the changes of the word counts are merged
+ * at the end of the sweep.
+ */
+public class TopicSamplingEngine {
+
+    /**
+     * The word side of the model.
+     */
+    public interface WordModel {
+        /**
+         * @param word    word index
+         * @param topic   topic index
+         * @param removed the number of tokens of the word, 0 or 1, to leave out of the counts of the topic
+         * @return the unnormalized probability {@code phi(topic, word)} of the word given the topic
+         * from the current counts less the removed tokens, which must be positive
+         */
+        double weight(int word, int topic, int removed);
+
+        /**
+         * Add to the counts of a word assigned to a topic.
+         *
+         * @param word  word index
+         * @param topic topic index
+         * @param delta the number of tokens to add, 1 or -1
+         */
+        void add(int word, int topic, int delta);
+    }
+
+    /**
+     * the number of topics, documents and words
+     */
+    private final int numTopics, numDocs, numWords;
+
+    /**
+     * tokens of document d are [docPtr[d], docPtr[d + 1])
+     */
+    private final int[] docPtr;
+
+    /**
+     * word and topic of each token
+     */
+    private final int[] words, topics;
+
+    /**
+     * entry [d * numTopics + k]: the number of tokens of document d assigned to topic k
+     */
+    private final int[] docTopicCounts;
+
+    /**
+     * word side of the model
+     */
+    private final WordModel wordModel;
+
+    /**
+     * the number of worker threads and of Metropolis-Hastings steps per token
+     */
+    private final int numThreads, numSteps;
+
+    /**
+     * proposal weights phi(., w) and alias table of each word with at least one token
+     */
+    private final double[][] wordWeights;
+    private final AliasTable[] wordTables;
+
+    /**
+     * Create the sampler and add the initial assignments to the counts of the word model.
+     *
+     * @param docPtr     tokens of document d are [docPtr[d], docPtr[d + 1])
+     * @param words      word of each token
+     * @param topics     initial topic of each token, updated in place by the sampler
+     * @param numTopics  the number of topics
+     * @param numWords   the number of words
+     * @param wordModel  word side of the model, with zero counts
+     * @param numThreads the number of worker threads, a value &lt;= 0 uses all available processors
+     * @param numSteps   the number of Metropolis-Hastings steps per token, 0 to sample exactly
+     */
+    public TopicSamplingEngine(int[] docPtr, int[] words, int[] topics, int numTopics, int numWords,
+                               WordModel wordModel, int numThreads, int numSteps) {
+        this.numTopics = numTopics;
+        this.numDocs = docPtr.length - 1;
+        this.numWords = numWords;
+        this.docPtr = docPtr;
+        this.words = words;
+        this.topics = topics;
+        this.wordModel = wordModel;
+        this.numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+        this.numSteps = Math.max(0, numSteps);
+
+        docTopicCounts = new int[numDocs * numTopics];
+        wordWeights = new double[numWords][];
+        wordTables = new AliasTable[numWords];
+        for (int docIdx = 0; docIdx < numDocs; docIdx++) {
+            for (int token = docPtr[docIdx]; token < docPtr[docIdx + 1]; token++) {
+                docTopicCounts[docIdx * numTopics + topics[token]]++;
+                wordModel.add(words[token], topics[token], 1);
+                if (wordWeights[words[token]] == null) {
+                    wordWeights[words[token]] = new double[numTopics];
+                    wordTables[words[token]] = new AliasTable(numTopics);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param docIdx   document index
+     * @param topicIdx topic index
+     * @return the number of tokens of the document assigned to the topic
+     */
+    public int getDocTopicCount(int docIdx, int topicIdx) {
+        return docTopicCounts[docIdx * numTopics + topicIdx];
+    }
+
+    /**
+     * @param docIdx document index
+     * @return the number of tokens of the document
+     */
+    public int getDocCount(int docIdx) {
+        return docPtr[docIdx + 1] - docPtr[docIdx];
+    }
+
+    /**
+     * @param token token index
+     * @return the topic assigned to the token
+     */
+    public int getTopic(int token) {
+        return topics[token];
+    }
+
+    /**
+     * Resample the topics of all tokens once.
+     *
+     * @param alpha Dirichlet prior of the topics of a document
+     */
+    public void sweep(double[] alpha) {
+        final AliasTable alphaTable = new AliasTable(numTopics);
+        alphaTable.build(alpha);
+        double sumAlpha = 0.0d;
+        for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
+            sumAlpha += alpha[topicIdx];
+        }
+        for (int wordIdx = 0; numSteps > 0 && wordIdx < numWords; wordIdx++) {
+            double[] weights = wordWeights[wordIdx];
+            if (weights != null) {
+                for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
+                    weights[topicIdx] = wordModel.weight(wordIdx, topicIdx, 0);
+                }
+                wordTables[wordIdx].build(weights);
+            }
+        }
+
+        if (numThreads == 1 || numDocs <= 1) {
+            Random random = Randoms.generator();
+            for (int docIdx = 0; docIdx < numDocs; docIdx++) {
+                sampleDoc(docIdx, alpha, sumAlpha, alphaTable, random, null);
+            }
+            return;
+        }
+
+        final double[] docAlpha = alpha;
+        final double docSumAlpha = sumAlpha;
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            List<Future<ChangeBuffer>> shards = new ArrayList<>(numThreads);
+            for (int shard = 0; shard < numThreads; shard++) {
+                final int fromDoc = (int) ((long) numDocs * shard / numThreads);
+                final int toDoc = (int) ((long) numDocs * (shard + 1) / numThreads);
+                final RandomSource random = Randoms.generator().split();
+                shards.add(pool.submit(new Callable<ChangeBuffer>() {
+                    @Override
+                    public ChangeBuffer call() {
+                        ChangeBuffer changes = new ChangeBuffer();
+                        for (int docIdx = fromDoc; docIdx < toDoc; docIdx++) {
+                            sampleDoc(docIdx, docAlpha, docSumAlpha, alphaTable, random, changes);
+                        }
+                        return changes;
+                    }
+                }));
+            }
+            // merge the changes of the word counts in the order of the shards
+            for (Future<ChangeBuffer> shard : shards) {
+                shard.get().applyTo(wordModel);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Resample the topics of the tokens of a document.
+     *
+     * @param docIdx     document index
+     * @param alpha      Dirichlet prior of the topics of a document
+     * @param sumAlpha   sum of alpha
+     * @param alphaTable alias table of alpha
+     * @param random     random generator of the current thread
+     * @param changes    the buffer of the changes of the word counts, or null to update the word model at once
+     */
+    private void sampleDoc(int docIdx, double[] alpha, double sumAlpha, AliasTable alphaTable, Random random,
+                           ChangeBuffer changes) {
+        int fromToken = docPtr[docIdx], numTokens = docPtr[docIdx + 1] - fromToken;
+        int offset = docIdx * numTopics;
+        // n_d - 1 + sumAlpha, the mass of the document proposal without the current token
+        double docMass = numTokens - 1 + sumAlpha;
+        // the word counts of a shard still hold the current token in its old topic
+        int removed = changes == null ? 0 : 1;
+        double[] cumulative = numSteps == 0 ? new double[numTopics] : null;
+
+        for (int token = fromToken; token < fromToken + numTokens; token++) {
+            int word = words[token];
+            int oldTopic = topics[token];
+            docTopicCounts[offset + oldTopic]--;
+            if (changes == null) {
+                wordModel.add(word, oldTopic, -1);
+            }
+
+            int topic = oldTopic;
+            if (numSteps == 0) {
+                // do multinomial sampling via cumulative method
+                double sum = 0.0d;
+                for (int topicIdx = 0; topicIdx < numTopics; topicIdx++) {
+                    sum += (docTopicCounts[offset + topicIdx] + alpha[topicIdx])
+                            * wordModel.weight(word, topicIdx, topicIdx == oldTopic ? removed : 0);
+                    cumulative[topicIdx] = sum;
+                }
+                double rand = random.nextDouble() * sum;
+                for (topic = 0; topic < numTopics - 1; topic++) {
+                    if (rand < cumulative[topic]) {
+                        break;
+                    }
+                }
+            } else {
+                double[] weights = wordWeights[word];
+                AliasTable wordTable = wordTables[word];
+                double topicWeight = wordModel.weight(word, topic, removed);
+                for (int step = 0; step < numSteps; step++) {
+                    // word proposal from phi(., w) of the start of the sweep
+                    int proposal = wordTable.sample(random);
+                    if (proposal != topic) {
+                        double proposalWeight = wordModel.weight(word, proposal, proposal == oldTopic ? removed : 0);
+                        double acceptance = (docTopicCounts[offset + proposal] + alpha[proposal]) * proposalWeight * weights[topic]
+                                / ((docTopicCounts[offset + topic] + alpha[topic]) * topicWeight * weights[proposal]);
+                        if (acceptance >= 1 || random.nextDouble() < acceptance) {
+                            topic = proposal;
+                            topicWeight = proposalWeight;
+                        }
+                    }
+
+                    // document proposal from n_dk + alpha_k, counting the current token in its current topic
+                    if (random.nextDouble() * (docMass + 1) < numTokens) {
+                        int other = fromToken + random.nextInt(numTokens);
+                        proposal = other == token ? topic : topics[other];
+                    } else {
+                        proposal = alphaTable.sample(random);
+                    }
+                    if (proposal != topic) {
+                        double proposalWeight = wordModel.weight(word, proposal, proposal == oldTopic ? removed : 0);
+                        double acceptance = proposalWeight / topicWeight;
+                        if (acceptance >= 1 || random.nextDouble() < acceptance) {
+                            topic = proposal;
+                            topicWeight = proposalWeight;
+                        }
+                    }
+                }
+            }
+
+            topics[token] = topic;
+            docTopicCounts[offset + topic]++;
+            if (changes == null) {
+                wordModel.add(word, topic, 1);
+            } else if (topic != oldTopic) {
+                changes.add(word, oldTopic, topic);
+            }
+        }
+    }
+
+    /**
+     * The changes of the topics of the words made by a shard during a sweep.
+     */
+    private static class ChangeBuffer {
+        private int[] changes = new int[3 * 64];
+        private int size;
+
+        void add(int word, int oldTopic, int newTopic) {
+            if (size + 3 > changes.length) {
+                int[] grown = new int[changes.length * 2];
+                System.arraycopy(changes, 0, grown, 0, size);
+                changes = grown;
+            }
+            changes[size++] = word;
+            changes[size++] = oldTopic;
+            changes[size++] = newTopic;
+        }
+
+        void applyTo(WordModel wordModel) {
+            for (int index = 0; index < size; index += 3) {
+                wordModel.add(changes[index], changes[index + 1], -1);
+                wordModel.add(changes[index], changes[index + 2], 1);
+            }
+        }
+    }
+
+    /**
+     * Alias table of Walker and Vose, drawing from a discrete distribution in O(1).
+     */
+    static class AliasTable {
+        private final double[] probs;
+        private final int[] aliases;
+        private final int[] small, large;
+
+        AliasTable(int size) {
+            probs = new double[size];
+            aliases = new int[size];
+            small = new int[size];
+            large = new int[size];
+        }
+
+        /**
+         * @param weights positive weights of the outcomes
+         */
+        void build(double[] weights) {
+            int size = probs.length;
+            double sum = 0.0d;
+            for (int index = 0; index < size; index++) {
+                sum += weights[index];
+            }
+            int numSmall = 0, numLarge = 0;
+            for (int index = 0; index < size; index++) {
+                probs[index] = weights[index] * size / sum;
+                aliases[index] = index;
+                if (probs[index] < 1.0) {
+                    small[numSmall++] = index;
+                } else {
+                    large[numLarge++] = index;
+                }
+            }
+            while (numSmall > 0 && numLarge > 0) {
+                int less = small[--numSmall], more = large[--numLarge];
+                aliases[less] = more;
+                probs[more] = probs[more] + probs[less] - 1.0;
+                if (probs[more] < 1.0) {
+                    small[numSmall++] = more;
+                } else {
+                    large[numLarge++] = more;
+                }
+            }
+            // what is left is 1 up to rounding
+            while (numLarge > 0) {
+                probs[large[--numLarge]] = 1.0;
+            }
+            while (numSmall > 0) {
+                probs[small[--numSmall]] = 1.0;
+            }
+        }
+
+        int sample(Random random) {
+            int index = random.nextInt(probs.length);
+            return random.nextDouble() < probs[index] ? index : aliases[index];
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.sampler;
+
+import net.librec.math.structure.IndexAdjacency;
+
+import java.util.Random;
+
+/**
+ * Draw the negative items uniformly among the items which are not positive,
+ * by rejection of the positive items.
+ */
+public class UniformNegativeSampler implements NegativeSampler {
+
+    /**
+     * positive items of each user
+     */
+    private final IndexAdjacency positiveItems;
+
+    /**
+     * other excluded items of each user, disjoint from the positive items, or null
+     */
+    private final IndexAdjacency excludedItems;
+
+    /**
+     * the number of items
+     */
+    private final int numItems;
+
+    /**
+     * @param positiveItems positive items of each user
+     * @param numItems      the number of items
+     */
+    public UniformNegativeSampler(IndexAdjacency positiveItems, int numItems) {
+        this(positiveItems, null, numItems);
+    }
+
+    /**
+     * @param positiveItems positive items of each user
+     * @param excludedItems other excluded items of each user, disjoint from the positive items, or null
+     * @param numItems      the number of items
+     */
+    public UniformNegativeSampler(IndexAdjacency positiveItems, IndexAdjacency excludedItems, int numItems) {
+        this.positiveItems = positiveItems;
+        this.excludedItems = excludedItems;
+        this.numItems = numItems;
+    }
+
+    @Override
+    public boolean hasNegative(int userIdx) {
+        int numExcluded = positiveItems.size(userIdx) + (excludedItems != null ? excludedItems.size(userIdx) : 0);
+        return numExcluded < numItems;
+    }
+
+    @Override
+    public int sample(int userIdx, Random random) {
+        int negItemIdx;
+        do {
+            negItemIdx = random.nextInt(numItems);
+        } while (positiveItems.contains(userIdx, negItemIdx)
+                || excludedItems != null && excludedItems.contains(userIdx, negItemIdx));
+        return negItemIdx;
+    }
+}
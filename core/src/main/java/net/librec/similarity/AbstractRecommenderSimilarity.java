@@ -23,6 +23,7 @@ import net.librec.data.convertor.feature.SocialDataFeature;
 import net.librec.math.structure.SparseMatrix;
 import net.librec.math.structure.SparseVector;
 import net.librec.math.structure.SymmMatrix;
+import net.librec.math.structure.SymmMatrixBuilder;
 import org.apache.commons.lang.StringUtils;
 
 import java.util.ArrayList;
@@ -45,6 +46,10 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
      * Similarity Matrix
      */
     protected SymmMatrix similarityMatrix;
+    /**
+     * Sorted neighbors of each row of the similarity matrix
+     */
+    protected SimilarityNeighbors neighbors;
 
     /**
      * Build social similarity matrix with trainMatrix in dataModel.
@@ -64,30 +69,19 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
                 // items.
                 boolean isUser = StringUtils.equals(similarityKey, "user") ? true : false;
                 SparseMatrix trainMatrix = dataModel.getDataSplitter().getTrainData();
-                int numUsers = trainMatrix.numRows();
-                int numItems = trainMatrix.numColumns();
-                int count = isUser ? numUsers : numItems;
-                
-                similarityMatrix = new SymmMatrix(count);
-                
-                for (int i = 0; i < count; i++) {
-                    SparseVector thisVector = isUser ? trainMatrix.row(i) : trainMatrix.column(i);
-                    if (thisVector.getCount() == 0) {
-                        continue;
-                    }
-                    // user/item itself exclusive
-                    for (int j = i + 1; j < count; j++) {
-                        SparseVector thatVector = isUser ? trainMatrix.row(j) : trainMatrix.column(j);
-                        if (thatVector.getCount() == 0) {
-                            continue;
-                        }
-                        
-                        double sim = getCorrelation(thisVector, thatVector);
-                        if (!Double.isNaN(sim)) {
-                            similarityMatrix.set(i, j, sim);
-                        }
-                    }
-                }
+                int numThreads = conf.getInt("rec.similarity.threads", 0);
+                int topK = conf.getInt("rec.similarity.topk", 0);
+                double threshold = conf.getDouble("rec.similarity.threshold", Double.NEGATIVE_INFINITY);
+
+                // user/item itself exclusive, and only the pairs with common items/users are compared
+                SimilarityEngine engine = isUser
+                        ? new SimilarityEngine(this, trainMatrix.rowPtr, trainMatrix.colInd, trainMatrix.rowData,
+                        trainMatrix.colPtr, trainMatrix.rowInd, numThreads, topK, threshold)
+                        : new SimilarityEngine(this, trainMatrix.colPtr, trainMatrix.rowInd, trainMatrix.colData,
+                        trainMatrix.rowPtr, trainMatrix.colInd, numThreads, topK, threshold);
+                similarityMatrix = engine.build();
+                // only the top-k neighbors are sorted by the engine, the others are sorted on demand
+                neighbors = engine.getNeighbors();
             }
         }
 
@@ -105,7 +99,7 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
         SparseMatrix socialMatrix = ((SocialDataFeature) dataModel.getDataFeature()).getUserFeature();
         int numUsers = trainMatrix.numRows();
 
-        similarityMatrix = new SymmMatrix(numUsers);
+        SymmMatrixBuilder builder = new SymmMatrixBuilder(numUsers);
 
         for (int userIdx = 0; userIdx < numUsers; userIdx++) {
             SparseVector userVector = trainMatrix.row(userIdx);
@@ -121,10 +115,12 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
 
                 double sim = getCorrelation(userVector, socialVector);
                 if (!Double.isNaN(sim)) {
-                    similarityMatrix.set(userIdx, socialIdx, sim);
+                    builder.set(userIdx, socialIdx, sim);
                 }
             }
         }
+        similarityMatrix = builder.build();
+        neighbors = null;
     }
 
     /**
@@ -141,20 +137,30 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
      */
     public double getCorrelation(SparseVector thisVector, SparseVector thatVector) {
         // compute similarity
-        List<Double> thisList = new ArrayList<Double>();
-        List<Double> thatList = new ArrayList<Double>();
+        int[] thatIndex = thatVector.getIndex();
+        double[] thisValues = new double[thatIndex.length];
+        double[] thatValues = new double[thatIndex.length];
+        int n = 0;
 
-        for (Integer idx : thatVector.getIndex()) {
+        for (int idx : thatIndex) {
             if (thisVector.contains(idx)) {
-                thisList.add(thisVector.get(idx));
-                thatList.add(thatVector.get(idx));
+                thisValues[n] = thisVector.get(idx);
+                thatValues[n++] = thatVector.get(idx);
             }
         }
-        double sim = getSimilarity(thisList, thatList);
 
-        // shrink to account for vector size
+        return shrink(getSimilarity(thisValues, thatValues, n), n);
+    }
+
+    /**
+     * Shrink a similarity to account for the number of common elements.
+     *
+     * @param sim similarity
+     * @param n   the number of common elements
+     * @return the shrunk similarity
+     */
+    protected double shrink(double sim, int n) {
         if (!Double.isNaN(sim)) {
-            int n = thisList.size();
             int shrinkage = conf.getInt("rec.similarity.shrinkage", 0);
             if (shrinkage > 0)
                 sim *= n / (n + shrinkage + 0.0);
@@ -163,6 +169,21 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
         return sim;
     }
 
+    /**
+     * Whether {@link #getCorrelation(SparseVector, SparseVector)} is overridden by the
+     * similarity, in which case the similarity engine calls it with sparse vectors.
+     *
+     * @return true if getCorrelation is overridden
+     */
+    boolean isCorrelationOverridden() {
+        try {
+            return getClass().getMethod("getCorrelation", SparseVector.class, SparseVector.class)
+                    .getDeclaringClass() != AbstractRecommenderSimilarity.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
     /**
      * Calculate the similarity between thisList and thatList.
      *
@@ -174,6 +195,41 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
      */
     protected abstract double getSimilarity(List<? extends Number> thisList, List<? extends Number> thatList);
 
+    /**
+     * Calculate the similarity between the first length values of two arrays, holding
+     * the values of the common elements in the same order. The default implementation
+     * boxes the values and calls {@link #getSimilarity(List, List)}; subclasses override
+     * it with a primitive kernel giving the same value.
+     *
+     * @param thisValues this values
+     * @param thatValues that values
+     * @param length     the number of common elements
+     * @return similarity
+     */
+    protected double getSimilarity(double[] thisValues, double[] thatValues, int length) {
+        List<Double> thisList = new ArrayList<Double>(length);
+        List<Double> thatList = new ArrayList<Double>(length);
+        for (int i = 0; i < length; i++) {
+            thisList.add(thisValues[i]);
+            thatList.add(thatValues[i]);
+        }
+        return getSimilarity(thisList, thatList);
+    }
+
+    /**
+     * Unbox a list of numbers.
+     *
+     * @param list a list of numbers
+     * @return an array of the values of the list
+     */
+    protected static double[] toArray(List<? extends Number> list) {
+        double[] values = new double[list.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = list.get(i).doubleValue();
+        }
+        return values;
+    }
+
     /**
      * Return the similarity matrix.
      *
@@ -184,4 +240,34 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
         return similarityMatrix;
     }
 
+    /**
+     * Return the neighbors of each row of the similarity matrix, sorted by similarity
+     * in descending order. If rec.similarity.topk is positive, only the top-k neighbors
+     * of each row are kept.
+     *
+     * @return the sorted neighbors, or null if the similarity matrix is not built
+     */
+    public synchronized SimilarityNeighbors getNeighbors() {
+        if (neighbors == null && similarityMatrix != null) {
+            neighbors = SimilarityNeighbors.of(similarityMatrix);
+        }
+        return neighbors;
+    }
+
+    /**
+     * Return the sorted neighbors of a similarity. The neighbors of an
+     * {@link AbstractRecommenderSimilarity} are cached, those of other
+     * implementations are sorted from their similarity matrix.
+     *
+     * @param similarity a similarity
+     * @return the sorted neighbors, or null if the similarity matrix is not built
+     */
+    public static SimilarityNeighbors neighborsOf(RecommenderSimilarity similarity) {
+        if (similarity instanceof AbstractRecommenderSimilarity) {
+            return ((AbstractRecommenderSimilarity) similarity).getNeighbors();
+        }
+        SymmMatrix similarityMatrix = similarity.getSimilarityMatrix();
+        return similarityMatrix == null ? null : SimilarityNeighbors.of(similarityMatrix);
+    }
+
 }
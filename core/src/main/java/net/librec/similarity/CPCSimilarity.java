@@ -70,10 +70,30 @@ public class CPCSimilarity extends AbstractRecommenderSimilarity {
             return Double.NaN;
         }
 
+        return getSimilarity(toArray(thisList), toArray(thatList), thisList.size());
+    }
+
+    /**
+     * Calculate the similarity between the first length values of thisValues and thatValues.
+     *
+     * @param thisValues
+     *            this values
+     * @param thatValues
+     *            that values
+     * @param length
+     *            the number of values
+     * @return similarity
+     */
+    @Override
+    protected double getSimilarity(double[] thisValues, double[] thatValues, int length) {
+        if (length < 1) {
+            return Double.NaN;
+        }
+
         double innerProduct = 0.0, thisPower2 = 0.0, thatPower2 = 0.0;
-        for (int i = 0; i < thisList.size(); i++) {
-            double thisDiff = thisList.get(i).doubleValue() - median;
-            double thatDiff = thatList.get(i).doubleValue() - median;
+        for (int i = 0; i < length; i++) {
+            double thisDiff = thisValues[i] - median;
+            double thatDiff = thatValues[i] - median;
 
             innerProduct += thisDiff * thatDiff;
             thisPower2 += thisDiff * thisDiff;
@@ -38,11 +38,28 @@ public class CosineSimilarity extends AbstractRecommenderSimilarity {
             return Double.NaN;
         }
 
+        return getSimilarity(toArray(thisList), toArray(thatList), thisList.size());
+    }
+
+    /**
+     * calculate the similarity between the first length values of thisValues and thatValues.
+     *
+     * @param thisValues  this values
+     * @param thatValues  that values
+     * @param length      the number of values
+     * @return similarity
+     */
+    @Override
+    protected double getSimilarity(double[] thisValues, double[] thatValues, int length) {
+        if (length < 1) {
+            return Double.NaN;
+        }
+
         double innerProduct = 0.0, thisPower2 = 0.0, thatPower2 = 0.0;
-        for (int i = 0; i < thisList.size(); i++) {
-            innerProduct += thisList.get(i).doubleValue() * thatList.get(i).doubleValue();
-            thisPower2 += thisList.get(i).doubleValue() * thisList.get(i).doubleValue();
-            thatPower2 += thatList.get(i).doubleValue() * thatList.get(i).doubleValue();
+        for (int i = 0; i < length; i++) {
+            innerProduct += thisValues[i] * thatValues[i];
+            thisPower2 += thisValues[i] * thisValues[i];
+            thatPower2 += thatValues[i] * thatValues[i];
         }
         return innerProduct / Math.sqrt(thisPower2 * thatPower2);
     }
@@ -36,11 +36,26 @@ public class ExJaccardSimilarity extends AbstractRecommenderSimilarity {
      * @return similarity
      */
     protected double getSimilarity(List<? extends Number> thisList, List<? extends Number> thatList) {
+        return getSimilarity(toArray(thisList), toArray(thatList), thisList.size());
+    }
 
+    /**
+     * Calculate the similarity between the first length values of thisValues and thatValues.
+     *
+     * @param thisValues
+     *            this values
+     * @param thatValues
+     *            that values
+     * @param length
+     *            the number of values
+     * @return similarity
+     */
+    @Override
+    protected double getSimilarity(double[] thisValues, double[] thatValues, int length) {
         double innerProduct = 0.0, thisPower2 = 0.0, thatPower2 = 0.0;
-        for (int i = 0; i < thisList.size(); i++) {
-            double thisValue = thisList.get(i).doubleValue();
-            double thatValue = thatList.get(i).doubleValue();
+        for (int i = 0; i < length; i++) {
+            double thisValue = thisValues[i];
+            double thatValue = thatValues[i];
 
             innerProduct += thisValue * thatValue;
             thisPower2 += thisValue * thisValue;
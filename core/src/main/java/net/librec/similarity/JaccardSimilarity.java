@@ -20,9 +20,7 @@ package net.librec.similarity;
 
 import net.librec.math.structure.SparseVector;
 
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 /**
  * Jaccard Similarity
@@ -44,13 +42,9 @@ public class JaccardSimilarity extends AbstractRecommenderSimilarity {
      * @return similarity
      */
     public double getCorrelation(SparseVector thisVector, SparseVector thatVector) {
-        // compute similarity
-        Set<Integer> elements = new HashSet<Integer>();
-        elements.addAll(thisVector.getIndexList());
-        elements.addAll(thatVector.getIndexList());
-
-        int numAllElements = elements.size();
-        int numCommonElements = thisVector.size() + thatVector.size() - numAllElements;
+        // compute similarity by merging the sorted indices in place
+        int numCommonElements = thisVector.intersectionSize(thatVector);
+        int numAllElements = thisVector.size() + thatVector.size() - numCommonElements;
 
         return (numCommonElements + 0.0) / numAllElements;
     }
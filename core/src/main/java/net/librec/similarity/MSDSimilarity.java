@@ -43,16 +43,36 @@ public class MSDSimilarity extends AbstractRecommenderSimilarity {
             return Double.NaN;
         }
 
+        return getSimilarity(toArray(thisList), toArray(thatList), thisList.size());
+    }
+
+    /**
+     * Calculate the similarity between the first length values of thisValues and thatValues.
+     *
+     * @param thisValues
+     *            this values
+     * @param thatValues
+     *            that values
+     * @param length
+     *            the number of values
+     * @return similarity
+     */
+    @Override
+    protected double getSimilarity(double[] thisValues, double[] thatValues, int length) {
+        if (length < 1) {
+            return Double.NaN;
+        }
+
         double sum = 0.0;
 
-        for (int i = 0; i < thisList.size(); i++) {
-            double thisValue = thisList.get(i).doubleValue();
-            double thatValue = thatList.get(i).doubleValue();
+        for (int i = 0; i < length; i++) {
+            double thisValue = thisValues[i];
+            double thatValue = thatValues[i];
 
             sum += Math.pow(thisValue - thatValue, 2);
         }
 
-        double sim = thisList.size() / sum;
+        double sim = length / sum;
         if (Double.isInfinite(sim))
             sim = 1.0;
 
@@ -40,11 +40,31 @@ public class MSESimilarity extends AbstractRecommenderSimilarity {
             return Double.NaN;
         }
 
+        return getSimilarity(toArray(thisList), toArray(thatList), thisList.size());
+    }
+
+    /**
+     * Calculate the similarity between the first length values of thisValues and thatValues.
+     *
+     * @param thisValues
+     *            this values
+     * @param thatValues
+     *            that values
+     * @param length
+     *            the number of values
+     * @return similarity
+     */
+    @Override
+    protected double getSimilarity(double[] thisValues, double[] thatValues, int length) {
+        if (length < 1) {
+            return Double.NaN;
+        }
+
         double mse = 0.0;
-        for (int i = 0; i < thisList.size(); i++) {
-            double diff = thisList.get(i).doubleValue() - thatList.get(i).doubleValue();
+        for (int i = 0; i < length; i++) {
+            double diff = thisValues[i] - thatValues[i];
             mse += Math.pow(diff, 2);
         }
-        return mse / thisList.size();
+        return mse / length;
     }
 }
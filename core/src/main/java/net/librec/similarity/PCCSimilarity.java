@@ -17,8 +17,6 @@
  */
 package net.librec.similarity;
 
-import net.librec.math.algorithm.Maths;
-
 import java.util.List;
 
 /**
@@ -44,13 +42,35 @@ public class PCCSimilarity extends AbstractRecommenderSimilarity {
             return Double.NaN;
         }
 
-        double thisMu = Maths.mean(thisList);
-        double thatMu = Maths.mean(thatList);
+        return getSimilarity(toArray(thisList), toArray(thatList), thisList.size());
+    }
+
+    /**
+     * Calculate the similarity between the first length values of thisValues and thatValues.
+     *
+     * @param thisValues
+     *            this values
+     * @param thatValues
+     *            that values
+     * @param length
+     *            the number of values
+     * @return similarity
+     */
+    @Override
+    protected double getSimilarity(double[] thisValues, double[] thatValues, int length) {
+        // compute similarity
+
+        if (length < 2) {
+            return Double.NaN;
+        }
+
+        double thisMu = mean(thisValues, length);
+        double thatMu = mean(thatValues, length);
 
         double num = 0.0, thisPow2 = 0.0, thatPow2 = 0.0;
-        for (int i = 0; i < thisList.size(); i++) {
-            double thisMinusMu = thisList.get(i).doubleValue() - thisMu;
-            double thatMinusMu = thatList.get(i).doubleValue() - thatMu;
+        for (int i = 0; i < length; i++) {
+            double thisMinusMu = thisValues[i] - thisMu;
+            double thatMinusMu = thatValues[i] - thatMu;
 
             num += thisMinusMu * thatMinusMu;
             thisPow2 += thisMinusMu * thisMinusMu;
@@ -59,4 +79,23 @@ public class PCCSimilarity extends AbstractRecommenderSimilarity {
 
         return num / (Math.sqrt(thisPow2) * Math.sqrt(thatPow2));
     }
+
+    /**
+     * Mean of the first length values which are not NaN, as {@link net.librec.math.algorithm.Maths#mean}.
+     *
+     * @param values values
+     * @param length the number of values
+     * @return mean of the values
+     */
+    private static double mean(double[] values, int length) {
+        double sum = 0.0;
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (!Double.isNaN(values[i])) {
+                sum += values[i];
+                count++;
+            }
+        }
+        return sum / count;
+    }
 }
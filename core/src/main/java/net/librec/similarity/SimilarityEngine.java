@@ -0,0 +1,421 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.similarity;
+
+import net.librec.math.structure.SparseVector;
+import net.librec.math.structure.SymmMatrix;
+import net.librec.math.structure.SymmMatrixBuilder;
+import net.librec.util.TopKHeap;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Similarity engine of {@link AbstractRecommenderSimilarity}, computing the
+ * similarities between the rows (or columns) of a compressed sparse matrix.
+ * <p>
+ * The candidates of a vector are found through the transposed structure, so only
+ * the pairs sharing at least one nonzero index are compared. The values of the
+ * common indices are merged from the sorted index arrays into per-thread buffers
+ * and passed to {@link AbstractRecommenderSimilarity#getSimilarity(double[], double[], int)},
+ * in the same order as {@link AbstractRecommenderSimilarity#getCorrelation(SparseVector, SparseVector)}
+ * collects them, so the computed values are the same doubles. Similarities overriding
+ * getCorrelation are called with the sparse vectors instead. The matrix stores the
+ * values as floats ({@link SymmMatrixBuilder}), so its entries are the similarities
+ * rounded to float, while the top-k neighbors keep the double values.
+ * <p>
+ * Blocks of vectors are compared on a fork-join pool, and the similarities of each
+ * vector are kept in its own slot and appended to the matrix in order, so the
+ * result does not depend on the number of threads.
+ * <p>
+ * Similarities below an optional threshold are dropped. With a positive topK,
+ * each vector is compared with all of its candidates, in both directions of a
+ * pair, and only its topK most similar vectors are kept in a bounded per-thread
+ * {@link TopKHeap}, so the memory is O(numVectors * topK) instead of the number of
+ * candidate pairs. The kept neighbors are available from {@link #getNeighbors()},
+ * already sorted, and the matrix holds the union of the kept pairs.
+ */
+public class SimilarityEngine {
+
+    /**
+     * the number of vectors of a block is at most numVectors / (numThreads * BLOCKS_PER_THREAD)
+     */
+    private static final int BLOCKS_PER_THREAD = 16;
+
+    /**
+     * similarity measure
+     */
+    private final AbstractRecommenderSimilarity similarity;
+
+    /**
+     * compressed vectors: pointers, sorted indices and values
+     */
+    private final int[] ptr, idx;
+    private final double[] data;
+
+    /**
+     * transposed structure: pointers and sorted vector indices
+     */
+    private final int[] transPtr, transIdx;
+
+    /**
+     * the number of vectors and the dimension of a vector
+     */
+    private final int numVectors, dimension;
+
+    /**
+     * the number of worker threads
+     */
+    private final int numThreads;
+
+    /**
+     * the number of kept neighbors of each vector, all if not positive
+     */
+    private final int topK;
+
+    /**
+     * similarities below the threshold are dropped
+     */
+    private final double threshold;
+
+    /**
+     * sparse vectors, if the similarity overrides getCorrelation
+     */
+    private final SparseVector[] vectors;
+
+    /**
+     * similar vectors with larger indices, or the topK most similar vectors sorted
+     * in descending order of similarity, and their similarities, of each vector
+     */
+    private final int[][] similarIndices;
+    private final double[][] similarities;
+
+    /**
+     * scratch buffers of each worker thread
+     */
+    private final ThreadLocal<Workspace> workspaces;
+
+    /**
+     * sorted neighbors of each vector, if topK is positive
+     */
+    private SimilarityNeighbors neighbors;
+
+    /**
+     * Create a similarity engine over compressed sparse vectors.
+     *
+     * @param similarity similarity measure
+     * @param ptr        pointers of the vectors, of length numVectors + 1
+     * @param idx        sorted indices of each vector
+     * @param data       values of each vector
+     * @param transPtr   pointers of the transposed structure, of length dimension + 1
+     * @param transIdx   sorted vector indices of each index of the transposed structure
+     * @param numThreads the number of worker threads, all available processors if not positive
+     */
+    public SimilarityEngine(AbstractRecommenderSimilarity similarity, int[] ptr, int[] idx, double[] data,
+                            int[] transPtr, int[] transIdx, int numThreads) {
+        this(similarity, ptr, idx, data, transPtr, transIdx, numThreads, 0, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Create a similarity engine over compressed sparse vectors, keeping the most similar vectors of each vector.
+     *
+     * @param similarity similarity measure
+     * @param ptr        pointers of the vectors, of length numVectors + 1
+     * @param idx        sorted indices of each vector
+     * @param data       values of each vector
+     * @param transPtr   pointers of the transposed structure, of length dimension + 1
+     * @param transIdx   sorted vector indices of each index of the transposed structure
+     * @param numThreads the number of worker threads, all available processors if not positive
+     * @param topK       the number of kept neighbors of each vector, all if not positive
+     * @param threshold  similarities below the threshold are dropped
+     */
+    public SimilarityEngine(AbstractRecommenderSimilarity similarity, int[] ptr, int[] idx, double[] data,
+                            int[] transPtr, int[] transIdx, int numThreads, int topK, double threshold) {
+        this.similarity = similarity;
+        this.ptr = ptr;
+        this.idx = idx;
+        this.data = data;
+        this.transPtr = transPtr;
+        this.transIdx = transIdx;
+        this.numVectors = ptr.length - 1;
+        this.dimension = transPtr.length - 1;
+        this.numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+        this.topK = topK > 0 ? topK : 0;
+        this.threshold = threshold;
+        this.similarIndices = new int[numVectors][];
+        this.similarities = new double[numVectors][];
+
+        if (similarity.isCorrelationOverridden()) {
+            vectors = new SparseVector[numVectors];
+            for (int vectorIdx = 0; vectorIdx < numVectors; vectorIdx++) {
+                vectors[vectorIdx] = new SparseVector(dimension, idx, data, ptr[vectorIdx], ptr[vectorIdx + 1] - 1);
+            }
+        } else {
+            vectors = null;
+        }
+
+        int maxLength = 0;
+        for (int vectorIdx = 0; vectorIdx < numVectors; vectorIdx++) {
+            maxLength = Math.max(maxLength, ptr[vectorIdx + 1] - ptr[vectorIdx]);
+        }
+        final int bufferLength = maxLength;
+        this.workspaces = new ThreadLocal<Workspace>() {
+            @Override
+            protected Workspace initialValue() {
+                return new Workspace(numVectors, bufferLength, SimilarityEngine.this.topK);
+            }
+        };
+    }
+
+    /**
+     * Compute the similarities of all pairs of vectors sharing a nonzero index.
+     *
+     * @return the similarity matrix, holding only the kept pairs if topK is positive
+     */
+    public SymmMatrix build() {
+        if (numThreads == 1 || numVectors <= 1) {
+            computeVectors(0, numVectors);
+        } else {
+            int blockSize = Math.max(1, numVectors / (numThreads * BLOCKS_PER_THREAD));
+            ForkJoinPool pool = new ForkJoinPool(numThreads);
+            try {
+                pool.invoke(new SimilarityTask(0, numVectors, blockSize));
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        int numEntries = 0;
+        for (int vectorIdx = 0; vectorIdx < numVectors; vectorIdx++) {
+            if (similarIndices[vectorIdx] == null) {
+                similarIndices[vectorIdx] = new int[0];
+                similarities[vectorIdx] = new double[0];
+            }
+            numEntries += similarIndices[vectorIdx].length;
+        }
+        SymmMatrixBuilder builder = new SymmMatrixBuilder(numVectors, numEntries);
+        for (int vectorIdx = 0; vectorIdx < numVectors; vectorIdx++) {
+            int[] indices = similarIndices[vectorIdx];
+            double[] values = similarities[vectorIdx];
+            for (int i = 0; i < indices.length; i++) {
+                builder.set(vectorIdx, indices[i], values[i]);
+            }
+            if (topK == 0) {
+                similarIndices[vectorIdx] = null;
+                similarities[vectorIdx] = null;
+            }
+        }
+        if (topK > 0) {
+            neighbors = new SimilarityNeighbors(similarIndices, similarities);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the sorted topK neighbors of each vector once built, or null if topK is not positive
+     */
+    public SimilarityNeighbors getNeighbors() {
+        return neighbors;
+    }
+
+    /**
+     * Compute the similarities of the vectors in [fromVector, toVector) with the vectors of larger indices.
+     *
+     * @param fromVector the first vector, inclusive
+     * @param toVector   the last vector, exclusive
+     */
+    private void computeVectors(int fromVector, int toVector) {
+        Workspace workspace = workspaces.get();
+        for (int vectorIdx = fromVector; vectorIdx < toVector; vectorIdx++) {
+            computeVector(vectorIdx, workspace);
+        }
+    }
+
+    /**
+     * Compute the similarities of a vector with the vectors sharing a nonzero index: those
+     * of larger indices, or all of them if topK is positive.
+     *
+     * @param thisIdx   vector index
+     * @param workspace scratch buffers of the current thread
+     */
+    private void computeVector(int thisIdx, Workspace workspace) {
+        int[] marks = workspace.marks;
+        int[] candidates = workspace.candidates;
+        int numCandidates = 0;
+        for (int position = ptr[thisIdx]; position < ptr[thisIdx + 1]; position++) {
+            if (data[position] == 0.0) {
+                continue;
+            }
+            int index = idx[position];
+            int start = transPtr[index];
+            if (topK == 0) {
+                // vector indices are sorted, so start after thisIdx
+                start = Arrays.binarySearch(transIdx, transPtr[index], transPtr[index + 1], thisIdx + 1);
+                start = start >= 0 ? start : -start - 1;
+            }
+            for (int transPosition = start; transPosition < transPtr[index + 1]; transPosition++) {
+                int thatIdx = transIdx[transPosition];
+                if (thatIdx != thisIdx && marks[thatIdx] != thisIdx + 1) {
+                    marks[thatIdx] = thisIdx + 1;
+                    candidates[numCandidates++] = thatIdx;
+                }
+            }
+        }
+        if (numCandidates == 0) {
+            return;
+        }
+        if (topK > 0) {
+            computeNeighbors(thisIdx, numCandidates, workspace);
+            return;
+        }
+        Arrays.sort(candidates, 0, numCandidates);
+
+        int[] indices = new int[numCandidates];
+        double[] values = new double[numCandidates];
+        int numSimilar = 0;
+        for (int i = 0; i < numCandidates; i++) {
+            int thatIdx = candidates[i];
+            double sim = similarity(thisIdx, thatIdx, workspace);
+            // zero similarities are not stored in the matrix, as in computeNeighbors
+            if (!Double.isNaN(sim) && sim >= threshold && sim != 0.0) {
+                indices[numSimilar] = thatIdx;
+                values[numSimilar++] = sim;
+            }
+        }
+        similarIndices[thisIdx] = Arrays.copyOf(indices, numSimilar);
+        similarities[thisIdx] = Arrays.copyOf(values, numSimilar);
+    }
+
+    /**
+     * Keep the topK most similar candidates of a vector, sorted in descending order of similarity.
+     *
+     * @param thisIdx       vector index
+     * @param numCandidates the number of candidates in the workspace
+     * @param workspace     scratch buffers of the current thread
+     */
+    private void computeNeighbors(int thisIdx, int numCandidates, Workspace workspace) {
+        int[] candidates = workspace.candidates;
+        TopKHeap heap = workspace.heap;
+        heap.clear();
+        for (int i = 0; i < numCandidates; i++) {
+            int thatIdx = candidates[i];
+            // compare the pair in the same order as without topK, so the similarity is the same in both directions
+            double sim = thisIdx < thatIdx
+                    ? similarity(thisIdx, thatIdx, workspace)
+                    : similarity(thatIdx, thisIdx, workspace);
+            // zero similarities are not stored in the matrix, nor kept as neighbors
+            if (!Double.isNaN(sim) && sim >= threshold && sim != 0.0) {
+                heap.offer(thatIdx, sim);
+            }
+        }
+        heap.sortDescending();
+        similarIndices[thisIdx] = heap.toIndexArray();
+        similarities[thisIdx] = heap.toValueArray();
+    }
+
+    /**
+     * @param thisIdx   this vector index
+     * @param thatIdx   that vector index
+     * @param workspace scratch buffers of the current thread
+     * @return similarity of the two vectors
+     */
+    private double similarity(int thisIdx, int thatIdx, Workspace workspace) {
+        return vectors != null
+                ? similarity.getCorrelation(vectors[thisIdx], vectors[thatIdx])
+                : correlation(thisIdx, thatIdx, workspace);
+    }
+
+    /**
+     * Merge the values of the common nonzero indices of two vectors and compute their similarity.
+     *
+     * @param thisIdx   this vector index
+     * @param thatIdx   that vector index
+     * @param workspace scratch buffers of the current thread
+     * @return similarity, shrunk by the number of common indices
+     */
+    private double correlation(int thisIdx, int thatIdx, Workspace workspace) {
+        double[] thisValues = workspace.thisValues;
+        double[] thatValues = workspace.thatValues;
+        int length = 0;
+        int thisPosition = ptr[thisIdx], thisEnd = ptr[thisIdx + 1];
+        int thatPosition = ptr[thatIdx], thatEnd = ptr[thatIdx + 1];
+        while (thisPosition < thisEnd && thatPosition < thatEnd) {
+            int thisIndex = idx[thisPosition], thatIndex = idx[thatPosition];
+            if (thisIndex < thatIndex) {
+                thisPosition++;
+            } else if (thisIndex > thatIndex) {
+                thatPosition++;
+            } else {
+                if (data[thisPosition] != 0.0 && data[thatPosition] != 0.0) {
+                    thisValues[length] = data[thisPosition];
+                    thatValues[length++] = data[thatPosition];
+                }
+                thisPosition++;
+                thatPosition++;
+            }
+        }
+        return similarity.shrink(similarity.getSimilarity(thisValues, thatValues, length), length);
+    }
+
+    /**
+     * Scratch buffers of a worker thread.
+     */
+    private static class Workspace {
+        /**
+         * marks[v] is u + 1 once vector v is a candidate of vector u
+         */
+        private final int[] marks;
+        private final int[] candidates;
+        private final double[] thisValues, thatValues;
+        private final TopKHeap heap;
+
+        Workspace(int numVectors, int maxLength, int topK) {
+            marks = new int[numVectors];
+            candidates = new int[numVectors];
+            thisValues = new double[maxLength];
+            thatValues = new double[maxLength];
+            heap = topK > 0 ? new TopKHeap(topK) : null;
+        }
+    }
+
+    /**
+     * Recursively split a range of vectors into blocks.
+     */
+    private class SimilarityTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int fromVector, toVector, blockSize;
+
+        SimilarityTask(int fromVector, int toVector, int blockSize) {
+            this.fromVector = fromVector;
+            this.toVector = toVector;
+            this.blockSize = blockSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (toVector - fromVector <= blockSize) {
+                computeVectors(fromVector, toVector);
+            } else {
+                int middle = (fromVector + toVector) >>> 1;
+                invokeAll(new SimilarityTask(fromVector, middle, blockSize), new SimilarityTask(middle, toVector, blockSize));
+            }
+        }
+    }
+}
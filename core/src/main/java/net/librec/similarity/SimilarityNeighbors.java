@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.similarity;
+
+import net.librec.math.structure.SparseVector;
+import net.librec.math.structure.SymmMatrix;
+import net.librec.math.structure.VectorEntry;
+import net.librec.util.TopKHeap;
+
+/**
+ * Nearest neighbors of the rows of a similarity matrix, kept as primitive arrays
+ * sorted by similarity in descending order, ties broken in favour of the smaller
+ * index. Neighborhood-based recommenders walk these arrays directly instead of
+ * sorting a row of the similarity matrix into boxed entries.
+ */
+public class SimilarityNeighbors {
+
+    /**
+     * neighbor indices of each row, sorted by similarity in descending order
+     */
+    private final int[][] neighbors;
+
+    /**
+     * similarities of the neighbors of each row
+     */
+    private final double[][] similarities;
+
+    /**
+     * Create the neighbors from sorted arrays.
+     *
+     * @param neighbors    neighbor indices of each row, sorted by similarity in descending order
+     * @param similarities similarities of the neighbors of each row
+     */
+    public SimilarityNeighbors(int[][] neighbors, double[][] similarities) {
+        if (neighbors.length != similarities.length) {
+            throw new IllegalArgumentException("The numbers of rows of neighbors and similarities are not equal!");
+        }
+        this.neighbors = neighbors;
+        this.similarities = similarities;
+    }
+
+    /**
+     * Sort all the nonzero entries of each row of a similarity matrix.
+     *
+     * @param similarityMatrix similarity matrix
+     * @return the neighbors of each row of the matrix
+     */
+    public static SimilarityNeighbors of(SymmMatrix similarityMatrix) {
+        int numRows = similarityMatrix.getDim();
+        int[][] neighbors = new int[numRows][];
+        double[][] similarities = new double[numRows][];
+        TopKHeap heap = null;
+        for (int row = 0; row < numRows; row++) {
+            SparseVector similarityVector = similarityMatrix.row(row);
+            int size = similarityVector.getCount();
+            if (size == 0) {
+                neighbors[row] = new int[0];
+                similarities[row] = new double[0];
+                continue;
+            }
+            if (heap == null || heap.capacity() < size) {
+                heap = new TopKHeap(Math.max(size, heap == null ? 0 : heap.capacity() * 2));
+            }
+            heap.clear();
+            for (VectorEntry entry : similarityVector) {
+                heap.offer(entry.index(), entry.get());
+            }
+            heap.sortDescending();
+            neighbors[row] = heap.toIndexArray();
+            similarities[row] = heap.toValueArray();
+        }
+        return new SimilarityNeighbors(neighbors, similarities);
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int numRows() {
+        return neighbors.length;
+    }
+
+    /**
+     * @param row row index
+     * @return the number of neighbors of the row
+     */
+    public int size(int row) {
+        return neighbors[row].length;
+    }
+
+    /**
+     * @param row row index
+     * @return neighbor indices of the row, sorted by similarity in descending order; do not modify
+     */
+    public int[] getNeighbors(int row) {
+        return neighbors[row];
+    }
+
+    /**
+     * @param row row index
+     * @return similarities of the neighbors of the row; do not modify
+     */
+    public double[] getSimilarities(int row) {
+        return similarities[row];
+    }
+}
@@ -20,7 +20,6 @@ package net.librec.util;
 import net.librec.annotation.ModelData;
 import net.librec.io.ModelFile;
 import net.librec.io.Writable;
-import net.librec.io.WritableEnum;
 import net.librec.recommender.Recommender;
 
 import java.io.*;
@@ -34,7 +33,10 @@ import java.lang.reflect.Field;
 public class ModelDataUtil {
 
     /**
-     * load Recommender Model
+     * load Recommender Model, either a memory-mapped model file or a model file of
+     * {@link ModelFile#VERSION}. The declared fields of the latter are read in order,
+     * and the trailing fields missing from a file saved before they were added to
+     * the model keep their values.
      *
      * @param recommender  recommender
      * @param filePath     file path
@@ -43,11 +45,31 @@ public class ModelDataUtil {
         ModelData modelData = recommender.getClass().getAnnotation(ModelData.class);
         String[] fieldNames = modelData.value();
         try {
+            if (ModelFile.isMapped(new File(filePath))) {
+                try (ModelFile.MappedReader reader = new ModelFile.MappedReader(new File(filePath))) {
+                    for (String fieldName : fieldNames) {
+                        Field field = getDeclaredField(recommender, fieldName);
+                        if (field == null || reader.getSection(fieldName) == null) {
+                            continue;
+                        }
+                        field.setAccessible(true);
+                        field.set(recommender, reader.read(fieldName));
+                    }
+                }
+                return;
+            }
             FileInputStream fis = new FileInputStream(filePath);
             DataInputStream in = new DataInputStream(fis);
             ModelFile.Reader reader = new ModelFile.Reader(in);
             for (String fieldName : fieldNames) {
+                if (fis.available() == 0) {
+                    // the file ends before the fields added to the model since it was saved
+                    break;
+                }
                 Field field = getDeclaredField(recommender, fieldName);
+                if (field == null) {
+                    continue;
+                }
                 field.setAccessible(true);
                 Writable writable = reader.readData(in);
                 if (writable != null) {
@@ -68,7 +90,8 @@ public class ModelDataUtil {
     }
 
     /**
-     * save Recommender Model
+     * save Recommender Model as a memory-mapped model file, one section per model
+     * field. Fields which are not declared or are null are not saved.
      *
      * @param recommender  recommender
      * @param filePath     file path
@@ -76,23 +99,18 @@ public class ModelDataUtil {
     public static void saveRecommenderModel(Recommender recommender, String filePath) {
         ModelData modelData = recommender.getClass().getAnnotation(ModelData.class);
         String[] fieldNames = modelData.value();
-        try {
-            FileOutputStream fos = new FileOutputStream(filePath);
-            DataOutputStream out = new DataOutputStream(fos);
-            ModelFile.Writer writer = new ModelFile.Writer(out);
+        try (ModelFile.MappedWriter writer = new ModelFile.MappedWriter(new File(filePath))) {
             for (String fieldName : fieldNames) {
                 Field field = getDeclaredField(recommender, fieldName);
+                if (field == null) {
+                    continue;
+                }
                 field.setAccessible(true);
                 Object fieldValue = field.get(recommender);
                 if (fieldValue != null) {
-                    WritableEnum writableEnum = WritableEnum.getWritableEnum(fieldValue);
-                    Writable writable = (Writable) ReflectionUtil.newInstance(writableEnum.getClazz());
-                    writable.setValue(fieldValue);
-                    writer.writeData(out, writable);
+                    writer.write(fieldName, fieldValue);
                 }
             }
-            out.close();
-            fos.close();
         } catch (SecurityException e) {
             e.printStackTrace();
         } catch (IllegalArgumentException e) {
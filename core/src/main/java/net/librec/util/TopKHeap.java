@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.util;
+
+/**
+ * A bounded min-heap which keeps the k (index, value) pairs with the largest
+ * values, stored in two parallel primitive arrays so that offering a candidate
+ * never allocates.
+ * <p>
+ * Ties are broken in favour of the smaller index, which makes the kept set
+ * deterministic whatever the order of the candidates. A heap is not thread
+ * safe; use one instance per thread and {@link #clear()} it between rows.
+ */
+public class TopKHeap {
+
+    /**
+     * maximum number of kept entries
+     */
+    private final int capacity;
+
+    /**
+     * indices of the kept entries, in heap order until sorted
+     */
+    private final int[] indices;
+
+    /**
+     * values of the kept entries, in heap order until sorted
+     */
+    private final double[] values;
+
+    /**
+     * the number of kept entries
+     */
+    private int size;
+
+    /**
+     * Create a heap keeping at most {@code capacity} entries.
+     *
+     * @param capacity the number of entries to keep
+     */
+    public TopKHeap(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.indices = new int[capacity];
+        this.values = new double[capacity];
+    }
+
+    /**
+     * Offer a candidate entry to the heap.
+     *
+     * @param index index of the candidate
+     * @param value value of the candidate
+     * @return true if the candidate is kept
+     */
+    public boolean offer(int index, double value) {
+        if (size < capacity) {
+            indices[size] = index;
+            values[size] = value;
+            siftUp(size++);
+            return true;
+        }
+        if (worse(index, value, 0)) {
+            return false;
+        }
+        indices[0] = index;
+        values[0] = value;
+        siftDown(0, size);
+        return true;
+    }
+
+    /**
+     * @return the smallest kept value, or {@code Double.NEGATIVE_INFINITY} if the heap is not full yet
+     */
+    public double threshold() {
+        return size < capacity ? Double.NEGATIVE_INFINITY : values[0];
+    }
+
+    /**
+     * Sort the kept entries by value in descending order, in place. After sorting
+     * the heap property no longer holds, so {@link #clear()} the heap before
+     * offering new candidates.
+     */
+    public void sortDescending() {
+        for (int last = size - 1; last > 0; last--) {
+            swap(0, last);
+            siftDown(0, last);
+        }
+    }
+
+    /**
+     * @param position position in the heap
+     * @return index of the entry at the given position
+     */
+    public int indexAt(int position) {
+        return indices[position];
+    }
+
+    /**
+     * @param position position in the heap
+     * @return value of the entry at the given position
+     */
+    public double valueAt(int position) {
+        return values[position];
+    }
+
+    /**
+     * @return the number of kept entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the maximum number of kept entries
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Copy the indices of the kept entries into a new array.
+     *
+     * @return indices of the kept entries
+     */
+    public int[] toIndexArray() {
+        int[] res = new int[size];
+        System.arraycopy(indices, 0, res, 0, size);
+        return res;
+    }
+
+    /**
+     * Copy the values of the kept entries into a new array.
+     *
+     * @return values of the kept entries
+     */
+    public double[] toValueArray() {
+        double[] res = new double[size];
+        System.arraycopy(values, 0, res, 0, size);
+        return res;
+    }
+
+    /**
+     * Whether the candidate ranks lower than the entry at the given position,
+     * i.e. has a smaller value, or an equal value and a larger index.
+     */
+    private boolean worse(int index, double value, int position) {
+        double other = values[position];
+        return value < other || (value == other && index >= indices[position]);
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (!worse(indices[position], values[position], parent)) {
+                break;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position, int end) {
+        while (true) {
+            int child = (position << 1) + 1;
+            if (child >= end) {
+                break;
+            }
+            if (child + 1 < end && worse(indices[child + 1], values[child + 1], child)) {
+                child++;
+            }
+            if (!worse(indices[child], values[child], position)) {
+                break;
+            }
+            swap(position, child);
+            position = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int index = indices[i];
+        indices[i] = indices[j];
+        indices[j] = index;
+        double value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+}
@@ -26,9 +26,22 @@ import net.librec.data.splitter.GivenNDataSplitterTestCase;
 import net.librec.data.splitter.KCVDataSplitterTestCase;
 import net.librec.data.splitter.LOOCVDataSplitterTestCase;
 import net.librec.data.splitter.RatioDataSplitterTestCase;
+import net.librec.eval.RankingEvaluationEngineTestCase;
 import net.librec.io.ArrayWritableTestCase;
 import net.librec.io.ModelFileTestCase;
 import net.librec.job.RecommenderJobTestCase;
+import net.librec.math.algorithm.RandomSourceTestCase;
+import net.librec.math.structure.DenseMatrixTestCase;
+import net.librec.math.structure.IndexAdjacencyTestCase;
+import net.librec.math.structure.SparseMatrixBuilderTestCase;
+import net.librec.math.structure.SparseMatrixViewTestCase;
+import net.librec.math.structure.SparseTensorTestCase;
+import net.librec.math.structure.SymmMatrixBuilderTestCase;
+import net.librec.recommender.FMEngineTestCase;
+import net.librec.recommender.MappedFactorModelTestCase;
+import net.librec.recommender.MatrixFactorizationRecommenderTestCase;
+import net.librec.recommender.RankingEngineTestCase;
+import net.librec.recommender.SGDEngineTestCase;
 import net.librec.recommender.baseline.*;
 import net.librec.recommender.cf.BHFreeTestCase;
 import net.librec.recommender.cf.BUCMTestCase;
@@ -42,7 +55,12 @@ import net.librec.recommender.context.ranking.SBPRTestCase;
 import net.librec.recommender.context.rating.*;
 import net.librec.recommender.ext.*;
 import net.librec.recommender.hybrid.HybridTestCase;
+import net.librec.recommender.item.CompactRecommendedItemListTestCase;
 import net.librec.recommender.item.RecommendedItemListTestCase;
+import net.librec.recommender.sampler.NegativeSamplerTestCase;
+import net.librec.recommender.sampler.TopicSamplingEngineTestCase;
+import net.librec.similarity.SimilarityEngineTestCase;
+import net.librec.similarity.SimilarityNeighborsTestCase;
 import net.librec.tool.driver.DataDriverTestCase;
 import net.librec.tool.driver.RecDriverTestCase;
 import org.junit.runner.RunWith;
@@ -68,14 +86,35 @@ import org.junit.runners.Suite.SuiteClasses;
 	KCVDataSplitterTestCase.class,
 	LOOCVDataSplitterTestCase.class,
 	RatioDataSplitterTestCase.class,
+	//eval
+	RankingEvaluationEngineTestCase.class,
 	//io
 //	ArrayWritableTestCase.class,
 	ModelFileTestCase.class,
+	//math.algorithm
+	RandomSourceTestCase.class,
+	//math.structure
+	DenseMatrixTestCase.class,
+	IndexAdjacencyTestCase.class,
+	SparseMatrixBuilderTestCase.class,
+	SparseMatrixViewTestCase.class,
+	SparseTensorTestCase.class,
+	SymmMatrixBuilderTestCase.class,
 	//job
 //	JobStatusTestCase.class,
 	RecommenderJobTestCase.class,
+	//recommender
+	FMEngineTestCase.class,
+	MappedFactorModelTestCase.class,
+	MatrixFactorizationRecommenderTestCase.class,
+	RankingEngineTestCase.class,
+	SGDEngineTestCase.class,
+	//recommender.sampler
+	NegativeSamplerTestCase.class,
+	TopicSamplingEngineTestCase.class,
 	//recommender.item
 	RecommendedItemListTestCase.class,
+	CompactRecommendedItemListTestCase.class,
 	//recommender.rec.baseline
 	ConstantGuessTestCase.class,
 	GlobalAverageTestCase.class,
@@ -148,6 +187,9 @@ import org.junit.runners.Suite.SuiteClasses;
 	SlopeOneTestCase.class,
 	//recommender.hybrid
 	HybridTestCase.class,
+	//similarity
+	SimilarityEngineTestCase.class,
+	SimilarityNeighborsTestCase.class,
 	//tool.driver
 	DataDriverTestCase.class,
 	RecDriverTestCase.class
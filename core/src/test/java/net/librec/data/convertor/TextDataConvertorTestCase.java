@@ -19,9 +19,19 @@ package net.librec.data.convertor;
 
 import net.librec.BaseTestCase;
 import net.librec.conf.Configured;
+import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SparseMatrix;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
@@ -117,4 +127,107 @@ public class TextDataConvertorTestCase extends BaseTestCase {
 		assertEquals(preference.size(), 13);
 		assertNull(datetimeMatrix);
 	}
+
+	/**
+	 * Test the method processData with mixed line endings and duplicated lines
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testLines() throws Exception {
+		File dataFile = File.createTempFile("sytTestLines", ".txt");
+		dataFile.deleteOnExit();
+		try (FileOutputStream out = new FileOutputStream(dataFile)) {
+			out.write("u1 i1 3.5 978300760\r\n\r\nu2,i2,4,9.7323480e+008\r  u1\ti3\t-0.25  12\n\nu1 i1 2 5\nu3 i1 1e1 7\r"
+					.getBytes("UTF-8"));
+		}
+
+		textDataConvertor = new TextDataConvertor("UIRT", dataFile.getPath(), -1.0);
+		textDataConvertor.processData();
+
+		SparseMatrix preference = textDataConvertor.getPreferenceMatrix();
+		SparseMatrix datetimeMatrix = textDataConvertor.getDatetimeMatrix();
+
+		assertEquals(3, textDataConvertor.numUsers());
+		assertEquals(3, textDataConvertor.numItems());
+		assertEquals(4, preference.size());
+		assertEquals(2.0, preference.get(textDataConvertor.getUserId("u1"), textDataConvertor.getItemId("i1")), 0.0);
+		assertEquals(-0.25, preference.get(textDataConvertor.getUserId("u1"), textDataConvertor.getItemId("i3")), 0.0);
+		assertEquals(10.0, preference.get(textDataConvertor.getUserId("u3"), textDataConvertor.getItemId("i1")), 0.0);
+		assertEquals(5000.0, datetimeMatrix.get(textDataConvertor.getUserId("u1"), textDataConvertor.getItemId("i1")), 0.0);
+		assertEquals(973234800000.0, datetimeMatrix.get(textDataConvertor.getUserId("u2"), textDataConvertor.getItemId("i2")), 0.0);
+		assertEquals(2, preference.getRows(textDataConvertor.getItemId("i1")).size());
+	}
+
+	/**
+	 * Test the shard files parsed by several threads, whose inner ids are those of
+	 * parsing them one after another.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testParallelShards() throws Exception {
+		File dataDir = Files.createTempDirectory("sytTestShards").toFile();
+		dataDir.deleteOnExit();
+		for (int shard = 0; shard < 8; shard++) {
+			File dataFile = new File(dataDir, "shard" + shard + ".txt");
+			dataFile.deleteOnExit();
+			try (FileOutputStream out = new FileOutputStream(dataFile)) {
+				StringBuilder lines = new StringBuilder();
+				for (int line = 0; line < 50; line++) {
+					lines.append("u").append((shard * 7 + line * 3) % 40).append(' ')
+							.append("i").append((shard * 11 + line) % 30).append(' ')
+							.append(shard + line % 5).append('\n');
+				}
+				out.write(lines.toString().getBytes("UTF-8"));
+			}
+		}
+
+		TextDataConvertor sequential = new TextDataConvertor("UIR", dataDir.getPath(), -1.0);
+		sequential.processData();
+		textDataConvertor = new TextDataConvertor("UIR", dataDir.getPath(), -1.0);
+		textDataConvertor.setNumThreads(4);
+		textDataConvertor.processData();
+
+		assertEquals(sequential.getUserIds(), textDataConvertor.getUserIds());
+		assertEquals(sequential.getItemIds(), textDataConvertor.getItemIds());
+		SparseMatrix expected = sequential.getPreferenceMatrix();
+		SparseMatrix preference = textDataConvertor.getPreferenceMatrix();
+		assertEquals(expected.size(), preference.size());
+		for (MatrixEntry entry : expected) {
+			assertEquals(entry.get(), preference.get(entry.row(), entry.column()), 0.0);
+		}
+	}
+
+	/**
+	 * Test the lines of a file split into small chunks, each line being parsed once.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testChunks() throws Exception {
+		File dataFile = File.createTempFile("sytTestChunks", ".txt");
+		dataFile.deleteOnExit();
+		String data = "a 1\nbb 22\r\n\nccc 333\rd 4\n\n\neeeee 55555\nf";
+		try (FileOutputStream out = new FileOutputStream(dataFile)) {
+			out.write(data.getBytes("UTF-8"));
+		}
+
+		for (int chunkSize = 1; chunkSize <= data.length(); chunkSize++) {
+			final List<String> lines = new ArrayList<>();
+			for (TextFileChunk chunk : TextFileChunk.split(Collections.singletonList(dataFile), chunkSize)) {
+				chunk.parse(new TextFileChunk.LineHandler() {
+					@Override
+					public void handle(ByteBuffer buffer, int from, int to) {
+						byte[] bytes = new byte[to - from];
+						for (int i = 0; i < bytes.length; i++) {
+							bytes[i] = buffer.get(from + i);
+						}
+						lines.add(new String(bytes));
+					}
+				});
+			}
+			assertEquals(Arrays.asList("a 1", "bb 22", "ccc 333", "d 4", "eeeee 55555"), lines);
+		}
+	}
 }
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.eval;
+
+import net.librec.BaseTestCase;
+import net.librec.common.LibrecException;
+import net.librec.eval.Measure.MeasureValue;
+import net.librec.eval.ranking.HitRateEvaluator;
+import net.librec.eval.ranking.PrecisionEvaluator;
+import net.librec.math.algorithm.RandomSource;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.math.structure.SparseMatrixBuilder;
+import net.librec.recommender.RecommenderContext;
+import net.librec.recommender.item.CompactRecommendedItemList;
+import net.librec.util.ReflectionUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Ranking Evaluation Engine TestCase
+ * {@link net.librec.eval.RankingEvaluationEngine}
+ */
+public class RankingEvaluationEngineTestCase extends BaseTestCase {
+
+	private static final int NUM_USERS = 40, NUM_ITEMS = 30;
+
+	private SparseMatrix testMatrix;
+
+	private CompactRecommendedItemList recommendedList;
+
+	private int[] numDroppedItems;
+
+	private RecommenderContext context;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		RandomSource random = RandomSource.splittable(5L);
+		SparseMatrixBuilder builder = new SparseMatrixBuilder(NUM_USERS, NUM_ITEMS);
+		recommendedList = new CompactRecommendedItemList(NUM_USERS - 1);
+		numDroppedItems = new int[NUM_USERS];
+		for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+			// user 0 has no test item
+			for (int itemIdx = 0; userIdx > 0 && itemIdx < NUM_ITEMS; itemIdx++) {
+				if (random.uniform() < 0.2) {
+					builder.add(userIdx, itemIdx, 1 + random.uniform(5));
+				}
+			}
+
+			int[] items = new int[NUM_ITEMS];
+			for (int itemIdx = 0; itemIdx < NUM_ITEMS; itemIdx++) {
+				items[itemIdx] = itemIdx;
+			}
+			int numRecommended = random.uniform(16);
+			double[] scores = new double[numRecommended];
+			for (int rank = 0; rank < numRecommended; rank++) {
+				int swap = rank + random.uniform(NUM_ITEMS - rank);
+				int itemIdx = items[swap];
+				items[swap] = items[rank];
+				items[rank] = itemIdx;
+				scores[rank] = numRecommended - rank;
+			}
+			recommendedList.addUserItemIdxs(userIdx, items, scores, numRecommended);
+			numDroppedItems[userIdx] = NUM_ITEMS - 5;
+		}
+		testMatrix = builder.build();
+
+
+		context = new RecommenderContext(conf);
+		context.setAttribute(AbstractRecommenderEvaluator.NUM_DROPPED_ITEMS, numDroppedItems);
+	}
+
+	/**
+	 * Test that all measures are the same as those of the single evaluators, with any number of threads.
+	 */
+	@Test
+	public void testSameAsEvaluators() throws LibrecException {
+		List<MeasureValue> measureValues = new ArrayList<>();
+		for (Measure measure : new Measure[]{Measure.AUC, Measure.AP, Measure.IDCG, Measure.NDCG,
+				Measure.PRECISION, Measure.RECALL, Measure.RR}) {
+			measureValues.add(new MeasureValue(measure, 5));
+			measureValues.add(new MeasureValue(measure, 10));
+		}
+
+		Map<MeasureValue, Double> sequential = new RankingEvaluationEngine(testMatrix, numDroppedItems, 1)
+				.evaluate(recommendedList, measureValues);
+		Map<MeasureValue, Double> parallel = new RankingEvaluationEngine(testMatrix, numDroppedItems, 3)
+				.evaluate(recommendedList, measureValues);
+		assertEquals(measureValues.size(), sequential.size());
+
+		for (MeasureValue measureValue : measureValues) {
+			AbstractRecommenderEvaluator evaluator = (AbstractRecommenderEvaluator) ReflectionUtil
+					.newInstance(measureValue.getMeasure().getEvaluatorClass());
+			evaluator.setTopN(measureValue.getTopN());
+			evaluator.conf = conf;
+			evaluator.context = context;
+			double expected = evaluator.evaluate(testMatrix, recommendedList);
+			assertEquals(expected, sequential.get(measureValue), 0.0);
+			assertEquals(expected, parallel.get(measureValue), 0.0);
+		}
+	}
+
+	/**
+	 * Test that a measure without a cutoff is refused.
+	 */
+	@Test
+	public void testUnsupportedMeasure() {
+		List<MeasureValue> measureValues = new ArrayList<>();
+		measureValues.add(new MeasureValue(Measure.RMSE));
+		try {
+			new RankingEvaluationEngine(testMatrix, numDroppedItems, 1).evaluate(recommendedList, measureValues);
+			throw new AssertionError("a rating measure is evaluated");
+		} catch (LibrecException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Test that the evaluators of the measures, and only those, are mapped to their measure.
+	 */
+	@Test
+	public void testMeasureOfEvaluator() {
+		for (Measure measure : Measure.values()) {
+			assertEquals(measure, Measure.getMeasure(measure.getEvaluatorClass()));
+		}
+		assertNull(Measure.getMeasure(HitRateEvaluator.class));
+		assertNull(Measure.getMeasure(new PrecisionEvaluator() {
+		}.getClass()));
+	}
+}
@@ -19,10 +19,14 @@ package net.librec.io;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
 import org.junit.Before;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
@@ -32,6 +36,13 @@ import net.librec.BaseTestCase;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.DenseVector;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.math.structure.SparseMatrixBuilder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Model File TestCase
@@ -86,4 +97,58 @@ public class ModelFileTestCase extends BaseTestCase {
 			}
 		}
 	}
+
+	/**
+	 * Test writing and reading a memory-mapped model file.
+	 */
+	@Test
+	public void test3MappedModelFile() throws LibrecException, IOException {
+		File file = new File(filePath + "-mapped");
+		file.deleteOnExit();
+		DenseMatrix denseMatrix = new DenseMatrix(new double[][]{{0.1, 0.2, 0.3}, {0.4, 0.5, 0.6}});
+		DenseVector denseVector = new DenseVector(new double[]{1.0, 2.0, 3.0, 4.0, 5.0});
+		SparseMatrixBuilder builder = new SparseMatrixBuilder(3, 4);
+		builder.add(0, 1, 1.0);
+		builder.add(2, 3, 2.0);
+		builder.add(2, 0, 3.0);
+		SparseMatrix sparseMatrix = builder.build();
+		BiMap<String, Integer> userMapping = HashBiMap.create();
+		userMapping.put("u1", 0);
+		userMapping.put("u2", 1);
+
+		try (ModelFile.MappedWriter writer = new ModelFile.MappedWriter(file)) {
+			writer.write("isRanking", Boolean.TRUE);
+			writer.write("numFactors", 7);
+			writer.write("userFactors", denseMatrix);
+			writer.write("itemBiases", denseVector);
+			writer.write("trainMatrix", sparseMatrix);
+			writer.write("userMapping", userMapping);
+		}
+		assertTrue(ModelFile.isMapped(file));
+		assertFalse(ModelFile.isMapped(new File(filePath)));
+
+		try (ModelFile.MappedReader reader = new ModelFile.MappedReader(file)) {
+			assertEquals(6, reader.getNames().size());
+			assertEquals(Boolean.TRUE, reader.read("isRanking"));
+			assertEquals(7, ((Integer) reader.read("numFactors")).intValue());
+
+			DenseMatrix readMatrix = (DenseMatrix) reader.read("userFactors");
+			assertEquals(2, readMatrix.numRows());
+			assertArrayEquals(denseMatrix.getData()[1], readMatrix.getData()[1], 0.0);
+			assertArrayEquals(denseVector.getData(), ((DenseVector) reader.read("itemBiases")).getData(), 0.0);
+
+			SparseMatrix readSparse = (SparseMatrix) reader.read("trainMatrix");
+			assertEquals(3, readSparse.numRows());
+			assertEquals(4, readSparse.numColumns());
+			assertEquals(3, readSparse.size());
+			assertEquals(3.0, readSparse.get(2, 0), 0.0);
+			assertEquals(2.0, readSparse.column(3).get(2), 0.0);
+			assertEquals(userMapping, reader.read("userMapping"));
+
+			ModelFile.Section section = reader.getSection("userFactors");
+			assertEquals(0, section.getOffset() % 8);
+			ByteBuffer buffer = reader.map(section);
+			assertEquals(0.5, buffer.getDouble(8 + 4 * 8), 0.0);
+		}
+	}
 }
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.algorithm;
+
+import net.librec.BaseTestCase;
+import net.librec.math.structure.DenseMatrix;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Random Source TestCase
+ * {@link net.librec.math.algorithm.RandomSource}
+ */
+public class RandomSourceTestCase extends BaseTestCase {
+
+	/**
+	 * Test that the default source draws the sequence of java.util.Random.
+	 */
+	@Test
+	public void testCompatibleSequence() {
+		Random expected = new Random(42L);
+		RandomSource random = new RandomSource(42L);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(expected.nextInt(17), random.uniform(17));
+			assertEquals(expected.nextDouble(), random.uniform(), 0.0);
+			assertEquals(2.0 + 3.0 * expected.nextGaussian(), random.gaussian(2.0, 3.0), 0.0);
+		}
+
+		Randoms.seed(42L);
+		expected = new Random(42L);
+		assertEquals(expected.nextInt(5), Randoms.uniform(5));
+	}
+
+	/**
+	 * Test that the splittable source is reproducible and its streams differ.
+	 */
+	@Test
+	public void testSplittable() {
+		RandomSource first = RandomSource.splittable(7L);
+		RandomSource second = RandomSource.splittable(7L);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(first.nextLong(), second.nextLong());
+			int value = first.nextInt(10);
+			assertEquals(value, second.nextInt(10));
+			assertTrue(value >= 0 && value < 10);
+			double uniform = first.nextDouble();
+			assertEquals(uniform, second.nextDouble(), 0.0);
+			assertTrue(uniform >= 0.0 && uniform < 1.0);
+		}
+
+		RandomSource[] streams = first.split(2);
+		RandomSource[] otherStreams = second.split(2);
+		assertEquals(streams[0].nextLong(), otherStreams[0].nextLong());
+		assertFalse(streams[0].nextLong() == streams[1].nextLong());
+	}
+
+	/**
+	 * Test the means of the primitive distributions.
+	 */
+	@Test
+	public void testDistributions() {
+		RandomSource random = RandomSource.splittable(1L);
+		int numSamples = 20000;
+		double gammaSum = 0.0, gaussianSum = 0.0, binomialSum = 0.0;
+		for (int i = 0; i < numSamples; i++) {
+			gammaSum += random.gamma(2.0, 3.0);
+			gaussianSum += random.gaussian(1.0, 2.0);
+			binomialSum += random.binomial(1000, 0.3);
+		}
+		assertEquals(6.0, gammaSum / numSamples, 0.2);
+		assertEquals(1.0, gaussianSum / numSamples, 0.1);
+		assertEquals(300.0, binomialSum / numSamples, 1.0);
+		assertEquals(0, random.binomial(100, 0.0));
+		assertEquals(100, random.binomial(100, 1.0));
+
+		double[] sample = random.dirichlet(new double[]{0.5, 1.0, 2.0});
+		double sum = 0.0;
+		for (double value : sample) {
+			assertTrue(value >= 0.0);
+			sum += value;
+		}
+		assertEquals(1.0, sum, 1e-9);
+	}
+
+	/**
+	 * Test that the parallel initialization does not depend on the number of threads.
+	 */
+	@Test
+	public void testParallelInit() {
+		DenseMatrix sequential = new DenseMatrix(300, 5);
+		DenseMatrix parallel = new DenseMatrix(300, 5);
+		sequential.init(0.0, 0.1, RandomSource.splittable(3L), 1);
+		parallel.init(0.0, 0.1, RandomSource.splittable(3L), 4);
+		for (int row = 0; row < 300; row++) {
+			assertArrayEquals(sequential.row(row).getData(), parallel.row(row).getData(), 0.0);
+		}
+	}
+}
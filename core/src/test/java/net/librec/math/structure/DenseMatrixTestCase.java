@@ -0,0 +1,301 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import net.librec.BaseTestCase;
+import net.librec.common.LibrecException;
+import net.librec.math.algorithm.RandomSource;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Dense Matrix TestCase
+ * {@link net.librec.math.structure.DenseMatrix}
+ */
+public class DenseMatrixTestCase extends BaseTestCase {
+
+	private static DenseMatrix random(int numRows, int numColumns, long seed) {
+		DenseMatrix matrix = new DenseMatrix(numRows, numColumns);
+		matrix.init(0.0, 1.0, RandomSource.splittable(seed), 1);
+		return matrix;
+	}
+
+	/**
+	 * Multiply by the plain triple loop.
+	 */
+	private static double[][] naiveMult(DenseMatrix a, DenseMatrix b) {
+		double[][] res = new double[a.numRows()][b.numColumns()];
+		for (int i = 0; i < a.numRows(); i++) {
+			for (int j = 0; j < b.numColumns(); j++) {
+				double product = 0;
+				for (int k = 0; k < a.numColumns(); k++)
+					product += a.get(i, k) * b.get(k, j);
+				res[i][j] = product;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Wrap the rows of a matrix, so that the copy is stored as an array of rows.
+	 */
+	private static DenseMatrix byRows(DenseMatrix matrix) {
+		return new DenseMatrix(matrix.getData(), matrix.numRows(), matrix.numColumns());
+	}
+
+	/**
+	 * Copy a matrix into one of single precision, rounding its entries.
+	 */
+	private static DenseMatrix toSinglePrecision(DenseMatrix matrix) {
+		DenseMatrix res = DenseMatrix.singlePrecision(matrix.numRows(), matrix.numColumns());
+		for (int i = 0; i < matrix.numRows(); i++) {
+			for (int j = 0; j < matrix.numColumns(); j++) {
+				res.set(i, j, matrix.get(i, j));
+			}
+		}
+		return res;
+	}
+
+	private static void assertSameMatrix(DenseMatrix expected, DenseMatrix actual) {
+		assertSameMatrix(expected.getData(), actual);
+	}
+
+	private static void assertSameMatrix(double[][] expected, DenseMatrix actual) {
+		assertEquals(expected.length, actual.numRows());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i].length, actual.numColumns());
+			for (int j = 0; j < expected[i].length; j++) {
+				assertEquals(expected[i][j], actual.get(i, j), 0.0);
+			}
+		}
+	}
+
+	/**
+	 * Test that the blocked products sum in the order of the triple loop, also in parallel.
+	 */
+	@Test
+	public void testMult() throws LibrecException {
+		DenseMatrix a = random(7, 300, 1L), b = random(300, 5, 2L);
+		assertSameMatrix(naiveMult(a, b), a.mult(b));
+
+		a = random(300, 270, 3L);
+		b = random(270, 1100, 4L);
+		assertSameMatrix(naiveMult(a, b), a.mult(b));
+
+		DenseMatrix vector = random(270, 1, 5L);
+		DenseVector product = a.mult(vector.column(0));
+		double[][] expected = naiveMult(a, vector);
+		for (int i = 0; i < a.numRows(); i++) {
+			assertEquals(expected[i][0], product.get(i), 0.0);
+		}
+	}
+
+	/**
+	 * Test that {@code A^T A} is symmetric and equals {@code A^T * A}, also in parallel.
+	 */
+	@Test
+	public void testTransMult() throws LibrecException {
+		DenseMatrix a = random(40, 6, 6L);
+		assertSameMatrix(naiveMult(a.transpose(), a), a.transMult());
+
+		a = random(3000, 70, 7L);
+		DenseMatrix gram = a.transMult();
+		assertSameMatrix(naiveMult(a.transpose(), a), gram);
+		for (int i = 0; i < 70; i++) {
+			for (int k = 0; k < i; k++) {
+				assertEquals(gram.get(k, i), gram.get(i, k), 0.0);
+			}
+		}
+
+		DenseMatrix transpose = a.transpose();
+		for (int i = 0; i < a.numRows(); i++) {
+			for (int j = 0; j < a.numColumns(); j++) {
+				assertEquals(a.get(i, j), transpose.get(j, i), 0.0);
+			}
+		}
+	}
+
+	/**
+	 * Test the products with a sparse matrix against the dense ones.
+	 */
+	@Test
+	public void testSparseMult() throws LibrecException {
+		SparseMatrixBuilder builder = new SparseMatrixBuilder(30, 20);
+		DenseMatrix dense = new DenseMatrix(30, 20);
+		for (int row = 0; row < 30; row++) {
+			for (int column = row % 3; column < 20; column += 1 + row % 4) {
+				double value = 0.5 * (row - column);
+				builder.add(row, column, value);
+				dense.set(row, column, value);
+			}
+		}
+		SparseMatrix sparse = builder.build();
+
+		DenseMatrix left = random(9, 30, 8L);
+		assertSameMatrix(naiveMult(left, dense), left.mult(sparse));
+
+		DenseMatrix right = random(20, 11, 9L);
+		assertSameMatrix(naiveMult(dense, right), DenseMatrix.mult(sparse, right));
+	}
+
+	/**
+	 * Test that a matrix stored as an array of rows gives the same results as one stored in one array.
+	 */
+	@Test
+	public void testLayouts() throws LibrecException {
+		DenseMatrix a = random(130, 40, 12L), b = random(40, 9, 13L);
+		DenseMatrix rowsA = byRows(a), rowsB = byRows(b);
+		assertSameMatrix(a.mult(b), rowsA.mult(rowsB));
+		assertSameMatrix(a.mult(b), a.mult(rowsB));
+		assertSameMatrix(a.transMult(), rowsA.transMult());
+		assertSameMatrix(a.transpose(), rowsA.transpose());
+		assertSameMatrix(a.scale(0.5).add(a).minus(1.0), rowsA.scale(0.5).add(rowsA).minus(1.0));
+		assertEquals(a.norm(), rowsA.norm(), 0.0);
+		assertEquals(a.sum(), rowsA.sum(), 0.0);
+		assertArrayEquals(a.mult(b.column(0)).getData(), rowsA.mult(b.column(0)).getData(), 0.0);
+
+		DenseMatrix clone = rowsA.clone();
+		clone.setRow(3, b.column(1));
+		clone.add(4, 5, 1.0);
+		assertArrayEquals(b.column(1).getData(), clone.row(3).getData(), 0.0);
+		assertEquals(a.get(4, 5) + 1.0, clone.get(4, 5), 0.0);
+		assertSameMatrix(a, rowsA);
+
+		double[] row = new double[42];
+		a.copyRow(7, row, 2);
+		for (int j = 0; j < 40; j++) {
+			assertEquals(a.get(7, j), row[j + 2], 0.0);
+		}
+
+		// the shallow row of a matrix of rows is shared, the rows of a matrix in one array are copied
+		rowsA.row(0, false).set(0, 2.0);
+		assertEquals(2.0, rowsA.get(0, 0), 0.0);
+		a.getData()[0][0] = 2.0;
+		assertEquals(rowsA.getData()[1][0], a.get(1, 0), 0.0);
+		assertTrue(a.get(0, 0) != 2.0);
+	}
+
+	/**
+	 * Test that a matrix of single precision rounds the values written, and computes its products
+	 * in double precision as a copy of double precision would.
+	 */
+	@Test
+	public void testSinglePrecision() throws LibrecException {
+		DenseMatrix a = toSinglePrecision(random(70, 12, 14L)), b = random(12, 8, 15L);
+		DenseMatrix doubleA = new DenseMatrix(a.getData());
+		assertTrue(a.isSinglePrecision());
+		assertFalse(doubleA.isSinglePrecision());
+		for (int i = 0; i < 70; i++) {
+			for (int j = 0; j < 12; j++) {
+				assertEquals((float) a.get(i, j), a.get(i, j), 0.0);
+			}
+		}
+
+		a.set(1, 2, 0.1);
+		doubleA.set(1, 2, (float) 0.1);
+		a.add(1, 3, 0.1);
+		doubleA.set(1, 3, (float) (doubleA.get(1, 3) + 0.1));
+		assertSameMatrix(doubleA, a);
+
+		DenseMatrix product = a.mult(b);
+		assertFalse(product.isSinglePrecision());
+		assertSameMatrix(doubleA.mult(b), product);
+		assertSameMatrix(doubleA.transMult(), a.transMult());
+		assertSameMatrix(b.transpose().mult(doubleA.transpose()), b.transpose().mult(a.transpose()));
+		assertArrayEquals(doubleA.mult(b.column(0)).getData(), a.mult(b.column(0)).getData(), 0.0);
+
+		DenseMatrix transpose = a.transpose();
+		assertTrue(transpose.isSinglePrecision());
+		assertTrue(a.clone().isSinglePrecision());
+		assertTrue(a.scale(0.5).isSinglePrecision());
+		assertSameMatrix(doubleA.transpose(), transpose);
+
+		DenseMatrix gram = a.transMult();
+		for (int i = 0; i < 12; i++) {
+			gram.add(i, i, 0.5);
+		}
+		DenseMatrix singleGram = toSinglePrecision(gram);
+		DenseMatrix doubleGram = new DenseMatrix(singleGram.getData());
+		DenseVector x = doubleGram.clone().choleskySolve(b.column(0));
+		assertArrayEquals(x.getData(), singleGram.choleskySolve(b.column(0)).getData(), 0.0);
+		assertEquals((float) doubleGram.cholesky().get(0, 0), singleGram.get(0, 0), 0.0);
+	}
+
+	/**
+	 * Test that the parallel Gaussian initialization gives the same values in every layout.
+	 */
+	@Test
+	public void testInitLayouts() {
+		double[][] rows = new double[150][7];
+		RandomSource.splittable(16L).fillGaussian(rows, 0.0, 0.1, 3);
+
+		DenseMatrix matrix = new DenseMatrix(150, 7);
+		matrix.init(0.0, 0.1, RandomSource.splittable(16L), 3);
+		assertSameMatrix(rows, matrix);
+
+		DenseMatrix single = DenseMatrix.singlePrecision(150, 7);
+		single.init(0.0, 0.1, RandomSource.splittable(16L), 3);
+		for (int i = 0; i < 150; i++) {
+			for (int j = 0; j < 7; j++) {
+				assertEquals((float) rows[i][j], single.get(i, j), 0.0);
+			}
+		}
+	}
+
+	/**
+	 * Test the Cholesky decomposition and the in-place solver.
+	 */
+	@Test
+	public void testCholesky() throws LibrecException {
+		DenseMatrix a = random(50, 8, 10L);
+		DenseMatrix gram = a.transMult();
+		for (int i = 0; i < 8; i++) {
+			gram.add(i, i, 0.5);
+		}
+
+		DenseMatrix upper = gram.cholesky();
+		DenseMatrix product = upper.transpose().mult(upper);
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				assertEquals(gram.get(i, j), product.get(i, j), 1e-9);
+			}
+		}
+
+		DenseVector x = random(8, 1, 11L).column(0);
+		DenseVector b = gram.mult(x);
+		DenseVector solution = gram.clone().choleskySolve(b);
+		for (int i = 0; i < 8; i++) {
+			assertEquals(x.get(i), solution.get(i), 1e-9);
+		}
+
+		DenseMatrix indefinite = DenseMatrix.eye(3);
+		indefinite.set(2, 2, -1.0);
+		assertNull(indefinite.cholesky());
+		try {
+			indefinite.choleskySolve(new DenseVector(3));
+			throw new AssertionError("an indefinite matrix is solved");
+		} catch (LibrecException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import net.librec.BaseTestCase;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Index Adjacency TestCase
+ * {@link net.librec.math.structure.IndexAdjacency}
+ */
+public class IndexAdjacencyTestCase extends BaseTestCase {
+
+	/**
+	 * Test that the adjacency holds the non-zero columns of the rows and the rows of the columns.
+	 */
+	@Test
+	public void testAdjacency() {
+		SparseMatrixBuilder builder = new SparseMatrixBuilder(20, 15);
+		for (int row = 0; row < 20; row++) {
+			for (int col = row % 3; col < 15; col += 1 + row % 4) {
+				builder.add(row, col, (row + col) % 5);
+			}
+		}
+		SparseMatrix matrix = builder.build();
+
+		IndexAdjacency rowAdjacency = matrix.rowAdjacency();
+		assertEquals(20, rowAdjacency.numKeys());
+		for (int row = 0; row < 20; row++) {
+			List<Integer> columns = matrix.getColumns(row);
+			assertEquals(columns.size(), rowAdjacency.size(row));
+			for (int position = rowAdjacency.start(row); position < rowAdjacency.end(row); position++) {
+				assertEquals((int) columns.get(position - rowAdjacency.start(row)), rowAdjacency.get(position));
+			}
+			for (int col = 0; col < 15; col++) {
+				assertEquals(matrix.get(row, col) != 0, rowAdjacency.contains(row, col));
+			}
+		}
+
+		IndexAdjacency columnAdjacency = matrix.columnAdjacency();
+		assertEquals(15, columnAdjacency.numKeys());
+		for (int col = 0; col < 15; col++) {
+			List<Integer> rows = matrix.getRows(col);
+			assertEquals(rows.size(), columnAdjacency.size(col));
+			for (int position = columnAdjacency.start(col); position < columnAdjacency.end(col); position++) {
+				assertEquals((int) rows.get(position - columnAdjacency.start(col)), columnAdjacency.get(position));
+			}
+		}
+
+		// keys beyond the matrix have no adjacent indices
+		assertEquals(0, rowAdjacency.size(25));
+		assertFalse(rowAdjacency.contains(25, 0));
+		assertTrue(rowAdjacency.start(25) == rowAdjacency.end(25));
+	}
+
+	/**
+	 * Test that an adjacency built from unsorted indices sorts them and draws only adjacent indices.
+	 */
+	@Test
+	public void testOf() {
+		IndexAdjacency adjacency = IndexAdjacency.of(new int[][]{{5, 1, 3}, {}, {2}});
+		assertEquals(3, adjacency.numKeys());
+		assertEquals(1, adjacency.get(adjacency.start(0)));
+		assertEquals(5, adjacency.get(adjacency.end(0) - 1));
+		assertEquals(0, adjacency.size(1));
+		assertTrue(adjacency.contains(2, 2));
+		assertFalse(adjacency.contains(0, 2));
+
+		Random random = new Random(1L);
+		int[] counts = new int[6];
+		for (int sample = 0; sample < 3000; sample++) {
+			counts[adjacency.random(0, random)]++;
+		}
+		assertEquals(3000, counts[1] + counts[3] + counts[5]);
+		assertTrue(counts[1] > 0 && counts[3] > 0 && counts[5] > 0);
+		assertEquals(2, adjacency.random(2, random));
+	}
+}
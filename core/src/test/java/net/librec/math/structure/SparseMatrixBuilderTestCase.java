@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import net.librec.BaseTestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Sparse Matrix Builder TestCase
+ * {@link net.librec.math.structure.SparseMatrixBuilder}
+ */
+public class SparseMatrixBuilderTestCase extends BaseTestCase {
+
+	private static final int NUM_ROWS = 50;
+
+	private static final int NUM_COLUMNS = 40;
+
+	/**
+	 * Check both CRS and CCS structures of a matrix against dense values, where
+	 * NaN stands for a missing entry.
+	 */
+	private void assertSameMatrix(double[][] expected, SparseMatrix actual) {
+		assertEquals(expected.length, actual.numRows());
+		assertEquals(expected[0].length, actual.numColumns());
+		int nnz = 0;
+		for (int row = 0; row < expected.length; row++) {
+			for (int col = 0; col < expected[row].length; col++) {
+				if (!Double.isNaN(expected[row][col])) {
+					nnz++;
+					assertTrue(actual.contains(row, col));
+					assertEquals(expected[row][col], actual.get(row, col), 0.0);
+				}
+			}
+		}
+		assertEquals(nnz, actual.getRowPointers()[expected.length]);
+		for (int col = 0; col < expected[0].length; col++) {
+			SparseVector column = actual.column(col);
+			int count = 0;
+			for (VectorEntry entry : column) {
+				assertEquals(expected[entry.index()][col], entry.get(), 0.0);
+				count++;
+			}
+			for (int row = 0; row < expected.length; row++) {
+				if (!Double.isNaN(expected[row][col])) {
+					count--;
+				}
+			}
+			assertEquals(0, count);
+		}
+	}
+
+	/**
+	 * Test the policies merging the entries of a (row, column) pair.
+	 */
+	@Test
+	public void testDuplicatePolicy() {
+		for (SparseMatrixBuilder.DuplicatePolicy policy : SparseMatrixBuilder.DuplicatePolicy.values()) {
+			SparseMatrixBuilder builder = new SparseMatrixBuilder(3, 4).setDuplicatePolicy(policy);
+			builder.add(1, 2, 3.0).add(0, 3, 1.0).add(1, 2, 5.0).add(2, 0, 2.0).add(1, 2, 4.0);
+			assertEquals(5, builder.size());
+
+			SparseMatrix matrix = builder.build();
+			double expected = policy == SparseMatrixBuilder.DuplicatePolicy.LAST ? 4.0
+					: policy == SparseMatrixBuilder.DuplicatePolicy.SUM ? 12.0 : 5.0;
+			double nan = Double.NaN;
+			assertSameMatrix(new double[][]{{nan, nan, nan, 1.0}, {nan, nan, expected, nan}, {2.0, nan, nan, nan}},
+					matrix);
+		}
+	}
+
+	/**
+	 * Test the matrix built on several threads from several appenders.
+	 */
+	@Test
+	public void testParallelBuild() throws Exception {
+		final double[][] expected = new double[NUM_ROWS][NUM_COLUMNS];
+		for (double[] row : expected) {
+			Arrays.fill(row, Double.NaN);
+		}
+		SparseMatrixBuilder builder = new SparseMatrixBuilder(NUM_ROWS, NUM_COLUMNS);
+		Thread[] threads = new Thread[4];
+		final int[][] rows = new int[threads.length][2000];
+		final int[][] cols = new int[threads.length][2000];
+		Random random = new Random(7);
+		for (int t = 0; t < threads.length; t++) {
+			for (int i = 0; i < rows[t].length; i++) {
+				rows[t][i] = random.nextInt(NUM_ROWS);
+				cols[t][i] = random.nextInt(NUM_COLUMNS / 2) * 2;
+				// appenders are ordered by creation, so the last thread wins
+				expected[rows[t][i]][cols[t][i]] = t * 10000 + i + 1;
+			}
+		}
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			final SparseMatrixBuilder.Appender appender = builder.newAppender();
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < rows[thread].length; i++) {
+						appender.add(rows[thread][i], cols[thread][i], thread * 10000 + i + 1);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertSameMatrix(expected, builder.build());
+		assertSameMatrix(expected, builder.build(3));
+	}
+
+	/**
+	 * Test the dimension grown to fit the entries and the invalid entries.
+	 */
+	@Test
+	public void testDimension() {
+		SparseMatrixBuilder builder = new SparseMatrixBuilder();
+		builder.add(2, 1, 1.0).add(0, 4, 2.0);
+		SparseMatrix matrix = builder.build();
+		assertEquals(3, matrix.numRows());
+		assertEquals(5, matrix.numColumns());
+
+		matrix = builder.setDimension(4, 6).build();
+		assertEquals(4, matrix.numRows());
+		assertEquals(6, matrix.numColumns());
+		assertEquals(2.0, matrix.get(0, 4), 0.0);
+
+		try {
+			builder.add(4, 0, 1.0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			builder.setDimension(2, 6).build();
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import net.librec.BaseTestCase;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sparse Matrix View TestCase
+ * {@link net.librec.math.structure.SparseMatrix.RowView}
+ * {@link net.librec.math.structure.SparseMatrix.ColumnView}
+ * {@link net.librec.math.structure.IntSet}
+ */
+public class SparseMatrixViewTestCase extends BaseTestCase {
+
+	/**
+	 * Test that the views hold the same non-zero entries as the copied rows and columns.
+	 */
+	@Test
+	public void testViews() {
+		SparseMatrixBuilder builder = new SparseMatrixBuilder(20, 15);
+		for (int row = 0; row < 20; row++) {
+			for (int col = row % 3; col < 15; col += 1 + row % 4) {
+				builder.add(row, col, (row + col) % 5);
+			}
+		}
+		SparseMatrix matrix = builder.build();
+
+		SparseMatrix.RowView rowView = new SparseMatrix.RowView();
+		for (int row = 0; row < 20; row++) {
+			SparseVector vector = matrix.row(row);
+			assertTrue(rowView == matrix.rowView(row, rowView));
+			assertEquals(vector.getCount(), rowView.size());
+			for (int position = 0; position < rowView.size(); position++) {
+				assertEquals(vector.getIndex()[position], rowView.indexAt(position));
+				assertEquals(vector.get(rowView.indexAt(position)), rowView.valueAt(position), 0.0);
+			}
+			for (int col = 0; col < 15; col++) {
+				assertEquals(matrix.get(row, col) != 0, rowView.contains(col));
+				assertEquals(matrix.get(row, col), rowView.get(col), 0.0);
+			}
+			assertEquals(vector.sum(), rowView.sum(), 1e-9);
+		}
+
+		SparseMatrix.ColumnView columnView = new SparseMatrix.ColumnView();
+		for (int col = 0; col < 15; col++) {
+			SparseVector vector = matrix.column(col);
+			matrix.columnView(col, columnView);
+			assertEquals(vector.getCount(), columnView.size());
+			for (int position = 0; position < columnView.size(); position++) {
+				assertEquals(vector.getIndex()[position], columnView.indexAt(position));
+				assertEquals(position, columnView.positionOf(columnView.indexAt(position)));
+			}
+		}
+
+		// rows beyond the matrix are empty
+		assertTrue(matrix.rowView(25, rowView).isEmpty());
+		assertEquals(-1, rowView.positionOf(0));
+	}
+
+	/**
+	 * Test that an integer set tracks its members across clears.
+	 */
+	@Test
+	public void testIntSet() {
+		IntSet set = new IntSet(200);
+		for (int round = 0; round < 3; round++) {
+			set.clear();
+			assertTrue(set.isEmpty());
+			for (int value = round; value < 200; value += 7 + round) {
+				assertTrue(set.add(value));
+				assertFalse(set.add(value));
+			}
+			for (int value = 0; value < 200; value++) {
+				assertEquals(value >= round && (value - round) % (7 + round) == 0, set.contains(value));
+			}
+			assertEquals(round, set.get(0));
+		}
+		assertFalse(set.contains(-1));
+		assertFalse(set.contains(200));
+
+		SparseMatrixBuilder builder = new SparseMatrixBuilder(2, 100);
+		builder.add(1, 3, 1.0);
+		builder.add(1, 64, 2.0);
+		set = new IntSet(100);
+		set.addAll(builder.build().rowView(1));
+		assertEquals(2, set.size());
+		assertTrue(set.contains(3) && set.contains(64));
+	}
+}
@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import net.librec.BaseTestCase;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sparse Tensor TestCase
+ * {@link net.librec.math.structure.SparseTensor}
+ */
+public class SparseTensorTestCase extends BaseTestCase {
+
+	/**
+	 * Test that set, add and remove keep the entries sorted and findable.
+	 */
+	@Test
+	public void testSetAndRemove() throws Exception {
+		SparseTensor tensor = new SparseTensor(6, 5, 4);
+		Map<Integer, Double> expected = new HashMap<>();
+		Random random = new Random(3L);
+		for (int step = 0; step < 500; step++) {
+			int u = random.nextInt(6), i = random.nextInt(5), c = random.nextInt(4);
+			int id = (u * 5 + i) * 4 + c;
+			switch (random.nextInt(3)) {
+				case 0:
+					tensor.set(step, u, i, c);
+					expected.put(id, (double) step);
+					break;
+				case 1:
+					tensor.add(1.0, u, i, c);
+					expected.put(id, expected.containsKey(id) ? expected.get(id) + 1.0 : 1.0);
+					break;
+				default:
+					assertEquals(expected.remove(id) != null, tensor.remove(u, i, c));
+			}
+		}
+
+		assertEquals(expected.size(), tensor.size());
+		for (int index = 1; index < tensor.size(); index++) {
+			int previous = (tensor.key(0, index - 1) * 5 + tensor.key(1, index - 1)) * 4 + tensor.key(2, index - 1);
+			int current = (tensor.key(0, index) * 5 + tensor.key(1, index)) * 4 + tensor.key(2, index);
+			assertTrue(previous < current);
+		}
+		for (int id = 0; id < 6 * 5 * 4; id++) {
+			int u = id / 20, i = id / 4 % 5, c = id % 4;
+			assertEquals(expected.containsKey(id), tensor.contains(u, i, c));
+			assertEquals(expected.containsKey(id) ? expected.get(id) : 0.0, tensor.get(u, i, c), 0.0);
+		}
+
+		// remove the entries of user 2 while iterating in a shuffled order
+		tensor.shuffle();
+		int[] keys = new int[3];
+		for (Iterator<TensorEntry> iterator = tensor.iterator(); iterator.hasNext(); ) {
+			TensorEntry entry = iterator.next();
+			if (entry.keys(keys)[0] == 2) {
+				iterator.remove();
+			}
+		}
+		int size = 0;
+		for (Map.Entry<Integer, Double> each : expected.entrySet()) {
+			if (each.getKey() / 20 != 2) {
+				size++;
+			}
+		}
+		assertEquals(size, tensor.size());
+		assertEquals(0, tensor.getIndex(0, 2).size());
+	}
+
+	/**
+	 * Test fibers, slices and the compressed indices against a scan of the entries.
+	 */
+	@Test
+	public void testFiberAndSlice() throws Exception {
+		SparseTensor tensor = randomTensor(new int[]{7, 6, 5}, 120, 5L);
+		tensor.setUserDimension(0);
+		tensor.setItemDimension(1);
+
+		for (int d = 0; d < 3; d++) {
+			IndexAdjacency index = tensor.modeIndex(d);
+			int count = 0;
+			for (int key = 0; key < tensor.dimensions[d]; key++) {
+				for (int position = index.start(key); position < index.end(key); position++) {
+					assertEquals(key, tensor.key(d, index.get(position)));
+					count++;
+				}
+			}
+			assertEquals(tensor.size(), count);
+		}
+
+		for (int u = 0; u < 7; u++) {
+			for (int i = 0; i < 6; i++) {
+				SparseVector fiber = tensor.fiber(2, u, i);
+				List<Integer> indices = tensor.getIndices(u, i);
+				assertEquals(indices.size(), fiber.size());
+				assertEquals(indices.size(), tensor.rangeEnd(u, i) - tensor.rangeStart(u, i));
+				for (int c = 0; c < 5; c++) {
+					assertEquals(tensor.get(u, i, c), fiber.get(c), 0.0);
+				}
+			}
+			for (int c = 0; c < 5; c++) {
+				SparseVector fiber = tensor.fiber(1, u, c);
+				for (int i = 0; i < 6; i++) {
+					assertEquals(tensor.get(u, i, c), fiber.get(i), 0.0);
+				}
+			}
+		}
+
+		for (int c = 0; c < 5; c++) {
+			SparseMatrix slice = tensor.slice(0, 1, c);
+			if (tensor.getIndex(2, c).isEmpty()) {
+				assertNull(slice);
+				continue;
+			}
+			for (int u = 0; u < 7; u++) {
+				for (int i = 0; i < 6; i++) {
+					assertEquals(tensor.get(u, i, c), slice.get(u, i), 0.0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test the unfoldings and the n-mode product of the example of Kolda and Bader.
+	 */
+	@Test
+	public void testKoldaExample() throws Exception {
+		SparseTensor tensor = new SparseTensor(3, 4, 2);
+		for (int k = 0; k < 2; k++) {
+			for (int j = 0; j < 4; j++) {
+				for (int i = 0; i < 3; i++) {
+					tensor.set(1 + i + 3 * j + 12 * k, i, j, k);
+				}
+			}
+		}
+
+		SparseMatrix unfolding = tensor.matricization(0);
+		assertEquals(3, unfolding.numRows());
+		assertEquals(8, unfolding.numColumns());
+		for (int i = 0; i < 3; i++) {
+			for (int column = 0; column < 8; column++) {
+				assertEquals(1 + i + 3 * column, unfolding.get(i, column), 0.0);
+			}
+		}
+		unfolding = tensor.matricization(1);
+		assertEquals(13, unfolding.get(0, 3), 0.0);
+		assertEquals(24, unfolding.get(3, 5), 0.0);
+
+		DenseMatrix mat = new DenseMatrix(new double[][]{{1, 3, 5}, {2, 4, 6}});
+		SparseTensor product = tensor.modeProduct(mat, 0);
+		assertEquals(2, product.dimensions[0]);
+		assertEquals(16, product.size());
+		double[][] expected = {{22, 49, 76, 103, 130, 157, 184, 211}, {28, 64, 100, 136, 172, 208, 244, 280}};
+		for (int row = 0; row < 2; row++) {
+			for (int j = 0; j < 4; j++) {
+				for (int k = 0; k < 2; k++) {
+					assertEquals(expected[row][j + 4 * k], product.get(row, j, k), 0.0);
+				}
+			}
+		}
+
+		DenseVector vec = new DenseVector(new double[]{1, 1, 1, 1});
+		product = tensor.modeProduct(vec, 1);
+		assertEquals(1, product.dimensions[1]);
+		assertEquals(1 + 4 + 7 + 10, product.get(0, 0, 0), 0.0);
+		assertEquals(15 + 18 + 21 + 24, product.get(2, 0, 1), 0.0);
+	}
+
+	/**
+	 * Test the unfoldings and the n-mode products of a tensor large enough to be computed in parallel.
+	 */
+	@Test
+	public void testLargeTensor() throws Exception {
+		SparseTensor tensor = randomTensor(new int[]{300, 200, 10}, 100000, 7L);
+
+		SparseMatrix unfolding = tensor.matricization(1);
+		assertEquals(tensor.size(), unfolding.size());
+		for (int index = 0; index < tensor.size(); index += 97) {
+			int column = tensor.key(0, index) + 300 * tensor.key(2, index);
+			assertEquals(tensor.value(index), unfolding.get(tensor.key(1, index), column), 0.0);
+		}
+
+		DenseMatrix mat = new DenseMatrix(3, 200);
+		mat.init(0.0, 1.0);
+		SparseTensor product = tensor.modeProduct(mat, 1);
+		for (int u = 0; u < 300; u += 13) {
+			for (int c = 0; c < 10; c++) {
+				SparseVector fiber = tensor.fiber(1, u, c);
+				for (int row = 0; row < 3; row++) {
+					double expected = 0;
+					for (VectorEntry entry : fiber) {
+						expected += entry.get() * mat.get(row, entry.index());
+					}
+					assertEquals(expected, product.get(u, row, c), 1e-9);
+				}
+			}
+		}
+	}
+
+	private SparseTensor randomTensor(int[] dims, int numEntries, long seed) {
+		Random random = new Random(seed);
+		int numKeys = dims[0] * dims[1] * dims[2];
+		boolean[] used = new boolean[numKeys];
+		int[][] keys = new int[3][numEntries];
+		double[] values = new double[numEntries];
+		for (int index = 0; index < numEntries; index++) {
+			int id;
+			do {
+				id = random.nextInt(numKeys);
+			} while (used[id]);
+			used[id] = true;
+			keys[0][index] = id / (dims[1] * dims[2]);
+			keys[1][index] = id / dims[2] % dims[1];
+			keys[2][index] = id % dims[2];
+			values[index] = 1 + random.nextInt(5);
+		}
+		return new SparseTensor(dims, keys, values);
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import net.librec.BaseTestCase;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Symmetric Matrix Builder TestCase
+ * {@link net.librec.math.structure.SymmMatrixBuilder}
+ */
+public class SymmMatrixBuilderTestCase extends BaseTestCase {
+
+	private static final int DIM = 6;
+
+	/**
+	 * Set the same entries to a table symmetric matrix and a builder.
+	 */
+	private SymmMatrixBuilder fill(SymmMatrix expected) {
+		SymmMatrixBuilder builder = new SymmMatrixBuilder(DIM, 2);
+		int[][] entries = {{0, 3}, {4, 1}, {2, 2}, {5, 0}, {3, 0}, {1, 5}, {3, 4}};
+		for (int i = 0; i < entries.length; i++) {
+			double value = 0.25 * (i + 1);
+			expected.set(entries[i][0], entries[i][1], value);
+			builder.set(entries[i][0], entries[i][1], value);
+		}
+		return builder;
+	}
+
+	private void assertSameMatrix(SymmMatrix expected, SymmMatrix actual) {
+		assertEquals(expected.getDim(), actual.getDim());
+		assertEquals(expected.size(), actual.size());
+		for (int row = 0; row < DIM; row++) {
+			for (int col = 0; col < DIM; col++) {
+				assertEquals(expected.get(row, col), actual.get(row, col), 0.0);
+			}
+			SparseVector expectedRow = expected.row(row);
+			SparseVector actualRow = actual.row(row);
+			assertEquals(expectedRow.size(), actualRow.size());
+			for (VectorEntry entry : expectedRow) {
+				assertEquals(entry.get(), actualRow.get(entry.index()), 0.0);
+			}
+		}
+		int count = 0;
+		for (MatrixEntry entry : actual) {
+			assertTrue(entry.row() >= entry.column());
+			assertEquals(expected.get(entry.row(), entry.column()), entry.get(), 0.0);
+			count++;
+		}
+		assertEquals(expected.size(), count);
+	}
+
+	/**
+	 * Test the sparse symmetric matrix against the table one.
+	 */
+	@Test
+	public void testBuildSparse() {
+		SymmMatrix expected = new SymmMatrix(DIM);
+		SparseSymmMatrix actual = fill(expected).buildSparse();
+		assertSameMatrix(expected, actual);
+		assertEquals(2, actual.rowSize(0));
+
+		expected.set(4, 3, -1.0);
+		actual.set(3, 4, -1.0);
+		expected.add(2, 2, 0.5);
+		actual.add(2, 2, 0.5);
+		assertSameMatrix(expected, actual);
+		assertSameMatrix(expected, actual.clone());
+	}
+
+	/**
+	 * Test the packed symmetric matrix against the table one.
+	 */
+	@Test
+	public void testBuildPacked() {
+		SymmMatrix expected = new SymmMatrix(DIM);
+		PackedSymmMatrix actual = fill(expected).buildPacked();
+		assertSameMatrix(expected, actual);
+
+		expected.set(2, 4, 2.0);
+		actual.set(4, 2, 2.0);
+		assertSameMatrix(expected, actual);
+		assertSameMatrix(expected, actual.clone());
+	}
+
+	/**
+	 * Test that zero entries are left out of the rows of both storages.
+	 */
+	@Test
+	public void testZeroEntries() {
+		SymmMatrixBuilder builder = new SymmMatrixBuilder(DIM);
+		builder.set(0, 3, 0.5).set(4, 1, 0.0).set(2, 2, 0.0).set(5, 0, 1.0).set(0, 5, 0.0).set(1, 3, -0.5);
+		SparseSymmMatrix sparse = builder.buildSparse();
+		PackedSymmMatrix packed = builder.buildPacked();
+		assertEquals(2, sparse.size());
+		assertEquals(packed.size(), sparse.size());
+		for (int row = 0; row < DIM; row++) {
+			SparseVector packedRow = packed.row(row);
+			SparseVector sparseRow = sparse.row(row);
+			assertEquals(packedRow.size(), sparseRow.size());
+			for (VectorEntry entry : packedRow) {
+				assertEquals(entry.get(), sparseRow.get(entry.index()), 0.0);
+			}
+		}
+
+		sparse.set(3, 0, 0.0);
+		packed.set(3, 0, 0.0);
+		assertEquals(0, sparse.row(0).size());
+		assertEquals(packed.row(3).size(), sparse.row(3).size());
+		assertEquals(packed.size(), sparse.size());
+		int count = 0;
+		for (MatrixEntry entry : sparse) {
+			assertEquals(-0.5, entry.get(), 0.0);
+			count++;
+		}
+		assertEquals(1, count);
+	}
+
+	/**
+	 * Test the choice of the storage by the number of entries.
+	 */
+	@Test
+	public void testBuild() {
+		SymmMatrixBuilder builder = new SymmMatrixBuilder(1000);
+		builder.set(10, 20, 1.0).set(999, 0, 2.0);
+		assertTrue(builder.build() instanceof SparseSymmMatrix);
+
+		assertTrue(fill(new SymmMatrix(DIM)).build() instanceof PackedSymmMatrix);
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import net.librec.BaseTestCase;
+import net.librec.common.LibrecException;
+import net.librec.math.structure.DenseMatrix;
+import net.librec.math.structure.DenseVector;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.math.structure.SparseTensor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * FM Engine TestCase
+ * {@link net.librec.recommender.FMEngine}
+ */
+public class FMEngineTestCase extends BaseTestCase {
+
+	private SparseTensor tensor;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		int[] dims = {30, 20, 5};
+		int numEntries = 800;
+		Random random = new Random(11L);
+		boolean[] used = new boolean[dims[0] * dims[1] * dims[2]];
+		int[][] keys = new int[3][numEntries];
+		double[] values = new double[numEntries];
+		for (int index = 0; index < numEntries; index++) {
+			int id;
+			do {
+				id = random.nextInt(used.length);
+			} while (used[id]);
+			used[id] = true;
+			keys[0][index] = id / (dims[1] * dims[2]);
+			keys[1][index] = id / dims[2] % dims[1];
+			keys[2][index] = id % dims[2];
+			values[index] = 1 + random.nextInt(5);
+		}
+		tensor = new SparseTensor(dims, keys, values);
+	}
+
+	/**
+	 * Test that the design matrix holds one feature of each dimension per entry.
+	 */
+	@Test
+	public void testDesignMatrix() {
+		int[] offsets = FMEngine.featureOffsets(tensor);
+		assertArrayEquals(new int[]{0, 30, 50, 55}, offsets);
+		SparseMatrix designMatrix = FMEngine.designMatrix(tensor, offsets);
+		assertEquals(tensor.size(), designMatrix.numRows());
+		assertEquals(55, designMatrix.numColumns());
+		for (int sample = 0; sample < tensor.size(); sample++) {
+			for (int d = 0; d < 3; d++) {
+				assertEquals(1.0, designMatrix.get(sample, offsets[d] + tensor.key(d, sample)), 0.0);
+			}
+			assertEquals(3, designMatrix.rowPtr[sample + 1] - designMatrix.rowPtr[sample]);
+		}
+	}
+
+	/**
+	 * Test that the cached residuals follow the updates, that the updates decrease
+	 * the loss, and that the model does not depend on the number of threads.
+	 */
+	@Test
+	public void testAlternatingLeastSquares() throws LibrecException {
+		FMEngine sequential = new FMEngine(tensor, 1);
+		FMEngine parallel = new FMEngine(tensor, 4);
+		DenseVector sequentialW = new DenseVector(55), parallelW = new DenseVector(55);
+		DenseMatrix sequentialV = new DenseMatrix(55, 4), parallelV = new DenseMatrix(55, 4);
+		Random random = new Random(5L);
+		for (int l = 0; l < 55; l++) {
+			for (int f = 0; f < 4; f++) {
+				double value = 0.1 * random.nextGaussian();
+				sequentialV.set(l, f, value);
+				parallelV.set(l, f, value);
+			}
+		}
+
+		double sequentialW0 = 0.0, parallelW0 = 0.0;
+		double initialError = sequential.computeErrors(sequentialW0, sequentialW, sequentialV);
+		assertEquals(initialError, parallel.computeErrors(parallelW0, parallelW, parallelV), 0.0);
+		double lastError = initialError;
+		for (int iter = 0; iter < 5; iter++) {
+			sequentialW0 = sequential.updateGlobalBias(sequentialW0, 0.01);
+			sequential.updateWeights(sequentialW, 0.01);
+			sequential.updateFactors(sequentialV, 0.1);
+			parallelW0 = parallel.updateGlobalBias(parallelW0, 0.01);
+			parallel.updateWeights(parallelW, 0.01);
+			parallel.updateFactors(parallelV, 0.1);
+
+			double error = sequential.squaredError();
+			assertTrue(error < lastError);
+			lastError = error;
+		}
+
+		assertEquals(sequentialW0, parallelW0, 0.0);
+		assertArrayEquals(sequentialW.getData(), parallelW.getData(), 0.0);
+		for (int l = 0; l < 55; l++) {
+			assertArrayEquals(sequentialV.row(l).getData(), parallelV.row(l).getData(), 0.0);
+		}
+		assertEquals(sequential.squaredError(), parallel.squaredError(), 0.0);
+
+		double cachedError = sequential.squaredError();
+		assertEquals(cachedError, sequential.computeErrors(sequentialW0, sequentialW, sequentialV), 1e-8 * cachedError);
+		SparseMatrix designMatrix = sequential.getDesignMatrix();
+		double error = 0.0;
+		for (int sample = 0; sample < tensor.size(); sample++) {
+			double residual = tensor.value(sample) - FMEngine.predict(designMatrix, sample, sequentialW0, sequentialW, sequentialV);
+			error += residual * residual;
+		}
+		assertEquals(cachedError, error, 1e-8 * cachedError);
+	}
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import net.librec.BaseTestCase;
+import net.librec.io.DenseMatrixWritable;
+import net.librec.io.DenseVectorWritable;
+import net.librec.io.ModelFile;
+import net.librec.math.structure.DenseMatrix;
+import net.librec.math.structure.DenseVector;
+import net.librec.math.structure.SparseMatrixBuilder;
+import net.librec.recommender.cf.rating.BiasedMFRecommender;
+import net.librec.util.ModelDataUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Mapped Factor Model TestCase
+ * {@link net.librec.recommender.MappedFactorModel}
+ */
+public class MappedFactorModelTestCase extends BaseTestCase {
+
+	private DenseMatrix userFactors, itemFactors;
+
+	private DenseVector userBiases, itemBiases;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		userFactors = new DenseMatrix(new double[][]{{0.1, 0.2, 0.3}, {-0.4, 0.5, 0.6}});
+		itemFactors = new DenseMatrix(new double[][]{{1.0, 0.0, 2.0}, {0.5, 0.5, 0.5}, {-1.0, 3.0, 0.0}, {0.2, 0.1, 0.4}});
+		userBiases = new DenseVector(new double[]{0.3, -0.2});
+		itemBiases = new DenseVector(new double[]{0.1, 0.2, -0.1, 0.0});
+	}
+
+	/**
+	 * Create a temporary model file that is removed when the JVM exits.
+	 */
+	private static String tempModelPath(String prefix) throws IOException {
+		File file = File.createTempFile(prefix, null);
+		file.deleteOnExit();
+		return file.getPath();
+	}
+
+	/**
+	 * Test the predictions of a biased model against those of the factor matrices.
+	 */
+	@Test
+	public void testBiasedPredict() throws IOException {
+		String filePath = tempModelPath("model-mapped-biased");
+		try (ModelFile.MappedWriter writer = new ModelFile.MappedWriter(new File(filePath))) {
+			writer.write("userFactors", userFactors);
+			writer.write("itemFactors", itemFactors);
+			writer.write("userBiases", userBiases);
+			writer.write("itemBiases", itemBiases);
+			writer.write("globalMean", 3.5);
+		}
+
+		try (MappedFactorModel model = new MappedFactorModel(filePath)) {
+			assertEquals(2, model.getNumUsers());
+			assertEquals(4, model.getNumItems());
+			assertEquals(3, model.getNumFactors());
+			for (int userIdx = 0; userIdx < 2; userIdx++) {
+				for (int itemIdx = 0; itemIdx < 4; itemIdx++) {
+					double expected = DenseMatrix.rowMult(userFactors, userIdx, itemFactors, itemIdx)
+							+ userBiases.get(userIdx) + itemBiases.get(itemIdx) + 3.5;
+					assertEquals(expected, model.predict(userIdx, itemIdx), 0.0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test the top-N items of a model with factor matrices only.
+	 */
+	@Test
+	public void testRecommend() throws IOException {
+		String filePath = tempModelPath("model-mapped-factors");
+		try (ModelFile.MappedWriter writer = new ModelFile.MappedWriter(new File(filePath))) {
+			writer.write("P", userFactors);
+			writer.write("Q", itemFactors);
+		}
+
+		try (MappedFactorModel model = new MappedFactorModel(filePath, "P", "Q")) {
+			assertEquals(DenseMatrix.rowMult(userFactors, 1, itemFactors, 2), model.predict(1, 2), 0.0);
+			assertArrayEquals(new int[]{2, 0}, model.recommend(1, 2));
+			assertArrayEquals(new int[]{0, 2, 1, 3}, model.recommend(0, 10));
+		}
+	}
+
+	/**
+	 * Test that the files of models predicting with other terms are refused, and
+	 * those of plain models with a training matrix are accepted.
+	 */
+	@Test
+	public void testOtherModels() throws IOException {
+		String filePath = tempModelPath("model-mapped-other");
+		try (ModelFile.MappedWriter writer = new ModelFile.MappedWriter(new File(filePath))) {
+			writer.write("isRanking", false);
+			writer.write("userFactors", userFactors);
+			writer.write("itemFactors", itemFactors);
+			writer.write("userBiases", userBiases);
+			writer.write("itemBiases", itemBiases);
+			writer.write("impItemFactors", itemFactors);
+		}
+		try {
+			new MappedFactorModel(filePath).close();
+			fail("the model of SVD++ is not a plain matrix factorization model");
+		} catch (IOException e) {
+			// expected
+		}
+
+		try (ModelFile.MappedWriter writer = new ModelFile.MappedWriter(new File(filePath))) {
+			writer.write("userFactors", userFactors);
+			writer.write("itemFactors", itemFactors);
+			writer.write("globalMean", itemBiases);
+		}
+		try {
+			new MappedFactorModel(filePath).close();
+			fail("the global mean is not a double");
+		} catch (IOException e) {
+			// expected
+		}
+
+		SparseMatrixBuilder builder = new SparseMatrixBuilder(2, 4);
+		builder.add(0, 1, 1.0);
+		builder.add(1, 3, 1.0);
+		try (ModelFile.MappedWriter writer = new ModelFile.MappedWriter(new File(filePath))) {
+			writer.write("isRanking", true);
+			writer.write("userFactors", userFactors);
+			writer.write("itemFactors", itemFactors);
+			writer.write("trainMatrix", builder.build());
+		}
+		try (MappedFactorModel model = new MappedFactorModel(filePath)) {
+			assertEquals(DenseMatrix.rowMult(userFactors, 0, itemFactors, 3), model.predict(0, 3), 0.0);
+		}
+	}
+
+	/**
+	 * Test loading a biased model file of {@link ModelFile#VERSION} saved before
+	 * the global mean was added to the model.
+	 */
+	@Test
+	public void testLegacyBiasedModel() throws Exception {
+		String filePath = tempModelPath("model-legacy-biased");
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(filePath))) {
+			ModelFile.Writer writer = new ModelFile.Writer(out);
+			writer.writeData(out, new DenseMatrixWritable(userFactors));
+			writer.writeData(out, new DenseMatrixWritable(itemFactors));
+			writer.writeData(out, new DenseVectorWritable(userBiases));
+			writer.writeData(out, new DenseVectorWritable(itemBiases));
+		}
+
+		BiasedMFRecommender recommender = new BiasedMFRecommender();
+		recommender.globalMean = 3.5;
+		ModelDataUtil.loadRecommenderModel(recommender, filePath);
+		for (int userIdx = 0; userIdx < 2; userIdx++) {
+			for (int itemIdx = 0; itemIdx < 4; itemIdx++) {
+				double expected = DenseMatrix.rowMult(userFactors, userIdx, itemFactors, itemIdx)
+						+ userBiases.get(userIdx) + itemBiases.get(itemIdx) + 3.5;
+				assertEquals(expected, ((AbstractRecommender) recommender).predict(userIdx, itemIdx), 1e-12);
+			}
+		}
+	}
+}
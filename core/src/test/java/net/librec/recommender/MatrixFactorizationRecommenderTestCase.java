@@ -0,0 +1,254 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import net.librec.BaseTestCase;
+import net.librec.common.LibrecException;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.DenseMatrix;
+import net.librec.math.structure.DenseVector;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.math.structure.SparseMatrixBuilder;
+import net.librec.recommender.cf.rating.BiasedMFRecommender;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Matrix Factorization Recommender TestCase
+ * {@link net.librec.recommender.MatrixFactorizationRecommender}
+ */
+public class MatrixFactorizationRecommenderTestCase extends BaseTestCase {
+
+	/**
+	 * more items than the packed factors of one scoring tile
+	 */
+	private static final int NUM_USERS = 30, NUM_ITEMS = 7000, NUM_FACTORS = 10;
+
+	private DenseMatrix userFactors, itemFactors;
+
+	private DenseVector userBiases, itemBiases;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		userFactors = new DenseMatrix(NUM_USERS, NUM_FACTORS);
+		userFactors.init(0.0, 1.0);
+		itemFactors = new DenseMatrix(NUM_ITEMS, NUM_FACTORS);
+		itemFactors.init(0.0, 1.0);
+		userBiases = new DenseVector(NUM_USERS);
+		userBiases.init(0.0, 1.0);
+		itemBiases = new DenseVector(NUM_ITEMS);
+		itemBiases.init(0.0, 1.0);
+	}
+
+	/**
+	 * Test that the batch scores of all the items, or of a range of items, are equal to the predictions,
+	 * whether the item factors are packed or, as if they were too many, scored row by row.
+	 */
+	@Test
+	public void testBatchScores() throws LibrecException {
+		for (int maxPackedEntries : new int[]{Integer.MAX_VALUE, 0}) {
+			assertBatchScores(new FactorModel(userFactors, itemFactors), maxPackedEntries);
+			assertBatchScores(new BiasedModel(userFactors, itemFactors, userBiases, itemBiases, 3.5), maxPackedEntries);
+		}
+	}
+
+	/**
+	 * Assert that the batch scores of a model are equal to its predictions.
+	 *
+	 * @param model            a model supporting batch scoring
+	 * @param maxPackedEntries the maximum number of entries of the packed item factors
+	 */
+	private void assertBatchScores(MatrixFactorizationRecommender model, int maxPackedEntries) throws LibrecException {
+		model.prepareBatchScoring(maxPackedEntries);
+		double[] scores = new double[NUM_ITEMS];
+		for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+			model.scoreAllItems(userIdx, scores);
+			for (int itemIdx = 0; itemIdx < NUM_ITEMS; itemIdx++) {
+				assertEquals(model.predict(userIdx, itemIdx), scores[itemIdx], 0.0);
+			}
+		}
+
+		int[] users = {4, 17, 29};
+		double[][] rangeScores = new double[users.length][4000];
+		model.scoreBlock(users, 1000, 5000, rangeScores);
+		for (int i = 0; i < users.length; i++) {
+			for (int itemIdx = 1000; itemIdx < 5000; itemIdx++) {
+				assertEquals(model.predict(users[i], itemIdx), rangeScores[i][itemIdx - 1000], 0.0);
+			}
+		}
+	}
+
+	/**
+	 * Test that ranking the batch scores gives the same items as ranking the predictions one by one.
+	 */
+	@Test
+	public void testBatchRanking() throws LibrecException {
+		Random random = new Random(5L);
+		SparseMatrixBuilder builder = new SparseMatrixBuilder(NUM_USERS, NUM_ITEMS);
+		for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+			for (int itemIdx = random.nextInt(20); itemIdx < NUM_ITEMS; itemIdx += 1 + random.nextInt(40)) {
+				builder.add(userIdx, itemIdx, 1.0);
+			}
+		}
+		SparseMatrix trainMatrix = builder.build();
+
+		BiasedModel model = new BiasedModel(userFactors, itemFactors, userBiases, itemBiases, 3.5);
+		RankingEngine batchEngine = new RankingEngine(model, trainMatrix, 20, 3);
+		batchEngine.rank();
+		RankingEngine predictEngine = new RankingEngine(new PredictRecommender(model), trainMatrix, 20, 1);
+		predictEngine.rank();
+		for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+			assertArrayEquals(predictEngine.getRankedItems(userIdx), batchEngine.getRankedItems(userIdx));
+			assertArrayEquals(predictEngine.getRankedScores(userIdx), batchEngine.getRankedScores(userIdx), 0.0);
+		}
+	}
+
+	/**
+	 * Test that a model which does not declare batch scoring refuses to score in batch.
+	 */
+	@Test
+	public void testBatchScoringNotSupported() throws LibrecException {
+		MatrixFactorizationRecommender model = new FactorModel(userFactors, itemFactors) {
+			@Override
+			protected double predict(int userIdx, int itemIdx) throws LibrecException {
+				return -super.predict(userIdx, itemIdx);
+			}
+
+			@Override
+			public boolean isBatchScoringSupported() {
+				return false;
+			}
+		};
+		assertFalse(model.isBatchScoringSupported());
+		try {
+			model.scoreAllItems(0, new double[NUM_ITEMS]);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Test that the factors initialized on one thread are drawn in order from {@link Randoms},
+	 * and those initialized on several threads do not depend on the number of threads.
+	 */
+	@Test
+	public void testInitFactors() {
+		MatrixFactorizationRecommender model = new FactorModel(userFactors, itemFactors);
+		model.initMean = 0.0f;
+		model.initStd = 0.1f;
+
+		model.initThreads = 1;
+		Randoms.seed(3L);
+		DenseMatrix sequential = new DenseMatrix(NUM_ITEMS, NUM_FACTORS);
+		model.initFactors(sequential);
+		Randoms.seed(3L);
+		DenseMatrix expected = new DenseMatrix(NUM_ITEMS, NUM_FACTORS);
+		expected.init(model.initMean, model.initStd);
+		for (int itemIdx = 0; itemIdx < NUM_ITEMS; itemIdx++) {
+			assertArrayEquals(expected.getData()[itemIdx], sequential.getData()[itemIdx], 0.0);
+		}
+
+		DenseMatrix[] parallel = new DenseMatrix[3];
+		int[] threads = {2, 4, 0};
+		for (int i = 0; i < threads.length; i++) {
+			model.initThreads = threads[i];
+			Randoms.seed(3L);
+			parallel[i] = new DenseMatrix(NUM_ITEMS, NUM_FACTORS);
+			model.initFactors(parallel[i]);
+		}
+		double sum = 0, sumSquares = 0;
+		for (int itemIdx = 0; itemIdx < NUM_ITEMS; itemIdx++) {
+			for (int i = 1; i < threads.length; i++) {
+				assertArrayEquals(parallel[0].getData()[itemIdx], parallel[i].getData()[itemIdx], 0.0);
+			}
+			for (double value : parallel[0].getData()[itemIdx]) {
+				sum += value;
+				sumSquares += value * value;
+			}
+		}
+		int count = NUM_ITEMS * NUM_FACTORS;
+		assertEquals(0.0, sum / count, 0.005);
+		assertEquals(0.1, Math.sqrt(sumSquares / count - (sum / count) * (sum / count)), 0.005);
+	}
+
+	/**
+	 * Model with the dot products of given factors.
+	 */
+	private static class FactorModel extends MatrixFactorizationRecommender {
+
+		FactorModel(DenseMatrix userFactors, DenseMatrix itemFactors) {
+			this.userFactors = userFactors;
+			this.itemFactors = itemFactors;
+		}
+
+		@Override
+		protected void trainModel() throws LibrecException {
+		}
+
+		@Override
+		public boolean isBatchScoringSupported() {
+			return true;
+		}
+	}
+
+	/**
+	 * Biased model with given factors and biases.
+	 */
+	private static class BiasedModel extends BiasedMFRecommender {
+
+		BiasedModel(DenseMatrix userFactors, DenseMatrix itemFactors, DenseVector userBiases,
+					DenseVector itemBiases, double globalMean) {
+			this.userFactors = userFactors;
+			this.itemFactors = itemFactors;
+			this.userBiases = userBiases;
+			this.itemBiases = itemBiases;
+			this.globalMean = globalMean;
+			this.numFactors = userFactors.numColumns();
+		}
+	}
+
+	/**
+	 * Recommender delegating its predictions to a model, without batch scoring.
+	 */
+	private static class PredictRecommender extends AbstractRecommender {
+
+		private final MatrixFactorizationRecommender model;
+
+		PredictRecommender(MatrixFactorizationRecommender model) {
+			this.model = model;
+		}
+
+		@Override
+		protected void trainModel() throws LibrecException {
+		}
+
+		@Override
+		protected double predict(int userIdx, int itemIdx) throws LibrecException {
+			return model.predict(userIdx, itemIdx);
+		}
+	}
+}
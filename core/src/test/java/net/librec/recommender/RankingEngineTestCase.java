@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import net.librec.BaseTestCase;
+import net.librec.common.LibrecException;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.math.structure.SparseMatrixBuilder;
+import net.librec.recommender.item.ItemEntry;
+import net.librec.recommender.item.RecommendedItemList;
+import net.librec.util.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Ranking Engine TestCase
+ * {@link net.librec.recommender.RankingEngine}
+ */
+public class RankingEngineTestCase extends BaseTestCase {
+
+	private static final int NUM_USERS = 60, NUM_ITEMS = 45, TOP_N = 7;
+
+	private SparseMatrix trainMatrix;
+
+	private double[][] scores;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		Random random = new Random(11L);
+		SparseMatrixBuilder builder = new SparseMatrixBuilder(NUM_USERS, NUM_ITEMS);
+		scores = new double[NUM_USERS][NUM_ITEMS];
+		for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+			for (int itemIdx = 0; itemIdx < NUM_ITEMS; itemIdx++) {
+				// user 0 rated all the items, user 1 rated all but the last four
+				boolean rated = userIdx == 0 || (userIdx == 1 ? itemIdx < NUM_ITEMS - 4 : random.nextInt(4) == 0);
+				if (rated) {
+					builder.add(userIdx, itemIdx, 1 + random.nextInt(5));
+				}
+				// few distinct scores, so that many items are tied
+				scores[userIdx][itemIdx] = random.nextInt(6) / 2.0;
+			}
+		}
+		// user 2 has no prediction for any item, user 3 for the even items
+		for (int itemIdx = 0; itemIdx < NUM_ITEMS; itemIdx++) {
+			scores[2][itemIdx] = Double.NaN;
+			if (itemIdx % 2 == 0) {
+				scores[3][itemIdx] = Double.NaN;
+			}
+		}
+		trainMatrix = builder.build();
+	}
+
+	/**
+	 * Test that the ranked items of the parallel engine are those of the sequential one, and
+	 * of the candidate items sorted by descending score with ties broken by the smaller index.
+	 */
+	@Test
+	public void testParallelRanking() throws LibrecException {
+		ScoreRecommender recommender = new ScoreRecommender(scores);
+		RankingEngine sequential = new RankingEngine(recommender, trainMatrix, TOP_N, 1);
+		sequential.rank();
+		RecommendedItemList listRanking = rankByList();
+
+		for (int numThreads : new int[]{2, 4}) {
+			RankingEngine parallel = new RankingEngine(recommender, trainMatrix, TOP_N, numThreads);
+			parallel.rank();
+			assertEquals(sequential.getNumRankedItems(), parallel.getNumRankedItems());
+			for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+				assertArrayEquals(sequential.getRankedItems(userIdx), parallel.getRankedItems(userIdx));
+			}
+		}
+
+		for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+			List<Integer> expected = expectedItems(userIdx);
+			int[] rankedItems = sequential.getRankedItems(userIdx);
+			if (expected.isEmpty()) {
+				assertNull(rankedItems);
+				assertNull(sequential.getRankedScores(userIdx));
+				continue;
+			}
+			assertEquals(expected.size(), rankedItems.length);
+			List<ItemEntry<Integer, Double>> listItems = listRanking.getItemIdxListByUserIdx(userIdx);
+			assertEquals(listItems.size(), rankedItems.length);
+			for (int position = 0; position < rankedItems.length; position++) {
+				assertEquals((int) expected.get(position), rankedItems[position]);
+				assertEquals(scores[userIdx][rankedItems[position]], sequential.getRankedScores(userIdx)[position], 0.0);
+				// the list ranking breaks ties in any order, so only its scores are compared
+				assertEquals(listItems.get(position).getValue(), sequential.getRankedScores(userIdx)[position], 0.0);
+			}
+		}
+		assertNull(sequential.getRankedItems(0));
+		assertEquals(4, sequential.getRankedItems(1).length);
+		assertNull(sequential.getRankedItems(2));
+	}
+
+	/**
+	 * Rank the items as recommendRank did before the engine, with a list of boxed entries per user.
+	 *
+	 * @return the top-N items of every user
+	 */
+	private RecommendedItemList rankByList() {
+		RecommendedItemList recommendedList = new RecommendedItemList(NUM_USERS - 1, NUM_USERS);
+		for (int userIdx = 0; userIdx < NUM_USERS; ++userIdx) {
+			for (int itemIdx = 0; itemIdx < NUM_ITEMS; ++itemIdx) {
+				if (!trainMatrix.contains(userIdx, itemIdx) && !Double.isNaN(scores[userIdx][itemIdx])) {
+					recommendedList.addUserItemIdx(userIdx, itemIdx, scores[userIdx][itemIdx]);
+				}
+			}
+			recommendedList.topNRankItemsByUser(userIdx, TOP_N);
+		}
+		return recommendedList;
+	}
+
+	/**
+	 * @param userIdx user index
+	 * @return the top-N candidate items of the user by descending score and ascending index
+	 */
+	private List<Integer> expectedItems(final int userIdx) {
+		List<Integer> items = new ArrayList<>();
+		for (int itemIdx = 0; itemIdx < NUM_ITEMS; itemIdx++) {
+			if (!trainMatrix.contains(userIdx, itemIdx) && !Double.isNaN(scores[userIdx][itemIdx])) {
+				items.add(itemIdx);
+			}
+		}
+		Collections.sort(items, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int res = Double.compare(scores[userIdx][b], scores[userIdx][a]);
+				return res != 0 ? res : Integer.compare(a, b);
+			}
+		});
+		return items.subList(0, Math.min(TOP_N, items.size()));
+	}
+
+	/**
+	 * Recommender predicting fixed scores.
+	 */
+	private static class ScoreRecommender extends AbstractRecommender {
+
+		private final double[][] scores;
+
+		ScoreRecommender(double[][] scores) {
+			this.scores = scores;
+		}
+
+		@Override
+		protected void trainModel() throws LibrecException {
+		}
+
+		@Override
+		protected double predict(int userIdx, int itemIdx) throws LibrecException {
+			return scores[userIdx][itemIdx];
+		}
+	}
+}
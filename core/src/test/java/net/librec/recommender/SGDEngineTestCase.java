@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import net.librec.BaseTestCase;
+import net.librec.common.LibrecException;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.math.structure.SparseMatrixBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * SGD Engine TestCase
+ * {@link net.librec.recommender.SGDEngine}
+ */
+public class SGDEngineTestCase extends BaseTestCase {
+
+	private SparseMatrix trainMatrix;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		SparseMatrixBuilder builder = new SparseMatrixBuilder(50, 40);
+		for (int row = 0; row < 50; row++) {
+			for (int column = row % 3; column < 40; column += 1 + row % 5) {
+				builder.add(row, column, 1 + (row * column) % 5);
+			}
+		}
+		trainMatrix = builder.build();
+	}
+
+	/**
+	 * Test that one thread visits the entries in the order of the matrix iterator.
+	 */
+	@Test
+	public void testSequentialOrder() throws LibrecException {
+		final int[] position = {0};
+		final int[][] expected = new int[trainMatrix.size()][];
+		int index = 0;
+		for (MatrixEntry entry : trainMatrix) {
+			expected[index++] = new int[]{entry.row(), entry.column(), (int) entry.get()};
+		}
+
+		double loss = new SGDEngine(trainMatrix, 1).epoch(new SGDEngine.EntryUpdater() {
+			@Override
+			public double update(int userIdx, int itemIdx, double rating, double loss) {
+				int[] entry = expected[position[0]++];
+				assertEquals(entry[0], userIdx);
+				assertEquals(entry[1], itemIdx);
+				assertEquals(entry[2], rating, 0.0);
+				return loss + rating;
+			}
+		});
+		assertEquals(expected.length, position[0]);
+		assertEquals(trainMatrix.sum(), loss, 1e-9);
+	}
+
+	/**
+	 * Test that parallel threads visit every entry exactly once per epoch.
+	 */
+	@Test
+	public void testParallelEpoch() throws LibrecException {
+		final AtomicIntegerArray visits = new AtomicIntegerArray(50 * 40);
+		SGDEngine sgdEngine = new SGDEngine(trainMatrix, 4);
+		SGDEngine.EntryUpdater updater = new SGDEngine.EntryUpdater() {
+			@Override
+			public double update(int userIdx, int itemIdx, double rating, double loss) {
+				visits.incrementAndGet(userIdx * 40 + itemIdx);
+				return loss + rating;
+			}
+		};
+		for (int epoch = 1; epoch <= 2; epoch++) {
+			assertEquals(trainMatrix.sum(), sgdEngine.epoch(updater), 1e-9);
+		}
+		for (int row = 0; row < 50; row++) {
+			for (int column = 0; column < 40; column++) {
+				assertEquals(trainMatrix.contains(row, column) ? 2 : 0, visits.get(row * 40 + column));
+			}
+		}
+	}
+
+	/**
+	 * Test that user epochs visit the entries of every user exactly once, sequentially and in parallel.
+	 */
+	@Test
+	public void testUserEpoch() throws LibrecException {
+		for (int numThreads : new int[]{1, 4}) {
+			final AtomicIntegerArray visits = new AtomicIntegerArray(50);
+			SGDEngine.UserUpdater updater = new SGDEngine.UserUpdater() {
+				@Override
+				public double update(int userIdx, int from, int to, double loss) {
+					visits.incrementAndGet(userIdx);
+					assertEquals(trainMatrix.rowPtr[userIdx], from);
+					assertEquals(trainMatrix.rowPtr[userIdx + 1], to);
+					for (int entry = from; entry < to; entry++) {
+						loss += trainMatrix.rowData[entry];
+					}
+					return loss;
+				}
+			};
+			assertEquals(trainMatrix.sum(), new SGDEngine(trainMatrix, numThreads).userEpoch(updater), 1e-9);
+			for (int row = 0; row < 50; row++) {
+				assertEquals(1, visits.get(row));
+			}
+		}
+	}
+
+	/**
+	 * Test that stratified epochs give the same model for the same seed.
+	 */
+	@Test
+	public void testStratifiedReproducible() throws LibrecException {
+		double[][] first = trainStratified(3, 7L);
+		double[][] second = trainStratified(3, 7L);
+		assertArrayEquals(first[0], second[0], 0.0);
+		assertArrayEquals(first[1], second[1], 0.0);
+	}
+
+	/**
+	 * Train a toy model with a stratified engine.
+	 *
+	 * @param numThreads the number of threads
+	 * @param seed       the seed of the engine
+	 * @return the user and item parameters
+	 */
+	private double[][] trainStratified(int numThreads, long seed) throws LibrecException {
+		final double[] userParams = new double[50];
+		final double[] itemParams = new double[40];
+		final AtomicIntegerArray visits = new AtomicIntegerArray(50 * 40);
+		SGDEngine sgdEngine = new SGDEngine(trainMatrix, numThreads, seed);
+		SGDEngine.EntryUpdater updater = new SGDEngine.EntryUpdater() {
+			@Override
+			public double update(int userIdx, int itemIdx, double rating, double loss) {
+				visits.incrementAndGet(userIdx * 40 + itemIdx);
+				double error = rating - userParams[userIdx] * itemParams[itemIdx] - itemParams[itemIdx];
+				userParams[userIdx] += 0.01 * error * itemParams[itemIdx] + 0.1;
+				itemParams[itemIdx] += 0.01 * error * userParams[userIdx] + 0.1;
+				return loss + error * error;
+			}
+		};
+		for (int epoch = 1; epoch <= 3; epoch++) {
+			sgdEngine.epoch(updater);
+		}
+		for (int row = 0; row < 50; row++) {
+			for (int column = 0; column < 40; column++) {
+				assertEquals(trainMatrix.contains(row, column) ? 3 : 0, visits.get(row * 40 + column));
+			}
+		}
+		return new double[][]{userParams, itemParams};
+	}
+}
@@ -21,10 +21,18 @@ import net.librec.BaseTestCase;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.job.RecommenderJob;
+import net.librec.math.structure.DenseMatrix;
+import net.librec.math.structure.DenseVector;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.math.structure.SparseMatrixBuilder;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
 
 /**
  * WRMF Test Case corresponds to WRMFRecommender
@@ -53,4 +61,122 @@ public class WRMFTestCase extends BaseTestCase {
         RecommenderJob job = new RecommenderJob(conf);
         job.runJob();
     }
+
+    /**
+     * Test that one alternating least squares iteration, sequential or parallel, gives the factors
+     * of the closed form (FtF + Ft * (Cu - I) * F + lambda * I)^-1 * Ft * Cu * Pu with dense matrices.
+     *
+     * @throws LibrecException
+     */
+    @Test
+    public void testLeastSquares() throws LibrecException {
+        int numUsers = 15, numItems = 11, numFactors = 4;
+        Random random = new Random(9L);
+        SparseMatrixBuilder builder = new SparseMatrixBuilder(numUsers, numItems);
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                if (random.nextInt(3) == 0) {
+                    builder.add(userIdx, itemIdx, 1 + random.nextInt(5));
+                }
+            }
+        }
+        SparseMatrix trainMatrix = builder.build();
+        DenseMatrix userFactors = new DenseMatrix(numUsers, numFactors);
+        DenseMatrix itemFactors = new DenseMatrix(numItems, numFactors);
+        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+            for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+                userFactors.set(userIdx, factorIdx, random.nextGaussian() * 0.1);
+            }
+            for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+                itemFactors.set(itemIdx, factorIdx, random.nextGaussian() * 0.1);
+            }
+        }
+
+        SparseMatrix confidenceMinusIdentity = WRMFRecommender.confidenceMinusIdentity(trainMatrix, 1.0);
+        DenseMatrix expectedUserFactors = closedForm(trainMatrix, confidenceMinusIdentity, itemFactors, 0.05, false);
+        DenseMatrix expectedItemFactors = closedForm(trainMatrix, confidenceMinusIdentity, expectedUserFactors, 0.07, true);
+
+        for (int numThreads : new int[]{1, 3}) {
+            WRMFModel model = new WRMFModel(trainMatrix, confidenceMinusIdentity, userFactors.clone(),
+                    itemFactors.clone(), 0.05f, 0.07f, numThreads);
+            ForkJoinPool pool = numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+            try {
+                model.updateFactors(pool);
+            } finally {
+                if (pool != null) {
+                    pool.shutdown();
+                }
+            }
+            assertFactorsEqual(expectedUserFactors, model.getUserFactors());
+            assertFactorsEqual(expectedItemFactors, model.getItemFactors());
+        }
+    }
+
+    /**
+     * Solve the least squares of all rows (or columns) with dense matrices and explicit inverses.
+     *
+     * @param trainMatrix             training matrix
+     * @param confidenceMinusIdentity confidences minus one of the training entries
+     * @param fixedFactors            the factors of the columns (or rows)
+     * @param regularization          regularization
+     * @param byColumn                whether the columns are solved
+     * @return the solved factors
+     */
+    private DenseMatrix closedForm(SparseMatrix trainMatrix, SparseMatrix confidenceMinusIdentity,
+                                   DenseMatrix fixedFactors, double regularization, boolean byColumn) throws LibrecException {
+        int numRows = byColumn ? trainMatrix.numColumns() : trainMatrix.numRows();
+        int numFixed = fixedFactors.numRows(), numFactors = fixedFactors.numColumns();
+        DenseMatrix Ft = fixedFactors.transpose();
+        DenseMatrix solved = new DenseMatrix(numRows, numFactors);
+        for (int rowIdx = 0; rowIdx < numRows; rowIdx++) {
+            DenseMatrix Cu = new DenseMatrix(numFixed, numFixed);
+            DenseVector Pu = new DenseVector(numFixed);
+            for (int fixedIdx = 0; fixedIdx < numFixed; fixedIdx++) {
+                int userIdx = byColumn ? fixedIdx : rowIdx, itemIdx = byColumn ? rowIdx : fixedIdx;
+                Cu.set(fixedIdx, fixedIdx, 1.0 + confidenceMinusIdentity.get(userIdx, itemIdx));
+                Pu.set(fixedIdx, trainMatrix.get(userIdx, itemIdx) > 0 ? 1.0 : 0.0);
+            }
+            DenseMatrix A = Ft.mult(Cu).mult(fixedFactors).add(DenseMatrix.eye(numFactors).scale(regularization));
+            solved.setRow(rowIdx, A.inv().mult(Ft.mult(Cu).mult(Pu)));
+        }
+        return solved;
+    }
+
+    /**
+     * Assert that the factors are equal up to the rounding errors of the inverse, relatively to their magnitude.
+     */
+    private void assertFactorsEqual(DenseMatrix expected, DenseMatrix actual) {
+        for (int rowIdx = 0; rowIdx < expected.numRows(); rowIdx++) {
+            for (int factorIdx = 0; factorIdx < expected.numColumns(); factorIdx++) {
+                double value = expected.get(rowIdx, factorIdx);
+                assertEquals(value, actual.get(rowIdx, factorIdx), 1e-7 * Math.max(1.0, Math.abs(value)));
+            }
+        }
+    }
+
+    /**
+     * WRMF model over given training entries and initial factors.
+     */
+    private static class WRMFModel extends WRMFRecommender {
+
+        WRMFModel(SparseMatrix trainMatrix, SparseMatrix confidenceMinusIdentity, DenseMatrix userFactors,
+                  DenseMatrix itemFactors, float regUser, float regItem, int numThreads) {
+            this.trainMatrix = trainMatrix;
+            this.confindenceMinusIdentityMatrix = confidenceMinusIdentity;
+            this.userFactors = userFactors;
+            this.itemFactors = itemFactors;
+            this.numFactors = userFactors.numColumns();
+            this.regUser = regUser;
+            this.regItem = regItem;
+            this.numThreads = numThreads;
+        }
+
+        DenseMatrix getUserFactors() {
+            return userFactors;
+        }
+
+        DenseMatrix getItemFactors() {
+            return itemFactors;
+        }
+    }
 }
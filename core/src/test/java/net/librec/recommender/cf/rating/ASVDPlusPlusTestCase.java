@@ -54,4 +54,21 @@ public class ASVDPlusPlusTestCase extends BaseTestCase {
 		RecommenderJob job = new RecommenderJob(conf);
 		job.runJob();
 	}
+
+	/**
+	 * test the whole process of ASVDPlusPlus recommendation with the implicit and neighborhood
+	 * factors updated once per user
+	 *
+	 * @throws ClassNotFoundException
+	 * @throws LibrecException
+	 * @throws IOException
+	 */
+	@Test
+	public void testRecommenderImplicitPerUser() throws ClassNotFoundException, LibrecException, IOException {
+		Resource resource = new Resource("rec/cf/rating/asvdpp-test.properties");
+		conf.addResource(resource);
+		conf.set("rec.implicit.peruser", "true");
+		RecommenderJob job = new RecommenderJob(conf);
+		job.runJob();
+	}
 }
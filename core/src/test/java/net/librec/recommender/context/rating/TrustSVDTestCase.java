@@ -53,4 +53,20 @@ public class TrustSVDTestCase extends BaseTestCase {
         RecommenderJob job = new RecommenderJob(conf);
         job.runJob();
     }
+
+    /**
+     * Test the whole process of TrustSVD Recommender with the implicit item factors updated once per user
+     *
+     * @throws ClassNotFoundException
+     * @throws LibrecException
+     * @throws IOException
+     */
+    @Test
+    public void testRecommenderImplicitPerUser() throws ClassNotFoundException, LibrecException, IOException {
+        Configuration.Resource resource = new Configuration.Resource("rec/context/rating/trustsvd-test.properties");
+        conf.addResource(resource);
+        conf.set("rec.implicit.peruser", "true");
+        RecommenderJob job = new RecommenderJob(conf);
+        job.runJob();
+    }
 }
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.item;
+
+import net.librec.BaseTestCase;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compact Recommended Item List TestCase
+ * {@link net.librec.recommender.item.CompactRecommendedItemList}
+ */
+public class CompactRecommendedItemListTestCase extends BaseTestCase {
+
+	/**
+	 * Test the entries appended in user order, as done by recommendRating.
+	 */
+	@Test
+	public void testAppendInUserOrder() {
+		CompactRecommendedItemList recommendedList = new CompactRecommendedItemList(5);
+		recommendedList.addUserItemIdx(1, 2, 3.0);
+		recommendedList.addUserItemIdx(1, 4, 2.0);
+		recommendedList.addUserItemIdx(3, 0, 5.0);
+		recommendedList.addUserItemIdxs(5, new int[]{7, 1, 3}, new double[]{1.0, 4.0, 2.5}, 3);
+
+		assertEquals(3, recommendedList.size());
+		assertEquals(6, recommendedList.numEntries());
+		assertTrue(recommendedList.contains(1));
+		assertFalse(recommendedList.contains(2));
+		assertEquals(0, recommendedList.getItemIdxListByUserIdx(0).size());
+
+		List<ItemEntry<Integer, Double>> itemList = recommendedList.getItemIdxListByUserIdx(5);
+		assertEquals(3, itemList.size());
+		assertEquals(7, itemList.get(0).getKey().intValue());
+		assertEquals(4.0, itemList.get(1).getValue(), 0.0);
+
+		assertEquals(2.0, recommendedList.getEntryValue(1, 4), 0.0);
+		assertEquals(2.5, recommendedList.getEntryValue(5, 3), 0.0);
+		assertEquals(-1.0, recommendedList.getEntryValue(5, 2), 0.0);
+
+		int[][] expected = {{1, 2}, {1, 4}, {3, 0}, {5, 7}, {5, 1}, {5, 3}};
+		Iterator<UserItemRatingEntry> entryIterator = recommendedList.entryIterator();
+		for (int[] userItem : expected) {
+			assertTrue(entryIterator.hasNext());
+			UserItemRatingEntry entry = entryIterator.next();
+			assertEquals(userItem[0], entry.getUserIdx());
+			assertEquals(userItem[1], entry.getItemIdx());
+		}
+		assertFalse(entryIterator.hasNext());
+	}
+
+	/**
+	 * Test the entries appended out of user order, as done by tensor recommenders.
+	 */
+	@Test
+	public void testAppendOutOfUserOrder() {
+		CompactRecommendedItemList recommendedList = new CompactRecommendedItemList(3, 2);
+		recommendedList.addUserItemIdx(2, 5, 1.0);
+		recommendedList.addUserItemIdx(0, 1, 2.0);
+		recommendedList.addUserItemIdx(2, 3, 3.0);
+		recommendedList.addUserItemIdx(0, 0, 4.0);
+
+		assertEquals(2, recommendedList.size());
+		assertEquals(1, recommendedList.getItemIdx(0, 0));
+		assertEquals(0, recommendedList.getItemIdx(0, 1));
+		assertEquals(5, recommendedList.getItemIdx(2, 0));
+		assertEquals(3.0, recommendedList.getItemValue(2, 1), 0.0);
+
+		Iterator<Integer> userIterator = recommendedList.userIterator();
+		assertEquals(0, userIterator.next().intValue());
+		assertEquals(2, userIterator.next().intValue());
+		assertFalse(userIterator.hasNext());
+
+		recommendedList.addUserItemIdx(1, 9, 0.5);
+		assertEquals(3, recommendedList.size());
+		assertEquals(0.5, recommendedList.getEntryValue(1, 9), 0.0);
+		assertEquals(4.0, recommendedList.getEntryValue(0, 0), 0.0);
+	}
+
+	/**
+	 * Test the top n ranking and removal of users.
+	 */
+	@Test
+	public void testTopNRank() {
+		CompactRecommendedItemList recommendedList = new CompactRecommendedItemList(2);
+		for (int itemIdx = 0; itemIdx < 6; itemIdx++) {
+			recommendedList.addUserItemIdx(0, itemIdx, itemIdx % 3);
+		}
+		recommendedList.topNRankItemsByUser(0, 3);
+		for (int itemIdx = 0; itemIdx < 4; itemIdx++) {
+			recommendedList.addUserItemIdx(2, itemIdx, -itemIdx);
+		}
+
+		assertEquals(3, recommendedList.getItemSizeByUserIdx(0));
+		assertEquals(2, recommendedList.getItemIdx(0, 0));
+		assertEquals(5, recommendedList.getItemIdx(0, 1));
+		assertEquals(1, recommendedList.getItemIdx(0, 2));
+
+		recommendedList.topNRank(2);
+		assertEquals(2, recommendedList.getItemSizeByUserIdx(0));
+		assertEquals(0, recommendedList.getItemIdx(2, 0));
+		assertEquals(1, recommendedList.getItemIdx(2, 1));
+		assertEquals(4, recommendedList.numEntries());
+
+		assertEquals(2, recommendedList.removeUserIdx(0).size());
+		assertEquals(1, recommendedList.size());
+		assertFalse(recommendedList.contains(0));
+		assertEquals(-1.0, recommendedList.getEntryValue(2, 1), 0.0);
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.sampler;
+
+import net.librec.BaseTestCase;
+import net.librec.common.LibrecException;
+import net.librec.math.structure.DenseMatrix;
+import net.librec.math.structure.IndexAdjacency;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.math.structure.SparseMatrixBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Negative Sampler TestCase
+ * {@link net.librec.recommender.sampler.NegativeSampler}
+ */
+public class NegativeSamplerTestCase extends BaseTestCase {
+
+	private static final int NUM_USERS = 30, NUM_ITEMS = 20;
+
+	private SparseMatrix trainMatrix;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		SparseMatrixBuilder builder = new SparseMatrixBuilder(NUM_USERS, NUM_ITEMS);
+		for (int userIdx = 1; userIdx < NUM_USERS - 1; userIdx++) {
+			for (int itemIdx = userIdx % 4; itemIdx < NUM_ITEMS; itemIdx += 2 + userIdx % 3) {
+				builder.add(userIdx, itemIdx, 1 + (userIdx + itemIdx) % 5);
+			}
+		}
+		// user 29 rated every item
+		for (int itemIdx = 0; itemIdx < NUM_ITEMS; itemIdx++) {
+			builder.add(NUM_USERS - 1, itemIdx, 1);
+		}
+		trainMatrix = builder.build();
+	}
+
+	/**
+	 * Test that the uniform sampler never draws a positive or excluded item.
+	 */
+	@Test
+	public void testUniformNegativeSampler() {
+		IndexAdjacency userItems = trainMatrix.rowAdjacency();
+		IndexAdjacency excluded = IndexAdjacency.of(new int[NUM_USERS][0]);
+		NegativeSampler sampler = new UniformNegativeSampler(userItems, excluded, NUM_ITEMS);
+		assertFalse(sampler.hasNegative(NUM_USERS - 1));
+
+		Random random = new Random(1L);
+		for (int userIdx = 0; userIdx < NUM_USERS - 1; userIdx++) {
+			assertTrue(sampler.hasNegative(userIdx));
+			for (int sample = 0; sample < 100; sample++) {
+				int negItemIdx = sampler.sample(userIdx, random);
+				assertTrue(negItemIdx >= 0 && negItemIdx < NUM_ITEMS);
+				assertFalse(userItems.contains(userIdx, negItemIdx));
+			}
+		}
+	}
+
+	/**
+	 * Test that the popularity sampler draws only popular items which are not positive.
+	 */
+	@Test
+	public void testPopularityNegativeSampler() {
+		IndexAdjacency userItems = trainMatrix.rowAdjacency();
+		double[] popularity = new double[NUM_ITEMS];
+		popularity[3] = 1;
+		popularity[7] = 3;
+		NegativeSampler sampler = new PopularityNegativeSampler(userItems, popularity);
+
+		Random random = new Random(1L);
+		int[] counts = new int[NUM_ITEMS];
+		for (int sample = 0; sample < 4000; sample++) {
+			counts[sampler.sample(0, random)]++;
+		}
+		assertEquals(4000, counts[3] + counts[7]);
+		assertEquals(3.0, (double) counts[7] / counts[3], 0.3);
+
+		for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+			boolean hasNegative = !userItems.contains(userIdx, 3) || !userItems.contains(userIdx, 7);
+			assertEquals(hasNegative, sampler.hasNegative(userIdx));
+			if (hasNegative) {
+				assertFalse(userItems.contains(userIdx, sampler.sample(userIdx, random)));
+			}
+		}
+	}
+
+	/**
+	 * Test that the rank-aware sampler draws items which are not positive.
+	 */
+	@Test
+	public void testRankAwareNegativeSampler() {
+		IndexAdjacency userItems = trainMatrix.rowAdjacency();
+		DenseMatrix userFactors = new DenseMatrix(NUM_USERS, 4);
+		DenseMatrix itemFactors = new DenseMatrix(NUM_ITEMS, 4);
+		userFactors.init(1.0, 0.5);
+		itemFactors.init(1.0, 0.5);
+		RankAwareNegativeSampler sampler = new RankAwareNegativeSampler(userItems, userFactors, itemFactors, 5);
+		sampler.update();
+		assertFalse(sampler.hasNegative(0));
+		assertFalse(sampler.hasNegative(NUM_USERS - 1));
+
+		Random random = new Random(1L);
+		for (int userIdx = 1; userIdx < NUM_USERS - 1; userIdx++) {
+			assertTrue(sampler.hasNegative(userIdx));
+			for (int sample = 0; sample < 50; sample++) {
+				assertFalse(userItems.contains(userIdx, sampler.sample(userIdx, random)));
+			}
+		}
+	}
+
+	/**
+	 * Test that the samples are shared out among the threads and their losses summed.
+	 */
+	@Test
+	public void testSamplingEngine() throws LibrecException {
+		SamplingEngine.SampleUpdater updater = new SamplingEngine.SampleUpdater() {
+			@Override
+			public double update(Random random, double loss) {
+				return loss + 1;
+			}
+		};
+		assertEquals(1001.0, new SamplingEngine(1).run(1000, updater, 1.0), 0.0);
+		assertEquals(1001.0, new SamplingEngine(3).run(1000, updater, 1.0), 0.0);
+		assertEquals(3, new SamplingEngine(3).getNumThreads());
+	}
+}
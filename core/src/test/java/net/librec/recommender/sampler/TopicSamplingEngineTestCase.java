@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.sampler;
+
+import net.librec.BaseTestCase;
+import net.librec.math.algorithm.Randoms;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Topic Sampling Engine TestCase
+ * {@link net.librec.recommender.sampler.TopicSamplingEngine}
+ */
+public class TopicSamplingEngineTestCase extends BaseTestCase {
+
+	private static final int NUM_DOCS = 40, NUM_WORDS = 10, NUM_TOPICS = 2, DOC_LENGTH = 20;
+
+	private static final double BETA = 0.01;
+
+	/**
+	 * Word model of plain LDA.
+	 */
+	private static class CountModel implements TopicSamplingEngine.WordModel {
+		private final int[][] topicWordCounts = new int[NUM_TOPICS][NUM_WORDS];
+		private final int[] topicCounts = new int[NUM_TOPICS];
+
+		@Override
+		public double weight(int word, int topic, int removed) {
+			return (topicWordCounts[topic][word] - removed + BETA) / (topicCounts[topic] - removed + NUM_WORDS * BETA);
+		}
+
+		@Override
+		public void add(int word, int topic, int delta) {
+			topicWordCounts[topic][word] += delta;
+			topicCounts[topic] += delta;
+		}
+	}
+
+	/**
+	 * Test that the alias table draws the outcomes in proportion to their weights.
+	 */
+	@Test
+	public void testAliasTable() {
+		TopicSamplingEngine.AliasTable table = new TopicSamplingEngine.AliasTable(4);
+		table.build(new double[]{1.0, 2.0, 0.5, 4.5});
+		Random random = new Random(1L);
+		int[] counts = new int[4];
+		for (int sample = 0; sample < 80000; sample++) {
+			counts[table.sample(random)]++;
+		}
+		assertEquals(0.125, counts[0] / 80000.0, 0.01);
+		assertEquals(0.25, counts[1] / 80000.0, 0.01);
+		assertEquals(0.0625, counts[2] / 80000.0, 0.01);
+		assertEquals(0.5625, counts[3] / 80000.0, 0.01);
+	}
+
+	/**
+	 * Test that the sequential sampler keeps the counts consistent and separates two topics.
+	 */
+	@Test
+	public void testSequentialSweep() {
+		checkSweeps(1, 0);
+		checkSweeps(1, 2);
+	}
+
+	/**
+	 * Test that the parallel sampler keeps the counts consistent and separates two topics.
+	 */
+	@Test
+	public void testParallelSweep() {
+		checkSweeps(3, 0);
+		checkSweeps(3, 2);
+	}
+
+	/**
+	 * Test that the exact sampler draws a token from its full conditional, leaving the token out of
+	 * the word counts on one thread as well as against the word counts of the previous sweep.
+	 */
+	@Test
+	public void testFullConditional() {
+		// document 0 has one token of word 0, in topic 0, document 1 has tokens of word 1 in topic 1
+		int[] docPtr = {0, 1, 11};
+		int[] words = {0, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1};
+		double[] alpha = {0.5, 0.5};
+		// n_0 = 0 and n_1 = 10 without the token, and word 0 has no other token
+		double weight0 = alpha[0] * BETA / (NUM_WORDS * BETA);
+		double weight1 = alpha[1] * BETA / (10 + NUM_WORDS * BETA);
+		double expected = weight0 / (weight0 + weight1);
+		for (int numThreads : new int[]{1, 2}) {
+			Randoms.seed(7L);
+			int numTrials = 4000, numTopic0 = 0;
+			for (int trial = 0; trial < numTrials; trial++) {
+				int[] topics = {0, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1};
+				TopicSamplingEngine engine = new TopicSamplingEngine(docPtr, words, topics, NUM_TOPICS, NUM_WORDS,
+						new CountModel(), numThreads, 0);
+				engine.sweep(alpha);
+				if (engine.getTopic(0) == 0) {
+					numTopic0++;
+				}
+			}
+			assertEquals(expected, numTopic0 / (double) numTrials, 0.03);
+		}
+	}
+
+	private void checkSweeps(int numThreads, int numSteps) {
+		Randoms.seed(1L);
+		// the first half of the documents uses the first half of the words
+		int[] docPtr = new int[NUM_DOCS + 1];
+		int[] words = new int[NUM_DOCS * DOC_LENGTH];
+		int[] topics = new int[words.length];
+		for (int docIdx = 0; docIdx < NUM_DOCS; docIdx++) {
+			docPtr[docIdx + 1] = docPtr[docIdx] + DOC_LENGTH;
+			for (int token = docPtr[docIdx]; token < docPtr[docIdx + 1]; token++) {
+				words[token] = (docIdx < NUM_DOCS / 2 ? 0 : NUM_WORDS / 2) + token % (NUM_WORDS / 2);
+				topics[token] = Randoms.uniform(NUM_TOPICS);
+			}
+		}
+		CountModel model = new CountModel();
+		TopicSamplingEngine engine = new TopicSamplingEngine(docPtr, words, topics, NUM_TOPICS, NUM_WORDS, model,
+				numThreads, numSteps);
+		double[] alpha = {0.1, 0.1};
+		for (int sweep = 0; sweep < 50; sweep++) {
+			engine.sweep(alpha);
+		}
+
+		int[][] topicWordCounts = new int[NUM_TOPICS][NUM_WORDS];
+		for (int docIdx = 0; docIdx < NUM_DOCS; docIdx++) {
+			assertEquals(DOC_LENGTH, engine.getDocCount(docIdx));
+			int[] docTopicCounts = new int[NUM_TOPICS];
+			for (int token = docPtr[docIdx]; token < docPtr[docIdx + 1]; token++) {
+				docTopicCounts[engine.getTopic(token)]++;
+				topicWordCounts[engine.getTopic(token)][words[token]]++;
+			}
+			for (int topicIdx = 0; topicIdx < NUM_TOPICS; topicIdx++) {
+				assertEquals(docTopicCounts[topicIdx], engine.getDocTopicCount(docIdx, topicIdx));
+			}
+		}
+		for (int topicIdx = 0; topicIdx < NUM_TOPICS; topicIdx++) {
+			for (int wordIdx = 0; wordIdx < NUM_WORDS; wordIdx++) {
+				assertEquals(topicWordCounts[topicIdx][wordIdx], model.topicWordCounts[topicIdx][wordIdx]);
+			}
+		}
+
+		// each half of the words is mostly assigned to one topic
+		for (int wordIdx = 0; wordIdx < NUM_WORDS; wordIdx++) {
+			int major = Math.max(topicWordCounts[0][wordIdx], topicWordCounts[1][wordIdx]);
+			assertTrue(major >= 0.9 * (topicWordCounts[0][wordIdx] + topicWordCounts[1][wordIdx]));
+			int firstMajor = topicWordCounts[0][0] > topicWordCounts[1][0] ? 0 : 1;
+			int wordMajor = topicWordCounts[0][wordIdx] > topicWordCounts[1][wordIdx] ? 0 : 1;
+			assertEquals(wordIdx < NUM_WORDS / 2, firstMajor == wordMajor);
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.similarity;
+
+import net.librec.BaseTestCase;
+import net.librec.conf.Configuration.Resource;
+import net.librec.data.DataModel;
+import net.librec.data.model.TextDataModel;
+import net.librec.math.structure.SparseMatrix;
+import net.librec.math.structure.SparseMatrixBuilder;
+import net.librec.math.structure.SparseSymmMatrix;
+import net.librec.math.structure.SymmMatrix;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Similarity Engine TestCase
+ * {@link net.librec.similarity.SimilarityEngine}
+ */
+public class SimilarityEngineTestCase extends BaseTestCase {
+
+	private static final int NUM_USERS = 40;
+
+	private static final int NUM_ITEMS = 25;
+
+	/**
+	 * Build a rating matrix with a few users and items having a single rating.
+	 */
+	private SparseMatrix buildMatrix() {
+		Random random = new Random(7);
+		SparseMatrixBuilder builder = new SparseMatrixBuilder(NUM_USERS, NUM_ITEMS);
+		for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+			if (userIdx % 13 == 0) {
+				builder.add(userIdx, userIdx % NUM_ITEMS, 1 + random.nextInt(5));
+				continue;
+			}
+			for (int itemIdx = 0; itemIdx < NUM_ITEMS; itemIdx++) {
+				if (random.nextDouble() < 0.4) {
+					builder.add(userIdx, itemIdx, 1 + random.nextInt(5));
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	private AbstractRecommenderSimilarity[] measures() {
+		return new AbstractRecommenderSimilarity[]{new CosineSimilarity(), new PCCSimilarity(),
+				new CPCSimilarity(), new DiceCoefficientSimilarity(), new ExJaccardSimilarity(),
+				new JaccardSimilarity(), new KRCCSimilarity(), new MSDSimilarity(), new MSESimilarity()};
+	}
+
+	private SimilarityEngine userEngine(AbstractRecommenderSimilarity similarity, SparseMatrix matrix,
+										int numThreads, int topK) {
+		return new SimilarityEngine(similarity, matrix.rowPtr, matrix.colInd, matrix.rowData,
+				matrix.colPtr, matrix.rowInd, numThreads, topK, Double.NEGATIVE_INFINITY);
+	}
+
+	/**
+	 * The similarity of a pair computed by the per-pair kernel, NaN if the pair shares no index.
+	 */
+	private double kernel(AbstractRecommenderSimilarity similarity, SparseMatrix matrix, int thisIdx, int thatIdx) {
+		boolean common = false;
+		for (int itemIdx : matrix.getColumns(thisIdx)) {
+			common |= matrix.contains(thatIdx, itemIdx);
+		}
+		return common ? similarity.getCorrelation(matrix.row(thisIdx), matrix.row(thatIdx)) : Double.NaN;
+	}
+
+	/**
+	 * Test that the matrix of the engine holds the per-pair similarities rounded to float.
+	 */
+	@Test
+	public void testMatrixEqualsKernels() {
+		SparseMatrix matrix = buildMatrix();
+		for (int shrinkage : new int[]{0, 5}) {
+			conf.setInt("rec.similarity.shrinkage", shrinkage);
+			for (AbstractRecommenderSimilarity similarity : measures()) {
+				similarity.conf = conf;
+				for (int numThreads : new int[]{1, 3}) {
+					SymmMatrix similarityMatrix = userEngine(similarity, matrix, numThreads, 0).build();
+					for (int thisIdx = 0; thisIdx < NUM_USERS; thisIdx++) {
+						assertEquals(0.0, similarityMatrix.get(thisIdx, thisIdx), 0.0);
+						for (int thatIdx = thisIdx + 1; thatIdx < NUM_USERS; thatIdx++) {
+							double sim = kernel(similarity, matrix, thisIdx, thatIdx);
+							double expected = Double.isNaN(sim) ? 0.0 : (float) sim;
+							assertEquals(similarity.getClass().getSimpleName() + " (" + thisIdx + ", " + thatIdx + ")",
+									expected, similarityMatrix.get(thisIdx, thatIdx), 0.0);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test that the neighbors kept by the engine hold the exact nonzero per-pair similarities.
+	 */
+	@Test
+	public void testNeighborsEqualKernels() {
+		SparseMatrix matrix = buildMatrix();
+		conf.setInt("rec.similarity.shrinkage", 0);
+		for (AbstractRecommenderSimilarity similarity : measures()) {
+			similarity.conf = conf;
+			SimilarityEngine engine = userEngine(similarity, matrix, 2, NUM_USERS);
+			engine.build();
+			SimilarityNeighbors neighbors = engine.getNeighbors();
+			for (int thisIdx = 0; thisIdx < NUM_USERS; thisIdx++) {
+				int numExpected = 0;
+				for (int thatIdx = 0; thatIdx < NUM_USERS; thatIdx++) {
+					double sim = kernel(similarity, matrix, thisIdx, thatIdx);
+					if (thatIdx != thisIdx && !Double.isNaN(sim) && sim != 0.0) {
+						numExpected++;
+					}
+				}
+				assertEquals(numExpected, neighbors.size(thisIdx));
+				int[] indices = neighbors.getNeighbors(thisIdx);
+				double[] similarities = neighbors.getSimilarities(thisIdx);
+				for (int position = 0; position < indices.length; position++) {
+					assertTrue(indices[position] != thisIdx);
+					assertEquals(kernel(similarity, matrix, thisIdx, indices[position]), similarities[position], 0.0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test that rec.similarity.topk and rec.similarity.threshold keep the most similar
+	 * neighbors above the threshold, and the matrix holds the union of the kept pairs.
+	 */
+	@Test
+	public void testTopKAndThreshold() throws Exception {
+		conf.addResource(new Resource("rec/cf/userknn-test.properties"));
+		conf.setInt("rec.similarity.topk", 10);
+		conf.set("rec.similarity.threshold", "0.2");
+		DataModel dataModel = new TextDataModel(conf);
+		dataModel.buildDataModel();
+		SparseMatrix trainMatrix = dataModel.getDataSplitter().getTrainData();
+		int numUsers = trainMatrix.numRows();
+
+		PCCSimilarity similarity = new PCCSimilarity();
+		similarity.buildSimilarityMatrix(dataModel);
+		SymmMatrix similarityMatrix = similarity.getSimilarityMatrix();
+		SimilarityNeighbors neighbors = similarity.getNeighbors();
+
+		SimilarityEngine engine = userEngine(similarity, trainMatrix, 1, numUsers);
+		engine.build();
+		SimilarityNeighbors allNeighbors = engine.getNeighbors();
+
+		boolean[][] kept = new boolean[numUsers][numUsers];
+		for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+			int[] allIndices = allNeighbors.getNeighbors(userIdx);
+			double[] allSimilarities = allNeighbors.getSimilarities(userIdx);
+			int size = 0;
+			while (size < allIndices.length && size < 10 && allSimilarities[size] >= 0.2) {
+				size++;
+			}
+			int[] expectedIndices = new int[size];
+			double[] expectedSimilarities = new double[size];
+			System.arraycopy(allIndices, 0, expectedIndices, 0, size);
+			System.arraycopy(allSimilarities, 0, expectedSimilarities, 0, size);
+			assertArrayEquals(expectedIndices, neighbors.getNeighbors(userIdx));
+			assertArrayEquals(expectedSimilarities, neighbors.getSimilarities(userIdx), 0.0);
+			for (int neighborIdx : expectedIndices) {
+				kept[userIdx][neighborIdx] = true;
+				kept[neighborIdx][userIdx] = true;
+			}
+		}
+		for (int thisIdx = 0; thisIdx < numUsers; thisIdx++) {
+			for (int thatIdx = 0; thatIdx < numUsers; thatIdx++) {
+				double expected = kept[thisIdx][thatIdx]
+						? (float) similarity.getCorrelation(trainMatrix.row(thisIdx), trainMatrix.row(thatIdx)) : 0.0;
+				assertEquals(expected, similarityMatrix.get(thisIdx, thatIdx), 0.0);
+			}
+		}
+	}
+
+	/**
+	 * Test that zero similarities are left out of the matrix without topK, as they are with it.
+	 */
+	@Test
+	public void testZeroSimilarities() {
+		int numUsers = 200;
+		double[][] ratings = {{1, 3, 1, 3}, {1, 1, 3, 3}, {1, 3, 1, 3}};
+		SparseMatrixBuilder builder = new SparseMatrixBuilder(numUsers, ratings[0].length);
+		for (int userIdx = 0; userIdx < ratings.length; userIdx++) {
+			for (int itemIdx = 0; itemIdx < ratings[userIdx].length; itemIdx++) {
+				builder.add(userIdx, itemIdx, ratings[userIdx][itemIdx]);
+			}
+		}
+		SparseMatrix matrix = builder.build();
+		PCCSimilarity similarity = new PCCSimilarity();
+		conf.setInt("rec.similarity.shrinkage", 0);
+		similarity.conf = conf;
+		assertEquals(0.0, similarity.getCorrelation(matrix.row(0), matrix.row(1)), 0.0);
+
+		for (int topK : new int[]{0, numUsers}) {
+			SymmMatrix similarityMatrix = userEngine(similarity, matrix, 1, topK).build();
+			assertTrue(similarityMatrix instanceof SparseSymmMatrix);
+			assertEquals(1, ((SparseSymmMatrix) similarityMatrix).rowSize(0));
+			assertEquals(0, ((SparseSymmMatrix) similarityMatrix).rowSize(1));
+			assertEquals(1.0, similarityMatrix.get(0, 2), 1e-6);
+		}
+	}
+
+	/**
+	 * Test the Jaccard similarity against the sizes of the index sets.
+	 */
+	@Test
+	public void testJaccard() {
+		SparseMatrix matrix = buildMatrix();
+		JaccardSimilarity similarity = new JaccardSimilarity();
+		for (int thisIdx = 0; thisIdx < NUM_USERS; thisIdx++) {
+			for (int thatIdx = 0; thatIdx < NUM_USERS; thatIdx++) {
+				int numCommon = 0;
+				for (int itemIdx : matrix.getColumns(thisIdx)) {
+					if (matrix.contains(thatIdx, itemIdx)) {
+						numCommon++;
+					}
+				}
+				int numAll = matrix.getColumns(thisIdx).size() + matrix.getColumns(thatIdx).size() - numCommon;
+				assertEquals((numCommon + 0.0) / numAll,
+						similarity.getCorrelation(matrix.row(thisIdx), matrix.row(thatIdx)), 0.0);
+			}
+		}
+	}
+}
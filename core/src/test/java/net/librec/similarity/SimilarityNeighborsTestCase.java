@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.similarity;
+
+import net.librec.BaseTestCase;
+import net.librec.data.DataModel;
+import net.librec.math.structure.SymmMatrix;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Similarity Neighbors TestCase
+ * {@link net.librec.similarity.SimilarityNeighbors}
+ */
+public class SimilarityNeighborsTestCase extends BaseTestCase {
+
+	private static SymmMatrix buildMatrix() {
+		SymmMatrix similarityMatrix = new SymmMatrix(5);
+		similarityMatrix.set(0, 1, 0.5);
+		similarityMatrix.set(0, 2, 0.75);
+		similarityMatrix.set(0, 3, 0.5);
+		similarityMatrix.set(1, 3, -0.25);
+		similarityMatrix.set(2, 3, 0.5);
+		return similarityMatrix;
+	}
+
+	/**
+	 * Test that the neighbors are sorted by similarity in descending order, ties broken by the smaller index.
+	 */
+	@Test
+	public void testOrdering() {
+		SimilarityNeighbors neighbors = SimilarityNeighbors.of(buildMatrix());
+		assertEquals(5, neighbors.numRows());
+
+		assertArrayEquals(new int[]{2, 1, 3}, neighbors.getNeighbors(0));
+		assertArrayEquals(new double[]{0.75, 0.5, 0.5}, neighbors.getSimilarities(0), 0.0);
+		assertArrayEquals(new int[]{0, 3}, neighbors.getNeighbors(1));
+		assertArrayEquals(new double[]{0.5, -0.25}, neighbors.getSimilarities(1), 0.0);
+		assertArrayEquals(new int[]{0, 2, 1}, neighbors.getNeighbors(3));
+		assertArrayEquals(new double[]{0.5, 0.5, -0.25}, neighbors.getSimilarities(3), 0.0);
+		assertEquals(0, neighbors.size(4));
+	}
+
+	/**
+	 * Test the neighbors of a similarity not extending {@link AbstractRecommenderSimilarity}.
+	 */
+	@Test
+	public void testNeighborsOf() {
+		RecommenderSimilarity similarity = new RecommenderSimilarity() {
+			private SymmMatrix similarityMatrix;
+
+			@Override
+			public void buildSimilarityMatrix(DataModel dataModel) {
+				similarityMatrix = buildMatrix();
+			}
+
+			@Override
+			public SymmMatrix getSimilarityMatrix() {
+				return similarityMatrix;
+			}
+		};
+		assertNull(AbstractRecommenderSimilarity.neighborsOf(similarity));
+
+		similarity.buildSimilarityMatrix(null);
+		SimilarityNeighbors neighbors = AbstractRecommenderSimilarity.neighborsOf(similarity);
+		assertArrayEquals(new int[]{2, 1, 3}, neighbors.getNeighbors(0));
+		assertArrayEquals(new int[]{0, 3}, neighbors.getNeighbors(2));
+
+		AbstractRecommenderSimilarity cosine = new CosineSimilarity();
+		assertNull(AbstractRecommenderSimilarity.neighborsOf(cosine));
+		cosine.similarityMatrix = buildMatrix();
+		SimilarityNeighbors cached = AbstractRecommenderSimilarity.neighborsOf(cosine);
+		assertArrayEquals(new int[]{0, 2, 1}, cached.getNeighbors(3));
+		assertSame(cached, AbstractRecommenderSimilarity.neighborsOf(cosine));
+	}
+}